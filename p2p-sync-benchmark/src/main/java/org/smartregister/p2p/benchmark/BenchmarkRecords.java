@@ -0,0 +1,54 @@
+package org.smartregister.p2p.benchmark;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+
+import java.util.Random;
+
+/**
+ * Generates records shaped like the ones the sample app sends. The names are a few bytes each and
+ * sent 500 at a time while each personal details record is about 100 KB and sent 5 at a time.
+ */
+
+class BenchmarkRecords {
+
+    static final String NAMES = "names";
+    static final String PERSONAL_DETAILS = "personal-details";
+
+    private static final char[] SYMBOLS = "ABCEFGHJKLMNPQRUVWXYabcdefhijkprstuvwx".toCharArray();
+
+    // A fixed seed keeps the records the same between runs
+    private static final Random RANDOM = new Random(42);
+
+    private BenchmarkRecords() {
+    }
+
+    @NonNull
+    static JSONArray createBatch(@NonNull String dataType) {
+        JSONArray jsonArray = new JSONArray();
+
+        if (NAMES.equals(dataType)) {
+            for (int i = 0; i < 500; i++) {
+                jsonArray.put(generateRandomString(12));
+            }
+        } else {
+            for (int i = 0; i < 5; i++) {
+                jsonArray.put(generateRandomString(100000));
+            }
+        }
+
+        return jsonArray;
+    }
+
+    @NonNull
+    static String generateRandomString(int length) {
+        char[] buf = new char[length];
+
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = SYMBOLS[RANDOM.nextInt(SYMBOLS.length)];
+        }
+
+        return new String(buf);
+    }
+}
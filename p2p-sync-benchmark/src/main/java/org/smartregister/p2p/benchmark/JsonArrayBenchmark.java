@@ -0,0 +1,95 @@
+package org.smartregister.p2p.benchmark;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.smartregister.p2p.util.SyncDataStreamUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building, serializing and parsing a batch of records. The sender builds a batch and
+ * writes it while the receiver parses it either from a {@link String} or straight from the stream.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonArrayBenchmark {
+
+    @Param({BenchmarkRecords.NAMES, BenchmarkRecords.PERSONAL_DETAILS})
+    public String dataType;
+
+    private List<String> records;
+    private JSONArray batch;
+    private String serializedBatch;
+    private byte[] serializedBatchBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        batch = BenchmarkRecords.createBatch(dataType);
+        serializedBatch = batch.toString();
+        serializedBatchBytes = serializedBatch.getBytes("UTF-8");
+
+        records = new ArrayList<>();
+        for (int i = 0; i < batch.length(); i++) {
+            records.add(batch.getString(i));
+        }
+    }
+
+    @Benchmark
+    public JSONArray buildBatch() {
+        JSONArray jsonArray = new JSONArray();
+        for (String record : records) {
+            jsonArray.put(record);
+        }
+
+        return jsonArray;
+    }
+
+    @Benchmark
+    public String batchToString() {
+        return batch.toString();
+    }
+
+    @Benchmark
+    public long writeBatch() throws IOException {
+        return SyncDataStreamUtil.writeJsonArray(batch, new ByteArrayOutputStream(serializedBatchBytes.length));
+    }
+
+    @Benchmark
+    public JSONArray parseBatch() {
+        return new JSONArray(serializedBatch);
+    }
+
+    @Benchmark
+    public int readBatchInBatches(@NonNull final Blackhole blackhole) throws Exception {
+        return SyncDataStreamUtil.readJsonArrayInBatches(new ByteArrayInputStream(serializedBatchBytes), 500
+                , new SyncDataStreamUtil.OnJsonBatchReadListener() {
+                    @Override
+                    public void onJsonBatchRead(@NonNull JSONArray records) {
+                        blackhole.consume(records);
+                    }
+                });
+    }
+}
@@ -0,0 +1,47 @@
+package org.smartregister.p2p.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.smartregister.p2p.util.SyncDataStreamUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading a received payload into a {@link String}. {@code SyncDataConverterUtil} inherits
+ * {@link SyncDataStreamUtil#readInputStreamAsString(java.io.InputStream)}.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadInputStreamBenchmark {
+
+    @Param({"1024", "102400", "512000"})
+    public int payloadSize;
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        payload = BenchmarkRecords.generateRandomString(payloadSize).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public String readInputStreamAsString() throws IOException {
+        return SyncDataStreamUtil.readInputStreamAsString(new ByteArrayInputStream(payload));
+    }
+}
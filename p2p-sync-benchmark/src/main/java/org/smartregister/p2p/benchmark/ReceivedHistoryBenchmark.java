@@ -0,0 +1,99 @@
+package org.smartregister.p2p.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.smartregister.p2p.model.P2pReceivedHistory;
+import org.smartregister.p2p.util.HistoryWatermarkCodec;
+import org.smartregister.p2p.util.RecordIdRangeSet;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the received history exchanged at the start of a sync, both as the Gson encoded list of
+ * {@link P2pReceivedHistory} and as the history watermarks
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReceivedHistoryBenchmark {
+
+    @Param({"3", "30"})
+    public int dataTypeCount;
+
+    private Gson gson = new Gson();
+    private Type receivedHistoryListType = new TypeToken<ArrayList<P2pReceivedHistory>>() {}.getType();
+    private List<String> dataTypeNames;
+    private List<P2pReceivedHistory> receivedHistory;
+    private String receivedHistoryJson;
+    private byte[] historyWatermarks;
+
+    @Setup
+    public void setUp() throws IOException {
+        dataTypeNames = new ArrayList<>();
+        receivedHistory = new ArrayList<>();
+
+        for (int i = 0; i < dataTypeCount; i++) {
+            String dataTypeName = "data-type-" + i;
+            long lastRecordId = 250000L + i * 1000L;
+
+            // Every other data type has received batches above a gap
+            RecordIdRangeSet recordIdRangeSet = new RecordIdRangeSet(lastRecordId);
+            if (i % 2 == 0) {
+                recordIdRangeSet.add(lastRecordId + 500, lastRecordId + 1000);
+                recordIdRangeSet.add(lastRecordId + 1500, lastRecordId + 2000);
+            }
+
+            P2pReceivedHistory dataTypeHistory = new P2pReceivedHistory();
+            dataTypeHistory.setSendingDeviceId("c9a7e0a2-0f5e-4c3b-9a55-0d7c2f1b8e31");
+            dataTypeHistory.setEntityType(dataTypeName);
+            dataTypeHistory.setLastRecordId(recordIdRangeSet.getLastRecordId());
+            dataTypeHistory.setReceivedRanges(recordIdRangeSet.toBytes());
+
+            dataTypeNames.add(dataTypeName);
+            receivedHistory.add(dataTypeHistory);
+        }
+
+        receivedHistoryJson = gson.toJson(receivedHistory);
+        historyWatermarks = encodeWatermarks();
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return gson.toJson(receivedHistory);
+    }
+
+    @Benchmark
+    public List<P2pReceivedHistory> decodeJson() {
+        return gson.fromJson(receivedHistoryJson, receivedHistoryListType);
+    }
+
+    @Benchmark
+    public byte[] encodeWatermarks() throws IOException {
+        return HistoryWatermarkCodec.write(HistoryWatermarkCodec.toWatermarks(receivedHistory, dataTypeNames));
+    }
+
+    @Benchmark
+    public List<P2pReceivedHistory> decodeWatermarks() throws IOException {
+        return HistoryWatermarkCodec.toReceivedHistory(HistoryWatermarkCodec.read(historyWatermarks), dataTypeNames);
+    }
+}
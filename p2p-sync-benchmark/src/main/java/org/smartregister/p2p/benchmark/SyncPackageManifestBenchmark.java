@@ -0,0 +1,59 @@
+package org.smartregister.p2p.benchmark;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.model.TransferHints;
+import org.smartregister.p2p.sync.data.SyncPackageManifest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Gson encoding and decoding of the manifest sent before every batch
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SyncPackageManifestBenchmark {
+
+    private Gson gson = new Gson();
+    private SyncPackageManifest syncPackageManifest;
+    private String manifestJson;
+
+    @Setup
+    public void setUp() {
+        TransferHints transferHints = new TransferHints();
+        transferHints.setMaxBatchSize(5);
+
+        DataType dataType = new DataType(BenchmarkRecords.PERSONAL_DETAILS, DataType.Type.NON_MEDIA, 1, transferHints);
+        syncPackageManifest = new SyncPackageManifest(8735621L, "json", dataType, 5);
+        syncPackageManifest.setPayloadSize(500012);
+        syncPackageManifest.setRecordIdRange(195, 200);
+
+        manifestJson = gson.toJson(syncPackageManifest);
+    }
+
+    @Benchmark
+    public String encodeManifest() {
+        return gson.toJson(syncPackageManifest);
+    }
+
+    @Benchmark
+    public SyncPackageManifest decodeManifest() {
+        return gson.fromJson(manifestJson, SyncPackageManifest.class);
+    }
+}
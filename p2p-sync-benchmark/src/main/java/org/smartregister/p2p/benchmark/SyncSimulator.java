@@ -0,0 +1,506 @@
+package org.smartregister.p2p.benchmark;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.smartregister.p2p.callback.OnResultCallback;
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.model.dao.ReceiverTransferDao;
+import org.smartregister.p2p.model.dao.SenderTransferDao;
+import org.smartregister.p2p.sync.data.JsonData;
+import org.smartregister.p2p.sync.data.MultiMediaData;
+import org.smartregister.p2p.sync.engine.BaseSyncEngine;
+import org.smartregister.p2p.sync.engine.SyncReceiverEngine;
+import org.smartregister.p2p.sync.engine.SyncSenderEngine;
+import org.smartregister.p2p.transport.LoopbackNetwork;
+import org.smartregister.p2p.transport.NetworkConditions;
+import org.smartregister.p2p.transport.SimulatedTransport;
+import org.smartregister.p2p.transport.Transport;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs whole syncs between the sync engines over {@link SimulatedTransport}s so that batching and
+ * retries can be tuned under repeatable network conditions. When the connection is lost the sender
+ * reconnects after a delay and the sync resumes from the history the receiver has saved.
+ * Run it with {@code ./gradlew :p2p-sync-benchmark:simulate}, optionally passing a single
+ * scenario eg. {@code -Psimulation="--bandwidth=250000 --latency=40 --failureRate=0.05"}.
+ */
+
+public class SyncSimulator {
+
+    private static final String SERVICE_ID = "org.smartregister.p2p.simulator";
+    private static final int MAX_SESSIONS = 100;
+
+    private final NetworkConditions networkConditions;
+    private final DataType dataType = new DataType("event", DataType.Type.NON_MEDIA, 0);
+    private int recordCount = 5000;
+    private int recordSize = 1000;
+    private int batchSize = 100;
+    private int sendMaxRetries = BaseSyncEngine.DEFAULT_SEND_MAX_RETRIES;
+    private long reconnectDelay = 1000;
+
+    private volatile Transport.ConnectionCallback currentReceiverCallback;
+    private long disconnectTime;
+    private final List<Long> recoveryTimes = new ArrayList<>();
+
+    public SyncSimulator(@NonNull NetworkConditions networkConditions) {
+        this.networkConditions = networkConditions;
+    }
+
+    public void setRecordCount(int recordCount) {
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Sets the approximate size of each record in bytes
+     *
+     * @param recordSize
+     */
+    public void setRecordSize(int recordSize) {
+        this.recordSize = recordSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setSendMaxRetries(int sendMaxRetries) {
+        this.sendMaxRetries = sendMaxRetries;
+    }
+
+    /**
+     * Sets the milliseconds the sender waits before reconnecting after the connection is lost
+     *
+     * @param reconnectDelay
+     */
+    public void setReconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    @NonNull
+    public Report run() throws Exception {
+        LoopbackNetwork network = new LoopbackNetwork();
+        SimulatedTransport receiverTransport = new SimulatedTransport(network, networkConditions);
+        SimulatedTransport senderTransport = new SimulatedTransport(network, networkConditions);
+        ExecutorService senderExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService receiverExecutor = Executors.newSingleThreadExecutor();
+        SimulatorReceiverDao receiverDao = new SimulatorReceiverDao();
+
+        Report report = new Report();
+        HashMap<String, Long> receivedHistory = new HashMap<>();
+        long startTime = System.nanoTime();
+
+        try {
+            Session session = null;
+            for (int i = 0; i < MAX_SESSIONS; i++) {
+                session = new Session(senderTransport, receiverTransport, senderExecutor, receiverExecutor
+                        , receiverDao, receivedHistory, i == 0);
+                session.start();
+                session.await();
+
+                report.retries += session.syncSenderEngine.getRetryCount() + session.syncReceiverEngine.getRetryCount();
+                if (!session.disconnected) {
+                    break;
+                }
+
+                // Wait for the batches already handed over to be saved before reading the history
+                receiverExecutor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        return null;
+                    }
+                }).get();
+                receivedHistory = session.syncReceiverEngine.getReceivedHistory();
+
+                Thread.sleep(reconnectDelay);
+            }
+
+            report.failure = session != null ? session.failure : null;
+        } finally {
+            receiverTransport.stopAllEndpoints();
+            senderTransport.stopAllEndpoints();
+            senderExecutor.shutdownNow();
+            receiverExecutor.shutdownNow();
+        }
+
+        report.duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        report.records = receiverDao.receivedRecords;
+        report.bytes = senderTransport.getBytesSent() + receiverTransport.getBytesSent();
+        report.failedPayloads = senderTransport.getFailedPayloads() + receiverTransport.getFailedPayloads();
+        report.disconnects = senderTransport.getDisconnects() + receiverTransport.getDisconnects();
+        report.recoveryTimes = new ArrayList<>(recoveryTimes);
+
+        return report;
+    }
+
+    private synchronized void onDisconnected() {
+        if (disconnectTime == 0) {
+            disconnectTime = System.nanoTime();
+        }
+    }
+
+    private synchronized void onRecordsReceived() {
+        if (disconnectTime != 0) {
+            recoveryTimes.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectTime));
+            disconnectTime = 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LinkedHashMap<String, String[]> scenarios = new LinkedHashMap<>();
+        if (args.length > 0) {
+            scenarios.put("custom", args);
+        } else {
+            scenarios.put("unlimited", new String[0]);
+            scenarios.put("wifi-direct", new String[]{"--bandwidth=2500000", "--latency=10", "--jitter=5"});
+            scenarios.put("bluetooth", new String[]{"--bandwidth=150000", "--latency=40", "--jitter=20"});
+            scenarios.put("lossy", new String[]{"--bandwidth=2500000", "--latency=10", "--jitter=5", "--failureRate=0.05"});
+            scenarios.put("flaky", new String[]{"--bandwidth=2500000", "--latency=10", "--jitter=5", "--failureRate=0.02"
+                    , "--disconnectRate=0.02"});
+        }
+
+        for (Map.Entry<String, String[]> scenario : scenarios.entrySet()) {
+            SyncSimulator syncSimulator = create(scenario.getValue());
+            System.out.println(String.format("%-12s %s", scenario.getKey(), syncSimulator.run()));
+        }
+    }
+
+    @NonNull
+    private static SyncSimulator create(@NonNull String[] args) {
+        NetworkConditions networkConditions = new NetworkConditions();
+        SyncSimulator syncSimulator = new SyncSimulator(networkConditions);
+
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+
+            String value = option[1];
+            switch (option[0]) {
+                case "records":
+                    syncSimulator.setRecordCount(Integer.parseInt(value));
+                    break;
+                case "recordSize":
+                    syncSimulator.setRecordSize(Integer.parseInt(value));
+                    break;
+                case "batchSize":
+                    syncSimulator.setBatchSize(Integer.parseInt(value));
+                    break;
+                case "retries":
+                    syncSimulator.setSendMaxRetries(Integer.parseInt(value));
+                    break;
+                case "reconnectDelay":
+                    syncSimulator.setReconnectDelay(Long.parseLong(value));
+                    break;
+                case "bandwidth":
+                    networkConditions.setBandwidth(Long.parseLong(value));
+                    break;
+                case "latency":
+                    networkConditions.setLatency(Long.parseLong(value));
+                    break;
+                case "jitter":
+                    networkConditions.setJitter(Long.parseLong(value));
+                    break;
+                case "failureRate":
+                    networkConditions.setPayloadFailureRate(Double.parseDouble(value));
+                    break;
+                case "disconnectRate":
+                    networkConditions.setDisconnectRate(Double.parseDouble(value));
+                    break;
+                case "seed":
+                    networkConditions.setSeed(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+
+        return syncSimulator;
+    }
+
+    public static class Report {
+
+        private int records;
+        private long bytes;
+        private long duration;
+        private int retries;
+        private int failedPayloads;
+        private int disconnects;
+        private List<Long> recoveryTimes;
+        private Exception failure;
+
+        public int getRecords() {
+            return records;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the milliseconds from the first connection until the sync completed or failed
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+
+        public int getFailedPayloads() {
+            return failedPayloads;
+        }
+
+        public int getDisconnects() {
+            return disconnects;
+        }
+
+        /**
+         * @return the milliseconds from each lost connection until records were received again
+         */
+        @NonNull
+        public List<Long> getRecoveryTimes() {
+            return recoveryTimes;
+        }
+
+        @Nullable
+        public Exception getFailure() {
+            return failure;
+        }
+
+        public double getRecordsPerSecond() {
+            return duration > 0 ? records * 1000d / duration : 0;
+        }
+
+        public double getBytesPerSecond() {
+            return duration > 0 ? bytes * 1000d / duration : 0;
+        }
+
+        @Override
+        public String toString() {
+            long maxRecoveryTime = 0;
+            long totalRecoveryTime = 0;
+            for (long recoveryTime : recoveryTimes) {
+                maxRecoveryTime = Math.max(maxRecoveryTime, recoveryTime);
+                totalRecoveryTime += recoveryTime;
+            }
+
+            return String.format("%7d records %9.0f records/s %11.0f bytes/s %5d retries %5d failed payloads"
+                            + " %3d disconnects %6d ms avg recovery %6d ms max recovery%s"
+                    , records, getRecordsPerSecond(), getBytesPerSecond(), retries, failedPayloads, disconnects
+                    , recoveryTimes.isEmpty() ? 0 : totalRecoveryTime / recoveryTimes.size(), maxRecoveryTime
+                    , failure != null ? " FAILED: " + failure.getMessage() : "");
+        }
+    }
+
+    private class Session implements BaseSyncEngine.Callback {
+
+        private final SimulatedTransport senderTransport;
+        private final SimulatedTransport receiverTransport;
+        private final SyncSenderEngine syncSenderEngine;
+        private final SyncReceiverEngine syncReceiverEngine;
+        private final boolean advertise;
+        private final CountDownLatch finishedLatch = new CountDownLatch(2);
+
+        private volatile boolean disconnected;
+        private volatile Exception failure;
+
+        private Session(@NonNull SimulatedTransport senderTransport, @NonNull SimulatedTransport receiverTransport
+                , @NonNull ExecutorService senderExecutor, @NonNull ExecutorService receiverExecutor
+                , @NonNull SimulatorReceiverDao receiverDao, @NonNull Map<String, Long> receivedHistory
+                , boolean advertise) {
+            this.senderTransport = senderTransport;
+            this.receiverTransport = receiverTransport;
+            this.advertise = advertise;
+
+            TreeSet<DataType> dataTypes = new TreeSet<>();
+            dataTypes.add(dataType);
+
+            syncReceiverEngine = new SyncReceiverEngine(receiverTransport, senderTransport.getEndpointId()
+                    , receiverDao, receivedHistory, receiverExecutor, this);
+            syncSenderEngine = new SyncSenderEngine(senderTransport, receiverTransport.getEndpointId()
+                    , new SimulatorSenderDao(), dataTypes, batchSize, senderExecutor, this);
+            syncReceiverEngine.setSendMaxRetries(sendMaxRetries);
+            syncSenderEngine.setSendMaxRetries(sendMaxRetries);
+        }
+
+        private void start() {
+            SessionConnectionCallback receiverCallback = new SessionConnectionCallback(receiverTransport, syncReceiverEngine);
+            if (advertise) {
+                receiverTransport.startAdvertising("receiver", SERVICE_ID, new Transport.ConnectionCallback() {
+                    @Override
+                    public void onConnectionInitiated(@NonNull String endpointId, @NonNull String endpointName
+                            , @NonNull String authenticationToken, boolean incomingConnection) {
+                        currentReceiverCallback.onConnectionInitiated(endpointId, endpointName, authenticationToken
+                                , incomingConnection);
+                    }
+
+                    @Override
+                    public void onConnectionResult(@NonNull String endpointId, int status) {
+                        currentReceiverCallback.onConnectionResult(endpointId, status);
+                    }
+
+                    @Override
+                    public void onDisconnected(@NonNull String endpointId) {
+                        currentReceiverCallback.onDisconnected(endpointId);
+                    }
+                }, new IgnoredResultCallback());
+            }
+
+            currentReceiverCallback = receiverCallback;
+            senderTransport.requestConnection("sender", receiverTransport.getEndpointId()
+                    , new SessionConnectionCallback(senderTransport, syncSenderEngine), new IgnoredResultCallback());
+        }
+
+        private void await() throws InterruptedException {
+            finishedLatch.await();
+        }
+
+        @Override
+        public void onSyncComplete(@NonNull BaseSyncEngine syncEngine) {
+            finishedLatch.countDown();
+        }
+
+        @Override
+        public void onSyncFailed(@NonNull BaseSyncEngine syncEngine, @NonNull Exception e) {
+            failure = e;
+            stop();
+        }
+
+        private synchronized void stop() {
+            syncSenderEngine.stop();
+            syncReceiverEngine.stop();
+
+            while (finishedLatch.getCount() > 0) {
+                finishedLatch.countDown();
+            }
+        }
+
+        private class SessionConnectionCallback implements Transport.ConnectionCallback {
+
+            private final Transport transport;
+            private final BaseSyncEngine syncEngine;
+
+            private SessionConnectionCallback(@NonNull Transport transport, @NonNull BaseSyncEngine syncEngine) {
+                this.transport = transport;
+                this.syncEngine = syncEngine;
+            }
+
+            @Override
+            public void onConnectionInitiated(@NonNull String endpointId, @NonNull String endpointName
+                    , @NonNull String authenticationToken, boolean incomingConnection) {
+                transport.acceptConnection(endpointId, syncEngine);
+            }
+
+            @Override
+            public void onConnectionResult(@NonNull String endpointId, int status) {
+                if (status == Transport.CONNECTION_STATUS_OK && syncEngine == syncReceiverEngine) {
+                    syncReceiverEngine.start();
+                }
+            }
+
+            @Override
+            public void onDisconnected(@NonNull String endpointId) {
+                if (!syncSenderEngine.isFinished() || !syncReceiverEngine.isFinished()) {
+                    disconnected = true;
+                    SyncSimulator.this.onDisconnected();
+                    stop();
+                }
+            }
+        }
+    }
+
+    private class SimulatorSenderDao implements SenderTransferDao {
+
+        @Nullable
+        @Override
+        public TreeSet<DataType> getDataTypes() {
+            TreeSet<DataType> dataTypes = new TreeSet<>();
+            dataTypes.add(dataType);
+
+            return dataTypes;
+        }
+
+        @Nullable
+        @Override
+        public JsonData getJsonData(@NonNull DataType dataType, long lastRecordId, int batchSize) {
+            long highestRecordId = Math.min(lastRecordId + batchSize, recordCount);
+            if (highestRecordId <= lastRecordId) {
+                return null;
+            }
+
+            JSONArray jsonArray = new JSONArray();
+            for (long recordId = lastRecordId + 1; recordId <= highestRecordId; recordId++) {
+                JSONObject record = new JSONObject();
+                record.put("_id", recordId);
+                record.put("type", dataType.getName());
+                record.put("details", BenchmarkRecords.generateRandomString(recordSize));
+                jsonArray.put(record);
+            }
+
+            return new JsonData(jsonArray, highestRecordId);
+        }
+
+        @Nullable
+        @Override
+        public MultiMediaData getMultiMediaData(@NonNull DataType dataType, long lastRecordId) {
+            return null;
+        }
+    }
+
+    private class SimulatorReceiverDao implements ReceiverTransferDao {
+
+        private volatile int receivedRecords;
+
+        @Override
+        public TreeSet<DataType> getDataTypes() {
+            TreeSet<DataType> dataTypes = new TreeSet<>();
+            dataTypes.add(dataType);
+
+            return dataTypes;
+        }
+
+        @Override
+        public long receiveJson(@NonNull DataType type, @NonNull JSONArray jsonArray) {
+            receivedRecords += jsonArray.length();
+            onRecordsReceived();
+
+            return jsonArray.getJSONObject(jsonArray.length() - 1).getLong("_id");
+        }
+
+        @Override
+        public long receiveMultimedia(@NonNull DataType dataType, @NonNull File file
+                , @Nullable HashMap<String, Object> multimediaDetails, long fileRecordId) {
+            return -1;
+        }
+    }
+
+    private static class IgnoredResultCallback implements OnResultCallback {
+
+        @Override
+        public void onSuccess(@Nullable Object object) {
+            // The simulator only follows the connection callbacks
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            // The simulator only follows the connection callbacks
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.smartregister.p2p.model;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 /**
  * Created by Ephraim Kigamba - ekigamba@ona.io on 28/03/2019
@@ -12,12 +13,21 @@ public class DataType implements Comparable<DataType> {
     private final Type type;
     private final int position;
 
+    // Hints only apply to the sender and are left out of the manifest
+    @Nullable
+    private transient TransferHints transferHints;
+
     public DataType(@NonNull String name, @NonNull Type type, int position) {
         this.name = name;
         this.type = type;
         this.position = position;
     }
 
+    public DataType(@NonNull String name, @NonNull Type type, int position, @Nullable TransferHints transferHints) {
+        this(name, type, position);
+        this.transferHints = transferHints;
+    }
+
     public String getName() {
         return name;
     }
@@ -30,6 +40,11 @@ public class DataType implements Comparable<DataType> {
         return position;
     }
 
+    @Nullable
+    public TransferHints getTransferHints() {
+        return transferHints;
+    }
+
     @Override
     public int compareTo(@NonNull DataType o) {
         if (getPosition() == o.getPosition()) {
@@ -3,6 +3,7 @@ package org.smartregister.p2p.model;
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 /**
  * Created by Ephraim Kigamba - ekigamba@ona.io on 26/03/2019
@@ -22,6 +23,10 @@ public class P2pReceivedHistory {
     @ColumnInfo(name = "last_record_id")
     private long lastRecordId;
 
+    @Nullable
+    @ColumnInfo(name = "received_ranges")
+    private byte[] receivedRanges;
+
     public String getSendingDeviceId() {
         return sendingDeviceId;
     }
@@ -45,4 +50,17 @@ public class P2pReceivedHistory {
     public void setLastRecordId(long lastRecordId) {
         this.lastRecordId = lastRecordId;
     }
+
+    /**
+     * @return the encoded {@link org.smartregister.p2p.util.RecordIdRangeSet} ranges of records
+     * received above the last record id or {@code null} if there is no gap
+     */
+    @Nullable
+    public byte[] getReceivedRanges() {
+        return receivedRanges;
+    }
+
+    public void setReceivedRanges(@Nullable byte[] receivedRanges) {
+        this.receivedRanges = receivedRanges;
+    }
 }
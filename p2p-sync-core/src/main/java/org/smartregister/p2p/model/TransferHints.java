@@ -0,0 +1,77 @@
+package org.smartregister.p2p.model;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Optional transfer settings for a single {@link DataType} that take precedence over the library-wide
+ * settings in {@code P2PLibrary.Options}. These are only used by the sender
+ * and are not sent to the receiver.
+ */
+
+public class TransferHints {
+
+    private int maxBatchSize;
+    private long maxPayloadSize;
+    private Compression compression = Compression.DEFAULT;
+    private byte[] compressionDictionary;
+
+    /**
+     * Sets the number of records read for the first batch of the data type and the largest batch
+     * the data type can be resized to. A value of {@code 0} uses the library batch size.
+     *
+     * @param maxBatchSize the maximum number of records per batch
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the size in bytes that the payloads of the data type should be kept under. The batch
+     * size is reduced once the size of the records is known. A value of {@code 0} uses the library
+     * target payload size.
+     *
+     * @param maxPayloadSize the maximum payload size in bytes
+     */
+    public void setMaxPayloadSize(long maxPayloadSize) {
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+    public long getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets a dictionary of content common to the records of the data type, eg. the JSON keys in
+     * the order they appear in the records. The payloads of the data type are then compressed with
+     * {@code Constants.Encoding.DEFLATE_DICTIONARY} if the receiver accepts it.
+     * Only the last {@code Constants.MAX_COMPRESSION_DICTIONARY_SIZE} bytes are used.
+     *
+     * @param compressionDictionary the dictionary
+     */
+    public void setCompressionDictionary(@Nullable byte[] compressionDictionary) {
+        this.compressionDictionary = compressionDictionary;
+    }
+
+    @Nullable
+    public byte[] getCompressionDictionary() {
+        return compressionDictionary;
+    }
+
+    public enum Compression {
+        DEFAULT,
+        ENABLED,
+        DISABLED
+    }
+}
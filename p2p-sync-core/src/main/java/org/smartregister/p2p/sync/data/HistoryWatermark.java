@@ -0,0 +1,40 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last record id received of the data type at a position in the list of data types the sender
+ * offered. Records above the last record id that have also been received are held as sorted ranges
+ * that do not overlap, each with the start record id and the end record id (exclusive) of the range.
+ */
+public class HistoryWatermark {
+
+    private int position;
+    private long lastRecordId;
+    private List<long[]> receivedRanges = new ArrayList<>();
+
+    public HistoryWatermark(int position, long lastRecordId) {
+        this.position = position;
+        this.lastRecordId = lastRecordId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public long getLastRecordId() {
+        return lastRecordId;
+    }
+
+    @NonNull
+    public List<long[]> getReceivedRanges() {
+        return receivedRanges;
+    }
+
+    public void setReceivedRanges(@NonNull List<long[]> receivedRanges) {
+        this.receivedRanges = receivedRanges;
+    }
+}
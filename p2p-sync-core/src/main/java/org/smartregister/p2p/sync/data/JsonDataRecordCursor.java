@@ -0,0 +1,68 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A {@link JsonRecordCursor} over the records of a {@link JsonData} returned by
+ * {@link org.smartregister.p2p.model.dao.SenderTransferDao#getJsonData}
+ */
+
+public class JsonDataRecordCursor implements JsonRecordCursor {
+
+    private JSONArray jsonArray;
+    private long highestRecordId;
+    private int position = -1;
+
+    public JsonDataRecordCursor(@NonNull JsonData jsonData) {
+        this(jsonData.getJsonArray(), jsonData.getHighestRecordId());
+    }
+
+    public JsonDataRecordCursor(@NonNull JSONArray jsonArray, long highestRecordId) {
+        this.jsonArray = jsonArray;
+        this.highestRecordId = highestRecordId;
+    }
+
+    @NonNull
+    public JSONArray getJsonArray() {
+        return jsonArray;
+    }
+
+    @Override
+    public int getCount() {
+        return jsonArray.length();
+    }
+
+    @Override
+    public long getHighestRecordId() {
+        return highestRecordId;
+    }
+
+    @Override
+    public boolean moveToNext() {
+        if (position < jsonArray.length()) {
+            position++;
+        }
+
+        return position < jsonArray.length();
+    }
+
+    @NonNull
+    @Override
+    public String getRecord() {
+        Object record = jsonArray.opt(position);
+
+        if (record instanceof String) {
+            return JSONObject.quote((String) record);
+        }
+
+        return String.valueOf(record == null ? JSONObject.NULL : record);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
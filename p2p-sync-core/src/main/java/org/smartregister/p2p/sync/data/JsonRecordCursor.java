@@ -0,0 +1,36 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+
+/**
+ * Provides the records of a batch one at a time so that they can be written to the payload stream
+ * without building the whole batch in memory
+ */
+
+public interface JsonRecordCursor extends Closeable {
+
+    /**
+     * @return the number of records in the batch
+     */
+    int getCount();
+
+    /**
+     * @return the highest record id in the batch
+     */
+    long getHighestRecordId();
+
+    /**
+     * Moves to the next record. The cursor starts before the first record.
+     *
+     * @return {@code false} if there are no more records
+     */
+    boolean moveToNext();
+
+    /**
+     * @return the current record as a JSON string
+     */
+    @NonNull
+    String getRecord();
+}
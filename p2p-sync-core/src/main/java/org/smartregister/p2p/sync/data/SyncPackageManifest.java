@@ -0,0 +1,147 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.smartregister.p2p.model.DataType;
+
+import java.util.HashMap;
+
+/**
+ * Created by Ephraim Kigamba - ekigamba@ona.io on 28/03/2019
+ */
+public class SyncPackageManifest {
+
+    private long payloadId;
+    private String payloadExtension;
+    private DataType dataType;
+    private int recordsSize;
+    private int payloadSize;
+    private String encoding;
+    private long uncompressedSize;
+    private String dictionary;
+    private String recordFormat;
+    private Long previousRecordId;
+    private Long highestRecordId;
+    private HashMap<String, Object> payloadDetails;
+
+    public SyncPackageManifest(long payloadId, @NonNull String payloadExtension, @NonNull DataType dataType, int recordsSize) {
+        this.payloadId = payloadId;
+        this.payloadExtension = payloadExtension;
+        this.dataType = dataType;
+        this.recordsSize = recordsSize;
+    }
+
+    public void setPayloadSize(int payloadSize) {
+        this.payloadSize = payloadSize;
+    }
+
+    /**
+     * @return the number of bytes in the payload as sent or {@code 0} if it is not known before the payload is sent
+     */
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    public void setEncoding(@Nullable String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * @return the {@code Constants.Encoding} of the payload or {@code null}
+     * if the payload is not compressed
+     */
+    @Nullable
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setUncompressedSize(long uncompressedSize) {
+        this.uncompressedSize = uncompressedSize;
+    }
+
+    /**
+     * @return the number of bytes in the payload before compression or {@code 0} if it is not known
+     */
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    public void setDictionary(@Nullable String dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the Base64 encoded dictionary used for this and the later
+     * {@code Constants.Encoding.DEFLATE_DICTIONARY} payloads of the data type,
+     * or {@code null} if it was sent in an earlier manifest
+     */
+    @Nullable
+    public String getDictionary() {
+        return dictionary;
+    }
+
+    public void setRecordFormat(@Nullable String recordFormat) {
+        this.recordFormat = recordFormat;
+    }
+
+    /**
+     * @return {@code Constants.WireFormat.BINARY_RECORDS} if the records are
+     * sent in the binary encoding or {@code null} if they are sent as a JSON array
+     */
+    @Nullable
+    public String getRecordFormat() {
+        return recordFormat;
+    }
+
+    /**
+     * Sets the range of record ids the batch covers so that the receiver can save it even when an
+     * earlier batch has not been saved yet
+     *
+     * @param previousRecordId the record id the batch was read after
+     * @param highestRecordId the highest record id in the batch
+     */
+    public void setRecordIdRange(long previousRecordId, long highestRecordId) {
+        this.previousRecordId = previousRecordId;
+        this.highestRecordId = highestRecordId;
+    }
+
+    /**
+     * @return the record id the batch was read after or {@code null} if the sender did not send the
+     * range of record ids of the batch
+     */
+    @Nullable
+    public Long getPreviousRecordId() {
+        return previousRecordId;
+    }
+
+    @Nullable
+    public Long getHighestRecordId() {
+        return highestRecordId;
+    }
+
+    public long getPayloadId() {
+        return payloadId;
+    }
+
+    public String getPayloadExtension() {
+        return payloadExtension;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    @Nullable
+    public HashMap<String, Object> getPayloadDetails() {
+        return payloadDetails;
+    }
+
+    public void setPayloadDetails(@Nullable HashMap<String, Object> payloadDetails) {
+        this.payloadDetails = payloadDetails;
+    }
+
+    public int getRecordsSize() {
+        return recordsSize;
+    }
+}
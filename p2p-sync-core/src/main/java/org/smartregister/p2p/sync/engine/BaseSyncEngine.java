@@ -0,0 +1,168 @@
+package org.smartregister.p2p.sync.engine;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * The parts shared by the sender and receiver sync protocol engines. The engines only depend on a
+ * {@link Transport} and the transfer DAOs so that whole syncs can be run in a plain JVM.
+ * Transport callbacks and the completion of work done on the worker executor are serialised by
+ * synchronizing on the engine. Payloads whose transfer fails are resent until the max retries are done.
+ */
+
+public abstract class BaseSyncEngine implements Transport.PayloadCallback {
+
+    public static final String PAYLOAD_RECEIVED = "PAYLOAD-RECEIVED";
+    public static final String SYNC_COMPLETE = "SYNC-COMPLETE";
+    public static final String RECEIVED_HISTORY = "RECEIVED-HISTORY";
+    public static final int DEFAULT_SEND_MAX_RETRIES = 3;
+
+    protected static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    protected final Transport transport;
+    protected final String endpointId;
+    protected final Executor workerExecutor;
+    protected final Callback callback;
+    protected final Gson gson = new Gson();
+
+    private HashMap<String, Integer> transferProgress = new HashMap<>();
+    private HashMap<Long, PayloadRetry> textRetries = new HashMap<>();
+    private int sendMaxRetries = DEFAULT_SEND_MAX_RETRIES;
+    private int retryCount;
+    private boolean finished;
+
+    protected BaseSyncEngine(@NonNull Transport transport, @NonNull String endpointId
+            , @NonNull Executor workerExecutor, @NonNull Callback callback) {
+        this.transport = transport;
+        this.endpointId = endpointId;
+        this.workerExecutor = workerExecutor;
+        this.callback = callback;
+    }
+
+    @NonNull
+    public synchronized HashMap<String, Integer> getTransferProgress() {
+        return new HashMap<>(transferProgress);
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Sets the number of times a payload is resent after its transfer fails before the sync fails.
+     * The default is {@link #DEFAULT_SEND_MAX_RETRIES}.
+     *
+     * @param sendMaxRetries
+     */
+    public synchronized void setSendMaxRetries(int sendMaxRetries) {
+        this.sendMaxRetries = sendMaxRetries;
+    }
+
+    public synchronized int getSendMaxRetries() {
+        return sendMaxRetries;
+    }
+
+    /**
+     * @return the number of payloads resent after their transfer failed
+     */
+    public synchronized int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Stops the sync without calling back, eg. when the endpoint disconnects. Work already handed to
+     * the worker executor is finished but nothing else is sent.
+     */
+    public synchronized void stop() {
+        finished = true;
+    }
+
+    protected void updateTransferProgress(@NonNull String dataTypeName, int recordsTransferred) {
+        Integer records = transferProgress.get(dataTypeName);
+        transferProgress.put(dataTypeName, records != null ? records + recordsTransferred : recordsTransferred);
+    }
+
+    @NonNull
+    protected TransportPayload sendText(@NonNull String message) {
+        return sendText(message, sendMaxRetries);
+    }
+
+    @NonNull
+    private TransportPayload sendText(@NonNull String message, int retries) {
+        TransportPayload payload = transport.createBytesPayload(message.getBytes(UTF_8));
+        textRetries.put(payload.getId(), new PayloadRetry(message, retries));
+        transport.sendPayload(endpointId, payload);
+
+        return payload;
+    }
+
+    /**
+     * Resends a text payload sent through {@link #sendText(String)} if its transfer failed. The sync
+     * fails once the max retries are done.
+     *
+     * @param update the completed transfer update of a payload
+     * @return the payload the text was resent as or {@code null} if it was not resent
+     */
+    @Nullable
+    protected TransportPayload retryText(@NonNull TransportPayloadUpdate update) {
+        PayloadRetry payloadRetry = textRetries.remove(update.getPayloadId());
+        if (payloadRetry == null || update.getStatus() == TransportPayloadUpdate.STATUS_SUCCESS) {
+            return null;
+        }
+
+        if (payloadRetry.retries > 0 && update.getStatus() == TransportPayloadUpdate.STATUS_FAILURE) {
+            countRetry();
+            return sendText(payloadRetry.message, payloadRetry.retries - 1);
+        }
+
+        fail(new IOException("Payload send failed up-to " + sendMaxRetries));
+        return null;
+    }
+
+    protected void countRetry() {
+        retryCount++;
+    }
+
+    protected synchronized void complete() {
+        if (!finished) {
+            finished = true;
+            callback.onSyncComplete(this);
+        }
+    }
+
+    protected synchronized void fail(@NonNull Exception e) {
+        if (!finished) {
+            finished = true;
+            callback.onSyncFailed(this, e);
+        }
+    }
+
+    private static class PayloadRetry {
+
+        private final String message;
+        private final int retries;
+
+        private PayloadRetry(@NonNull String message, int retries) {
+            this.message = message;
+            this.retries = retries;
+        }
+    }
+
+    public interface Callback {
+
+        void onSyncComplete(@NonNull BaseSyncEngine syncEngine);
+
+        void onSyncFailed(@NonNull BaseSyncEngine syncEngine, @NonNull Exception e);
+    }
+}
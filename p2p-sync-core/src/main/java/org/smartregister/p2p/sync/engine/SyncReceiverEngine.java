@@ -0,0 +1,160 @@
+package org.smartregister.p2p.sync.engine;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonParseException;
+
+import org.json.JSONArray;
+import org.smartregister.p2p.model.dao.ReceiverTransferDao;
+import org.smartregister.p2p.sync.data.SyncPackageManifest;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * The receiver side of the sync protocol. It sends the last record id received for each data type,
+ * saves each batch of records after its manifest and acknowledges the batch once it is saved.
+ * Batches are saved on the worker executor in the order they are received. A batch whose stream
+ * fails is dropped since the sender sends it again.
+ */
+
+public class SyncReceiverEngine extends BaseSyncEngine {
+
+    private final ReceiverTransferDao receiverTransferDao;
+    private final HashMap<String, Long> receivedHistory;
+    private final HashMap<Long, SyncPackageManifest> awaitingManifests = new HashMap<>();
+
+    /**
+     * @param receivedHistory the last record id received from the sender for each data type
+     */
+    public SyncReceiverEngine(@NonNull Transport transport, @NonNull String endpointId
+            , @NonNull ReceiverTransferDao receiverTransferDao, @NonNull Map<String, Long> receivedHistory
+            , @NonNull Executor workerExecutor, @NonNull Callback callback) {
+        super(transport, endpointId, workerExecutor, callback);
+        this.receiverTransferDao = receiverTransferDao;
+        this.receivedHistory = new HashMap<>(receivedHistory);
+    }
+
+    public synchronized void start() {
+        sendText(RECEIVED_HISTORY + gson.toJson(receivedHistory));
+    }
+
+    /**
+     * @return the last record id received for each data type, including the batches received so far
+     */
+    @NonNull
+    public synchronized HashMap<String, Long> getReceivedHistory() {
+        return new HashMap<>(receivedHistory);
+    }
+
+    @Override
+    public synchronized void onPayloadReceived(@NonNull String endpointId, @NonNull TransportPayload payload) {
+        if (isFinished()) {
+            return;
+        }
+
+        if (payload.getType() == TransportPayload.TYPE_BYTES) {
+            String message = new String(payload.asBytes(), UTF_8);
+
+            if (SYNC_COMPLETE.equals(message)) {
+                complete();
+            } else {
+                try {
+                    SyncPackageManifest syncPackageManifest = gson.fromJson(message, SyncPackageManifest.class);
+                    awaitingManifests.put(syncPackageManifest.getPayloadId(), syncPackageManifest);
+                } catch (JsonParseException e) {
+                    fail(e);
+                }
+            }
+        } else if (payload.getType() == TransportPayload.TYPE_STREAM) {
+            SyncPackageManifest syncPackageManifest = awaitingManifests.remove(payload.getId());
+
+            if (syncPackageManifest != null) {
+                processJsonData(payload.getId(), payload.asInputStream(), syncPackageManifest);
+            } else {
+                fail(new IllegalStateException("Received payload " + payload.getId() + " without a manifest"));
+            }
+        } else {
+            fail(new UnsupportedOperationException("Media payloads are not supported by the sync engine"));
+        }
+    }
+
+    @Override
+    public synchronized void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull TransportPayloadUpdate update) {
+        if (isFinished() || update.getStatus() == TransportPayloadUpdate.STATUS_IN_PROGRESS) {
+            return;
+        }
+
+        // The streams fail on the reading side too so only the messages sent here are resent
+        retryText(update);
+    }
+
+    private void processJsonData(final long payloadId, @NonNull final InputStream inputStream
+            , @NonNull final SyncPackageManifest syncPackageManifest) {
+        workerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String records;
+                try {
+                    records = readString(inputStream);
+                } catch (IOException e) {
+                    // The transfer of the batch failed and the sender sends it again
+                    return;
+                }
+
+                if (isFinished()) {
+                    return;
+                }
+
+                try {
+                    JSONArray jsonArray = new JSONArray(records);
+                    long lastRecordId = receiverTransferDao.receiveJson(syncPackageManifest.getDataType(), jsonArray);
+
+                    onJsonDataSaved(payloadId, syncPackageManifest, lastRecordId);
+                } catch (Exception e) {
+                    // JSONException is a checked exception on Android
+                    fail(e);
+                }
+            }
+        });
+    }
+
+    private synchronized void onJsonDataSaved(long payloadId, @NonNull SyncPackageManifest syncPackageManifest, long lastRecordId) {
+        // The history is kept up to date after the sync stops so that a resumed sync starts after the batch
+        String dataTypeName = syncPackageManifest.getDataType().getName();
+        Long receivedRecordId = receivedHistory.get(dataTypeName);
+        if (receivedRecordId == null || lastRecordId > receivedRecordId) {
+            receivedHistory.put(dataTypeName, lastRecordId);
+        }
+
+        if (isFinished()) {
+            return;
+        }
+
+        updateTransferProgress(dataTypeName, syncPackageManifest.getRecordsSize());
+        sendText(PAYLOAD_RECEIVED + payloadId);
+    }
+
+    @NonNull
+    private String readString(@NonNull InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                byteArrayOutputStream.write(buffer, 0, count);
+            }
+
+            return new String(byteArrayOutputStream.toByteArray(), UTF_8);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.smartregister.p2p.sync.engine;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.model.dao.SenderTransferDao;
+import org.smartregister.p2p.sync.data.JsonData;
+import org.smartregister.p2p.sync.data.SyncPackageManifest;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+import org.smartregister.p2p.transport.TransportStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+/**
+ * The sender side of the sync protocol. Once the receiver has sent the last record id it has for
+ * each data type, the records after it are read in batches and each batch is sent as a manifest
+ * followed by a stream payload with the records as a JSON array. The next batch is read after the
+ * receiver acknowledges the current one and {@link #SYNC_COMPLETE} is sent after the last batch.
+ * A batch whose stream fails is sent again with a new manifest. Media data types are skipped.
+ */
+
+public class SyncSenderEngine extends BaseSyncEngine {
+
+    private final SenderTransferDao senderTransferDao;
+    private final TreeSet<DataType> dataSyncOrder;
+    private final int batchSize;
+    private final HashMap<String, Long> lastRecordIds = new HashMap<>();
+
+    private boolean started;
+    private TransportPayload awaitingManifest;
+    private TransportStream awaitingStream;
+    private byte[] awaitingRecords;
+    private DataType awaitingDataType;
+    private int awaitingRecordsSize;
+    private long awaitingPreviousRecordId;
+    private long awaitingHighestRecordId;
+    private int awaitingStreamRetries;
+    private TransportPayload syncCompletePayload;
+
+    public SyncSenderEngine(@NonNull Transport transport, @NonNull String endpointId
+            , @NonNull SenderTransferDao senderTransferDao, @NonNull TreeSet<DataType> dataSyncOrder, int batchSize
+            , @NonNull Executor workerExecutor, @NonNull Callback callback) {
+        super(transport, endpointId, workerExecutor, callback);
+        this.senderTransferDao = senderTransferDao;
+        this.dataSyncOrder = new TreeSet<>(dataSyncOrder);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the highest record id sent and acknowledged for each data type
+     */
+    @NonNull
+    public synchronized HashMap<String, Long> getLastRecordIds() {
+        return new HashMap<>(lastRecordIds);
+    }
+
+    @Override
+    public synchronized void onPayloadReceived(@NonNull String endpointId, @NonNull TransportPayload payload) {
+        if (isFinished() || payload.getType() != TransportPayload.TYPE_BYTES) {
+            return;
+        }
+
+        String message = new String(payload.asBytes(), UTF_8);
+        if (message.startsWith(RECEIVED_HISTORY)) {
+            processReceivedHistory(message.substring(RECEIVED_HISTORY.length()));
+        } else if (message.startsWith(PAYLOAD_RECEIVED)) {
+            try {
+                processPayloadReceived(Long.parseLong(message.substring(PAYLOAD_RECEIVED.length())));
+            } catch (NumberFormatException e) {
+                fail(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull TransportPayloadUpdate update) {
+        if (isFinished() || update.getStatus() == TransportPayloadUpdate.STATUS_IN_PROGRESS) {
+            return;
+        }
+
+        boolean successful = update.getStatus() == TransportPayloadUpdate.STATUS_SUCCESS;
+        TransportPayload resentPayload = retryText(update);
+
+        if (awaitingManifest != null && update.getPayloadId() == awaitingManifest.getId()) {
+            awaitingManifest = resentPayload;
+
+            if (successful) {
+                sendRecords();
+            }
+        } else if (awaitingStream != null && update.getPayloadId() == awaitingStream.getPayload().getId()) {
+            if (successful) {
+                return;
+            }
+
+            // Try to resend the batch until the max retries are done
+            if (awaitingStreamRetries > 0 && update.getStatus() == TransportPayloadUpdate.STATUS_FAILURE) {
+                awaitingStreamRetries--;
+                countRetry();
+                sendBatch();
+            } else {
+                fail(new IOException("Payload send failed up-to " + getSendMaxRetries()));
+            }
+        } else if (syncCompletePayload != null && update.getPayloadId() == syncCompletePayload.getId()) {
+            syncCompletePayload = resentPayload;
+
+            if (successful) {
+                complete();
+            }
+        }
+    }
+
+    private void processReceivedHistory(@NonNull String receivedHistoryJson) {
+        if (started) {
+            return;
+        }
+
+        try {
+            Map<String, Long> receivedHistory = gson.fromJson(receivedHistoryJson, new TypeToken<Map<String, Long>>() {}.getType());
+            if (receivedHistory != null) {
+                lastRecordIds.putAll(receivedHistory);
+            }
+        } catch (JsonParseException e) {
+            fail(e);
+            return;
+        }
+
+        started = true;
+        sendNextManifest();
+    }
+
+    private void processPayloadReceived(long payloadId) {
+        if (awaitingStream == null || awaitingManifest != null || payloadId != awaitingStream.getPayload().getId()) {
+            return;
+        }
+
+        lastRecordIds.put(awaitingDataType.getName(), awaitingHighestRecordId);
+        updateTransferProgress(awaitingDataType.getName(), awaitingRecordsSize);
+
+        awaitingStream = null;
+        awaitingRecords = null;
+        awaitingDataType = null;
+
+        sendNextManifest();
+    }
+
+    private void sendNextManifest() {
+        if (dataSyncOrder.isEmpty()) {
+            syncCompletePayload = sendText(SYNC_COMPLETE);
+            return;
+        }
+
+        final DataType dataType = dataSyncOrder.first();
+        if (dataType.getType() != DataType.Type.NON_MEDIA) {
+            dataSyncOrder.remove(dataType);
+            sendNextManifest();
+            return;
+        }
+
+        final long lastRecordId = getLastRecordId(dataType.getName());
+        workerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JsonData jsonData = senderTransferDao.getJsonData(dataType, lastRecordId, batchSize);
+                    byte[] records = jsonData != null && jsonData.getJsonArray().length() > 0
+                            ? jsonData.getJsonArray().toString().getBytes(UTF_8) : null;
+
+                    onBatchRead(dataType, lastRecordId, jsonData, records);
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+        });
+    }
+
+    private synchronized void onBatchRead(@NonNull DataType dataType, long lastRecordId
+            , @Nullable JsonData jsonData, @Nullable byte[] records) {
+        if (isFinished()) {
+            return;
+        }
+
+        if (jsonData == null || records == null) {
+            dataSyncOrder.remove(dataType);
+            sendNextManifest();
+            return;
+        }
+
+        awaitingRecords = records;
+        awaitingDataType = dataType;
+        awaitingRecordsSize = jsonData.getJsonArray().length();
+        awaitingPreviousRecordId = lastRecordId;
+        awaitingHighestRecordId = jsonData.getHighestRecordId();
+        awaitingStreamRetries = getSendMaxRetries();
+
+        sendBatch();
+    }
+
+    private void sendBatch() {
+        try {
+            awaitingStream = transport.createStreamPayload();
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(awaitingStream.getPayload().getId()
+                , "json", awaitingDataType, awaitingRecordsSize);
+        syncPackageManifest.setPayloadSize(awaitingRecords.length);
+        syncPackageManifest.setRecordIdRange(awaitingPreviousRecordId, awaitingHighestRecordId);
+
+        awaitingManifest = sendText(gson.toJson(syncPackageManifest));
+    }
+
+    private void sendRecords() {
+        final TransportStream transportStream = awaitingStream;
+        final byte[] records = awaitingRecords;
+
+        transport.sendPayload(endpointId, transportStream.getPayload());
+        workerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OutputStream outputStream = transportStream.getOutputStream();
+
+                try {
+                    outputStream.write(records);
+                    outputStream.close();
+                } catch (IOException e) {
+                    // The transfer update of the stream reports the failure and the batch is resent
+                    try {
+                        outputStream.close();
+                    } catch (IOException closeException) {
+                        // The stream is already broken
+                    }
+                }
+            }
+        });
+    }
+
+    private long getLastRecordId(@NonNull String dataTypeName) {
+        Long lastRecordId = lastRecordIds.get(dataTypeName);
+        return lastRecordId != null ? lastRecordId : 0;
+    }
+}
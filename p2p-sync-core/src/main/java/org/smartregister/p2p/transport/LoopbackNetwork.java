@@ -0,0 +1,101 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The in-memory network {@link LoopbackTransport}s advertise, discover and connect on
+ */
+
+public class LoopbackNetwork {
+
+    private final AtomicLong payloadIds = new AtomicLong();
+    private final Map<String, Advertisement> advertisements = new HashMap<>();
+    private final Map<LoopbackTransport, Discovery> discoveries = new HashMap<>();
+    private int endpointCount;
+
+    synchronized String createEndpointId() {
+        endpointCount++;
+        return "loopback-" + endpointCount;
+    }
+
+    long createPayloadId() {
+        return payloadIds.incrementAndGet();
+    }
+
+    synchronized void startAdvertising(@NonNull LoopbackTransport transport, @NonNull String name
+            , @NonNull String serviceId, @NonNull Transport.ConnectionCallback connectionCallback) {
+        Advertisement advertisement = new Advertisement(transport, name, serviceId, connectionCallback);
+        advertisements.put(transport.getEndpointId(), advertisement);
+
+        for (Map.Entry<LoopbackTransport, Discovery> entry : discoveries.entrySet()) {
+            if (entry.getValue().serviceId.equals(serviceId)) {
+                entry.getKey().postEndpointFound(entry.getValue().discoveryCallback, advertisement);
+            }
+        }
+    }
+
+    synchronized void stopAdvertising(@NonNull LoopbackTransport transport) {
+        Advertisement advertisement = advertisements.remove(transport.getEndpointId());
+        if (advertisement == null) {
+            return;
+        }
+
+        for (Map.Entry<LoopbackTransport, Discovery> entry : discoveries.entrySet()) {
+            if (entry.getValue().serviceId.equals(advertisement.serviceId)) {
+                entry.getKey().postEndpointLost(entry.getValue().discoveryCallback, transport.getEndpointId());
+            }
+        }
+    }
+
+    synchronized void startDiscovery(@NonNull LoopbackTransport transport, @NonNull String serviceId
+            , @NonNull Transport.DiscoveryCallback discoveryCallback) {
+        discoveries.put(transport, new Discovery(serviceId, discoveryCallback));
+
+        for (Advertisement advertisement : advertisements.values()) {
+            if (advertisement.serviceId.equals(serviceId)) {
+                transport.postEndpointFound(discoveryCallback, advertisement);
+            }
+        }
+    }
+
+    synchronized void stopDiscovery(@NonNull LoopbackTransport transport) {
+        discoveries.remove(transport);
+    }
+
+    @Nullable
+    synchronized Advertisement getAdvertisement(@NonNull String endpointId) {
+        return advertisements.get(endpointId);
+    }
+
+    static class Advertisement {
+
+        final LoopbackTransport transport;
+        final String name;
+        final String serviceId;
+        final Transport.ConnectionCallback connectionCallback;
+
+        private Advertisement(@NonNull LoopbackTransport transport, @NonNull String name, @NonNull String serviceId
+                , @NonNull Transport.ConnectionCallback connectionCallback) {
+            this.transport = transport;
+            this.name = name;
+            this.serviceId = serviceId;
+            this.connectionCallback = connectionCallback;
+        }
+    }
+
+    private static class Discovery {
+
+        private final String serviceId;
+        private final Transport.DiscoveryCallback discoveryCallback;
+
+        private Discovery(@NonNull String serviceId, @NonNull Transport.DiscoveryCallback discoveryCallback) {
+            this.serviceId = serviceId;
+            this.discoveryCallback = discoveryCallback;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.smartregister.p2p.callback.OnResultCallback;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An in-memory {@link Transport} to the other transports on the same {@link LoopbackNetwork}, for
+ * running syncs in a plain JVM. Each transport calls back on its own single thread the way the
+ * Android transports call back on the main thread. Stream payloads are copied to the receiver
+ * through a bounded {@link StreamPipe} and file payloads are received as the same file.
+ */
+
+public class LoopbackTransport implements Transport {
+
+    private static final int STREAM_PIPE_SIZE = 256 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "p2p-loopback-transport");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final LoopbackNetwork network;
+    private final String endpointId;
+    private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    private final ExecutorService streamExecutor = Executors.newCachedThreadPool(THREAD_FACTORY);
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+
+    public LoopbackTransport(@NonNull LoopbackNetwork network) {
+        this.network = network;
+        this.endpointId = network.createEndpointId();
+    }
+
+    /**
+     * @return the id other transports on the network know this transport by
+     */
+    @NonNull
+    public String getEndpointId() {
+        return endpointId;
+    }
+
+    @NonNull
+    @Override
+    public TransportPayload createBytesPayload(@NonNull byte[] bytes) {
+        return new LoopbackPayload(network.createPayloadId(), TransportPayload.TYPE_BYTES, bytes, null, null);
+    }
+
+    @NonNull
+    @Override
+    public TransportStream createStreamPayload() {
+        StreamPipe streamPipe = new StreamPipe(STREAM_PIPE_SIZE);
+        return new TransportStream(new LoopbackPayload(network.createPayloadId(), TransportPayload.TYPE_STREAM
+                , null, streamPipe.getInputStream(), null), streamPipe.getOutputStream());
+    }
+
+    @NonNull
+    @Override
+    public TransportPayload createFilePayload(@NonNull File file) throws FileNotFoundException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getAbsolutePath());
+        }
+
+        return new LoopbackPayload(network.createPayloadId(), TransportPayload.TYPE_FILE, null, null, file);
+    }
+
+    @Override
+    public void sendPayload(@NonNull String endpointId, @NonNull final TransportPayload payload) {
+        if (!(payload instanceof LoopbackPayload)) {
+            throw new IllegalArgumentException("The payload was not created by this transport");
+        }
+
+        final Link link = links.get(endpointId);
+        final Link remoteLink = link != null ? link.remoteTransport.links.get(this.endpointId) : null;
+        if (remoteLink == null) {
+            return;
+        }
+
+        if (payload.getType() == TransportPayload.TYPE_STREAM) {
+            final StreamPipe streamPipe = new StreamPipe(STREAM_PIPE_SIZE);
+            LoopbackPayload receivedPayload = new LoopbackPayload(payload.getId(), TransportPayload.TYPE_STREAM
+                    , null, streamPipe.getInputStream(), null);
+            link.remoteTransport.postPayloadReceived(remoteLink, this.endpointId, receivedPayload);
+
+            streamExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    copyStream(link, remoteLink, payload, streamPipe);
+                }
+            });
+        } else {
+            long size = payload.getType() == TransportPayload.TYPE_BYTES ? payload.asBytes().length : payload.asFile().length();
+            TransportPayloadUpdate update = new TransportPayloadUpdate(payload.getId(), TransportPayloadUpdate.STATUS_SUCCESS, size, size);
+
+            link.remoteTransport.postPayloadReceived(remoteLink, this.endpointId, payload);
+            link.remoteTransport.postPayloadTransferUpdate(remoteLink, this.endpointId, update);
+            postPayloadTransferUpdate(link, endpointId, update);
+        }
+    }
+
+    @Override
+    public void startAdvertising(@NonNull String name, @NonNull String serviceId
+            , @NonNull ConnectionCallback connectionCallback, @NonNull final OnResultCallback onResultCallback) {
+        network.startAdvertising(this, name, serviceId, connectionCallback);
+        postSuccess(onResultCallback);
+    }
+
+    @Override
+    public void stopAdvertising() {
+        network.stopAdvertising(this);
+    }
+
+    @Override
+    public void startDiscovery(@NonNull String serviceId, @NonNull DiscoveryCallback discoveryCallback
+            , @NonNull OnResultCallback onResultCallback) {
+        network.startDiscovery(this, serviceId, discoveryCallback);
+        postSuccess(onResultCallback);
+    }
+
+    @Override
+    public void stopDiscovery() {
+        network.stopDiscovery(this);
+    }
+
+    @Override
+    public void requestConnection(@NonNull final String name, @NonNull final String endpointId
+            , @NonNull final ConnectionCallback connectionCallback, @NonNull final OnResultCallback onResultCallback) {
+        final LoopbackNetwork.Advertisement advertisement = network.getAdvertisement(endpointId);
+        if (advertisement == null) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onResultCallback.onFailure(new IOException("Endpoint " + endpointId + " is not advertising"));
+                }
+            });
+            return;
+        }
+
+        final String authenticationToken = String.valueOf(1000 + random.nextInt(9000));
+        synchronized (network) {
+            links.put(endpointId, new Link(advertisement.transport, connectionCallback));
+            advertisement.transport.links.put(this.endpointId, new Link(this, advertisement.connectionCallback));
+        }
+
+        postSuccess(onResultCallback);
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                connectionCallback.onConnectionInitiated(endpointId, advertisement.name, authenticationToken, false);
+            }
+        });
+        advertisement.transport.callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                advertisement.connectionCallback.onConnectionInitiated(LoopbackTransport.this.endpointId, name
+                        , authenticationToken, true);
+            }
+        });
+    }
+
+    @Override
+    public void acceptConnection(@NonNull String endpointId, @NonNull PayloadCallback payloadCallback) {
+        synchronized (network) {
+            Link link = links.get(endpointId);
+            if (link == null) {
+                return;
+            }
+
+            link.payloadCallback = payloadCallback;
+            link.accepted = true;
+
+            Link remoteLink = link.remoteTransport.links.get(this.endpointId);
+            if (remoteLink != null && remoteLink.accepted) {
+                link.connected = true;
+                remoteLink.connected = true;
+
+                postConnectionResult(link, endpointId, CONNECTION_STATUS_OK);
+                link.remoteTransport.postConnectionResult(remoteLink, this.endpointId, CONNECTION_STATUS_OK);
+            }
+        }
+    }
+
+    @Override
+    public void rejectConnection(@NonNull String endpointId) {
+        synchronized (network) {
+            Link link = links.remove(endpointId);
+            if (link == null) {
+                return;
+            }
+
+            Link remoteLink = link.remoteTransport.links.remove(this.endpointId);
+            postConnectionResult(link, endpointId, CONNECTION_STATUS_REJECTED);
+            if (remoteLink != null) {
+                link.remoteTransport.postConnectionResult(remoteLink, this.endpointId, CONNECTION_STATUS_REJECTED);
+            }
+        }
+    }
+
+    @Override
+    public void disconnectFromEndpoint(@NonNull String endpointId) {
+        synchronized (network) {
+            Link link = links.remove(endpointId);
+            if (link == null) {
+                return;
+            }
+
+            final Link remoteLink = link.remoteTransport.links.remove(this.endpointId);
+            if (remoteLink != null && remoteLink.connected) {
+                link.remoteTransport.callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        remoteLink.connectionCallback.onDisconnected(LoopbackTransport.this.endpointId);
+                    }
+                });
+            }
+        }
+    }
+
+    @Override
+    public void stopAllEndpoints() {
+        stopAdvertising();
+        stopDiscovery();
+
+        for (String linkedEndpointId : links.keySet()) {
+            disconnectFromEndpoint(linkedEndpointId);
+        }
+    }
+
+    private void copyStream(@NonNull Link link, @NonNull Link remoteLink, @NonNull TransportPayload payload
+            , @NonNull StreamPipe streamPipe) {
+        InputStream inputStream = payload.asInputStream();
+        OutputStream outputStream = streamPipe.getOutputStream();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long bytesTransferred = 0;
+        int status = TransportPayloadUpdate.STATUS_SUCCESS;
+
+        try {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                onStreamBytesCopied(payload, count);
+                outputStream.write(buffer, 0, count);
+                bytesTransferred += count;
+            }
+
+            streamPipe.closeWrite(null);
+        } catch (IOException e) {
+            streamPipe.closeWrite(e);
+            status = TransportPayloadUpdate.STATUS_FAILURE;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                status = TransportPayloadUpdate.STATUS_FAILURE;
+            }
+        }
+
+        TransportPayloadUpdate update = new TransportPayloadUpdate(payload.getId(), status, bytesTransferred, bytesTransferred);
+        link.remoteTransport.postPayloadTransferUpdate(remoteLink, endpointId, update);
+        postPayloadTransferUpdate(link, link.remoteTransport.endpointId, update);
+    }
+
+    /**
+     * Called on the copying thread before each chunk of a stream payload is passed to the receiver.
+     * Throwing fails the transfer on both sides.
+     *
+     * @param payload the stream payload being sent
+     * @param count the number of bytes in the chunk
+     * @throws IOException
+     */
+    void onStreamBytesCopied(@NonNull TransportPayload payload, int count) throws IOException {
+        // The loopback network copies streams as fast as they are read
+    }
+
+    /**
+     * Reports a payload that never reached the endpoint as failed to this side only
+     */
+    void postPayloadFailure(@NonNull String endpointId, @NonNull TransportPayload payload) {
+        Link link = links.get(endpointId);
+        if (link != null) {
+            postPayloadTransferUpdate(link, endpointId, new TransportPayloadUpdate(payload.getId()
+                    , TransportPayloadUpdate.STATUS_FAILURE, 0, 0));
+        }
+    }
+
+    /**
+     * Drops the connection to the endpoint the way a lost network does, so that both sides are told
+     * they were disconnected
+     */
+    void loseConnection(@NonNull final String endpointId) {
+        synchronized (network) {
+            final Link link = links.remove(endpointId);
+            if (link == null) {
+                return;
+            }
+
+            final Link remoteLink = link.remoteTransport.links.remove(this.endpointId);
+            if (link.connected) {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        link.connectionCallback.onDisconnected(endpointId);
+                    }
+                });
+            }
+
+            if (remoteLink != null && remoteLink.connected) {
+                link.remoteTransport.callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        remoteLink.connectionCallback.onDisconnected(LoopbackTransport.this.endpointId);
+                    }
+                });
+            }
+        }
+    }
+
+    void postEndpointFound(@NonNull final DiscoveryCallback discoveryCallback
+            , @NonNull final LoopbackNetwork.Advertisement advertisement) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                discoveryCallback.onEndpointFound(advertisement.transport.getEndpointId(), advertisement.name);
+            }
+        });
+    }
+
+    void postEndpointLost(@NonNull final DiscoveryCallback discoveryCallback, @NonNull final String endpointId) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                discoveryCallback.onEndpointLost(endpointId);
+            }
+        });
+    }
+
+    private void postSuccess(@NonNull final OnResultCallback onResultCallback) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onResultCallback.onSuccess(null);
+            }
+        });
+    }
+
+    private void postConnectionResult(@NonNull final Link link, @NonNull final String endpointId, final int status) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                link.connectionCallback.onConnectionResult(endpointId, status);
+            }
+        });
+    }
+
+    private void postPayloadReceived(@NonNull final Link link, @NonNull final String endpointId
+            , @NonNull final TransportPayload payload) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (link.payloadCallback != null) {
+                    link.payloadCallback.onPayloadReceived(endpointId, payload);
+                }
+            }
+        });
+    }
+
+    private void postPayloadTransferUpdate(@NonNull final Link link, @NonNull final String endpointId
+            , @NonNull final TransportPayloadUpdate update) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (link.payloadCallback != null) {
+                    link.payloadCallback.onPayloadTransferUpdate(endpointId, update);
+                }
+            }
+        });
+    }
+
+    private static class Link {
+
+        private final LoopbackTransport remoteTransport;
+        private final ConnectionCallback connectionCallback;
+        private volatile PayloadCallback payloadCallback;
+        private boolean accepted;
+        private boolean connected;
+
+        private Link(@NonNull LoopbackTransport remoteTransport, @NonNull ConnectionCallback connectionCallback) {
+            this.remoteTransport = remoteTransport;
+            this.connectionCallback = connectionCallback;
+        }
+    }
+
+    private static class LoopbackPayload implements TransportPayload {
+
+        private final long id;
+        private final int type;
+        private final byte[] bytes;
+        private final InputStream inputStream;
+        private final File file;
+
+        private LoopbackPayload(long id, int type, @Nullable byte[] bytes, @Nullable InputStream inputStream
+                , @Nullable File file) {
+            this.id = id;
+            this.type = type;
+            this.bytes = bytes;
+            this.inputStream = inputStream;
+            this.file = file;
+        }
+
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public int getType() {
+            return type;
+        }
+
+        @Nullable
+        @Override
+        public byte[] asBytes() {
+            return bytes;
+        }
+
+        @Nullable
+        @Override
+        public InputStream asInputStream() {
+            return inputStream;
+        }
+
+        @Nullable
+        @Override
+        public File asFile() {
+            return file;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.smartregister.p2p.transport;
+
+/**
+ * The link a {@link SimulatedTransport} sends its payloads over. The defaults are a perfect link.
+ */
+
+public class NetworkConditions {
+
+    private long bandwidth;
+    private long latency;
+    private long jitter;
+    private double payloadFailureRate;
+    private double disconnectRate;
+    private long seed = 1;
+
+    /**
+     * Sets the bytes per second the link can carry. Zero does not limit the bandwidth.
+     *
+     * @param bandwidth
+     */
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Sets the delay in milliseconds before each payload starts arriving
+     *
+     * @param latency
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * Sets the most milliseconds randomly added to the latency of each payload
+     *
+     * @param jitter
+     */
+    public void setJitter(long jitter) {
+        this.jitter = jitter;
+    }
+
+    public long getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Sets the chance from 0 to 1 that the transfer of a payload fails
+     *
+     * @param payloadFailureRate
+     */
+    public void setPayloadFailureRate(double payloadFailureRate) {
+        this.payloadFailureRate = payloadFailureRate;
+    }
+
+    public double getPayloadFailureRate() {
+        return payloadFailureRate;
+    }
+
+    /**
+     * Sets the chance from 0 to 1 that the connection is lost instead of a payload being sent
+     *
+     * @param disconnectRate
+     */
+    public void setDisconnectRate(double disconnectRate) {
+        this.disconnectRate = disconnectRate;
+    }
+
+    public double getDisconnectRate() {
+        return disconnectRate;
+    }
+
+    /**
+     * Sets the seed of the random jitter, failures and disconnects so that runs can be repeated
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
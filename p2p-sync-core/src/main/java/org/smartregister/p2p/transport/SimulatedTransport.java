@@ -0,0 +1,160 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link LoopbackTransport} whose outgoing payloads are shaped by {@link NetworkConditions}.
+ * Payloads are sent one after the other after the latency and jitter, and the bandwidth is shared
+ * by all the bytes sent. A failed bytes payload never arrives while a failed stream fails on its
+ * first chunk on both sides. A disconnect drops the connection instead of sending the payload.
+ */
+
+public class SimulatedTransport extends LoopbackTransport {
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "p2p-simulated-transport");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final NetworkConditions networkConditions;
+    private final Random random;
+    private final ExecutorService sendExecutor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    private final Set<Long> failingStreams = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private long linkFreeTime;
+    private long bytesSent;
+    private int failedPayloads;
+    private int disconnects;
+
+    public SimulatedTransport(@NonNull LoopbackNetwork network, @NonNull NetworkConditions networkConditions) {
+        super(network);
+        this.networkConditions = networkConditions;
+        this.random = new Random(networkConditions.getSeed());
+    }
+
+    /**
+     * @return the number of payload bytes that made it across the link
+     */
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    public synchronized int getFailedPayloads() {
+        return failedPayloads;
+    }
+
+    public synchronized int getDisconnects() {
+        return disconnects;
+    }
+
+    @Override
+    public void sendPayload(@NonNull final String endpointId, @NonNull final TransportPayload payload) {
+        sendExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sleep(networkConditions.getLatency() + nextJitter());
+                } catch (InterruptedIOException e) {
+                    return;
+                }
+
+                if (nextChance(networkConditions.getDisconnectRate())) {
+                    countDisconnect();
+                    loseConnection(endpointId);
+                } else if (payload.getType() == TransportPayload.TYPE_STREAM) {
+                    if (nextChance(networkConditions.getPayloadFailureRate())) {
+                        countFailedPayload();
+                        failingStreams.add(payload.getId());
+                    }
+
+                    SimulatedTransport.super.sendPayload(endpointId, payload);
+                } else if (nextChance(networkConditions.getPayloadFailureRate())) {
+                    countFailedPayload();
+                    postPayloadFailure(endpointId, payload);
+                } else {
+                    try {
+                        transmit(payload.getType() == TransportPayload.TYPE_BYTES
+                                ? payload.asBytes().length : payload.asFile().length());
+                    } catch (InterruptedIOException e) {
+                        return;
+                    }
+
+                    SimulatedTransport.super.sendPayload(endpointId, payload);
+                }
+            }
+        });
+    }
+
+    @Override
+    void onStreamBytesCopied(@NonNull TransportPayload payload, int count) throws IOException {
+        if (failingStreams.remove(payload.getId())) {
+            throw new IOException("Simulated failure of payload " + payload.getId());
+        }
+
+        transmit(count);
+    }
+
+    /**
+     * Waits until the bytes have gone over the link after the bytes already being sent
+     */
+    private void transmit(long size) throws InterruptedIOException {
+        long transmitTime;
+        synchronized (this) {
+            bytesSent += size;
+
+            if (networkConditions.getBandwidth() <= 0) {
+                return;
+            }
+
+            linkFreeTime = Math.max(linkFreeTime, System.nanoTime())
+                    + TimeUnit.SECONDS.toNanos(size) / networkConditions.getBandwidth();
+            transmitTime = linkFreeTime;
+        }
+
+        sleep(TimeUnit.NANOSECONDS.toMillis(transmitTime - System.nanoTime()));
+    }
+
+    private synchronized long nextJitter() {
+        return networkConditions.getJitter() > 0 ? (long) (random.nextDouble() * networkConditions.getJitter()) : 0;
+    }
+
+    private synchronized boolean nextChance(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    private synchronized void countFailedPayload() {
+        failedPayloads++;
+    }
+
+    private synchronized void countDisconnect() {
+        disconnects++;
+    }
+
+    private void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while simulating the network");
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded in-memory pipe between a thread writing the data of a stream payload and a thread
+ * reading it. Writing blocks while the pipe is full so that a slow reader holds back the writer.
+ * Unlike {@link java.io.PipedInputStream}, any thread can write to or read from the pipe.
+ */
+
+public class StreamPipe {
+
+    private final byte[] buffer;
+    private int readPosition;
+    private int size;
+    private boolean writeClosed;
+    private boolean readClosed;
+    private IOException failure;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] singleByte = new byte[1];
+            return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] bytes, int offset, int length) throws IOException {
+            return StreamPipe.this.read(bytes, offset, length);
+        }
+
+        @Override
+        public int available() {
+            synchronized (StreamPipe.this) {
+                return size;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (StreamPipe.this) {
+                readClosed = true;
+                StreamPipe.this.notifyAll();
+            }
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] bytes, int offset, int length) throws IOException {
+            StreamPipe.this.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() {
+            closeWrite(null);
+        }
+    };
+
+    public StreamPipe(int bufferSize) {
+        buffer = new byte[bufferSize];
+    }
+
+    @NonNull
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @NonNull
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Ends the data of the pipe. The reader gets the rest of the data and then the end of the stream,
+     * or the failure once the data has been read if there is one.
+     *
+     * @param failure the reason the data could not be written to the end, if any
+     */
+    public synchronized void closeWrite(@Nullable IOException failure) {
+        writeClosed = true;
+        this.failure = failure;
+        notifyAll();
+    }
+
+    private synchronized void write(@NonNull byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (writeClosed) {
+                throw new IOException("The pipe has been closed");
+            } else if (readClosed) {
+                throw new IOException("The pipe is no longer read");
+            }
+
+            if (size == buffer.length) {
+                waitForPipe();
+                continue;
+            }
+
+            int writePosition = (readPosition + size) % buffer.length;
+            int count = Math.min(length, Math.min(buffer.length - size, buffer.length - writePosition));
+            System.arraycopy(bytes, offset, buffer, writePosition, count);
+
+            size += count;
+            offset += count;
+            length -= count;
+            notifyAll();
+        }
+    }
+
+    private synchronized int read(@NonNull byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+
+        while (size == 0) {
+            if (readClosed) {
+                throw new IOException("The pipe has been closed");
+            } else if (writeClosed) {
+                if (failure != null) {
+                    throw failure;
+                }
+
+                return -1;
+            }
+
+            waitForPipe();
+        }
+
+        int count = Math.min(length, Math.min(size, buffer.length - readPosition));
+        System.arraycopy(buffer, readPosition, bytes, offset, count);
+
+        readPosition = (readPosition + count) % buffer.length;
+        size -= count;
+        notifyAll();
+
+        return count;
+    }
+
+    private void waitForPipe() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the pipe");
+        }
+    }
+}
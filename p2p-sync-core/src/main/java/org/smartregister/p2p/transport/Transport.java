@@ -0,0 +1,86 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+
+import org.smartregister.p2p.callback.OnResultCallback;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Moves payloads between two devices. The sync engine sends and receives its manifests, records
+ * and media files through a transport so that it does not depend on how the devices are connected.
+ * {@code NearbyTransport} is the transport used by default.
+ */
+
+public interface Transport {
+
+    int CONNECTION_STATUS_OK = 0;
+    int CONNECTION_STATUS_REJECTED = 1;
+    int CONNECTION_STATUS_ERROR = 2;
+
+    @NonNull
+    TransportPayload createBytesPayload(@NonNull byte[] bytes);
+
+    /**
+     * Creates a stream payload whose data is written to the output stream of the returned
+     * {@link TransportStream} after the payload has been sent
+     */
+    @NonNull
+    TransportStream createStreamPayload() throws IOException;
+
+    @NonNull
+    TransportPayload createFilePayload(@NonNull File file) throws FileNotFoundException;
+
+    void sendPayload(@NonNull String endpointId, @NonNull TransportPayload payload);
+
+    void startAdvertising(@NonNull String name, @NonNull String serviceId
+            , @NonNull ConnectionCallback connectionCallback, @NonNull OnResultCallback onResultCallback);
+
+    void stopAdvertising();
+
+    void startDiscovery(@NonNull String serviceId, @NonNull DiscoveryCallback discoveryCallback
+            , @NonNull OnResultCallback onResultCallback);
+
+    void stopDiscovery();
+
+    void requestConnection(@NonNull String name, @NonNull String endpointId
+            , @NonNull ConnectionCallback connectionCallback, @NonNull OnResultCallback onResultCallback);
+
+    void acceptConnection(@NonNull String endpointId, @NonNull PayloadCallback payloadCallback);
+
+    void rejectConnection(@NonNull String endpointId);
+
+    void disconnectFromEndpoint(@NonNull String endpointId);
+
+    void stopAllEndpoints();
+
+    interface DiscoveryCallback {
+
+        void onEndpointFound(@NonNull String endpointId, @NonNull String endpointName);
+
+        void onEndpointLost(@NonNull String endpointId);
+    }
+
+    interface ConnectionCallback {
+
+        void onConnectionInitiated(@NonNull String endpointId, @NonNull String endpointName
+                , @NonNull String authenticationToken, boolean incomingConnection);
+
+        /**
+         * @param status one of {@link #CONNECTION_STATUS_OK}, {@link #CONNECTION_STATUS_REJECTED}
+         *               or {@link #CONNECTION_STATUS_ERROR}
+         */
+        void onConnectionResult(@NonNull String endpointId, int status);
+
+        void onDisconnected(@NonNull String endpointId);
+    }
+
+    interface PayloadCallback {
+
+        void onPayloadReceived(@NonNull String endpointId, @NonNull TransportPayload payload);
+
+        void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull TransportPayloadUpdate update);
+    }
+}
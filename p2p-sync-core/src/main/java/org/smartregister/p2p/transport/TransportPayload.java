@@ -0,0 +1,38 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * A payload sent or received through a {@link Transport}. The payload id is the id the receiving
+ * device also sees for the payload so that it can be announced in a manifest before the payload
+ * is sent.
+ */
+
+public interface TransportPayload {
+
+    int TYPE_BYTES = 1;
+    int TYPE_FILE = 2;
+    int TYPE_STREAM = 3;
+
+    long getId();
+
+    int getType();
+
+    @Nullable
+    byte[] asBytes();
+
+    /**
+     * @return the stream to read the data of a {@link #TYPE_STREAM} payload from
+     */
+    @Nullable
+    InputStream asInputStream();
+
+    /**
+     * @return the file a received {@link #TYPE_FILE} payload has been written to
+     */
+    @Nullable
+    File asFile();
+}
@@ -0,0 +1,44 @@
+package org.smartregister.p2p.transport;
+
+/**
+ * The progress of a payload being sent or received through a {@link Transport}
+ */
+
+public class TransportPayloadUpdate {
+
+    public static final int STATUS_SUCCESS = 1;
+    public static final int STATUS_FAILURE = 2;
+    public static final int STATUS_IN_PROGRESS = 3;
+    public static final int STATUS_CANCELED = 4;
+
+    private long payloadId;
+    private int status;
+    private long bytesTransferred;
+    private long totalBytes;
+
+    public TransportPayloadUpdate(long payloadId, int status, long bytesTransferred, long totalBytes) {
+        this.payloadId = payloadId;
+        this.status = status;
+        this.bytesTransferred = bytesTransferred;
+        this.totalBytes = totalBytes;
+    }
+
+    public long getPayloadId() {
+        return payloadId;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * @return the size of the payload or {@code -1} if it is not known as is the case for streams
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+}
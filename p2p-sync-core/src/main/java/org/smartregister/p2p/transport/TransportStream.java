@@ -0,0 +1,31 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+
+import java.io.OutputStream;
+
+/**
+ * A {@link TransportPayload#TYPE_STREAM} payload and the output stream its data is written to.
+ * The payload ends when the output stream is closed.
+ */
+
+public class TransportStream {
+
+    private TransportPayload payload;
+    private OutputStream outputStream;
+
+    public TransportStream(@NonNull TransportPayload payload, @NonNull OutputStream outputStream) {
+        this.payload = payload;
+        this.outputStream = outputStream;
+    }
+
+    @NonNull
+    public TransportPayload getPayload() {
+        return payload;
+    }
+
+    @NonNull
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+}
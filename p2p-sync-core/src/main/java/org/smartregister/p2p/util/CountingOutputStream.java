@@ -0,0 +1,36 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that keeps track of the number of bytes written through it
+ */
+
+public class CountingOutputStream extends FilterOutputStream {
+
+    private volatile long count;
+
+    public CountingOutputStream(@NonNull OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,200 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+
+import org.smartregister.p2p.model.P2pReceivedHistory;
+import org.smartregister.p2p.sync.data.HistoryWatermark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes and reads the received history in the {@code Constants.WireFormat#HISTORY_WATERMARKS}
+ * encoding. The history is a vector of watermarks keyed by the position of the data type in the
+ * list of data type names the sender offered, so no names are repeated in the reply. Each entry is
+ * the position as a delta from the previous entry followed by the last record id and the received
+ * ranges above it, all as variable length numbers and the ranges as deltas. Data types without any
+ * received records are left out.
+ */
+
+public class HistoryWatermarkCodec {
+
+    private static final int VERSION = 1;
+
+    @NonNull
+    public static byte[] write(@NonNull List<HistoryWatermark> historyWatermarks) throws IOException {
+        List<HistoryWatermark> sortedWatermarks = new ArrayList<>(historyWatermarks);
+        Collections.sort(sortedWatermarks, new Comparator<HistoryWatermark>() {
+            @Override
+            public int compare(HistoryWatermark watermark, HistoryWatermark otherWatermark) {
+                return watermark.getPosition() < otherWatermark.getPosition() ? -1
+                        : (watermark.getPosition() == otherWatermark.getPosition() ? 0 : 1);
+            }
+        });
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+
+        out.writeByte(VERSION);
+        writeVarLong(out, sortedWatermarks.size());
+
+        int previousPosition = 0;
+        for (HistoryWatermark historyWatermark : sortedWatermarks) {
+            writeVarLong(out, historyWatermark.getPosition() - previousPosition);
+            writeVarLong(out, historyWatermark.getLastRecordId());
+            previousPosition = historyWatermark.getPosition();
+
+            List<long[]> receivedRanges = historyWatermark.getReceivedRanges();
+            writeVarLong(out, receivedRanges.size());
+
+            long previousEnd = historyWatermark.getLastRecordId();
+            for (long[] range : receivedRanges) {
+                if (range[0] < previousEnd || range[1] < range[0]) {
+                    throw new IOException("Received ranges must be sorted, above the last record id and not overlap");
+                }
+
+                writeVarLong(out, range[0] - previousEnd);
+                writeVarLong(out, range[1] - range[0]);
+                previousEnd = range[1];
+            }
+        }
+
+        out.flush();
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @NonNull
+    public static List<HistoryWatermark> read(@NonNull byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported history watermarks version " + version);
+        }
+
+        long size = readVarLong(in);
+        if (size > bytes.length) {
+            throw new IOException("Invalid history watermarks size " + size);
+        }
+
+        List<HistoryWatermark> historyWatermarks = new ArrayList<>();
+        long position = 0;
+
+        for (long i = 0; i < size; i++) {
+            position += readVarLong(in);
+            if (position < 0 || position > Integer.MAX_VALUE) {
+                throw new IOException("Invalid history watermark position " + position);
+            }
+
+            HistoryWatermark historyWatermark = new HistoryWatermark((int) position, readVarLong(in));
+
+            long rangesSize = readVarLong(in);
+            if (rangesSize > bytes.length) {
+                throw new IOException("Invalid history watermark ranges size " + rangesSize);
+            }
+
+            long previousEnd = historyWatermark.getLastRecordId();
+            for (long j = 0; j < rangesSize; j++) {
+                long start = previousEnd + readVarLong(in);
+                long end = start + readVarLong(in);
+                if (start < previousEnd || end < start) {
+                    throw new IOException("Invalid history watermark range");
+                }
+
+                historyWatermark.getReceivedRanges().add(new long[]{start, end});
+                previousEnd = end;
+            }
+
+            historyWatermarks.add(historyWatermark);
+        }
+
+        return historyWatermarks;
+    }
+
+    /**
+     * Converts the received history into watermarks keyed by the positions of the data types
+     *
+     * @param receivedHistory the received history of the sending device
+     * @param dataTypeNames the data type names the sender offered in order
+     * @return the watermarks and received ranges of the data types the sender offered that have
+     * received records
+     */
+    @NonNull
+    public static List<HistoryWatermark> toWatermarks(@NonNull List<P2pReceivedHistory> receivedHistory
+            , @NonNull List<?> dataTypeNames) {
+        List<HistoryWatermark> historyWatermarks = new ArrayList<>();
+
+        for (P2pReceivedHistory dataTypeHistory : receivedHistory) {
+            int position = dataTypeNames.indexOf(dataTypeHistory.getEntityType());
+            RecordIdRangeSet recordIdRangeSet = RecordIdRangeSet.of(dataTypeHistory);
+
+            if (position > -1 && (recordIdRangeSet.getLastRecordId() > 0 || !recordIdRangeSet.getRanges().isEmpty())) {
+                HistoryWatermark historyWatermark = new HistoryWatermark(position, recordIdRangeSet.getLastRecordId());
+                historyWatermark.setReceivedRanges(recordIdRangeSet.getRanges());
+                historyWatermarks.add(historyWatermark);
+            }
+        }
+
+        return historyWatermarks;
+    }
+
+    /**
+     * Converts the watermarks back into the received history
+     *
+     * @param historyWatermarks the watermarks
+     * @param dataTypeNames the data type names this device offered in order
+     * @return the received history
+     * @throws IOException if a watermark has a position outside the data type names
+     */
+    @NonNull
+    public static List<P2pReceivedHistory> toReceivedHistory(@NonNull List<HistoryWatermark> historyWatermarks
+            , @NonNull List<String> dataTypeNames) throws IOException {
+        List<P2pReceivedHistory> receivedHistory = new ArrayList<>();
+
+        for (HistoryWatermark historyWatermark : historyWatermarks) {
+            if (historyWatermark.getPosition() >= dataTypeNames.size()) {
+                throw new IOException("History watermark position " + historyWatermark.getPosition() + " was not offered");
+            }
+
+            P2pReceivedHistory dataTypeHistory = new P2pReceivedHistory();
+            dataTypeHistory.setEntityType(dataTypeNames.get(historyWatermark.getPosition()));
+            dataTypeHistory.setLastRecordId(historyWatermark.getLastRecordId());
+            dataTypeHistory.setReceivedRanges(new RecordIdRangeSet(historyWatermark.getLastRecordId()
+                    , historyWatermark.getReceivedRanges()).toBytes());
+            receivedHistory.add(dataTypeHistory);
+        }
+
+        return receivedHistory;
+    }
+
+    static void writeVarLong(@NonNull DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(@NonNull DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed variable length number in history watermarks");
+    }
+}
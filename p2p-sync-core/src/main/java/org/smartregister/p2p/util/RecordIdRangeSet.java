@@ -0,0 +1,213 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.smartregister.p2p.model.P2pReceivedHistory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The record ids of a data type that have been received from a sending device. Every record id up
+ * to the last record id has been received and the record ids received above it are held as sorted
+ * ranges that do not overlap or touch, each with the start record id and the end record id
+ * (exclusive) of the range. A batch of records read after one record id up to its highest record
+ * id covers every record id in between, so the ranges also cover record ids that do not exist.
+ */
+
+public class RecordIdRangeSet {
+
+    private long lastRecordId;
+    private ArrayList<long[]> ranges = new ArrayList<>();
+
+    public RecordIdRangeSet(long lastRecordId) {
+        this.lastRecordId = lastRecordId;
+    }
+
+    /**
+     * @param lastRecordId the record id up to which every record has been received
+     * @param ranges the ranges received above the last record id in any order
+     */
+    public RecordIdRangeSet(long lastRecordId, @Nullable List<long[]> ranges) {
+        this(lastRecordId);
+
+        if (ranges != null) {
+            List<long[]> sortedRanges = new ArrayList<>(ranges);
+            Collections.sort(sortedRanges, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] range, long[] otherRange) {
+                    return range[0] < otherRange[0] ? -1 : (range[0] == otherRange[0] ? 0 : 1);
+                }
+            });
+
+            for (long[] range : sortedRanges) {
+                add(range[0] - 1, range[1] - 1);
+            }
+        }
+    }
+
+    /**
+     * Creates the record id range set saved in the received history. Ranges that cannot be read
+     * are dropped so that their records are sent again instead of being skipped.
+     *
+     * @param receivedHistory the received history of a data type
+     * @return the record id range set
+     */
+    @NonNull
+    public static RecordIdRangeSet of(@NonNull P2pReceivedHistory receivedHistory) {
+        byte[] receivedRanges = receivedHistory.getReceivedRanges();
+
+        if (receivedRanges != null) {
+            try {
+                return new RecordIdRangeSet(receivedHistory.getLastRecordId(), readRanges(receivedRanges));
+            } catch (IOException e) {
+                // Only the records below the last record id are skipped
+            }
+        }
+
+        return new RecordIdRangeSet(receivedHistory.getLastRecordId());
+    }
+
+    /**
+     * Adds the records of a batch
+     *
+     * @param previousRecordId the record id the batch was read after
+     * @param highestRecordId the highest record id in the batch
+     */
+    public void add(long previousRecordId, long highestRecordId) {
+        if (highestRecordId <= previousRecordId || highestRecordId <= lastRecordId) {
+            return;
+        }
+
+        long start = previousRecordId + 1;
+        long end = highestRecordId + 1;
+
+        if (start <= lastRecordId + 1) {
+            lastRecordId = highestRecordId;
+        } else {
+            int i = 0;
+            while (i < ranges.size() && ranges.get(i)[1] < start) {
+                i++;
+            }
+
+            // Merge the ranges the batch overlaps or touches
+            while (i < ranges.size() && ranges.get(i)[0] <= end) {
+                long[] range = ranges.remove(i);
+                start = Math.min(start, range[0]);
+                end = Math.max(end, range[1]);
+            }
+
+            ranges.add(i, new long[]{start, end});
+        }
+
+        // Move the last record id over the ranges that are no longer above a gap
+        while (!ranges.isEmpty() && ranges.get(0)[0] <= lastRecordId + 1) {
+            lastRecordId = Math.max(lastRecordId, ranges.remove(0)[1] - 1);
+        }
+    }
+
+    public long getLastRecordId() {
+        return lastRecordId;
+    }
+
+    @NonNull
+    public List<long[]> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * @param recordId a record id
+     * @return the highest record id up to which every record id after {@code recordId} has been received
+     */
+    public long getReceivedUpTo(long recordId) {
+        long receivedUpTo = Math.max(recordId, lastRecordId);
+
+        for (long[] range : ranges) {
+            if (range[0] > receivedUpTo + 1) {
+                break;
+            }
+
+            receivedUpTo = Math.max(receivedUpTo, range[1] - 1);
+        }
+
+        return receivedUpTo;
+    }
+
+    /**
+     * @param recordId a record id
+     * @return the start of the first range received after {@code recordId} or {@code -1} if there
+     * is none
+     */
+    public long getNextRangeStart(long recordId) {
+        for (long[] range : ranges) {
+            if (range[0] > recordId) {
+                return range[0];
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the ranges encoded as variable length numbers, each range as the gap after the end of
+     * the previous range and its length, or {@code null} if there are no ranges
+     */
+    @Nullable
+    public byte[] toBytes() {
+        if (ranges.isEmpty()) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+            HistoryWatermarkCodec.writeVarLong(out, ranges.size());
+
+            long previousEnd = 0;
+            for (long[] range : ranges) {
+                HistoryWatermarkCodec.writeVarLong(out, range[0] - previousEnd);
+                HistoryWatermarkCodec.writeVarLong(out, range[1] - range[0]);
+                previousEnd = range[1];
+            }
+
+            out.flush();
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NonNull
+    private static List<long[]> readRanges(@NonNull byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        long size = HistoryWatermarkCodec.readVarLong(in);
+        if (size > bytes.length) {
+            throw new IOException("Invalid received ranges size " + size);
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        long previousEnd = 0;
+
+        for (long i = 0; i < size; i++) {
+            long start = previousEnd + HistoryWatermarkCodec.readVarLong(in);
+            long end = start + HistoryWatermarkCodec.readVarLong(in);
+            if (start < previousEnd || end < start) {
+                throw new IOException("Invalid received range");
+            }
+
+            ranges.add(new long[]{start, end});
+            previousEnd = end;
+        }
+
+        return ranges;
+    }
+}
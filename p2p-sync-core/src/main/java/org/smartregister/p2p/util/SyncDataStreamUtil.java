@@ -0,0 +1,199 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.smartregister.p2p.sync.data.JsonDataRecordCursor;
+import org.smartregister.p2p.sync.data.JsonRecordCursor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * Reads and writes the records sent during a sync. {@code SyncDataConverterUtil} extends this class
+ * with the helpers that need an Android {@code Context}.
+ */
+
+public class SyncDataStreamUtil {
+
+    @NonNull
+    public static String readInputStreamAsString(InputStream in)
+            throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(in);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        int result = bis.read();
+        while(result != -1) {
+            byte b = (byte)result;
+            buf.write(b);
+            result = bis.read();
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Serializes the records one at a time into the output stream so that the batch is never held in
+     * memory as a single {@link String} or byte array. The output stream is flushed but not closed.
+     *
+     * @param jsonArray the records to write
+     * @param outputStream the stream to write the records to
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public static long writeJsonArray(@NonNull JSONArray jsonArray, @NonNull OutputStream outputStream)
+            throws IOException {
+        return writeJsonRecords(new JsonDataRecordCursor(jsonArray, 0), outputStream);
+    }
+
+    /**
+     * Writes the records from the cursor into the output stream as a JSON array, one record at a time.
+     * The output stream is flushed but neither the stream nor the cursor is closed.
+     *
+     * @param jsonRecordCursor the records to write
+     * @param outputStream the stream to write the records to
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public static long writeJsonRecords(@NonNull JsonRecordCursor jsonRecordCursor, @NonNull OutputStream outputStream)
+            throws IOException {
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+        JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(countingOutputStream, "UTF-8"));
+
+        jsonWriter.beginArray();
+        while (jsonRecordCursor.moveToNext()) {
+            jsonWriter.jsonValue(jsonRecordCursor.getRecord());
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+
+        return countingOutputStream.getCount();
+    }
+
+    /**
+     * Gets the number of bytes {@link #writeJsonArray(JSONArray, OutputStream)} will write for the records
+     * without keeping the serialized records in memory
+     *
+     * @param jsonArray the records
+     * @return the size of the serialized records in bytes
+     * @throws IOException
+     */
+    public static long getSerializedSize(@NonNull JSONArray jsonArray) throws IOException {
+        return writeJsonArray(jsonArray, new OutputStream() {
+            @Override
+            public void write(int b) {
+                // Only the count is needed
+            }
+
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) {
+                // Only the count is needed
+            }
+        });
+    }
+
+    /**
+     * Parses a JSON array of records from the input stream as the bytes arrive and hands the records
+     * over in batches so that the whole array is never held in memory
+     *
+     * @param in the stream containing the JSON array
+     * @param batchSize the maximum number of records handed over at once
+     * @param onJsonBatchReadListener receives each batch of records
+     * @return the total number of records read
+     * @throws Exception
+     */
+    public static int readJsonArrayInBatches(@NonNull InputStream in, int batchSize
+            , @NonNull OnJsonBatchReadListener onJsonBatchReadListener) throws Exception {
+        JsonReader jsonReader = new JsonReader(new InputStreamReader(new BufferedInputStream(in), "UTF-8"));
+        int recordsSize = 0;
+        int maxBatchSize = Math.max(1, batchSize);
+        JSONArray batch = new JSONArray();
+
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            batch.put(readJsonValue(jsonReader));
+            recordsSize++;
+
+            if (batch.length() >= maxBatchSize) {
+                onJsonBatchReadListener.onJsonBatchRead(batch);
+                batch = new JSONArray();
+            }
+        }
+        jsonReader.endArray();
+
+        if (batch.length() > 0) {
+            onJsonBatchReadListener.onJsonBatchRead(batch);
+        }
+
+        return recordsSize;
+    }
+
+    @Nullable
+    private static Object readJsonValue(@NonNull JsonReader jsonReader) throws IOException, JSONException {
+        JsonToken jsonToken = jsonReader.peek();
+
+        if (jsonToken == JsonToken.BEGIN_OBJECT) {
+            JSONObject jsonObject = new JSONObject();
+
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                jsonObject.put(jsonReader.nextName(), readJsonValue(jsonReader));
+            }
+            jsonReader.endObject();
+
+            return jsonObject;
+        } else if (jsonToken == JsonToken.BEGIN_ARRAY) {
+            JSONArray jsonArray = new JSONArray();
+
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                jsonArray.put(readJsonValue(jsonReader));
+            }
+            jsonReader.endArray();
+
+            return jsonArray;
+        } else if (jsonToken == JsonToken.NUMBER) {
+            return parseNumber(jsonReader.nextString());
+        } else if (jsonToken == JsonToken.BOOLEAN) {
+            return jsonReader.nextBoolean();
+        } else if (jsonToken == JsonToken.NULL) {
+            jsonReader.nextNull();
+            return JSONObject.NULL;
+        } else {
+            return jsonReader.nextString();
+        }
+    }
+
+    @NonNull
+    private static Number parseNumber(@NonNull String number) {
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                long longValue = Long.parseLong(number);
+                if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+                    return (int) longValue;
+                }
+
+                return longValue;
+            } catch (NumberFormatException e) {
+                // The number is too large for a long
+            }
+        }
+
+        return Double.valueOf(number);
+    }
+
+    public interface OnJsonBatchReadListener {
+
+        void onJsonBatchRead(@NonNull JSONArray records) throws Exception;
+    }
+}
@@ -1,11 +1,15 @@
 package org.smartregister.p2p.model;
 
+import com.google.gson.Gson;
+
 import org.junit.Test;
 
 import java.util.Iterator;
 import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 
 /**
  * Created by Ephraim Kigamba - ekigamba@ona.io on 29/03/2019
@@ -32,4 +36,18 @@ public class DataTypeTest {
         assertEquals(2, iterator.next().getPosition());
         assertEquals(3, iterator.next().getPosition());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void transferHintsShouldNotBeSerializedWithDataType() {
+        TransferHints transferHints = new TransferHints();
+        transferHints.setMaxBatchSize(5);
+        transferHints.setMaxPayloadSize(1024);
+
+        DataType event = new DataType("event", DataType.Type.NON_MEDIA, 1, transferHints);
+        String json = new Gson().toJson(event);
+
+        assertEquals(5, event.getTransferHints().getMaxBatchSize());
+        assertFalse(json.contains("transferHints"));
+        assertNull(new Gson().fromJson(json, DataType.class).getTransferHints());
+    }
+}
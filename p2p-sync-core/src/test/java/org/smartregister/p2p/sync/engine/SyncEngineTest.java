@@ -0,0 +1,281 @@
+package org.smartregister.p2p.sync.engine;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.p2p.callback.OnResultCallback;
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.model.dao.ReceiverTransferDao;
+import org.smartregister.p2p.model.dao.SenderTransferDao;
+import org.smartregister.p2p.sync.data.JsonData;
+import org.smartregister.p2p.sync.data.MultiMediaData;
+import org.smartregister.p2p.transport.LoopbackNetwork;
+import org.smartregister.p2p.transport.LoopbackTransport;
+import org.smartregister.p2p.transport.NetworkConditions;
+import org.smartregister.p2p.transport.SimulatedTransport;
+import org.smartregister.p2p.transport.Transport;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyncEngineTest {
+
+    private static final String SERVICE_ID = "org.smartregister.p2p.test";
+    private static final int EVENT_RECORDS = 60000;
+    private static final int CLIENT_RECORDS = 40000;
+    private static final int BATCH_SIZE = 1000;
+
+    private DataType event = new DataType("event", DataType.Type.NON_MEDIA, 0);
+    private DataType client = new DataType("client", DataType.Type.NON_MEDIA, 1);
+    private DataType profilePic = new DataType("profile-pic", DataType.Type.MEDIA, 2);
+    private TreeSet<DataType> dataTypes = new TreeSet<>();
+
+    private ExecutorService senderExecutor;
+    private ExecutorService receiverExecutor;
+    private SyncSenderEngine syncSenderEngine;
+    private SyncReceiverEngine syncReceiverEngine;
+    private LoopbackTransport senderTransport;
+    private LoopbackTransport receiverTransport;
+    private TestReceiverTransferDao receiverTransferDao;
+    private Exception syncFailure;
+
+    @Before
+    public void setUp() {
+        dataTypes.add(event);
+        dataTypes.add(client);
+        dataTypes.add(profilePic);
+
+        senderExecutor = Executors.newSingleThreadExecutor();
+        receiverExecutor = Executors.newSingleThreadExecutor();
+        receiverTransferDao = new TestReceiverTransferDao();
+    }
+
+    @After
+    public void tearDown() {
+        senderExecutor.shutdownNow();
+        receiverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void syncShouldTransferAllRecordsToReceiver() throws Exception {
+        sync(Collections.<String, Long>emptyMap());
+
+        assertNull(syncFailure);
+        assertEquals(EVENT_RECORDS, (int) receiverTransferDao.receivedRecords.get(event.getName()));
+        assertEquals(CLIENT_RECORDS, (int) receiverTransferDao.receivedRecords.get(client.getName()));
+        assertEquals(EVENT_RECORDS, (long) syncReceiverEngine.getReceivedHistory().get(event.getName()));
+        assertEquals(CLIENT_RECORDS, (long) syncReceiverEngine.getReceivedHistory().get(client.getName()));
+        assertEquals(syncReceiverEngine.getTransferProgress(), syncSenderEngine.getTransferProgress());
+        assertEquals(syncReceiverEngine.getReceivedHistory(), syncSenderEngine.getLastRecordIds());
+    }
+
+    @Test
+    public void syncShouldOnlyTransferRecordsAfterReceivedHistory() throws Exception {
+        HashMap<String, Long> receivedHistory = new HashMap<>();
+        receivedHistory.put(event.getName(), (long) EVENT_RECORDS - 1500);
+
+        sync(receivedHistory);
+
+        assertNull(syncFailure);
+        assertEquals(1500, (int) receiverTransferDao.receivedRecords.get(event.getName()));
+        assertEquals(CLIENT_RECORDS, (int) receiverTransferDao.receivedRecords.get(client.getName()));
+        assertEquals(EVENT_RECORDS, (long) syncReceiverEngine.getReceivedHistory().get(event.getName()));
+    }
+
+    @Test
+    public void syncShouldResendFailedPayloads() throws Exception {
+        NetworkConditions networkConditions = new NetworkConditions();
+        networkConditions.setPayloadFailureRate(0.1);
+        networkConditions.setSeed(7);
+
+        sync(Collections.<String, Long>emptyMap(), networkConditions, 10);
+
+        int failedPayloads = ((SimulatedTransport) senderTransport).getFailedPayloads()
+                + ((SimulatedTransport) receiverTransport).getFailedPayloads();
+
+        assertNull(syncFailure);
+        assertTrue(failedPayloads > 0);
+        assertEquals(failedPayloads, syncSenderEngine.getRetryCount() + syncReceiverEngine.getRetryCount());
+        assertEquals(EVENT_RECORDS, (int) receiverTransferDao.receivedRecords.get(event.getName()));
+        assertEquals(CLIENT_RECORDS, (int) receiverTransferDao.receivedRecords.get(client.getName()));
+    }
+
+    @Test
+    public void syncShouldFailWhenPayloadSendFailsAfterMaxRetries() throws Exception {
+        NetworkConditions networkConditions = new NetworkConditions();
+        networkConditions.setPayloadFailureRate(1);
+
+        sync(Collections.<String, Long>emptyMap(), networkConditions, 2);
+
+        assertNotNull(syncFailure);
+        assertEquals("Payload send failed up-to 2", syncFailure.getMessage());
+        assertEquals(2, syncReceiverEngine.getRetryCount());
+    }
+
+    private void sync(@NonNull Map<String, Long> receivedHistory) throws InterruptedException {
+        sync(receivedHistory, null, BaseSyncEngine.DEFAULT_SEND_MAX_RETRIES);
+    }
+
+    private void sync(@NonNull Map<String, Long> receivedHistory, @Nullable NetworkConditions networkConditions
+            , int sendMaxRetries) throws InterruptedException {
+        LoopbackNetwork loopbackNetwork = new LoopbackNetwork();
+        receiverTransport = networkConditions != null ? new SimulatedTransport(loopbackNetwork, networkConditions)
+                : new LoopbackTransport(loopbackNetwork);
+        senderTransport = networkConditions != null ? new SimulatedTransport(loopbackNetwork, networkConditions)
+                : new LoopbackTransport(loopbackNetwork);
+        final CountDownLatch syncLatch = new CountDownLatch(2);
+
+        BaseSyncEngine.Callback callback = new BaseSyncEngine.Callback() {
+            @Override
+            public void onSyncComplete(@NonNull BaseSyncEngine syncEngine) {
+                syncLatch.countDown();
+            }
+
+            @Override
+            public void onSyncFailed(@NonNull BaseSyncEngine syncEngine, @NonNull Exception e) {
+                syncFailure = e;
+                syncLatch.countDown();
+                syncLatch.countDown();
+            }
+        };
+
+        syncReceiverEngine = new SyncReceiverEngine(receiverTransport, senderTransport.getEndpointId()
+                , receiverTransferDao, receivedHistory, receiverExecutor, callback);
+        syncSenderEngine = new SyncSenderEngine(senderTransport, receiverTransport.getEndpointId()
+                , new TestSenderTransferDao(), dataTypes, BATCH_SIZE, senderExecutor, callback);
+        syncReceiverEngine.setSendMaxRetries(sendMaxRetries);
+        syncSenderEngine.setSendMaxRetries(sendMaxRetries);
+
+        receiverTransport.startAdvertising("receiver", SERVICE_ID
+                , new AcceptingConnectionCallback(receiverTransport, syncReceiverEngine) {
+                    @Override
+                    public void onConnectionResult(@NonNull String endpointId, int status) {
+                        if (status == Transport.CONNECTION_STATUS_OK) {
+                            syncReceiverEngine.start();
+                        }
+                    }
+                }, new IgnoredResultCallback());
+        senderTransport.requestConnection("sender", receiverTransport.getEndpointId()
+                , new AcceptingConnectionCallback(senderTransport, syncSenderEngine), new IgnoredResultCallback());
+
+        assertTrue(syncLatch.await(2, TimeUnit.MINUTES));
+    }
+
+    private class TestSenderTransferDao implements SenderTransferDao {
+
+        @Nullable
+        @Override
+        public TreeSet<DataType> getDataTypes() {
+            return dataTypes;
+        }
+
+        @Nullable
+        @Override
+        public JsonData getJsonData(@NonNull DataType dataType, long lastRecordId, int batchSize) {
+            int recordCount = dataType == event ? EVENT_RECORDS : CLIENT_RECORDS;
+            long highestRecordId = Math.min(lastRecordId + batchSize, recordCount);
+            if (highestRecordId <= lastRecordId) {
+                return null;
+            }
+
+            JSONArray jsonArray = new JSONArray();
+            for (long recordId = lastRecordId + 1; recordId <= highestRecordId; recordId++) {
+                JSONObject record = new JSONObject();
+                record.put("_id", recordId);
+                record.put("type", dataType.getName());
+                record.put("baseEntityId", "4f2c5a1e-" + recordId);
+                record.put("dateCreated", "2019-05-17T10:15:30.000Z");
+                jsonArray.put(record);
+            }
+
+            return new JsonData(jsonArray, highestRecordId);
+        }
+
+        @Nullable
+        @Override
+        public MultiMediaData getMultiMediaData(@NonNull DataType dataType, long lastRecordId) {
+            return null;
+        }
+    }
+
+    private class TestReceiverTransferDao implements ReceiverTransferDao {
+
+        private HashMap<String, Integer> receivedRecords = new HashMap<>();
+
+        @Override
+        public TreeSet<DataType> getDataTypes() {
+            return dataTypes;
+        }
+
+        @Override
+        public long receiveJson(@NonNull DataType type, @NonNull JSONArray jsonArray) {
+            Integer records = receivedRecords.get(type.getName());
+            receivedRecords.put(type.getName(), (records != null ? records : 0) + jsonArray.length());
+
+            return jsonArray.getJSONObject(jsonArray.length() - 1).getLong("_id");
+        }
+
+        @Override
+        public long receiveMultimedia(@NonNull DataType dataType, @NonNull File file
+                , @Nullable HashMap<String, Object> multimediaDetails, long fileRecordId) {
+            return -1;
+        }
+    }
+
+    private static class AcceptingConnectionCallback implements Transport.ConnectionCallback {
+
+        private Transport transport;
+        private Transport.PayloadCallback payloadCallback;
+
+        private AcceptingConnectionCallback(@NonNull Transport transport, @NonNull Transport.PayloadCallback payloadCallback) {
+            this.transport = transport;
+            this.payloadCallback = payloadCallback;
+        }
+
+        @Override
+        public void onConnectionInitiated(@NonNull String endpointId, @NonNull String endpointName
+                , @NonNull String authenticationToken, boolean incomingConnection) {
+            transport.acceptConnection(endpointId, payloadCallback);
+        }
+
+        @Override
+        public void onConnectionResult(@NonNull String endpointId, int status) {
+            // Only the receiver starts the sync
+        }
+
+        @Override
+        public void onDisconnected(@NonNull String endpointId) {
+            // Not tested
+        }
+    }
+
+    private static class IgnoredResultCallback implements OnResultCallback {
+
+        @Override
+        public void onSuccess(@Nullable Object object) {
+            // Not tested
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            // Not tested
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.smartregister.p2p.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartregister.p2p.model.P2pReceivedHistory;
+import org.smartregister.p2p.sync.data.HistoryWatermark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HistoryWatermarkCodecTest {
+
+    @Test
+    public void writeAndReadShouldReturnWatermarksSortedByPosition() throws Exception {
+        HistoryWatermark eventWatermark = new HistoryWatermark(7, 300000);
+        eventWatermark.getReceivedRanges().add(new long[]{300010, 300020});
+        eventWatermark.getReceivedRanges().add(new long[]{300500, 301000});
+
+        List<HistoryWatermark> historyWatermarks = new ArrayList<>();
+        historyWatermarks.add(eventWatermark);
+        historyWatermarks.add(new HistoryWatermark(2, 45));
+
+        byte[] bytes = HistoryWatermarkCodec.write(historyWatermarks);
+        List<HistoryWatermark> readWatermarks = HistoryWatermarkCodec.read(bytes);
+
+        Assert.assertEquals(2, readWatermarks.size());
+        Assert.assertEquals(2, readWatermarks.get(0).getPosition());
+        Assert.assertEquals(45, readWatermarks.get(0).getLastRecordId());
+        Assert.assertTrue(readWatermarks.get(0).getReceivedRanges().isEmpty());
+
+        Assert.assertEquals(7, readWatermarks.get(1).getPosition());
+        Assert.assertEquals(300000, readWatermarks.get(1).getLastRecordId());
+        Assert.assertEquals(2, readWatermarks.get(1).getReceivedRanges().size());
+        Assert.assertArrayEquals(new long[]{300010, 300020}, readWatermarks.get(1).getReceivedRanges().get(0));
+        Assert.assertArrayEquals(new long[]{300500, 301000}, readWatermarks.get(1).getReceivedRanges().get(1));
+
+        // Version, size, then position delta, record id and ranges size for each entry
+        Assert.assertTrue(bytes.length < 20);
+    }
+
+    @Test(expected = IOException.class)
+    public void writeShouldThrowExceptionWhenRangeIsBelowLastRecordId() throws Exception {
+        HistoryWatermark historyWatermark = new HistoryWatermark(0, 100);
+        historyWatermark.getReceivedRanges().add(new long[]{50, 60});
+
+        HistoryWatermarkCodec.write(Arrays.asList(historyWatermark));
+    }
+
+    @Test(expected = IOException.class)
+    public void readShouldThrowExceptionWhenVersionIsNotSupported() throws Exception {
+        HistoryWatermarkCodec.read(new byte[]{9, 0});
+    }
+
+    @Test
+    public void toWatermarksShouldSkipDataTypesThatWereNotOfferedOrHaveNoRecords() throws Exception {
+        List<P2pReceivedHistory> receivedHistory = new ArrayList<>();
+        receivedHistory.add(createReceivedHistory("event", 90));
+        receivedHistory.add(createReceivedHistory("client", 0));
+        receivedHistory.add(createReceivedHistory("retired-type", 12));
+
+        List<String> dataTypeNames = Arrays.asList("client", "event", "image");
+        List<HistoryWatermark> historyWatermarks = HistoryWatermarkCodec.toWatermarks(receivedHistory, dataTypeNames);
+
+        Assert.assertEquals(1, historyWatermarks.size());
+        Assert.assertEquals(1, historyWatermarks.get(0).getPosition());
+
+        List<P2pReceivedHistory> readHistory = HistoryWatermarkCodec.toReceivedHistory(
+                HistoryWatermarkCodec.read(HistoryWatermarkCodec.write(historyWatermarks)), dataTypeNames);
+
+        Assert.assertEquals(1, readHistory.size());
+        Assert.assertEquals("event", readHistory.get(0).getEntityType());
+        Assert.assertEquals(90, readHistory.get(0).getLastRecordId());
+    }
+
+    @Test
+    public void toWatermarksShouldKeepReceivedRangesOfDataTypes() throws Exception {
+        RecordIdRangeSet recordIdRangeSet = new RecordIdRangeSet(0);
+        recordIdRangeSet.add(400, 500);
+
+        P2pReceivedHistory eventHistory = createReceivedHistory("event", 0);
+        eventHistory.setReceivedRanges(recordIdRangeSet.toBytes());
+
+        List<String> dataTypeNames = Arrays.asList("client", "event");
+        List<HistoryWatermark> historyWatermarks = HistoryWatermarkCodec.toWatermarks(Arrays.asList(eventHistory), dataTypeNames);
+
+        Assert.assertEquals(1, historyWatermarks.size());
+        Assert.assertArrayEquals(new long[]{401, 501}, historyWatermarks.get(0).getReceivedRanges().get(0));
+
+        List<P2pReceivedHistory> readHistory = HistoryWatermarkCodec.toReceivedHistory(
+                HistoryWatermarkCodec.read(HistoryWatermarkCodec.write(historyWatermarks)), dataTypeNames);
+
+        Assert.assertEquals(0, readHistory.get(0).getLastRecordId());
+        Assert.assertArrayEquals(recordIdRangeSet.toBytes(), readHistory.get(0).getReceivedRanges());
+    }
+
+    @Test(expected = IOException.class)
+    public void toReceivedHistoryShouldThrowExceptionWhenPositionWasNotOffered() throws Exception {
+        HistoryWatermarkCodec.toReceivedHistory(Arrays.asList(new HistoryWatermark(3, 10)), Arrays.asList("client", "event"));
+    }
+
+    private P2pReceivedHistory createReceivedHistory(String entityType, long lastRecordId) {
+        P2pReceivedHistory receivedHistory = new P2pReceivedHistory();
+        receivedHistory.setEntityType(entityType);
+        receivedHistory.setLastRecordId(lastRecordId);
+
+        return receivedHistory;
+    }
+}
@@ -0,0 +1,89 @@
+package org.smartregister.p2p.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartregister.p2p.model.P2pReceivedHistory;
+
+import java.util.Arrays;
+
+public class RecordIdRangeSetTest {
+
+    @Test
+    public void addShouldKeepRangesAboveGapAndMoveLastRecordIdWhenGapIsFilled() {
+        RecordIdRangeSet recordIdRangeSet = new RecordIdRangeSet(100);
+
+        recordIdRangeSet.add(300, 400);
+        recordIdRangeSet.add(200, 300);
+        Assert.assertEquals(100, recordIdRangeSet.getLastRecordId());
+        Assert.assertEquals(1, recordIdRangeSet.getRanges().size());
+        Assert.assertArrayEquals(new long[]{201, 401}, recordIdRangeSet.getRanges().get(0));
+
+        recordIdRangeSet.add(500, 600);
+        Assert.assertEquals(2, recordIdRangeSet.getRanges().size());
+
+        recordIdRangeSet.add(100, 200);
+        Assert.assertEquals(400, recordIdRangeSet.getLastRecordId());
+        Assert.assertEquals(1, recordIdRangeSet.getRanges().size());
+        Assert.assertArrayEquals(new long[]{501, 601}, recordIdRangeSet.getRanges().get(0));
+    }
+
+    @Test
+    public void addShouldIgnoreBatchesThatHaveAlreadyBeenReceived() {
+        RecordIdRangeSet recordIdRangeSet = new RecordIdRangeSet(100, Arrays.asList(new long[]{201, 301}));
+
+        recordIdRangeSet.add(50, 100);
+        recordIdRangeSet.add(220, 250);
+
+        Assert.assertEquals(100, recordIdRangeSet.getLastRecordId());
+        Assert.assertEquals(1, recordIdRangeSet.getRanges().size());
+        Assert.assertArrayEquals(new long[]{201, 301}, recordIdRangeSet.getRanges().get(0));
+    }
+
+    @Test
+    public void getReceivedUpToShouldSkipRangesThatStartRightAfterRecordId() {
+        RecordIdRangeSet recordIdRangeSet = new RecordIdRangeSet(100, Arrays.asList(new long[]{301, 401}, new long[]{201, 301}
+                , new long[]{501, 601}));
+
+        Assert.assertEquals(2, recordIdRangeSet.getRanges().size());
+        Assert.assertArrayEquals(new long[]{201, 401}, recordIdRangeSet.getRanges().get(0));
+        Assert.assertEquals(100, recordIdRangeSet.getReceivedUpTo(20));
+        Assert.assertEquals(150, recordIdRangeSet.getReceivedUpTo(150));
+        Assert.assertEquals(400, recordIdRangeSet.getReceivedUpTo(200));
+        Assert.assertEquals(400, recordIdRangeSet.getReceivedUpTo(250));
+
+        Assert.assertEquals(201, recordIdRangeSet.getNextRangeStart(100));
+        Assert.assertEquals(501, recordIdRangeSet.getNextRangeStart(400));
+        Assert.assertEquals(-1, recordIdRangeSet.getNextRangeStart(600));
+    }
+
+    @Test
+    public void ofShouldReadRangesWrittenByToBytes() {
+        RecordIdRangeSet recordIdRangeSet = new RecordIdRangeSet(10);
+        Assert.assertNull(recordIdRangeSet.toBytes());
+
+        recordIdRangeSet.add(5000, 5100);
+        recordIdRangeSet.add(90000, 90100);
+
+        P2pReceivedHistory receivedHistory = new P2pReceivedHistory();
+        receivedHistory.setLastRecordId(recordIdRangeSet.getLastRecordId());
+        receivedHistory.setReceivedRanges(recordIdRangeSet.toBytes());
+
+        RecordIdRangeSet readRecordIdRangeSet = RecordIdRangeSet.of(receivedHistory);
+        Assert.assertEquals(10, readRecordIdRangeSet.getLastRecordId());
+        Assert.assertEquals(2, readRecordIdRangeSet.getRanges().size());
+        Assert.assertArrayEquals(new long[]{5001, 5101}, readRecordIdRangeSet.getRanges().get(0));
+        Assert.assertArrayEquals(new long[]{90001, 90101}, readRecordIdRangeSet.getRanges().get(1));
+    }
+
+    @Test
+    public void ofShouldDropRangesWhenTheyCannotBeRead() {
+        P2pReceivedHistory receivedHistory = new P2pReceivedHistory();
+        receivedHistory.setEntityType("event");
+        receivedHistory.setLastRecordId(10);
+        receivedHistory.setReceivedRanges(new byte[]{5, 1});
+
+        RecordIdRangeSet recordIdRangeSet = RecordIdRangeSet.of(receivedHistory);
+        Assert.assertEquals(10, recordIdRangeSet.getLastRecordId());
+        Assert.assertTrue(recordIdRangeSet.getRanges().isEmpty());
+    }
+}
@@ -149,6 +149,79 @@ public final class P2PLibrary {
         return options.getBatchSize();
     }
 
+    public int getSendPipelineDepth() {
+        return options.getSendPipelineDepth();
+    }
+
+    public int getTransferWindowSize() {
+        return options.getTransferWindowSize();
+    }
+
+    public int getReceiveBatchSize() {
+        return options.getReceiveBatchSize();
+    }
+
+    public int getReceiveConcurrency() {
+        return options.getReceiveConcurrency();
+    }
+
+    public boolean isAdaptiveBatchSize() {
+        return options.isAdaptiveBatchSize();
+    }
+
+    public long getTargetPayloadSize() {
+        return options.getTargetPayloadSize();
+    }
+
+    public long getTargetPayloadDuration() {
+        return options.getTargetPayloadDuration();
+    }
+
+    @NonNull
+    public String getPayloadEncoding() {
+        return options.getPayloadEncoding();
+    }
+
+    public int getCompressionLevel() {
+        return options.getCompressionLevel();
+    }
+
+    public boolean isBinaryWireFormat() {
+        return options.isBinaryWireFormat();
+    }
+
+    public boolean isBinaryRecords() {
+        return options.isBinaryRecords();
+    }
+
+    public boolean isFramedStream() {
+        return options.isFramedStream();
+    }
+
+    public long getMediaBundleFileSize() {
+        return options.getMediaBundleFileSize();
+    }
+
+    public boolean isMediaLane() {
+        return options.isMediaLane();
+    }
+
+    public long getMediaChunkSize() {
+        return options.getMediaChunkSize();
+    }
+
+    public long getSessionResumeTimeout() {
+        return options.getSessionResumeTimeout();
+    }
+
+    public boolean isHistoryWatermarks() {
+        return options.isHistoryWatermarks();
+    }
+
+    public boolean isRecordDeduplication() {
+        return options.isRecordDeduplication();
+    }
+
     public long getDeviceMaxRetryConnectionDuration() {
         return options.getDeviceMaxRetryConnectionDuration();
     }
@@ -170,6 +243,24 @@ public final class P2PLibrary {
         @Nullable
         private RecalledIdentifier recalledIdentifier;
         private int batchSize = Constants.DEFAULT_SHARE_BATCH_SIZE;
+        private int sendPipelineDepth = Constants.DEFAULT_SEND_PIPELINE_DEPTH;
+        private int transferWindowSize = Constants.DEFAULT_TRANSFER_WINDOW_SIZE;
+        private int receiveBatchSize = Constants.DEFAULT_RECEIVE_BATCH_SIZE;
+        private int receiveConcurrency = Constants.DEFAULT_RECEIVE_CONCURRENCY;
+        private boolean adaptiveBatchSize;
+        private long targetPayloadSize = Constants.DEFAULT_TARGET_PAYLOAD_SIZE;
+        private long targetPayloadDuration = Constants.DEFAULT_TARGET_PAYLOAD_DURATION;
+        private String payloadEncoding = Constants.Encoding.IDENTITY;
+        private int compressionLevel = Constants.DEFAULT_COMPRESSION_LEVEL;
+        private boolean binaryWireFormat;
+        private boolean binaryRecords;
+        private boolean framedStream;
+        private long mediaBundleFileSize;
+        private boolean mediaLane;
+        private long mediaChunkSize;
+        private long sessionResumeTimeout;
+        private boolean historyWatermarks;
+        private boolean recordDeduplication;
 
         private long deviceMaxRetryConnectionDuration = Constants.DEFAULT_MIN_DEVICE_CONNECTION_RETRY_DURATION;
 
@@ -192,6 +283,272 @@ public final class P2PLibrary {
             return batchSize;
         }
 
+        /**
+         * Sets the number of batches the sender reads and serializes ahead of the batch currently
+         * being transferred. A depth of {@code 0} reads the next batch only after the receiver
+         * has acknowledged the current one.
+         *
+         * @param sendPipelineDepth the maximum number of prepared batches kept in memory
+         */
+        public void setSendPipelineDepth(int sendPipelineDepth) {
+            this.sendPipelineDepth = sendPipelineDepth;
+        }
+
+        public int getSendPipelineDepth() {
+            return sendPipelineDepth;
+        }
+
+        /**
+         * Sets the number of payloads the sender can have sent without an acknowledgement from the
+         * receiver before it stops to wait. A window size of {@code 1} waits for each payload to
+         * be acknowledged before the next manifest is sent.
+         *
+         * @param transferWindowSize the maximum number of unacknowledged payloads
+         */
+        public void setTransferWindowSize(int transferWindowSize) {
+            this.transferWindowSize = transferWindowSize;
+        }
+
+        public int getTransferWindowSize() {
+            return transferWindowSize;
+        }
+
+        /**
+         * Sets the maximum number of records passed to {@link ReceiverTransferDao#receiveJson}
+         * at once while a payload is being read
+         *
+         * @param receiveBatchSize the maximum number of records per call
+         */
+        public void setReceiveBatchSize(int receiveBatchSize) {
+            this.receiveBatchSize = receiveBatchSize;
+        }
+
+        public int getReceiveBatchSize() {
+            return receiveBatchSize;
+        }
+
+        /**
+         * Sets the number of data types whose received payloads can be processed at the same time.
+         * Payloads of the same data type are always processed one after the other.
+         *
+         * @param receiveConcurrency the maximum number of data types processed in parallel
+         */
+        public void setReceiveConcurrency(int receiveConcurrency) {
+            this.receiveConcurrency = receiveConcurrency;
+        }
+
+        public int getReceiveConcurrency() {
+            return receiveConcurrency;
+        }
+
+        /**
+         * Enables or disables resizing the batches of each data type from the measured record sizes
+         * and connection throughput. It is disabled by default and every batch is then read with the
+         * fixed batch size. The batch size set in {@link #setBatchSize(int)} is always used for the
+         * first batch.
+         *
+         * @param adaptiveBatchSize {@code true} to resize the batches
+         */
+        public void setAdaptiveBatchSize(boolean adaptiveBatchSize) {
+            this.adaptiveBatchSize = adaptiveBatchSize;
+        }
+
+        public boolean isAdaptiveBatchSize() {
+            return adaptiveBatchSize;
+        }
+
+        /**
+         * @param targetPayloadSize the preferred size in bytes of a batch payload when the batch size is adaptive
+         */
+        public void setTargetPayloadSize(long targetPayloadSize) {
+            this.targetPayloadSize = targetPayloadSize;
+        }
+
+        public long getTargetPayloadSize() {
+            return targetPayloadSize;
+        }
+
+        /**
+         * @param targetPayloadDuration the preferred time in milliseconds taken to send a batch payload
+         *                              when the batch size is adaptive
+         */
+        public void setTargetPayloadDuration(long targetPayloadDuration) {
+            this.targetPayloadDuration = targetPayloadDuration;
+        }
+
+        public long getTargetPayloadDuration() {
+            return targetPayloadDuration;
+        }
+
+        /**
+         * Sets the compression used for the record batches sent from this device. The batches are
+         * only compressed if the receiving device has accepted the encoding during the connection,
+         * otherwise they are sent uncompressed.
+         *
+         * @param payloadEncoding one of {@link Constants.Encoding}
+         */
+        public void setPayloadEncoding(@NonNull String payloadEncoding) {
+            this.payloadEncoding = payloadEncoding;
+        }
+
+        @NonNull
+        public String getPayloadEncoding() {
+            return payloadEncoding;
+        }
+
+        /**
+         * @param compressionLevel the compression level from {@code 1} (fastest) to {@code 9} (smallest)
+         */
+        public void setCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+        }
+
+        public int getCompressionLevel() {
+            return compressionLevel;
+        }
+
+        /**
+         * Sends the manifests and control messages from this device as compact binary frames instead
+         * of JSON. The binary frames are only used if the receiving device supports them, otherwise
+         * JSON is used.
+         *
+         * @param binaryWireFormat {@code true} to use binary frames
+         */
+        public void setBinaryWireFormat(boolean binaryWireFormat) {
+            this.binaryWireFormat = binaryWireFormat;
+        }
+
+        public boolean isBinaryWireFormat() {
+            return binaryWireFormat;
+        }
+
+        /**
+         * Sends the record batches from this device in a compact binary encoding instead of a JSON
+         * array. The binary encoding is only used if the receiving device supports it, otherwise
+         * JSON is used.
+         *
+         * @param binaryRecords {@code true} to use the binary record encoding
+         */
+        public void setBinaryRecords(boolean binaryRecords) {
+            this.binaryRecords = binaryRecords;
+        }
+
+        public boolean isBinaryRecords() {
+            return binaryRecords;
+        }
+
+        /**
+         * Sends all the record batches from this device as frames on a single stream payload instead
+         * of a manifest and a payload per batch. Each frame is still acknowledged by the receiving
+         * device. The framed stream is only used if the receiving device supports it.
+         *
+         * @param framedStream {@code true} to send the batches on a framed stream
+         */
+        public void setFramedStream(boolean framedStream) {
+            this.framedStream = framedStream;
+        }
+
+        public boolean isFramedStream() {
+            return framedStream;
+        }
+
+        /**
+         * Sends consecutive media files that are not larger than the given size together in a
+         * single bundle payload instead of a manifest and a payload per file. Bundles are only
+         * sent if the receiving device supports them.
+         *
+         * @param mediaBundleFileSize the size in bytes up to which a media file is bundled or {@code 0}
+         *                            to send every media file on its own
+         */
+        public void setMediaBundleFileSize(long mediaBundleFileSize) {
+            this.mediaBundleFileSize = mediaBundleFileSize;
+        }
+
+        public long getMediaBundleFileSize() {
+            return mediaBundleFileSize;
+        }
+
+        /**
+         * Sends the media data types in a lane of their own alongside the other data types instead
+         * of after them. Each lane sends its data types in the order of their positions and has its
+         * own manifest, payload and transfer window in flight.
+         *
+         * @param mediaLane {@code true} to send the media data types in their own lane
+         */
+        public void setMediaLane(boolean mediaLane) {
+            this.mediaLane = mediaLane;
+        }
+
+        public boolean isMediaLane() {
+            return mediaLane;
+        }
+
+        /**
+         * Sends media files larger than this size in chunks of this size, each in a payload of its
+         * own. The receiving device keeps the chunks it has received so a file whose transfer fails
+         * or is interrupted by a lost connection is resumed from the missing chunks instead of being
+         * sent again from the start. This is disabled by default.
+         *
+         * @param mediaChunkSize the chunk size in bytes or {@code 0} to send media files whole
+         */
+        public void setMediaChunkSize(long mediaChunkSize) {
+            this.mediaChunkSize = mediaChunkSize;
+        }
+
+        public long getMediaChunkSize() {
+            return mediaChunkSize;
+        }
+
+        /**
+         * Keeps the sync session when the connection is broken during a sync so that the sender
+         * reconnecting to the same receiver within this time presents the session token it was
+         * given and both devices continue from the last acknowledged batch. The authentication,
+         * authorization and received history exchange are not done again. This is disabled by
+         * default.
+         *
+         * @param sessionResumeTimeout the time in milliseconds a broken session can be resumed or
+         *                             {@code 0} to end the sync when the connection is broken
+         */
+        public void setSessionResumeTimeout(long sessionResumeTimeout) {
+            this.sessionResumeTimeout = sessionResumeTimeout;
+        }
+
+        public long getSessionResumeTimeout() {
+            return sessionResumeTimeout;
+        }
+
+        /**
+         * Offers the data type names when connecting so that the receiver replies with the
+         * received history as a compact binary vector of the last record id at each data type
+         * position instead of the full list. The received history is sent as a list to receivers
+         * that do not support it.
+         *
+         * @param historyWatermarks {@code true} to receive the received history as watermarks
+         */
+        public void setHistoryWatermarks(boolean historyWatermarks) {
+            this.historyWatermarks = historyWatermarks;
+        }
+
+        public boolean isHistoryWatermarks() {
+            return historyWatermarks;
+        }
+
+        /**
+         * Skips the records the receiver already has, such as those it received from another
+         * sending device. The sender offers the digests of a batch's records before sending it and
+         * only sends the records the receiver does not know. The receiver keeps the digests of the
+         * records it commits while this is enabled.
+         *
+         * @param recordDeduplication {@code true} to deduplicate the records
+         */
+        public void setRecordDeduplication(boolean recordDeduplication) {
+            this.recordDeduplication = recordDeduplication;
+        }
+
+        public boolean isRecordDeduplication() {
+            return recordDeduplication;
+        }
+
         @NonNull
         public String getUsername() {
             return this.username;
@@ -7,8 +7,6 @@ import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 
 import com.google.android.gms.nearby.connection.ConnectionLifecycleCallback;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadCallback;
 
 import org.smartregister.p2p.callback.OnResultCallback;
 import org.smartregister.p2p.dialog.SkipQRScanDialog;
@@ -22,6 +20,8 @@ import org.smartregister.p2p.sync.DiscoveredDevice;
 import org.smartregister.p2p.sync.IReceiverSyncLifecycleCallback;
 import org.smartregister.p2p.sync.ISenderSyncLifecycleCallback;
 import org.smartregister.p2p.sync.data.SyncPackageManifest;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
 
 import java.util.List;
 
@@ -126,6 +126,15 @@ public interface P2pModeSelectContract {
          */
         long sendTextMessage(@NonNull String message);
 
+        /**
+         * Sends a binary message to the other device and returns the payloadId which can be used to
+         * track the transfer progress of the message
+         *
+         * @param message the message bytes
+         * @return the payloadId
+         */
+        long sendBinaryMessage(@NonNull byte[] message);
+
         @NonNull
         View getView();
 
@@ -183,7 +192,13 @@ public interface P2pModeSelectContract {
 
         long sendManifest(@NonNull SyncPackageManifest syncPackageManifest);
 
-        void sendPayload(@NonNull Payload payload);
+        void sendPayload(@NonNull TransportPayload payload);
+
+        /**
+         * @return the transport used to create the payloads sent to the other device
+         */
+        @NonNull
+        Transport getTransport();
 
         void errorOccurredSync(@NonNull Exception e);
 
@@ -222,7 +237,19 @@ public interface P2pModeSelectContract {
          */
         long sendMessage(@NonNull String message);
 
-        void sendPayload(@NonNull Payload payload);
+        /**
+         * Sends a binary message to the other device and returns the payloadId which can be used to
+         * track the transfer progress of the message
+         *
+         * @param message the message bytes
+         * @return the payloadId
+         */
+        long sendMessage(@NonNull byte[] message);
+
+        void sendPayload(@NonNull TransportPayload payload);
+
+        @NonNull
+        Transport getTransport();
 
         void connectedTo(@Nullable String endpointId);
 
@@ -242,7 +269,7 @@ public interface P2pModeSelectContract {
                 , @NonNull OnResultCallback onRequestConnectionResult
                 , @NonNull ConnectionLifecycleCallback connectionLifecycleCallback);
 
-        void acceptConnection(@NonNull String endpointId, PayloadCallback payloadCallback);
+        void acceptConnection(@NonNull String endpointId, Transport.PayloadCallback payloadCallback);
 
         void rejectConnection(@NonNull String endpointId);
     }
@@ -14,8 +14,6 @@ import com.google.android.gms.nearby.connection.ConnectionsStatusCodes;
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
 import com.google.android.gms.nearby.connection.DiscoveryOptions;
 import com.google.android.gms.nearby.connection.EndpointDiscoveryCallback;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadCallback;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 
@@ -26,6 +24,9 @@ import org.smartregister.p2p.callback.OnResultCallback;
 import org.smartregister.p2p.contract.P2pModeSelectContract;
 import org.smartregister.p2p.sync.IReceiverSyncLifecycleCallback;
 import org.smartregister.p2p.sync.ISenderSyncLifecycleCallback;
+import org.smartregister.p2p.transport.NearbyTransport;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
 import org.smartregister.p2p.util.Constants;
 
 import timber.log.Timber;
@@ -42,6 +43,7 @@ public class P2pModeSelectInteractor implements P2pModeSelectContract.Interactor
     private boolean discovering;
 
     private ConnectionsClient connectionsClient;
+    private Transport transport;
 
     @Nullable
     private String endpointIdConnected;
@@ -86,8 +88,8 @@ public class P2pModeSelectInteractor implements P2pModeSelectContract.Interactor
     }
 
     @Override
-    public void acceptConnection(@NonNull String endpointId, PayloadCallback payloadCallback) {
-        connectionsClient.acceptConnection(endpointId, payloadCallback);
+    public void acceptConnection(@NonNull String endpointId, Transport.PayloadCallback payloadCallback) {
+        getTransport().acceptConnection(endpointId, payloadCallback);
     }
 
     @Override
@@ -234,9 +236,14 @@ public class P2pModeSelectInteractor implements P2pModeSelectContract.Interactor
 
     @Override
     public long sendMessage(@NonNull String message) {
+        return sendMessage(message.getBytes());
+    }
+
+    @Override
+    public long sendMessage(@NonNull byte[] message) {
         if (endpointIdConnected != null) {
-            Payload payload = Payload.fromBytes(message.getBytes());
-            connectionsClient.sendPayload(endpointIdConnected, payload);
+            TransportPayload payload = getTransport().createBytesPayload(message);
+            getTransport().sendPayload(endpointIdConnected, payload);
 
             return payload.getId();
         }
@@ -245,12 +252,22 @@ public class P2pModeSelectInteractor implements P2pModeSelectContract.Interactor
     }
 
     @Override
-    public void sendPayload(@NonNull Payload payload) {
+    public void sendPayload(@NonNull TransportPayload payload) {
         if (endpointIdConnected != null) {
-            connectionsClient.sendPayload(endpointIdConnected, payload);
+            getTransport().sendPayload(endpointIdConnected, payload);
         }
     }
 
+    @NonNull
+    @Override
+    public Transport getTransport() {
+        if (transport == null) {
+            transport = new NearbyTransport(connectionsClient);
+        }
+
+        return transport;
+    }
+
     @Override
     public void connectedTo(@Nullable String endpointId) {
         endpointIdConnected = endpointId;
@@ -271,6 +288,7 @@ public class P2pModeSelectInteractor implements P2pModeSelectContract.Interactor
     @Override
     public void cleanupResources() {
         connectionsClient = null;
+        transport = null;
         context = null;
     }
 
@@ -1,8 +1,10 @@
 package org.smartregister.p2p.model;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.text.SpannableStringBuilder;
@@ -10,18 +12,34 @@ import android.text.SpannableStringBuilder;
 import com.commonsware.cwac.saferoom.SafeHelperFactory;
 
 import org.smartregister.p2p.model.dao.P2pReceivedHistoryDao;
+import org.smartregister.p2p.model.dao.P2pRecordDigestDao;
 import org.smartregister.p2p.model.dao.SendingDeviceDao;
 
 /**
  * Created by Ephraim Kigamba - ekigamba@ona.io on 26/03/2019
  */
 
-@Database(entities = {SendingDevice.class, P2pReceivedHistory.class}, version = 1)
+@Database(entities = {SendingDevice.class, P2pReceivedHistory.class, P2pRecordDigest.class}, version = 3)
 public abstract class AppDatabase extends RoomDatabase {
 
     private static AppDatabase instance;
     public static final String DB_NAME = "p2p";
 
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE p2p_received_history ADD COLUMN received_ranges BLOB");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `p2p_record_digests` (`entity_type` TEXT NOT NULL"
+                    + ", `digest` INTEGER NOT NULL, PRIMARY KEY(`entity_type`, `digest`))");
+        }
+    };
+
     public static AppDatabase getInstance(@NonNull Context context, @NonNull String passphrase) {
         if (instance == null) {
             SafeHelperFactory safeHelperFactory = SafeHelperFactory.fromUser(new SpannableStringBuilder(passphrase));
@@ -29,6 +47,7 @@ public abstract class AppDatabase extends RoomDatabase {
             instance = Room.databaseBuilder(context.getApplicationContext(),
                     AppDatabase.class, DB_NAME)
                     .openHelperFactory(safeHelperFactory)
+                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
                     .build();
         }
 
@@ -39,4 +58,6 @@ public abstract class AppDatabase extends RoomDatabase {
 
     public abstract P2pReceivedHistoryDao p2pReceivedHistoryDao();
 
+    public abstract P2pRecordDigestDao p2pRecordDigestDao();
+
 }
@@ -0,0 +1,37 @@
+package org.smartregister.p2p.model;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.support.annotation.NonNull;
+
+/**
+ * The digest of a record that has been received and committed, whichever device sent it, which is
+ * used to skip the record when another device offers it
+ */
+
+@Entity(tableName = "p2p_record_digests", primaryKeys = {"entity_type", "digest"})
+public class P2pRecordDigest {
+
+    @NonNull
+    @ColumnInfo(name = "entity_type")
+    private String entityType;
+
+    @ColumnInfo(name = "digest")
+    private long digest;
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    public void setDigest(long digest) {
+        this.digest = digest;
+    }
+}
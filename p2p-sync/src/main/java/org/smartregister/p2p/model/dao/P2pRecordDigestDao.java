@@ -0,0 +1,28 @@
+package org.smartregister.p2p.model.dao;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+import android.support.annotation.NonNull;
+
+import org.smartregister.p2p.model.P2pRecordDigest;
+
+import java.util.List;
+
+@Dao
+public interface P2pRecordDigestDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void addRecordDigests(@NonNull List<P2pRecordDigest> recordDigests);
+
+    /**
+     * Gets the digests that are already known out of the given digests. The number of digests
+     * should be kept below the SQLite limit on the number of query arguments.
+     */
+    @Query("SELECT digest FROM p2p_record_digests WHERE entity_type = :entityType AND digest IN (:digests)")
+    List<Long> getKnownDigests(@NonNull String entityType, @NonNull List<Long> digests);
+
+    @Query("DELETE FROM p2p_record_digests WHERE entity_type = :entityType")
+    int clearRecordDigests(@NonNull String entityType);
+}
@@ -0,0 +1,30 @@
+package org.smartregister.p2p.model.dao;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.sync.data.JsonData;
+
+/**
+ * A {@link SenderTransferDao} that can read the records up to a record id. When the host
+ * application's {@link SenderTransferDao} implements this interface, the records are read only up
+ * to the next range of records the receiver already has so that only the missing ranges are sent.
+ */
+
+public interface RangedSenderTransferDao extends SenderTransferDao {
+
+    /**
+     * Gets the records after {@code lastRecordId} up to {@code maxRecordId} for the data type
+     *
+     * @param dataType the data type
+     * @param lastRecordId the record id after which to read the records
+     * @param maxRecordId the highest record id to read, inclusive
+     * @param batchSize the maximum number of records to return
+     * @return the records or {@code null} if there are no records in the range
+     */
+    @WorkerThread
+    @Nullable
+    JsonData getJsonData(@NonNull DataType dataType, long lastRecordId, long maxRecordId, int batchSize);
+}
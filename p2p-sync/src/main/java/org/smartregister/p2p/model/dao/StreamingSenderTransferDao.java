@@ -0,0 +1,31 @@
+package org.smartregister.p2p.model.dao;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.sync.data.JsonRecordCursor;
+
+/**
+ * A {@link SenderTransferDao} that provides the records of a batch one at a time instead of as a
+ * single {@link org.json.JSONArray}. When the host application's {@link SenderTransferDao} implements
+ * this interface, {@link #getJsonRecords(DataType, long, int)} is used instead of
+ * {@link SenderTransferDao#getJsonData(DataType, long, int)}.
+ */
+
+public interface StreamingSenderTransferDao extends SenderTransferDao {
+
+    /**
+     * Gets the records after {@code lastRecordId} for the data type. The returned cursor is read
+     * lazily while the payload is being sent and closed once it has been read or discarded.
+     *
+     * @param dataType the data type
+     * @param lastRecordId the highest record id that the receiver already has
+     * @param batchSize the maximum number of records to return
+     * @return a cursor over the records or {@code null} if there are no more records
+     */
+    @WorkerThread
+    @Nullable
+    JsonRecordCursor getJsonRecords(@NonNull DataType dataType, long lastRecordId, int batchSize);
+}
@@ -0,0 +1,28 @@
+package org.smartregister.p2p.model.dao;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link ReceiverTransferDao} that can group the {@link #receiveJson} calls for several received
+ * payloads of the same data type into a single transaction. Host applications with a high cost per
+ * transaction (eg. SQLCipher databases) should implement this interface.
+ */
+
+public interface TransactionalReceiverTransferDao extends ReceiverTransferDao {
+
+    /**
+     * Runs the callable in a single database transaction. The transaction should be committed when
+     * the callable returns and rolled back if it throws an exception. The last record ids of the
+     * payloads are only saved after this method returns.
+     *
+     * @param callable the work to run in the transaction
+     * @param <T> the result type
+     * @return the result of the callable
+     * @throws Exception the exception thrown by the callable
+     */
+    @WorkerThread
+    <T> T runInTransaction(@NonNull Callable<T> callable) throws Exception;
+}
@@ -55,6 +55,15 @@ public abstract class BaseP2pModeSelectPresenter implements P2pModeSelectContrac
         return 0;
     }
 
+    @Override
+    public long sendBinaryMessage(@NonNull byte[] message) {
+        if (getCurrentPeerDevice() != null && interactor != null) {
+            return interactor.sendMessage(message);
+        }
+
+        return 0;
+    }
+
     @Override
     public void onStop() {
         view.dismissAllDialogs();
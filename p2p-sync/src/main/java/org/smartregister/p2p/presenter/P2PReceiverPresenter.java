@@ -4,13 +4,11 @@ import android.content.DialogInterface;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.util.Base64;
 import android.widget.Toast;
 
 import com.google.android.gms.nearby.connection.ConnectionInfo;
 import com.google.android.gms.nearby.connection.ConnectionResolution;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadCallback;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
@@ -32,15 +30,26 @@ import org.smartregister.p2p.model.SendingDevice;
 import org.smartregister.p2p.sync.ConnectionLevel;
 import org.smartregister.p2p.sync.DiscoveredDevice;
 import org.smartregister.p2p.sync.IReceiverSyncLifecycleCallback;
+import org.smartregister.p2p.sync.SyncSession;
 import org.smartregister.p2p.sync.handler.SyncReceiverHandler;
 import org.smartregister.p2p.tasks.GenericAsyncTask;
 import org.smartregister.p2p.tasks.Tasker;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+import org.smartregister.p2p.util.CompressionUtil;
 import org.smartregister.p2p.util.Constants;
+import org.smartregister.p2p.util.HistoryWatermarkCodec;
+import org.smartregister.p2p.util.MediaChunkUtil;
 import org.smartregister.p2p.util.SyncDataConverterUtil;
+import org.smartregister.p2p.util.WireFormatUtil;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 
 import timber.log.Timber;
@@ -56,8 +65,16 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
     private DiscoveredDevice currentSender;
     private SendingDevice currentSendingDevice;
     private ConnectionLevel connectionLevel;
+    @Nullable
+    private List<?> offeredEncodings;
+    @Nullable
+    private List<?> offeredWireFormats;
+    @Nullable
+    private List<?> offeredDataTypeNames;
 
     private SyncReceiverHandler syncReceiverHandler;
+    @Nullable
+    private SyncSession syncSession;
 
     public P2PReceiverPresenter(@NonNull P2pModeSelectContract.View view) {
         super(view);
@@ -121,6 +138,7 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
                     dialogInterface.dismiss();
                     view.showP2PModeSelectFragment(true);
                     stopConnectionTimeout();
+                    discardSyncSession();
                 }
             });
 
@@ -135,6 +153,7 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
                             view.removeAdvertisingProgressDialog();
                             view.enableSendReceiveButtons(true);
                             keepScreenOn(false);
+                            discardSyncSession();
 
                             view.showErrorFragment(view.getString(R.string.no_nearby_devices_found)
                                     , view.getString(R.string.make_sure_peer_device_turned_on_in_range)
@@ -185,14 +204,14 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
             getCurrentPeerDevice().setUsername(connectionInfo.getEndpointName());
 
             interactor.stopAdvertising();
-            interactor.acceptConnection(endpointId, new PayloadCallback() {
+            interactor.acceptConnection(endpointId, new Transport.PayloadCallback() {
                 @Override
-                public void onPayloadReceived(@NonNull String endpointId, @NonNull Payload payload) {
+                public void onPayloadReceived(@NonNull String endpointId, @NonNull TransportPayload payload) {
                     P2PReceiverPresenter.this.onPayloadReceived(endpointId, payload);
                 }
 
                 @Override
-                public void onPayloadTransferUpdate(@NonNull String s, @NonNull PayloadTransferUpdate payloadTransferUpdate) {
+                public void onPayloadTransferUpdate(@NonNull String s, @NonNull TransportPayloadUpdate payloadTransferUpdate) {
                     // Do nothing for now
                     P2PReceiverPresenter.this.onPayloadTransferUpdate(s, payloadTransferUpdate);
                 }
@@ -212,6 +231,12 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
         if (currentSender != null) {
             connectionLevel = ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE;
             interactor.connectedTo(endpointId);
+
+            // The sender of a suspended session resumes it instead of authenticating again
+            if (syncSession != null && !syncSession.canResumeWith(currentSender.getEndpointName())) {
+                discardSyncSession();
+            }
+
             performDeviceAuthentication();
         } else {
             Timber.e(view.getString(R.string.log_onconnectionaccepted_without_peer_device), endpointId);
@@ -267,7 +292,10 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
         if (getCurrentPeerDevice() != null && endpointId.equals(getCurrentPeerDevice().getEndpointId())) {
             String errorMsg = String.format(view.getString(R.string.connection_to_endpoint_broken), endpointId);
 
-            if (connectionLevel == ConnectionLevel.SENT_RECEIVED_HISTORY) {
+            if (connectionLevel == ConnectionLevel.SENT_RECEIVED_HISTORY && syncSession != null
+                    && syncReceiverHandler != null && P2PLibrary.getInstance().getSessionResumeTimeout() > 0) {
+                suspendSyncSession(endpointId);
+            } else if (connectionLevel == ConnectionLevel.SENT_RECEIVED_HISTORY) {
                 onSyncFailed(new Exception(errorMsg));
             } else {
                 errorMsg = String.format(view.getString(R.string.please_make_sure_device_is_turned_on_and_in_range), getCurrentPeerDevice().getEndpointName());
@@ -285,12 +313,12 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
     }
 
     @Override
-    public void onPayloadReceived(@NonNull final String endpointId, @NonNull Payload payload) {
+    public void onPayloadReceived(@NonNull final String endpointId, @NonNull TransportPayload payload) {
         Timber.i(view.getString(R.string.log_received_payload_from_endpoint), endpointId);
         if (connectionLevel != null) {
             if (connectionLevel.equals(ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE)) {
                 // Process the command
-                if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null) {
+                if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null) {
                     String command = new String(payload.asBytes());
 
                     if (command.equals(Constants.Connection.SKIP_QR_CODE_SCAN)) {
@@ -311,6 +339,13 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
                     } else if (command.equals(Constants.Connection.CONNECTION_ACCEPT)) {
                         getView().removeConnectingDialog();
                         onAuthenticationSuccessful();
+                    } else if (command.startsWith(Constants.Connection.RESUME_SESSION)) {
+                        sendSessionChallenge(command.substring(Constants.Connection.RESUME_SESSION.length()));
+                    } else if (command.startsWith(Constants.Connection.SESSION_PROOF)) {
+                        resumeSyncSession(command.substring(Constants.Connection.SESSION_PROOF.length()));
+                    } else if (command.equals(Constants.Connection.SESSION_REJECTED)) {
+                        // The sender authenticates again since this device could not prove it knows the session
+                        discardSyncSession();
                     }
                 } else {
                     Timber.e("Could not be able to process payload sent while in ConnectionLevel CONNECT_BEFORE_AUTHENTICATE");
@@ -322,7 +357,7 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
                 // Authorize the connection from the details received
                 performAuthorization(payload);
             } else if (connectionLevel.equals(ConnectionLevel.AUTHORIZED)) {
-                if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null && !getView().isSyncProgressFragmentShowing()) {
+                if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null && !getView().isSyncProgressFragmentShowing()) {
                     showSyncProgressScreen();
                 }
 
@@ -333,8 +368,8 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
     }
 
     @Override
-    public void processHashKey(@NonNull final String endpointId, @NonNull Payload payload) {
-        if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null) {
+    public void processHashKey(@NonNull final String endpointId, @NonNull TransportPayload payload) {
+        if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null) {
             String payloadAsString = new String(payload.asBytes());
 
             Map<String, Object> basicDeviceDetails = null;
@@ -351,6 +386,15 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
             } else {
                 connectionLevel = ConnectionLevel.RECEIVED_HASH_KEY;
 
+                Object supportedEncodings = basicDeviceDetails.get(Constants.BasicDeviceDetails.KEY_SUPPORTED_ENCODINGS);
+                offeredEncodings = supportedEncodings instanceof List ? (List<?>) supportedEncodings : null;
+
+                Object supportedWireFormats = basicDeviceDetails.get(Constants.BasicDeviceDetails.KEY_SUPPORTED_WIRE_FORMATS);
+                offeredWireFormats = supportedWireFormats instanceof List ? (List<?>) supportedWireFormats : null;
+
+                Object dataTypeNames = basicDeviceDetails.get(Constants.BasicDeviceDetails.KEY_DATA_TYPES);
+                offeredDataTypeNames = dataTypeNames instanceof List ? (List<?>) dataTypeNames : null;
+
                 // Check if the device has been interacting with this app if it's state when it started
                 // and now is the same
                 // Should be done in the background
@@ -366,13 +410,182 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
     @Override
     public void sendLastReceivedRecords(@NonNull List<P2pReceivedHistory> receivedHistory) {
         if (getCurrentPeerDevice() != null) {
-            interactor.sendMessage(new Gson().toJson(receivedHistory));
+            List<String> acceptedWireFormats = WireFormatUtil.getAcceptedWireFormats(offeredWireFormats);
+            if (P2PLibrary.getInstance().getSessionResumeTimeout() <= 0) {
+                acceptedWireFormats.remove(Constants.WireFormat.SESSION_RESUME);
+            }
+
+            if (offeredDataTypeNames == null) {
+                acceptedWireFormats.remove(Constants.WireFormat.HISTORY_WATERMARKS);
+            }
+
+            if (!P2PLibrary.getInstance().isRecordDeduplication()) {
+                acceptedWireFormats.remove(Constants.WireFormat.RECORD_DEDUP);
+            }
+
+            discardSyncSession();
+
+            if (offeredEncodings != null || offeredWireFormats != null) {
+                // Senders that offer payload encodings also expect the encodings accepted with the history
+                Map<String, Object> receivedHistoryDetails = new HashMap<>();
+                putReceivedHistory(receivedHistoryDetails, receivedHistory, acceptedWireFormats);
+                receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_ACCEPTED_ENCODINGS
+                        , CompressionUtil.getAcceptedEncodings(offeredEncodings));
+                receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS, acceptedWireFormats);
+
+                SendingDevice sendingDevice = getSendingDevice();
+                if (acceptedWireFormats.contains(Constants.WireFormat.MEDIA_CHUNKS) && sendingDevice != null) {
+                    // The sender skips the chunks of these media files that have already been received
+                    receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_PARTIAL_MEDIA_FILES
+                            , MediaChunkUtil.getPartialMediaFiles(MediaChunkUtil.getDeviceDirectory(getView().getContext()
+                                    , sendingDevice.getDeviceId())));
+                }
+
+                if (acceptedWireFormats.contains(Constants.WireFormat.SESSION_RESUME)) {
+                    // The sender presents the token to resume the sync if the connection is broken
+                    syncSession = new SyncSession(UUID.randomUUID().toString(), getCurrentPeerDevice().getEndpointName());
+                    syncSession.setAuthorizationDetails(getCurrentPeerDevice().getAuthorizationDetails());
+                    syncSession.setAcceptedWireFormats(acceptedWireFormats);
+                    syncSession.setSendingDevice(sendingDevice);
+                    receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_SESSION_TOKEN, syncSession.getSessionToken());
+                }
+
+                interactor.sendMessage(new Gson().toJson(receivedHistoryDetails));
+            } else {
+                interactor.sendMessage(new Gson().toJson(receivedHistory));
+            }
             connectionLevel = ConnectionLevel.SENT_RECEIVED_HISTORY;
 
-            syncReceiverHandler = new SyncReceiverHandler(this);
+            syncReceiverHandler = new SyncReceiverHandler(this, acceptedWireFormats);
         }
     }
 
+    private void putReceivedHistory(@NonNull Map<String, Object> receivedHistoryDetails
+            , @NonNull List<P2pReceivedHistory> receivedHistory, @NonNull List<String> acceptedWireFormats) {
+        if (acceptedWireFormats.contains(Constants.WireFormat.HISTORY_WATERMARKS) && offeredDataTypeNames != null) {
+            try {
+                byte[] historyWatermarks = HistoryWatermarkCodec.write(HistoryWatermarkCodec.toWatermarks(receivedHistory
+                        , offeredDataTypeNames));
+                receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_HISTORY_WATERMARKS
+                        , Base64.encodeToString(historyWatermarks, Base64.NO_WRAP));
+                return;
+            } catch (IOException e) {
+                Timber.e(e);
+                acceptedWireFormats.remove(Constants.WireFormat.HISTORY_WATERMARKS);
+            }
+        }
+
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY, receivedHistory);
+    }
+
+    private void suspendSyncSession(@NonNull String endpointId) {
+        Timber.i("Connection to %s broken during the sync, waiting for the sender to resume the session", endpointId);
+        syncSession.setTransferProgress(new HashMap<>(syncReceiverHandler.getTransferProgress()));
+        syncSession.suspend(P2PLibrary.getInstance().getSessionResumeTimeout());
+
+        // The payloads still being processed are saved but can no longer end the sync
+        syncReceiverHandler.suspend();
+
+        disconnectAndReset(endpointId);
+    }
+
+    /**
+     * Proves to the sender that this device knows the session token before the sender proves it
+     *
+     * @param senderNonce the nonce the sender sent with the resume request
+     */
+    private void sendSessionChallenge(@NonNull String senderNonce) {
+        DiscoveredDevice peerDevice = getCurrentPeerDevice();
+
+        if (peerDevice != null && syncSession != null && syncSession.canResumeWith(peerDevice.getEndpointName())
+                && !senderNonce.isEmpty()) {
+            String receiverNonce = SyncSession.createNonce();
+            syncSession.setResumeNonces(senderNonce, receiverNonce);
+
+            interactor.sendMessage(Constants.Connection.SESSION_CHALLENGE + receiverNonce + ":"
+                    + syncSession.getResumeProof(SyncSession.RECEIVER_PROOF, peerDevice.getAuthenticationToken()));
+        } else {
+            // The sender authenticates again after the rejection
+            discardSyncSession();
+            interactor.sendMessage(Constants.Connection.SESSION_REJECTED);
+        }
+    }
+
+    private void resumeSyncSession(@NonNull String senderProof) {
+        final DiscoveredDevice peerDevice = getCurrentPeerDevice();
+
+        if (peerDevice != null && syncSession != null && syncSession.canResumeWith(peerDevice.getEndpointName())
+                && syncSession.getReceiverNonce() != null
+                && syncSession.verifyResumeProof(SyncSession.SENDER_PROOF, peerDevice.getAuthenticationToken(), senderProof)) {
+            final SyncSession resumedSyncSession = syncSession;
+            final SendingDevice sendingDevice = syncSession.getSendingDevice();
+
+            // The sender continues from the records that have been saved, not the ones that were acknowledged
+            Tasker.run(new Callable<List<P2pReceivedHistory>>() {
+                @Override
+                public List<P2pReceivedHistory> call() throws Exception {
+                    return sendingDevice != null ? P2PLibrary.getInstance().getDb()
+                            .p2pReceivedHistoryDao()
+                            .getDeviceReceivedHistory(sendingDevice.getDeviceId()) : null;
+                }
+            }, new GenericAsyncTask.OnFinishedCallback<List<P2pReceivedHistory>>() {
+                @Override
+                public void onSuccess(@Nullable List<P2pReceivedHistory> result) {
+                    if (syncSession == resumedSyncSession && getCurrentPeerDevice() == peerDevice) {
+                        onSyncSessionResumed(peerDevice, result != null ? result : new ArrayList<P2pReceivedHistory>());
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Timber.e(e);
+
+                    if (syncSession == resumedSyncSession) {
+                        discardSyncSession();
+                        interactor.sendMessage(Constants.Connection.SESSION_REJECTED);
+                    }
+                }
+            });
+        } else {
+            // The sender authenticates again after the rejection
+            discardSyncSession();
+            interactor.sendMessage(Constants.Connection.SESSION_REJECTED);
+        }
+    }
+
+    private void onSyncSessionResumed(@NonNull DiscoveredDevice peerDevice, @NonNull List<P2pReceivedHistory> receivedHistory) {
+        Timber.i("Resuming the sync session with %s", peerDevice.getEndpointId());
+        syncSession.resume();
+
+        getView().removeQRCodeGeneratorFragment();
+        peerDevice.setAuthorizationDetails(syncSession.getAuthorizationDetails());
+        currentSendingDevice = syncSession.getSendingDevice();
+        connectionLevel = ConnectionLevel.SENT_RECEIVED_HISTORY;
+
+        syncReceiverHandler = new SyncReceiverHandler(this, syncSession.getAcceptedWireFormats());
+        syncReceiverHandler.addTransferProgress(syncSession.getTransferProgress());
+
+        Map<String, Object> resumeDetails = new HashMap<>();
+        resumeDetails.put(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY, receivedHistory);
+        interactor.sendMessage(Constants.Connection.SESSION_RESUMED + new Gson().toJson(resumeDetails));
+        showSyncProgressScreen();
+    }
+
+    /**
+     * Drops the sync session and reports the sync whose connection was broken as failed if it was
+     * never resumed
+     */
+    private void discardSyncSession() {
+        if (syncSession != null && syncSession.isSuspended()) {
+            SyncFinishedCallback syncFinishedCallback = P2PLibrary.getInstance().getSyncFinishedCallback();
+            if (syncFinishedCallback != null) {
+                syncFinishedCallback.onFailure(new Exception("The sync session was not resumed"), syncSession.getTransferProgress());
+            }
+        }
+
+        syncSession = null;
+    }
+
     private SendingDevice registerSendingDevice(Map<String, Object> basicDeviceDetails) {
         SendingDevice sendingDevice = new SendingDevice();
         sendingDevice.setDeviceId((String) basicDeviceDetails.get(Constants.BasicDeviceDetails.KEY_DEVICE_ID));
@@ -407,8 +620,8 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
     }
 
     @Override
-    public void performAuthorization(@NonNull Payload payload) {
-        if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null) {
+    public void performAuthorization(@NonNull TransportPayload payload) {
+        if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null) {
             String authenticationDetailsJson = new String(payload.asBytes());
 
             // Validate json is a map
@@ -433,7 +646,7 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
     }
 
     @Override
-    public void processPayload(@NonNull String endpointId, @NonNull Payload payload) {
+    public void processPayload(@NonNull String endpointId, @NonNull TransportPayload payload) {
         if (syncReceiverHandler != null) {
             syncReceiverHandler.processPayload(endpointId, payload);
         }
@@ -555,7 +768,7 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
     }
 
     @Override
-    public void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull PayloadTransferUpdate update) {
+    public void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull TransportPayloadUpdate update) {
         // Do nothing for now
         if (syncReceiverHandler != null) {
             syncReceiverHandler.onPayloadTransferUpdate(endpointId, update);
@@ -631,6 +844,9 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
         hasAcceptedConnection = false;
         syncReceiverHandler = null;
         connectionLevel = null;
+        offeredEncodings = null;
+        offeredWireFormats = null;
+        offeredDataTypeNames = null;
         view.dismissAllDialogs();
         view.enableSendReceiveButtons(true);
         setCurrentDevice(null);
@@ -690,6 +906,8 @@ public class P2PReceiverPresenter extends BaseP2pModeSelectPresenter implements
     }
 
     public void onSyncFailed(@NonNull Exception e) {
+        syncSession = null;
+
         SyncFinishedCallback syncFinishedCallback = P2PLibrary.getInstance().getSyncFinishedCallback();
         if (syncFinishedCallback != null && syncReceiverHandler != null) {
             syncFinishedCallback.onFailure(e, syncReceiverHandler.getTransferProgress());
@@ -4,16 +4,17 @@ import android.content.DialogInterface;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.util.Base64;
 import android.widget.Toast;
 
 import com.google.android.gms.nearby.connection.ConnectionInfo;
 import com.google.android.gms.nearby.connection.ConnectionResolution;
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadCallback;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 
@@ -35,13 +36,22 @@ import org.smartregister.p2p.model.P2pReceivedHistory;
 import org.smartregister.p2p.sync.ConnectionLevel;
 import org.smartregister.p2p.sync.DiscoveredDevice;
 import org.smartregister.p2p.sync.ISenderSyncLifecycleCallback;
+import org.smartregister.p2p.sync.SyncSession;
+import org.smartregister.p2p.sync.data.PartialMediaFile;
 import org.smartregister.p2p.sync.data.SyncPackageManifest;
 import org.smartregister.p2p.sync.handler.SyncSenderHandler;
 import org.smartregister.p2p.tasks.GenericAsyncTask;
 import org.smartregister.p2p.tasks.Tasker;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+import org.smartregister.p2p.util.CompressionUtil;
 import org.smartregister.p2p.util.Constants;
+import org.smartregister.p2p.util.HistoryWatermarkCodec;
 import org.smartregister.p2p.util.SyncDataConverterUtil;
+import org.smartregister.p2p.util.WireFormatUtil;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -68,6 +78,11 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
 
     @Nullable
     private SyncSenderHandler syncSenderHandler;
+    private List<String> acceptedWireFormats = new ArrayList<>();
+    @Nullable
+    private SyncSession syncSession;
+    @Nullable
+    private List<String> offeredDataTypeNames;
 
     public P2PSenderPresenter(@NonNull P2pModeSelectContract.View view) {
         super(view);
@@ -130,6 +145,7 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
                     interactor.stopDiscovering();
                     dialogInterface.dismiss();
                     stopConnectionTimeout();
+                    discardSyncSession();
                     view.showP2PModeSelectFragment(true);
                 }
             });
@@ -146,6 +162,7 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
                             view.removeDiscoveringProgressDialog();
                             view.enableSendReceiveButtons(true);
                             keepScreenOn(false);
+                            discardSyncSession();
 
                             view.showErrorFragment(view.getString(R.string.no_nearby_devices_found)
                                     , view.getString(R.string.make_sure_peer_device_turned_on_in_range)
@@ -175,14 +192,23 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
         }
 
         syncSenderHandler = null;
+        syncSession = null;
 
         // incase the other side has hung at some point
-        connectionSignalPayloadId = interactor.sendMessage(Constants.Connection.SYNC_COMPLETE);
+        if (isBinaryFrames()) {
+            connectionSignalPayloadId = interactor.sendMessage(WireFormatUtil.writeSyncComplete());
+        } else {
+            connectionSignalPayloadId = interactor.sendMessage(Constants.Connection.SYNC_COMPLETE);
+        }
     }
 
     @Override
     public long sendManifest(@NonNull SyncPackageManifest syncPackageManifest) {
         if (getCurrentPeerDevice() != null) {
+            if (isBinaryFrames()) {
+                return interactor.sendMessage(WireFormatUtil.writeManifest(syncPackageManifest));
+            }
+
             return interactor.sendMessage(new Gson().toJson(syncPackageManifest));
         }
 
@@ -190,15 +216,22 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
     }
 
     @Override
-    public void sendPayload(@NonNull Payload payload) {
+    public void sendPayload(@NonNull TransportPayload payload) {
         if (getCurrentPeerDevice() != null) {
             interactor.sendPayload(payload);
         }
     }
 
+    @NonNull
+    @Override
+    public Transport getTransport() {
+        return interactor.getTransport();
+    }
+
     @Override
     public void errorOccurredSync(@NonNull Exception e) {
         Timber.e(e);
+        syncSession = null;
 
         SyncFinishedCallback syncFinishedCallback = P2PLibrary.getInstance().getSyncFinishedCallback();
         if (syncFinishedCallback != null) {
@@ -214,6 +247,7 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
                 }
             }, SyncDataConverterUtil.generateSummaryReport(getView().getContext(), true, syncSenderHandler.getTransferProgress()), true);
 
+            syncSenderHandler.abortFramedStream();
             syncSenderHandler = null;
         }
 
@@ -282,46 +316,117 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
     }
 
     @Override
-    public void processReceivedHistory(@NonNull final String endpointId, @NonNull Payload payload) {
+    public void processReceivedHistory(@NonNull final String endpointId, @NonNull TransportPayload payload) {
         if (currentReceiver != null) {
             connectionLevel = ConnectionLevel.RECEIPT_OF_RECEIVED_HISTORY;
 
-            if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null) {
+            if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null) {
                 try {
                     Type receivedHistoryListType = new TypeToken<ArrayList<P2pReceivedHistory>>() {}.getType();
-                    final List<P2pReceivedHistory> receivedHistory = new Gson().fromJson(new String(payload.asBytes()), receivedHistoryListType);
+                    JsonElement receivedHistoryDetails = new JsonParser().parse(new String(payload.asBytes()));
+                    final List<String> acceptedEncodings = new ArrayList<>();
+                    final List<String> acceptedWireFormats = new ArrayList<>();
+                    final List<PartialMediaFile> partialMediaFiles = new ArrayList<>();
+                    final List<P2pReceivedHistory> receivedHistory;
+                    String sessionToken = null;
+
+                    // Receivers that support payload encodings send the history together with the accepted encodings
+                    if (receivedHistoryDetails.isJsonObject()) {
+                        JsonObject receivedHistoryObject = receivedHistoryDetails.getAsJsonObject();
+                        JsonElement historyWatermarks = receivedHistoryObject.get(Constants.BasicDeviceDetails.KEY_HISTORY_WATERMARKS);
+
+                        if (historyWatermarks != null && offeredDataTypeNames != null) {
+                            receivedHistory = HistoryWatermarkCodec.toReceivedHistory(HistoryWatermarkCodec.read(
+                                    Base64.decode(historyWatermarks.getAsString(), Base64.NO_WRAP)), offeredDataTypeNames);
+                        } else {
+                            receivedHistory = new Gson().fromJson(receivedHistoryObject.get(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY)
+                                    , receivedHistoryListType);
+                        }
 
-                    Tasker.run(new Callable<TreeSet<DataType>>() {
-                        @Override
-                        public TreeSet<DataType> call() throws Exception {
-                            return P2PLibrary.getInstance().getSenderTransferDao()
-                                    .getDataTypes();
+                        List<String> encodings = new Gson().fromJson(receivedHistoryObject.get(Constants.BasicDeviceDetails.KEY_ACCEPTED_ENCODINGS)
+                                , new TypeToken<ArrayList<String>>() {}.getType());
+                        if (encodings != null) {
+                            acceptedEncodings.addAll(encodings);
                         }
-                    }, new GenericAsyncTask.OnFinishedCallback<TreeSet<DataType>>() {
-                        @Override
-                        public void onSuccess(@Nullable TreeSet<DataType> result) {
-                            if (result != null) {
-                                syncSenderHandler = new SyncSenderHandler(P2PSenderPresenter.this, result, receivedHistory);
-                                syncSenderHandler.startSyncProcess();
-                            } else {
-                                sendSyncComplete();
-                            }
+
+                        List<String> wireFormats = new Gson().fromJson(receivedHistoryObject.get(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS)
+                                , new TypeToken<ArrayList<String>>() {}.getType());
+                        if (wireFormats != null) {
+                            acceptedWireFormats.addAll(wireFormats);
                         }
 
-                        @Override
-                        public void onError(Exception e) {
-                            Timber.e(e);
-                            disconnectAndReset(endpointId);
+                        List<PartialMediaFile> partialMediaFileList = new Gson().fromJson(receivedHistoryObject.get(Constants.BasicDeviceDetails.KEY_PARTIAL_MEDIA_FILES)
+                                , new TypeToken<ArrayList<PartialMediaFile>>() {}.getType());
+                        if (partialMediaFileList != null) {
+                            partialMediaFiles.addAll(partialMediaFileList);
                         }
-                    });
+
+                        JsonElement sessionTokenElement = receivedHistoryObject.get(Constants.BasicDeviceDetails.KEY_SESSION_TOKEN);
+                        if (sessionTokenElement != null && sessionTokenElement.isJsonPrimitive()) {
+                            sessionToken = sessionTokenElement.getAsString();
+                        }
+                    } else {
+                        receivedHistory = new Gson().fromJson(receivedHistoryDetails, receivedHistoryListType);
+                    }
+
+                    P2PSenderPresenter.this.acceptedWireFormats = acceptedWireFormats;
+                    discardSyncSession();
+
+                    if (sessionToken != null && acceptedWireFormats.contains(Constants.WireFormat.SESSION_RESUME)) {
+                        syncSession = new SyncSession(sessionToken, currentReceiver.getEndpointName());
+                        syncSession.setAuthorizationDetails(currentReceiver.getAuthorizationDetails());
+                        syncSession.setAcceptedEncodings(acceptedEncodings);
+                        syncSession.setAcceptedWireFormats(acceptedWireFormats);
+                        syncSession.setPartialMediaFiles(partialMediaFiles);
+                    }
+
+                    startSyncSenderHandler(endpointId, receivedHistory, acceptedEncodings, acceptedWireFormats
+                            , partialMediaFiles, null);
                 } catch (JsonParseException ex) {
                     Timber.e(ex, view.getString(R.string.log_jsonparse_exception_trying_to_process_received_history));
                     disconnectAndReset(endpointId);
+                } catch (IOException | IllegalArgumentException ex) {
+                    Timber.e(ex, "Invalid history watermarks were received");
+                    disconnectAndReset(endpointId);
                 }
             }
         }
     }
 
+    private void startSyncSenderHandler(@NonNull final String endpointId, @Nullable final List<P2pReceivedHistory> receivedHistory
+            , @NonNull final List<String> acceptedEncodings, @NonNull final List<String> acceptedWireFormats
+            , @NonNull final List<PartialMediaFile> partialMediaFiles, @Nullable final Map<String, Integer> transferProgress) {
+        Tasker.run(new Callable<TreeSet<DataType>>() {
+            @Override
+            public TreeSet<DataType> call() throws Exception {
+                return P2PLibrary.getInstance().getSenderTransferDao()
+                        .getDataTypes();
+            }
+        }, new GenericAsyncTask.OnFinishedCallback<TreeSet<DataType>>() {
+            @Override
+            public void onSuccess(@Nullable TreeSet<DataType> result) {
+                if (result != null) {
+                    syncSenderHandler = new SyncSenderHandler(P2PSenderPresenter.this, result, receivedHistory
+                            , acceptedEncodings, acceptedWireFormats);
+                    syncSenderHandler.setPartialMediaFiles(partialMediaFiles);
+                    if (transferProgress != null) {
+                        syncSenderHandler.addTransferProgress(transferProgress);
+                    }
+
+                    syncSenderHandler.startSyncProcess();
+                } else {
+                    sendSyncComplete();
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Timber.e(e);
+                disconnectAndReset(endpointId);
+            }
+        });
+    }
+
     @Override
     public void onConnectionInitiated(@NonNull final String endpointId, @NonNull final ConnectionInfo connectionInfo) {
         // Easier working with the device which we requested connection to, otherwise the callback for error should be called
@@ -330,14 +435,14 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
             getCurrentPeerDevice().setConnectionInfo(connectionInfo);
 
             interactor.stopDiscovering();
-            interactor.acceptConnection(currentReceiver.getEndpointId(), new PayloadCallback() {
+            interactor.acceptConnection(currentReceiver.getEndpointId(), new Transport.PayloadCallback() {
                 @Override
-                public void onPayloadReceived(@NonNull String endpointId, @NonNull Payload payload) {
+                public void onPayloadReceived(@NonNull String endpointId, @NonNull TransportPayload payload) {
                     P2PSenderPresenter.this.onPayloadReceived(endpointId, payload);
                 }
 
                 @Override
-                public void onPayloadTransferUpdate(@NonNull String s, @NonNull PayloadTransferUpdate payloadTransferUpdate) {
+                public void onPayloadTransferUpdate(@NonNull String s, @NonNull TransportPayloadUpdate payloadTransferUpdate) {
                     // Do nothing for now
                     P2PSenderPresenter.this.onPayloadTransferUpdate(s, payloadTransferUpdate);
                 }
@@ -412,7 +517,15 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
         if (getCurrentPeerDevice() != null) {
             interactor.connectedTo(endpointId);
             connectionLevel = ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE;
-            performDeviceAuthentication();
+
+            if (syncSession != null && syncSession.canResumeWith(getCurrentPeerDevice().getEndpointName())) {
+                // The receiver has to prove that it knows the session token before the sender proves it
+                syncSession.setResumeNonces(SyncSession.createNonce(), null);
+                sendTextMessage(Constants.Connection.RESUME_SESSION + syncSession.getSenderNonce());
+            } else {
+                discardSyncSession();
+                performDeviceAuthentication();
+            }
         } else {
             Timber.e(view.getString(R.string.log_onconnectionaccepted_without_peer_device), endpointId);
         }
@@ -473,6 +586,9 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
 
             if (connectionLevel == ConnectionLevel.SENT_RECEIVED_HISTORY) {
                 errorOccurredSync(new Exception(errorMsg));
+            } else if (connectionLevel == ConnectionLevel.RECEIPT_OF_RECEIVED_HISTORY && syncSession != null
+                    && syncSenderHandler != null && P2PLibrary.getInstance().getSessionResumeTimeout() > 0) {
+                suspendSyncSession(endpointId);
             } else {
                 errorMsg = String.format(view.getString(R.string.please_make_sure_device_is_turned_on_and_in_range), getCurrentPeerDevice().getEndpointName());
                 view.showErrorFragment(view.getString(R.string.connection_lost), errorMsg, new ErrorFragment.OnOkClickCallback() {
@@ -492,12 +608,94 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
         }
     }
 
+    private void suspendSyncSession(@NonNull String endpointId) {
+        Timber.i("Connection to %s broken during the sync, waiting to resume the session", endpointId);
+        syncSession.setTransferProgress(new HashMap<>(syncSenderHandler.getTransferProgress()));
+        syncSession.suspend(P2PLibrary.getInstance().getSessionResumeTimeout());
+
+        syncSenderHandler.abortFramedStream();
+        syncSenderHandler = null;
+
+        disconnectAndReset(endpointId);
+    }
+
+    /**
+     * Checks the proof of the session token sent by the receiver and sends the sender's own proof
+     * only if it is correct
+     *
+     * @param challenge the receiver's nonce and proof separated by {@code :}
+     */
+    private void answerSessionChallenge(@NonNull String challenge) {
+        String senderNonce = syncSession.getSenderNonce();
+        String authenticationToken = getCurrentPeerDevice().getAuthenticationToken();
+        int separatorIndex = challenge.indexOf(':');
+
+        if (senderNonce != null && separatorIndex > 0) {
+            syncSession.setResumeNonces(senderNonce, challenge.substring(0, separatorIndex));
+
+            if (syncSession.verifyResumeProof(SyncSession.RECEIVER_PROOF, authenticationToken, challenge.substring(separatorIndex + 1))) {
+                sendTextMessage(Constants.Connection.SESSION_PROOF + syncSession.getResumeProof(SyncSession.SENDER_PROOF, authenticationToken));
+                return;
+            }
+        }
+
+        Timber.e("The receiver could not prove that it knows the sync session, authenticating again");
+        sendTextMessage(Constants.Connection.SESSION_REJECTED);
+        discardSyncSession();
+        performDeviceAuthentication();
+    }
+
+    /**
+     * Resumes the sync from the history the receiver has saved, which can be behind the batches it
+     * acknowledged if it had not saved them when the connection was broken
+     *
+     * @param resumeDetails the received history of the receiver as JSON
+     */
+    private void resumeSyncSession(@NonNull String endpointId, @NonNull String resumeDetails) {
+        List<P2pReceivedHistory> receivedHistory;
+        try {
+            JsonObject resumeDetailsObject = new JsonParser().parse(resumeDetails).getAsJsonObject();
+            receivedHistory = new Gson().fromJson(resumeDetailsObject.get(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY)
+                    , new TypeToken<ArrayList<P2pReceivedHistory>>() {}.getType());
+        } catch (JsonParseException | IllegalStateException ex) {
+            Timber.e(ex, view.getString(R.string.log_jsonparse_exception_trying_to_process_received_history));
+            disconnectAndReset(endpointId);
+            return;
+        }
+
+        Timber.i("Resuming the sync session with %s", endpointId);
+        syncSession.resume();
+
+        getCurrentPeerDevice().setAuthorizationDetails(syncSession.getAuthorizationDetails());
+        connectionLevel = ConnectionLevel.RECEIPT_OF_RECEIVED_HISTORY;
+        acceptedWireFormats = syncSession.getAcceptedWireFormats();
+
+        showSyncProgressScreen();
+        startSyncSenderHandler(endpointId, receivedHistory, syncSession.getAcceptedEncodings()
+                , acceptedWireFormats, syncSession.getPartialMediaFiles(), syncSession.getTransferProgress());
+    }
+
+    /**
+     * Drops the sync session and reports the sync whose connection was broken as failed if it was
+     * never resumed
+     */
+    private void discardSyncSession() {
+        if (syncSession != null && syncSession.isSuspended()) {
+            SyncFinishedCallback syncFinishedCallback = P2PLibrary.getInstance().getSyncFinishedCallback();
+            if (syncFinishedCallback != null) {
+                syncFinishedCallback.onFailure(new Exception("The sync session was not resumed"), syncSession.getTransferProgress());
+            }
+        }
+
+        syncSession = null;
+    }
+
     @Override
-    public synchronized void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull PayloadTransferUpdate update) {
+    public synchronized void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull TransportPayloadUpdate update) {
         if (hashKeyPayloadId != 0 && hashKeyPayloadId == update.getPayloadId()) {
-            if (update.getStatus() == PayloadTransferUpdate.Status.SUCCESS) {
+            if (update.getStatus() == TransportPayloadUpdate.STATUS_SUCCESS) {
                 connectionLevel = ConnectionLevel.SENT_HASH_KEY;
-            } else if (update.getStatus() == PayloadTransferUpdate.Status.FAILURE) {
+            } else if (update.getStatus() == TransportPayloadUpdate.STATUS_FAILURE) {
                 hashKeyPayloadId = 0;
 
                 //Todo: Should retry sending the hash key if the connection to the device is still alive
@@ -505,7 +703,7 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
         } else if (connectionSignalPayloadId != 0l) {
             if (update.getPayloadId() == connectionSignalPayloadId
                     && currentReceiver != null
-                    && update.getStatus() == PayloadTransferUpdate.Status.SUCCESS) {
+                    && update.getStatus() == TransportPayloadUpdate.STATUS_SUCCESS) {
 
                 view.showSyncCompleteFragment(true, currentReceiver.getEndpointName(), new SyncCompleteTransferFragment.OnCloseClickListener() {
                     @Override
@@ -524,8 +722,8 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
     }
 
     @Override
-    public void performAuthorization(@NonNull Payload payload) {
-        if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null) {
+    public void performAuthorization(@NonNull TransportPayload payload) {
+        if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null) {
             String authenticationDetailsJson = new String(payload.asBytes());
 
             // Validate json is a map
@@ -551,12 +749,20 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
     }
 
     @Override
-    public void processPayload(@NonNull String endpointId, @NonNull Payload payload) {
-        if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null && syncSenderHandler != null) {
-            syncSenderHandler.processString(new String(payload.asBytes()));
+    public void processPayload(@NonNull String endpointId, @NonNull TransportPayload payload) {
+        if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null && syncSenderHandler != null) {
+            if (WireFormatUtil.isBinaryFrame(payload.asBytes())) {
+                syncSenderHandler.processBinaryMessage(payload.asBytes());
+            } else {
+                syncSenderHandler.processString(new String(payload.asBytes()));
+            }
         }
     }
 
+    private boolean isBinaryFrames() {
+        return acceptedWireFormats.contains(Constants.WireFormat.BINARY_FRAMES);
+    }
+
     @Override
     public void onDisconnected(@NonNull String endpointId) {
         if (getCurrentPeerDevice() != null && endpointId.equals(getCurrentPeerDevice().getEndpointId())) {
@@ -574,14 +780,14 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
     }
 
     @Override
-    public void onPayloadReceived(@NonNull String endpointId, @NonNull Payload payload) {
+    public void onPayloadReceived(@NonNull String endpointId, @NonNull TransportPayload payload) {
         Timber.i(view.getString(R.string.log_received_payload_from_endpoint), endpointId);
         if (connectionLevel != null) {
             // We ignore the authorized state since we should not process anything at this point but more
             // at #onConnectionAuthorized
             if (connectionLevel.equals(ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE)) {
                 // Process the command
-                if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null) {
+                if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null) {
                     String command = new String(payload.asBytes());
 
                     if (command.equals(Constants.Connection.SKIP_QR_CODE_SCAN)) {
@@ -604,6 +810,14 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
                     } else if (command.equals(Constants.Connection.CONNECTION_ACCEPT)) {
                         getView().removeConnectingDialog();
                         onAuthenticationSuccessful();
+                    } else if (command.startsWith(Constants.Connection.SESSION_CHALLENGE) && syncSession != null) {
+                        answerSessionChallenge(command.substring(Constants.Connection.SESSION_CHALLENGE.length()));
+                    } else if (command.startsWith(Constants.Connection.SESSION_RESUMED) && syncSession != null
+                            && syncSession.isPeerVerified()) {
+                        resumeSyncSession(endpointId, command.substring(Constants.Connection.SESSION_RESUMED.length()));
+                    } else if (command.equals(Constants.Connection.SESSION_REJECTED) && syncSession != null) {
+                        discardSyncSession();
+                        performDeviceAuthentication();
                     }
                 } else {
                     Timber.e("Could not be able to process payload sent while in ConnectionLevel CONNECT_BEFORE_AUTHENTICATE");
@@ -612,7 +826,7 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
             } else if (connectionLevel.equals(ConnectionLevel.AUTHENTICATED)) {
                 // Should get the details to authorize
                 performAuthorization(payload);
-            } else if (connectionLevel.equals(ConnectionLevel.AUTHORIZED) && payload.getType() == Payload.Type.BYTES
+            } else if (connectionLevel.equals(ConnectionLevel.AUTHORIZED) && payload.getType() == TransportPayload.TYPE_BYTES
                     && payload.asBytes() != null && (new String(payload.asBytes()).equals(Constants.Connection.START_TRANSFER))) {
                 startTransfer();
             } else if (connectionLevel.equals(ConnectionLevel.SENT_HASH_KEY)) {
@@ -627,6 +841,8 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
     private void resetState() {
         hasAcceptedConnection = false;
         connectionLevel = null;
+        acceptedWireFormats = new ArrayList<>();
+        offeredDataTypeNames = null;
         view.dismissAllDialogs();
         setCurrentDevice(null);
         view.enableSendReceiveButtons(true);
@@ -647,7 +863,10 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
     public void startTransfer() {
         // Send the hash key
         sendBasicDeviceDetails();
+        showSyncProgressScreen();
+    }
 
+    public void showSyncProgressScreen() {
         view.showSyncProgressFragment(view.getString(R.string.sending_data), new SyncProgressFragment.SyncProgressDialogCallback() {
             @Override
             public void onCancelClicked() {
@@ -661,13 +880,93 @@ public class P2PSenderPresenter extends BaseP2pModeSelectPresenter implements IS
     }
 
     private void sendBasicDeviceDetails() {
-        Map<String, String> basicDeviceDetails = new HashMap<>();
+        if (P2PLibrary.getInstance().isHistoryWatermarks()) {
+            // The receiver keys the watermarks by the positions of the data type names offered
+            Tasker.run(new Callable<TreeSet<DataType>>() {
+                @Override
+                public TreeSet<DataType> call() throws Exception {
+                    return P2PLibrary.getInstance().getSenderTransferDao()
+                            .getDataTypes();
+                }
+            }, new GenericAsyncTask.OnFinishedCallback<TreeSet<DataType>>() {
+                @Override
+                public void onSuccess(@Nullable TreeSet<DataType> result) {
+                    List<String> dataTypeNames = null;
+                    if (result != null) {
+                        dataTypeNames = new ArrayList<>();
+                        for (DataType dataType : result) {
+                            dataTypeNames.add(dataType.getName());
+                        }
+                    }
+
+                    sendBasicDeviceDetails(dataTypeNames);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Timber.e(e);
+                    sendBasicDeviceDetails(null);
+                }
+            });
+        } else {
+            sendBasicDeviceDetails(null);
+        }
+    }
+
+    private void sendBasicDeviceDetails(@Nullable List<String> dataTypeNames) {
+        List<String> offeredWireFormats = getOfferedWireFormats();
+        offeredDataTypeNames = dataTypeNames;
+
+        Map<String, Object> basicDeviceDetails = new HashMap<>();
         basicDeviceDetails.put(Constants.BasicDeviceDetails.KEY_APP_LIFETIME_KEY, P2PLibrary.getInstance().getHashKey());
         basicDeviceDetails.put(Constants.BasicDeviceDetails.KEY_DEVICE_ID, P2PLibrary.getInstance().getDeviceUniqueIdentifier());
+        basicDeviceDetails.put(Constants.BasicDeviceDetails.KEY_SUPPORTED_ENCODINGS, CompressionUtil.getSupportedEncodings());
+
+        if (dataTypeNames != null) {
+            offeredWireFormats.add(Constants.WireFormat.HISTORY_WATERMARKS);
+            basicDeviceDetails.put(Constants.BasicDeviceDetails.KEY_DATA_TYPES, dataTypeNames);
+        }
+
+        basicDeviceDetails.put(Constants.BasicDeviceDetails.KEY_SUPPORTED_WIRE_FORMATS, offeredWireFormats);
 
         hashKeyPayloadId = sendTextMessage(new Gson().toJson(basicDeviceDetails));
     }
 
+    @NonNull
+    private List<String> getOfferedWireFormats() {
+        // The wire formats are only offered when enabled since the receiver uses them for its replies too
+        List<String> offeredWireFormats = new ArrayList<>();
+        if (P2PLibrary.getInstance().isBinaryWireFormat()) {
+            offeredWireFormats.add(Constants.WireFormat.BINARY_FRAMES);
+        }
+
+        if (P2PLibrary.getInstance().isBinaryRecords()) {
+            offeredWireFormats.add(Constants.WireFormat.BINARY_RECORDS);
+        }
+
+        if (P2PLibrary.getInstance().isFramedStream()) {
+            offeredWireFormats.add(Constants.WireFormat.FRAMED_STREAM);
+        }
+
+        if (P2PLibrary.getInstance().getMediaBundleFileSize() > 0) {
+            offeredWireFormats.add(Constants.WireFormat.MEDIA_BUNDLE);
+        }
+
+        if (P2PLibrary.getInstance().getMediaChunkSize() > 0) {
+            offeredWireFormats.add(Constants.WireFormat.MEDIA_CHUNKS);
+        }
+
+        if (P2PLibrary.getInstance().getSessionResumeTimeout() > 0) {
+            offeredWireFormats.add(Constants.WireFormat.SESSION_RESUME);
+        }
+
+        if (P2PLibrary.getInstance().isRecordDeduplication()) {
+            offeredWireFormats.add(Constants.WireFormat.RECORD_DEDUP);
+        }
+
+        return offeredWireFormats;
+    }
+
     @Override
     public void onConnectionAuthorizationRejected(@NonNull String reason) {
         // Disconnect from the endpoint
@@ -0,0 +1,126 @@
+package org.smartregister.p2p.sync;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+
+/**
+ * Works out the number of records to read per batch for each data type so that each payload is
+ * close to a target size in bytes and can be sent within a target duration on the current connection.
+ * Record sizes are measured per data type while the throughput is measured across all payloads since
+ * they share the same connection.
+ */
+
+public class AdaptiveBatchController {
+
+    private static final double SMOOTHING_FACTOR = 0.5;
+    private static final int MAX_GROWTH_FACTOR = 2;
+
+    private long targetPayloadSize;
+    private long targetPayloadDuration;
+    private int minBatchSize;
+    private int maxBatchSize;
+
+    private HashMap<String, Integer> batchSizes = new HashMap<>();
+    private HashMap<String, Double> averageRecordSizes = new HashMap<>();
+    private HashMap<String, Long> maxPayloadSizes = new HashMap<>();
+    private double throughput;
+
+    /**
+     * @param targetPayloadSize the preferred payload size in bytes
+     * @param targetPayloadDuration the preferred time in milliseconds taken to send a payload
+     * @param minBatchSize the smallest batch size that can be returned
+     * @param maxBatchSize the largest batch size that can be returned
+     */
+    public AdaptiveBatchController(long targetPayloadSize, long targetPayloadDuration, int minBatchSize, int maxBatchSize) {
+        this.targetPayloadSize = targetPayloadSize;
+        this.targetPayloadDuration = targetPayloadDuration;
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+    }
+
+    /**
+     * @param dataTypeName the data type
+     * @param defaultBatchSize the batch size to use before any batch of the data type has been measured
+     * @return the number of records to read for the next batch of the data type
+     */
+    public int getBatchSize(@NonNull String dataTypeName, int defaultBatchSize) {
+        Integer batchSize = batchSizes.get(dataTypeName);
+        return batchSize != null ? batchSize : defaultBatchSize;
+    }
+
+    /**
+     * Sizes the payloads of the data type up to the given size in bytes instead of the target payload size
+     *
+     * @param dataTypeName the data type
+     * @param maxPayloadSize the maximum payload size in bytes
+     */
+    public void setMaxPayloadSize(@NonNull String dataTypeName, long maxPayloadSize) {
+        maxPayloadSizes.put(dataTypeName, maxPayloadSize);
+    }
+
+    /**
+     * Updates the average record size of the data type from a batch whose serialized size is known
+     *
+     * @param dataTypeName the data type
+     * @param recordsSize the number of records in the batch
+     * @param payloadSize the size of the serialized batch in bytes
+     */
+    public void onBatchMeasured(@NonNull String dataTypeName, int recordsSize, long payloadSize) {
+        if (recordsSize < 1 || payloadSize < 1) {
+            return;
+        }
+
+        double recordSize = (double) payloadSize / recordsSize;
+        Double averageRecordSize = averageRecordSizes.get(dataTypeName);
+        averageRecordSizes.put(dataTypeName, averageRecordSize == null ? recordSize
+                : averageRecordSize + SMOOTHING_FACTOR * (recordSize - averageRecordSize));
+
+        updateBatchSize(dataTypeName, recordsSize);
+    }
+
+    /**
+     * Updates the throughput and the average record size of the data type from a payload that has
+     * been sent
+     *
+     * @param dataTypeName the data type
+     * @param recordsSize the number of records in the payload
+     * @param payloadSize the number of bytes sent
+     * @param duration the time in milliseconds taken to send the payload
+     */
+    public void onPayloadSent(@NonNull String dataTypeName, int recordsSize, long payloadSize, long duration) {
+        if (payloadSize > 0 && duration > 0) {
+            double payloadThroughput = payloadSize * 1000d / duration;
+            throughput = throughput <= 0 ? payloadThroughput
+                    : throughput + SMOOTHING_FACTOR * (payloadThroughput - throughput);
+        }
+
+        onBatchMeasured(dataTypeName, recordsSize, payloadSize);
+    }
+
+    /**
+     * @return the measured throughput in bytes per second or {@code 0} if no payload has been measured
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    private void updateBatchSize(@NonNull String dataTypeName, int lastRecordsSize) {
+        Double averageRecordSize = averageRecordSizes.get(dataTypeName);
+        if (averageRecordSize == null) {
+            return;
+        }
+
+        Long maxPayloadSize = maxPayloadSizes.get(dataTypeName);
+        double targetSize = maxPayloadSize != null ? maxPayloadSize : targetPayloadSize;
+        if (throughput > 0) {
+            targetSize = Math.min(targetSize, throughput * targetPayloadDuration / 1000d);
+        }
+
+        // Grow gradually so that a few small records do not produce a huge batch of large ones
+        long batchSize = Math.min((long) (targetSize / averageRecordSize), (long) lastRecordsSize * MAX_GROWTH_FACTOR);
+        batchSize = Math.max(minBatchSize, Math.min(maxBatchSize, batchSize));
+
+        batchSizes.put(dataTypeName, (int) batchSize);
+    }
+}
@@ -67,6 +67,15 @@ public class DiscoveredDevice {
         return connectionInfo;
     }
 
+    /**
+     * @return the authentication token of the connection, which both devices see, or {@code null}
+     * if the device is not connected yet
+     */
+    @Nullable
+    public String getAuthenticationToken() {
+        return connectionInfo != null ? connectionInfo.getAuthenticationToken() : null;
+    }
+
     @Nullable
     public Map<String, Object> getAuthorizationDetails() {
         return authorizationDetails;
@@ -0,0 +1,60 @@
+package org.smartregister.p2p.sync;
+
+import android.support.annotation.NonNull;
+
+import org.smartregister.p2p.sync.data.BatchFrame;
+import org.smartregister.p2p.util.WireFormatUtil;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the frames of a framed stream payload one at a time until the sender closes the stream
+ */
+
+public class FramedStreamReader implements Runnable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private InputStream inputStream;
+    private OnFrameReadListener onFrameReadListener;
+
+    public FramedStreamReader(@NonNull InputStream inputStream, @NonNull OnFrameReadListener onFrameReadListener) {
+        this.inputStream = inputStream;
+        this.onFrameReadListener = onFrameReadListener;
+    }
+
+    @Override
+    public void run() {
+        DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+
+        try {
+            BatchFrame batchFrame = WireFormatUtil.readBatchFrame(dataInputStream);
+            while (batchFrame != null) {
+                onFrameReadListener.onFrameRead(batchFrame);
+                batchFrame = WireFormatUtil.readBatchFrame(dataInputStream);
+            }
+
+            onFrameReadListener.onStreamClosed();
+        } catch (IOException e) {
+            onFrameReadListener.onError(e);
+        } finally {
+            try {
+                dataInputStream.close();
+            } catch (IOException e) {
+                // The stream is no longer used
+            }
+        }
+    }
+
+    public interface OnFrameReadListener {
+
+        void onFrameRead(@NonNull BatchFrame batchFrame);
+
+        void onStreamClosed();
+
+        void onError(@NonNull Exception e);
+    }
+}
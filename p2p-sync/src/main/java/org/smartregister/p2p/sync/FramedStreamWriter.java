@@ -0,0 +1,134 @@
+package org.smartregister.p2p.sync;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import org.smartregister.p2p.sync.data.BatchFrame;
+import org.smartregister.p2p.sync.data.SyncPackageManifest;
+import org.smartregister.p2p.util.WireFormatUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Writes record batches as frames on the output stream of a single stream payload. Frames are
+ * encoded and written one at a time on a background thread in the order they are queued. Writing
+ * blocks while the connection catches up so the time taken to write a frame reflects the throughput.
+ */
+
+public class FramedStreamWriter {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private DataOutputStream outputStream;
+    private Executor executor;
+    private volatile boolean closed;
+
+    public FramedStreamWriter(@NonNull OutputStream outputStream) {
+        this(outputStream, Executors.newSingleThreadExecutor());
+    }
+
+    @VisibleForTesting
+    public FramedStreamWriter(@NonNull OutputStream outputStream, @NonNull Executor executor) {
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        this.executor = executor;
+    }
+
+    /**
+     * Queues a batch to be written as a frame
+     *
+     * @param syncPackageManifest the manifest of the batch whose payload id identifies the frame
+     * @param highestRecordId the highest record id in the batch
+     * @param frameBody writes the records of the batch
+     * @param onFrameWrittenCallback is called on the background thread once the frame has been written
+     */
+    public void writeFrame(@NonNull final SyncPackageManifest syncPackageManifest, final long highestRecordId
+            , @NonNull final FrameBody frameBody, @NonNull final OnFrameWrittenCallback onFrameWrittenCallback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    return;
+                }
+
+                try {
+                    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                    frameBody.writeTo(payload);
+
+                    long startTime = SystemClock.elapsedRealtime();
+                    WireFormatUtil.writeBatchFrame(outputStream, new BatchFrame(syncPackageManifest, highestRecordId
+                            , payload.toByteArray()));
+                    outputStream.flush();
+
+                    onFrameWrittenCallback.onFrameWritten(payload.size(), SystemClock.elapsedRealtime() - startTime);
+                } catch (IOException e) {
+                    if (!closed) {
+                        onFrameWrittenCallback.onError(e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the stream once the frames queued so far have been written, which ends the stream payload
+     */
+    public void close() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeQuietly();
+            }
+        });
+
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * Closes the stream without writing the frames that are still queued
+     */
+    public void abort() {
+        closeQuietly();
+
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    private void closeQuietly() {
+        closed = true;
+
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            Timber.e(e);
+        }
+    }
+
+    public interface FrameBody {
+
+        void writeTo(@NonNull OutputStream outputStream) throws IOException;
+    }
+
+    public interface OnFrameWrittenCallback {
+
+        /**
+         * @param payloadSize the size of the records in the frame in bytes
+         * @param duration the time in milliseconds taken to write the frame to the stream
+         */
+        void onFrameWritten(long payloadSize, long duration);
+
+        void onError(@NonNull Exception e);
+    }
+}
@@ -1,9 +1,9 @@
 package org.smartregister.p2p.sync;
 
 import android.support.annotation.NonNull;
-import com.google.android.gms.nearby.connection.Payload;
 
 import org.smartregister.p2p.model.P2pReceivedHistory;
+import org.smartregister.p2p.transport.TransportPayload;
 
 import java.util.List;
 
@@ -17,7 +17,7 @@ public interface IReceiverSyncLifecycleCallback extends SyncLifecycleCallback {
 
     void onAdvertisingFailed(@NonNull Exception e);
 
-    void processHashKey(@NonNull final String endpointId, @NonNull Payload payload);
+    void processHashKey(@NonNull final String endpointId, @NonNull TransportPayload payload);
 
     void sendLastReceivedRecords(@NonNull List<P2pReceivedHistory> receivedHistory);
 }
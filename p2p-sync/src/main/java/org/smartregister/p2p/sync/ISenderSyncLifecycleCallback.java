@@ -4,8 +4,8 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
+
+import org.smartregister.p2p.transport.TransportPayload;
 
 
 /**
@@ -26,5 +26,5 @@ public interface ISenderSyncLifecycleCallback extends SyncLifecycleCallback {
 
     void onRequestConnectionFailed(@NonNull Exception exception);
 
-    void processReceivedHistory(@NonNull String endpointId, @NonNull Payload payload);
+    void processReceivedHistory(@NonNull String endpointId, @NonNull TransportPayload payload);
 }
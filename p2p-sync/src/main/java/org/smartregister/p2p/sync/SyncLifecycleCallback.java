@@ -5,11 +5,11 @@ import android.support.annotation.NonNull;
 
 import com.google.android.gms.nearby.connection.ConnectionInfo;
 import com.google.android.gms.nearby.connection.ConnectionResolution;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 
 import org.smartregister.p2p.authenticator.BaseSyncConnectionAuthenticator;
 import org.smartregister.p2p.authorizer.P2PAuthorizationService;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
 
 import java.util.Map;
 
@@ -34,11 +34,11 @@ public interface SyncLifecycleCallback extends BaseSyncConnectionAuthenticator.A
 
     void sendAuthorizationDetails(@NonNull Map<String, Object> authorizationDetails);
 
-    void onPayloadReceived(@NonNull String endpointId, @NonNull Payload payload);
+    void onPayloadReceived(@NonNull String endpointId, @NonNull TransportPayload payload);
 
-    void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull PayloadTransferUpdate update);
+    void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull TransportPayloadUpdate update);
 
-    void performAuthorization(@NonNull Payload payload);
+    void performAuthorization(@NonNull TransportPayload payload);
 
-    void processPayload(@NonNull String endpointId, @NonNull Payload payload);
+    void processPayload(@NonNull String endpointId, @NonNull TransportPayload payload);
 }
@@ -0,0 +1,256 @@
+package org.smartregister.p2p.sync;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.smartregister.p2p.model.SendingDevice;
+import org.smartregister.p2p.sync.data.PartialMediaFile;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A sync that can be resumed by the same peer after the connection is broken, until the suspended
+ * session expires. It keeps what was agreed on during the handshake so that the authentication,
+ * authorization and received history exchange are not done again.
+ * <p>
+ * The session token is never sent again after it is issued. To resume, each device proves that it
+ * knows the token with an HMAC of both devices' nonces and the authentication token of the new
+ * connection keyed with the session token. The receiver proves it first.
+ */
+public class SyncSession {
+
+    public static final String SENDER_PROOF = "SENDER";
+    public static final String RECEIVER_PROOF = "RECEIVER";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private String sessionToken;
+    private String peerEndpointName;
+    private boolean suspended;
+    private long expiryTime;
+
+    @Nullable
+    private String senderNonce;
+    @Nullable
+    private String receiverNonce;
+    private boolean peerVerified;
+
+    @Nullable
+    private Map<String, Object> authorizationDetails;
+    private List<String> acceptedEncodings = new ArrayList<>();
+    private List<String> acceptedWireFormats = new ArrayList<>();
+    private List<PartialMediaFile> partialMediaFiles = new ArrayList<>();
+    private HashMap<String, Integer> transferProgress = new HashMap<>();
+
+    @Nullable
+    private SendingDevice sendingDevice;
+
+    /**
+     * @param sessionToken the token the receiver issued for the session
+     * @param peerEndpointName the endpoint name of the peer the session is with
+     */
+    public SyncSession(@NonNull String sessionToken, @NonNull String peerEndpointName) {
+        this.sessionToken = sessionToken;
+        this.peerEndpointName = peerEndpointName;
+    }
+
+    @NonNull
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    @NonNull
+    public String getPeerEndpointName() {
+        return peerEndpointName;
+    }
+
+    /**
+     * Suspends the session after its connection is broken
+     *
+     * @param timeout the time in milliseconds from now in which the session can be resumed
+     */
+    public void suspend(long timeout) {
+        suspended = true;
+        expiryTime = SystemClock.elapsedRealtime() + timeout;
+    }
+
+    public void resume() {
+        suspended = false;
+        senderNonce = null;
+        receiverNonce = null;
+        peerVerified = false;
+    }
+
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * @param peerEndpointName the endpoint name of the connected peer
+     * @return {@code true} if the session is suspended, has not expired and is with the peer
+     */
+    public boolean canResumeWith(@NonNull String peerEndpointName) {
+        return suspended && SystemClock.elapsedRealtime() <= expiryTime && this.peerEndpointName.equals(peerEndpointName);
+    }
+
+    /**
+     * Starts a new session resume attempt with the nonces of the sender and the receiver
+     *
+     * @param senderNonce the nonce the sender sent with the resume request
+     * @param receiverNonce the nonce the receiver sent with its challenge, {@code null} if it has
+     *                      not been received yet
+     */
+    public void setResumeNonces(@NonNull String senderNonce, @Nullable String receiverNonce) {
+        this.senderNonce = senderNonce;
+        this.receiverNonce = receiverNonce;
+        peerVerified = false;
+    }
+
+    @Nullable
+    public String getSenderNonce() {
+        return senderNonce;
+    }
+
+    @Nullable
+    public String getReceiverNonce() {
+        return receiverNonce;
+    }
+
+    /**
+     * @return {@code true} if the peer proved that it knows the session token in the current resume attempt
+     */
+    public boolean isPeerVerified() {
+        return peerVerified;
+    }
+
+    /**
+     * @param proofType {@link #SENDER_PROOF} or {@link #RECEIVER_PROOF}
+     * @param connectionAuthenticationToken the authentication token of the connection the session is resumed on
+     * @return the proof that the device knows the session token for the current resume attempt
+     */
+    @NonNull
+    public String getResumeProof(@NonNull String proofType, @Nullable String connectionAuthenticationToken) {
+        if (senderNonce == null || receiverNonce == null) {
+            throw new IllegalStateException("The session resume nonces have not been exchanged");
+        }
+
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(sessionToken.getBytes("UTF-8"), HMAC_ALGORITHM));
+
+            String message = proofType + ":" + senderNonce + ":" + receiverNonce + ":"
+                    + (connectionAuthenticationToken != null ? connectionAuthenticationToken : "");
+            return toHex(mac.doFinal(message.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | InvalidKeyException | UnsupportedEncodingException e) {
+            // Every Java platform supports HmacSHA256 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Checks the proof the peer sent and marks the peer as verified for the current resume attempt
+     * if it is correct
+     *
+     * @param proofType the type of proof the peer should have sent
+     * @param connectionAuthenticationToken the authentication token of the connection the session is resumed on
+     * @param proof the proof the peer sent
+     * @return {@code true} if the proof is correct
+     */
+    public boolean verifyResumeProof(@NonNull String proofType, @Nullable String connectionAuthenticationToken, @NonNull String proof) {
+        try {
+            peerVerified = MessageDigest.isEqual(getResumeProof(proofType, connectionAuthenticationToken).getBytes("UTF-8")
+                    , proof.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return peerVerified;
+    }
+
+    /**
+     * @return a random nonce for a session resume attempt
+     */
+    @NonNull
+    public static String createNonce() {
+        byte[] nonce = new byte[16];
+        SECURE_RANDOM.nextBytes(nonce);
+        return toHex(nonce);
+    }
+
+    @NonNull
+    private static String toHex(@NonNull byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+
+        return hex.toString();
+    }
+
+    @Nullable
+    public Map<String, Object> getAuthorizationDetails() {
+        return authorizationDetails;
+    }
+
+    public void setAuthorizationDetails(@Nullable Map<String, Object> authorizationDetails) {
+        this.authorizationDetails = authorizationDetails;
+    }
+
+    @NonNull
+    public List<String> getAcceptedEncodings() {
+        return acceptedEncodings;
+    }
+
+    public void setAcceptedEncodings(@NonNull List<String> acceptedEncodings) {
+        this.acceptedEncodings = acceptedEncodings;
+    }
+
+    @NonNull
+    public List<String> getAcceptedWireFormats() {
+        return acceptedWireFormats;
+    }
+
+    public void setAcceptedWireFormats(@NonNull List<String> acceptedWireFormats) {
+        this.acceptedWireFormats = acceptedWireFormats;
+    }
+
+    @NonNull
+    public List<PartialMediaFile> getPartialMediaFiles() {
+        return partialMediaFiles;
+    }
+
+    public void setPartialMediaFiles(@NonNull List<PartialMediaFile> partialMediaFiles) {
+        this.partialMediaFiles = partialMediaFiles;
+    }
+
+    @NonNull
+    public HashMap<String, Integer> getTransferProgress() {
+        return transferProgress;
+    }
+
+    public void setTransferProgress(@NonNull HashMap<String, Integer> transferProgress) {
+        this.transferProgress = transferProgress;
+    }
+
+    @Nullable
+    public SendingDevice getSendingDevice() {
+        return sendingDevice;
+    }
+
+    public void setSendingDevice(@Nullable SendingDevice sendingDevice) {
+        this.sendingDevice = sendingDevice;
+    }
+}
@@ -0,0 +1,37 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A batch of records sent as a frame on a framed stream payload. The manifest describes the batch
+ * the same way it would for a payload of its own and its payload id identifies the frame.
+ */
+public class BatchFrame {
+
+    private SyncPackageManifest syncPackageManifest;
+    private long highestRecordId;
+    private byte[] payload;
+
+    public BatchFrame(@NonNull SyncPackageManifest syncPackageManifest, long highestRecordId, @NonNull byte[] payload) {
+        this.syncPackageManifest = syncPackageManifest;
+        this.highestRecordId = highestRecordId;
+        this.payload = payload;
+    }
+
+    @NonNull
+    public SyncPackageManifest getSyncPackageManifest() {
+        return syncPackageManifest;
+    }
+
+    public long getHighestRecordId() {
+        return highestRecordId;
+    }
+
+    /**
+     * @return the records of the batch encoded as described by the manifest
+     */
+    @NonNull
+    public byte[] getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,50 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A media file that has only been partly received in chunks. The received ranges are sorted, do
+ * not overlap and each one holds the start offset and the end offset (exclusive) of the range.
+ */
+public class PartialMediaFile {
+
+    private String dataTypeName;
+    private long fileRecordId;
+    private long fileSize;
+    private List<long[]> receivedRanges = new ArrayList<>();
+
+    public PartialMediaFile(@NonNull String dataTypeName, long fileRecordId, long fileSize) {
+        this.dataTypeName = dataTypeName;
+        this.fileRecordId = fileRecordId;
+        this.fileSize = fileSize;
+    }
+
+    @NonNull
+    public String getDataTypeName() {
+        return dataTypeName;
+    }
+
+    public long getFileRecordId() {
+        return fileRecordId;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    @NonNull
+    public List<long[]> getReceivedRanges() {
+        if (receivedRanges == null) {
+            receivedRanges = new ArrayList<>();
+        }
+
+        return receivedRanges;
+    }
+
+    public void setReceivedRanges(@NonNull List<long[]> receivedRanges) {
+        this.receivedRanges = receivedRanges;
+    }
+}
@@ -0,0 +1,94 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.smartregister.p2p.model.DataType;
+
+/**
+ * A batch of records that has already been read from the {@link org.smartregister.p2p.model.dao.SenderTransferDao}
+ * and is waiting for its turn to be streamed to the receiver
+ */
+
+public class PreparedBatch {
+
+    private DataType dataType;
+    private JsonRecordCursor records;
+    private long payloadSize;
+    private long highestRecordId;
+    private int recordsSize;
+    private long previousRecordId;
+    private long readFromRecordId;
+    private long[] recordDigests;
+
+    public PreparedBatch(@NonNull DataType dataType, @NonNull JsonRecordCursor records, long payloadSize
+            , long highestRecordId, int recordsSize) {
+        this.dataType = dataType;
+        this.records = records;
+        this.payloadSize = payloadSize;
+        this.highestRecordId = highestRecordId;
+        this.recordsSize = recordsSize;
+    }
+
+    @NonNull
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    @NonNull
+    public JsonRecordCursor getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the size of the serialized records in bytes or {@code 0} if it is not known before the records are sent
+     */
+    public long getPayloadSize() {
+        return payloadSize;
+    }
+
+    public long getHighestRecordId() {
+        return highestRecordId;
+    }
+
+    public int getRecordsSize() {
+        return recordsSize;
+    }
+
+    /**
+     * @return the record id the batch was read after. Every record id between it and the highest
+     * record id is either in the batch or has already been received.
+     */
+    public long getPreviousRecordId() {
+        return previousRecordId;
+    }
+
+    public void setPreviousRecordId(long previousRecordId) {
+        this.previousRecordId = previousRecordId;
+    }
+
+    /**
+     * @return the record id the records were read after, which skips the ranges the receiver already
+     * has right after the previous record id
+     */
+    public long getReadFromRecordId() {
+        return readFromRecordId;
+    }
+
+    public void setReadFromRecordId(long readFromRecordId) {
+        this.readFromRecordId = readFromRecordId;
+    }
+
+    /**
+     * @return the digest of each record in the batch to offer to the receiver before the batch is
+     * sent or {@code null} if the records are sent without an offer
+     */
+    @Nullable
+    public long[] getRecordDigests() {
+        return recordDigests;
+    }
+
+    public void setRecordDigests(@Nullable long[] recordDigests) {
+        this.recordDigests = recordDigests;
+    }
+}
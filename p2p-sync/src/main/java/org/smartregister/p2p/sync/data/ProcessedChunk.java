@@ -3,7 +3,9 @@ package org.smartregister.p2p.sync.data;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import com.google.android.gms.nearby.connection.Payload;
+import org.smartregister.p2p.transport.TransportPayload;
+
+import java.util.List;
 
 /**
  * Created by Ephraim Kigamba - ekigamba@ona.io on 29/04/2019
@@ -12,16 +14,20 @@ import com.google.android.gms.nearby.connection.Payload;
 public class ProcessedChunk {
 
     private int payloadType;
-    private String jsonData;
-    private Payload fileData;
+    private int recordsSize;
+    private volatile long lastRecordId;
+    private volatile boolean recordsCommitted;
+    private volatile long bytesRead;
+    private volatile int recordsRead;
+    private TransportPayload fileData;
+    private volatile List<MultiMediaData> mediaFiles;
 
 
-    public ProcessedChunk(int payloadType, @NonNull String jsonData) {
+    public ProcessedChunk(int payloadType) {
         this.payloadType = payloadType;
-        this.jsonData = jsonData;
     }
 
-    public ProcessedChunk(int payloadType, @NonNull Payload fileData) {
+    public ProcessedChunk(int payloadType, @NonNull TransportPayload fileData) {
         this.payloadType = payloadType;
         this.fileData = fileData;
     }
@@ -30,17 +36,66 @@ public class ProcessedChunk {
         return payloadType;
     }
 
-    @Nullable
-    public String getJsonData() {
-        return jsonData;
+    public int getRecordsSize() {
+        return recordsSize;
+    }
+
+    public long getLastRecordId() {
+        return lastRecordId;
     }
 
     @Nullable
-    public Payload getFileData() {
+    public TransportPayload getFileData() {
         return fileData;
     }
 
-    public void setJsonData(String jsonData) {
-        this.jsonData = jsonData;
+    public void setRecordsSize(int recordsSize) {
+        this.recordsSize = recordsSize;
+    }
+
+    public void setLastRecordId(long lastRecordId) {
+        this.lastRecordId = lastRecordId;
+    }
+
+    public boolean isRecordsCommitted() {
+        return recordsCommitted;
+    }
+
+    public void setRecordsCommitted(boolean recordsCommitted) {
+        this.recordsCommitted = recordsCommitted;
+    }
+
+    /**
+     * @return the number of uncompressed bytes read from the payload so far
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * @return the number of records read from the payload so far
+     */
+    public int getRecordsRead() {
+        return recordsRead;
+    }
+
+    public void setRecordsRead(int recordsRead) {
+        this.recordsRead = recordsRead;
+    }
+
+    /**
+     * @return the media files unpacked from a media bundle payload once it has been read
+     */
+    @Nullable
+    public List<MultiMediaData> getMediaFiles() {
+        return mediaFiles;
+    }
+
+    public void setMediaFiles(@Nullable List<MultiMediaData> mediaFiles) {
+        this.mediaFiles = mediaFiles;
     }
 }
@@ -0,0 +1,75 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.smartregister.p2p.model.DataType;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Records of a single {@link DataType}, possibly from several payloads, that have been read but not
+ * yet handed over to the {@link org.smartregister.p2p.model.dao.ReceiverTransferDao}
+ */
+
+public class ReceivedRecordsBatch {
+
+    private DataType dataType;
+    private ArrayList<ProcessedChunk> processedChunks = new ArrayList<>();
+    private ArrayList<JSONArray> records = new ArrayList<>();
+    private HashSet<ProcessedChunk> readProcessedChunks = new HashSet<>();
+    private int recordsSize;
+
+    public ReceivedRecordsBatch(@NonNull DataType dataType) {
+        this.dataType = dataType;
+    }
+
+    public void add(@NonNull ProcessedChunk processedChunk, @NonNull JSONArray payloadRecords) {
+        processedChunks.add(processedChunk);
+        records.add(payloadRecords);
+        recordsSize += payloadRecords.length();
+    }
+
+    public boolean contains(@NonNull ProcessedChunk processedChunk) {
+        return processedChunks.contains(processedChunk);
+    }
+
+    /**
+     * Marks the payload as completely read so that its records are committed together with this batch
+     *
+     * @param processedChunk the payload's chunk
+     */
+    public void setReadComplete(@NonNull ProcessedChunk processedChunk) {
+        readProcessedChunks.add(processedChunk);
+    }
+
+    @NonNull
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    @NonNull
+    public ProcessedChunk getProcessedChunk(int index) {
+        return processedChunks.get(index);
+    }
+
+    @NonNull
+    public JSONArray getRecords(int index) {
+        return records.get(index);
+    }
+
+    @NonNull
+    public List<ProcessedChunk> getReadProcessedChunks() {
+        return new ArrayList<>(readProcessedChunks);
+    }
+
+    public int getRecordsSize() {
+        return recordsSize;
+    }
+}
@@ -0,0 +1,37 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The digests of the records of a batch that the sender offers before sending the batch so that
+ * the receiver can reply with the records it already has
+ */
+public class RecordDigestOffer {
+
+    private long offerId;
+    private String dataTypeName;
+    private long[] digests;
+
+    public RecordDigestOffer(long offerId, @NonNull String dataTypeName, @NonNull long[] digests) {
+        this.offerId = offerId;
+        this.dataTypeName = dataTypeName;
+        this.digests = digests;
+    }
+
+    public long getOfferId() {
+        return offerId;
+    }
+
+    @NonNull
+    public String getDataTypeName() {
+        return dataTypeName;
+    }
+
+    /**
+     * @return the digest of each record in the order of the records in the batch
+     */
+    @NonNull
+    public long[] getDigests() {
+        return digests;
+    }
+}
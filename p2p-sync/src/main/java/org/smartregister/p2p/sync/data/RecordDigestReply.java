@@ -0,0 +1,30 @@
+package org.smartregister.p2p.sync.data;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The reply of the receiver to a {@link RecordDigestOffer} with the records of the batch that it
+ * already has
+ */
+public class RecordDigestReply {
+
+    private long offerId;
+    private boolean[] knownRecords;
+
+    public RecordDigestReply(long offerId, @NonNull boolean[] knownRecords) {
+        this.offerId = offerId;
+        this.knownRecords = knownRecords;
+    }
+
+    public long getOfferId() {
+        return offerId;
+    }
+
+    /**
+     * @return whether the receiver already has each record, in the order of the offered digests
+     */
+    @NonNull
+    public boolean[] getKnownRecords() {
+        return knownRecords;
+    }
+}
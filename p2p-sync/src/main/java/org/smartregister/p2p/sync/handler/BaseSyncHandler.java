@@ -11,6 +11,7 @@ import org.smartregister.p2p.sync.DiscoveredDevice;
 import org.smartregister.p2p.util.Constants;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import timber.log.Timber;
 
@@ -34,6 +35,17 @@ public class BaseSyncHandler {
         return transferProgress;
     }
 
+    /**
+     * Adds the records transferred before the sync was resumed to the transfer progress
+     *
+     * @param transferProgress the records transferred for each data type
+     */
+    public void addTransferProgress(@NonNull Map<String, Integer> transferProgress) {
+        for (Map.Entry<String, Integer> entry : transferProgress.entrySet()) {
+            updateTransferProgress(entry.getKey(), entry.getValue());
+        }
+    }
+
     protected void logTransfer(boolean isSending, @NonNull String dataTypeName, @Nullable DiscoveredDevice peerDevice, int recordsSize) {
         if (peerDevice != null) {
             String miscellaneousDetails = "";
@@ -1,13 +1,14 @@
 package org.smartregister.p2p.sync.handler;
 
-import android.os.AsyncTask;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.support.v4.util.SimpleArrayMap;
+import android.util.Base64;
 
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
 
@@ -19,19 +20,54 @@ import org.smartregister.p2p.contract.P2pModeSelectContract;
 import org.smartregister.p2p.fragment.SyncCompleteTransferFragment;
 import org.smartregister.p2p.model.DataType;
 import org.smartregister.p2p.model.P2pReceivedHistory;
+import org.smartregister.p2p.model.P2pRecordDigest;
 import org.smartregister.p2p.model.SendingDevice;
 import org.smartregister.p2p.model.dao.P2pReceivedHistoryDao;
+import org.smartregister.p2p.model.dao.ReceiverTransferDao;
+import org.smartregister.p2p.model.dao.TransactionalReceiverTransferDao;
 import org.smartregister.p2p.sync.DiscoveredDevice;
+import org.smartregister.p2p.sync.FramedStreamReader;
+import org.smartregister.p2p.sync.data.BatchFrame;
+import org.smartregister.p2p.sync.data.MultiMediaData;
+import org.smartregister.p2p.sync.data.PartialMediaFile;
 import org.smartregister.p2p.sync.data.ProcessedChunk;
+import org.smartregister.p2p.sync.data.ReceivedRecordsBatch;
+import org.smartregister.p2p.sync.data.RecordDigestOffer;
+import org.smartregister.p2p.sync.data.RecordDigestReply;
 import org.smartregister.p2p.sync.data.SyncPackageManifest;
+import org.smartregister.p2p.tasks.CompletionTracker;
 import org.smartregister.p2p.tasks.GenericAsyncTask;
+import org.smartregister.p2p.tasks.KeyedSerialExecutor;
 import org.smartregister.p2p.tasks.Tasker;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+import org.smartregister.p2p.util.BinaryRecordCodec;
+import org.smartregister.p2p.util.CompressionUtil;
 import org.smartregister.p2p.util.Constants;
+import org.smartregister.p2p.util.CountingInputStream;
+import org.smartregister.p2p.util.MediaBundleUtil;
+import org.smartregister.p2p.util.MediaChunkUtil;
 import org.smartregister.p2p.util.NearbyStorageUtil;
+import org.smartregister.p2p.util.RecordDigestUtil;
+import org.smartregister.p2p.util.RecordIdRangeSet;
 import org.smartregister.p2p.util.SyncDataConverterUtil;
+import org.smartregister.p2p.util.WireFormatUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import timber.log.Timber;
 
@@ -42,69 +78,198 @@ import timber.log.Timber;
 public class SyncReceiverHandler extends BaseSyncHandler {
 
     private P2pModeSelectContract.ReceiverPresenter receiverPresenter;
-    private boolean awaitingManifestReceipt = true;
-    private HashMap<Long, SyncPackageManifest> awaitingPayloadManifests = new HashMap<>();
+    private LinkedHashMap<Long, SyncPackageManifest> awaitingPayloadManifests = new LinkedHashMap<>();
+    private HashSet<Long> transferredPayloads = new HashSet<>();
+    private HashSet<Long> dispatchedPayloads = new HashSet<>();
     private SimpleArrayMap<Long, ProcessedChunk> awaitingPayloads = new SimpleArrayMap<>();
 
-    private int waitingJobs = 0;
-    private boolean isSyncComplete = false;
+    private ConcurrentHashMap<String, ReceivedRecordsBatch> receivedRecordsBatches = new ConcurrentHashMap<>();
+    private ArrayList<UnsavedLastRecord> unsavedLastRecords = new ArrayList<>();
+    private ConcurrentHashMap<String, AtomicInteger> pendingReads = new ConcurrentHashMap<>();
+
+    private KeyedSerialExecutor receiveExecutor;
+    private HashMap<String, byte[]> compressionDictionaries = new HashMap<>();
+    private CompletionTracker completionTracker = new CompletionTracker();
+    private boolean binaryFrames;
+    private boolean recordDeduplication;
+    private Long framedStreamId;
+    private volatile boolean suspended;
 
     public SyncReceiverHandler(@NonNull P2pModeSelectContract.ReceiverPresenter receiverPresenter) {
+        this(receiverPresenter, null);
+    }
+
+    /**
+     * @param acceptedWireFormats the {@link Constants.WireFormat}s accepted from the sender during the connection
+     */
+    public SyncReceiverHandler(@NonNull P2pModeSelectContract.ReceiverPresenter receiverPresenter
+            , @Nullable List<String> acceptedWireFormats) {
         this.receiverPresenter = receiverPresenter;
+        this.receiveExecutor = new KeyedSerialExecutor(P2PLibrary.getInstance().getReceiveConcurrency());
+        this.binaryFrames = acceptedWireFormats != null && acceptedWireFormats.contains(Constants.WireFormat.BINARY_FRAMES);
+        // The digests are kept even for senders that do not offer them so that their records are known to the next sender
+        this.recordDeduplication = P2PLibrary.getInstance().isRecordDeduplication();
     }
 
-    public void processPayload(@NonNull final String endpointId, @NonNull final Payload payload) {
+    public void processPayload(@NonNull final String endpointId, @NonNull final TransportPayload payload) {
         // TODO: Handle when the manifest is present in case there was an error on the sender
         // We should also give the sender the powers to decide when to close the connection and not us
         Timber.e("Received payload from endpoint %s of ID %d and Type %d", endpointId, payload.getId(), payload.getType());
-        if (payload.getType() == Payload.Type.BYTES && null != payload.asBytes()
-                && new String(payload.asBytes()).equals(Constants.Connection.SYNC_COMPLETE)) {
+        if (payload.getType() == TransportPayload.TYPE_BYTES && null != payload.asBytes()
+                && isSyncComplete(payload.asBytes())) {
             // This will only happen after the last payload has been received on the other side
             // An abort is performed as just a disconnect
+            framedStreamId = null;
 
-            if (waitingJobs < 1) {
-                performSynCompleteOperations();
-            } else {
-                isSyncComplete = true;
-            }
-        } else if (awaitingManifestReceipt) {
+            completionTracker.runWhenIdle(new Runnable() {
+                @Override
+                public void run() {
+                    performSynCompleteOperations();
+                }
+            });
+        } else if (payload.getType() == TransportPayload.TYPE_BYTES && null != payload.asBytes()
+                && WireFormatUtil.getMessageType(payload.asBytes()) == WireFormatUtil.MESSAGE_DIGEST_OFFER) {
+            processDigestOffer(endpointId, payload.asBytes());
+        } else if (payload.getType() == TransportPayload.TYPE_BYTES) {
+            // Several manifests can be in flight at once so every other BYTES payload is a manifest
             processManifest(endpointId, payload);
         } else {
             processPayloadChunk(endpointId, payload);
         }
     }
 
-    public void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull PayloadTransferUpdate update) {
+    private boolean isSyncComplete(@NonNull byte[] message) {
+        if (WireFormatUtil.isBinaryFrame(message)) {
+            return WireFormatUtil.getMessageType(message) == WireFormatUtil.MESSAGE_SYNC_COMPLETE;
+        }
+
+        return new String(message).equals(Constants.Connection.SYNC_COMPLETE);
+    }
+
+    /**
+     * Replies to the sender with the offered records that have already been received. The lookup
+     * runs on the data type's queue so that the records of the batches before it are committed
+     * first. If the lookup fails, every record is reported as unknown so that the batch is still sent.
+     */
+    private void processDigestOffer(@NonNull String endpointId, @NonNull byte[] message) {
+        final RecordDigestOffer recordDigestOffer;
+        try {
+            recordDigestOffer = WireFormatUtil.readDigestOffer(message);
+        } catch (IOException e) {
+            Timber.e(e, "Received an invalid digest offer from endpoint %s", endpointId);
+            return;
+        }
+
+        final long[] digests = recordDigestOffer.getDigests();
+        Tasker.run(new Callable<boolean[]>() {
+            @Override
+            public boolean[] call() throws Exception {
+                return getKnownRecords(recordDigestOffer.getDataTypeName(), digests);
+            }
+        }, new GenericAsyncTask.OnFinishedCallback<boolean[]>() {
+            @Override
+            public void onSuccess(@Nullable boolean[] result) {
+                sendDigestReply(new RecordDigestReply(recordDigestOffer.getOfferId()
+                        , result != null ? result : new boolean[digests.length]));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Timber.e(e, "Could not look up the offered record digests");
+                sendDigestReply(new RecordDigestReply(recordDigestOffer.getOfferId(), new boolean[digests.length]));
+            }
+        }, receiveExecutor.forKey(recordDigestOffer.getDataTypeName()));
+    }
+
+    @NonNull
+    private boolean[] getKnownRecords(@NonNull String dataTypeName, @NonNull long[] digests) {
+        boolean[] knownRecords = new boolean[digests.length];
+        if (!recordDeduplication) {
+            return knownRecords;
+        }
+
+        HashSet<Long> knownDigests = new HashSet<>();
+        for (int start = 0; start < digests.length; start += Constants.MAX_RECORD_DIGEST_QUERY_SIZE) {
+            List<Long> queryDigests = new ArrayList<>();
+            for (int i = start; i < Math.min(digests.length, start + Constants.MAX_RECORD_DIGEST_QUERY_SIZE); i++) {
+                queryDigests.add(digests[i]);
+            }
+
+            knownDigests.addAll(P2PLibrary.getInstance().getDb().p2pRecordDigestDao()
+                    .getKnownDigests(dataTypeName, queryDigests));
+        }
+
+        for (int i = 0; i < digests.length; i++) {
+            knownRecords[i] = knownDigests.contains(digests[i]);
+        }
+
+        return knownRecords;
+    }
+
+    private void sendDigestReply(@NonNull RecordDigestReply recordDigestReply) {
+        receiverPresenter.sendBinaryMessage(WireFormatUtil.writeDigestReply(recordDigestReply));
+    }
+
+    public void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull TransportPayloadUpdate update) {
         // Do since we are using ParcelFileDescriptor for STREAM data type & BYTES which is sent at once
         Timber.e("Received payload transfer update %d with %,d bytes transfer | PayloadId %d | Total Bytes %,d | From endpoint %s"
                 , update.getStatus(), update.getBytesTransferred(), update.getPayloadId()
                 , update.getTotalBytes(), endpointId);
-        if (update.getStatus() == PayloadTransferUpdate.Status.SUCCESS) {
+        if (update.getStatus() == TransportPayloadUpdate.STATUS_SUCCESS) {
             long payloadId = update.getPayloadId();
             if (awaitingPayloadManifests.get(payloadId) != null) {
-                finishProcessingData(endpointId, payloadId);
+                transferredPayloads.add(payloadId);
+                finishTransferredPayloads(endpointId);
                 sendPayloadReceived(payloadId);
             }
-        } else if (update.getStatus() == PayloadTransferUpdate.Status.IN_PROGRESS) {
+        } else if (update.getStatus() == TransportPayloadUpdate.STATUS_IN_PROGRESS) {
             long payloadId = update.getPayloadId();
             SyncPackageManifest syncPackageManifest = awaitingPayloadManifests.get(payloadId);
             if (syncPackageManifest != null && syncPackageManifest.getPayloadSize() != 0) {
                 int percentSize = ((int) update.getBytesTransferred() * 100) / syncPackageManifest.getPayloadSize();
                 receiverPresenter.getView().updateProgressFragment(percentSize);
+            } else if (syncPackageManifest != null && syncPackageManifest.getUncompressedSize() > 0) {
+                // The compressed size is unknown so the progress is worked out from the records read so far
+                ProcessedChunk processedChunk = awaitingPayloads.get(payloadId);
+                if (processedChunk != null) {
+                    receiverPresenter.getView().updateProgressFragment((int) ((processedChunk.getBytesRead() * 100)
+                            / syncPackageManifest.getUncompressedSize()));
+                }
+            } else if (syncPackageManifest != null && syncPackageManifest.getRecordsSize() > 0) {
+                // Neither size is known for binary records so the progress is worked out from the records read
+                ProcessedChunk processedChunk = awaitingPayloads.get(payloadId);
+                if (processedChunk != null) {
+                    receiverPresenter.getView().updateProgressFragment((processedChunk.getRecordsRead() * 100)
+                            / syncPackageManifest.getRecordsSize());
+                }
+            }
+        } else if (update.getStatus() == TransportPayloadUpdate.STATUS_FAILURE
+                || update.getStatus() == TransportPayloadUpdate.STATUS_CANCELED) {
+            long payloadId = update.getPayloadId();
+            SyncPackageManifest syncPackageManifest = awaitingPayloadManifests.get(payloadId);
+            if (syncPackageManifest != null && isMediaChunk(syncPackageManifest)) {
+                // The sender sends a failed chunk again as a new payload so it should not hold up the data type
+                removeAwaitingPayload(payloadId);
+                finishTransferredPayloads(endpointId);
             }
         }
     }
 
-    public void processManifest(@NonNull String endpointId, @NonNull Payload payload) {
-        if (payload.getType() == Payload.Type.BYTES && payload.asBytes() != null) {
+    public void processManifest(@NonNull String endpointId, @NonNull TransportPayload payload) {
+        if (payload.getType() == TransportPayload.TYPE_BYTES && payload.asBytes() != null) {
             try {
-                SyncPackageManifest syncPackageManifest = new Gson().fromJson(new String(payload.asBytes()), SyncPackageManifest.class);
-                awaitingPayloadManifests.put(syncPackageManifest.getPayloadId(), syncPackageManifest);
+                byte[] manifestBytes = payload.asBytes();
+                SyncPackageManifest syncPackageManifest = WireFormatUtil.isBinaryFrame(manifestBytes)
+                        ? WireFormatUtil.readManifest(manifestBytes)
+                        : new Gson().fromJson(new String(manifestBytes), SyncPackageManifest.class);
 
-                awaitingManifestReceipt = false;
-                receiverPresenter.getView().updateProgressFragment(String.format(receiverPresenter.getView().getString(R.string.receiving_progress_text)
-                        , syncPackageManifest.getRecordsSize()), "");
-            } catch (JsonParseException e) {
+                if (Constants.WireFormat.FRAMED_STREAM.equals(syncPackageManifest.getPayloadExtension())) {
+                    // The batches on the stream payload come with their own manifests
+                    framedStreamId = syncPackageManifest.getPayloadId();
+                } else {
+                    addManifest(syncPackageManifest);
+                }
+            } catch (JsonParseException | IllegalArgumentException | IOException e) {
                 Timber.e(e, receiverPresenter.getView().getString(R.string.log_received_invalid_manifest_from_endpoint), endpointId);
             }
         } else {
@@ -112,13 +277,30 @@ public class SyncReceiverHandler extends BaseSyncHandler {
         }
     }
 
-    public void processPayloadChunk(@NonNull String endpointId, @NonNull Payload payload) {
-        if (awaitingPayloadManifests.containsKey(payload.getId())) {
-            awaitingManifestReceipt = true;
+    private void addManifest(@NonNull SyncPackageManifest syncPackageManifest) {
+        awaitingPayloadManifests.put(syncPackageManifest.getPayloadId(), syncPackageManifest);
+
+        if (syncPackageManifest.getDictionary() != null) {
+            compressionDictionaries.put(syncPackageManifest.getDataType().getName()
+                    , Base64.decode(syncPackageManifest.getDictionary(), Base64.NO_WRAP));
+        }
+
+        receiverPresenter.getView().updateProgressFragment(String.format(receiverPresenter.getView().getString(R.string.receiving_progress_text)
+                , syncPackageManifest.getRecordsSize()), "");
+    }
+
+    public void processPayloadChunk(@NonNull String endpointId, @NonNull TransportPayload payload) {
+        if (framedStreamId != null && framedStreamId == payload.getId() && payload.getType() == TransportPayload.TYPE_STREAM) {
+            readFramedStream(endpointId, payload);
+        } else if (awaitingPayloadManifests.containsKey(payload.getId())) {
             SyncPackageManifest payloadManifest = awaitingPayloadManifests.get(payload.getId());
 
             if (payloadManifest.getDataType().getType() == DataType.Type.NON_MEDIA) {
-                processNonMediaData(payload);
+                processNonMediaData(payload.getId(), payload.asInputStream(), payloadManifest);
+            } else if (isMediaBundle(payloadManifest) && payload.getType() == TransportPayload.TYPE_STREAM) {
+                processMediaBundle(payload.getId(), payload.asInputStream(), payloadManifest);
+            } else if (isMediaChunk(payloadManifest) && payload.getType() == TransportPayload.TYPE_STREAM) {
+                processMediaChunk(payload.getId(), payload.asInputStream(), payloadManifest);
             } else {
                 processMediaData(payload);
             }
@@ -127,6 +309,114 @@ public class SyncReceiverHandler extends BaseSyncHandler {
         }
     }
 
+    /**
+     * Reads the batch frames from the framed stream payload on a separate thread and processes each
+     * one on the main thread as if its manifest and payload had been received separately
+     */
+    private void readFramedStream(@NonNull final String endpointId, @NonNull TransportPayload payload) {
+        final long streamId = payload.getId();
+        final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+        startNewThread(new FramedStreamReader(payload.asInputStream(), new FramedStreamReader.OnFrameReadListener() {
+            @Override
+            public void onFrameRead(@NonNull final BatchFrame batchFrame) {
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isCurrentFramedStream(streamId)) {
+                            processBatchFrame(endpointId, batchFrame);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onStreamClosed() {
+                Timber.e("Framed stream payload %d has been closed", streamId);
+            }
+
+            @Override
+            public void onError(@NonNull final Exception e) {
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The stream is expected to break when the connection is closed after an error
+                        if (isCurrentFramedStream(streamId)) {
+                            Timber.e(e, "Error occurred reading the framed stream payload %d", streamId);
+                            framedStreamId = null;
+                            syncErrorOccurred(e);
+                            stopTransferAndReset(true);
+                        }
+                    }
+                });
+            }
+        }));
+    }
+
+    private boolean isCurrentFramedStream(long streamId) {
+        return framedStreamId != null && framedStreamId == streamId;
+    }
+
+    /**
+     * Processes a batch read from the framed stream payload. The whole batch has been received so it
+     * is acknowledged right away like a payload whose transfer is complete.
+     *
+     * @param endpointId the endpoint of the sending device
+     * @param batchFrame the batch frame
+     */
+    @VisibleForTesting
+    protected void processBatchFrame(@NonNull String endpointId, @NonNull BatchFrame batchFrame) {
+        SyncPackageManifest frameManifest = batchFrame.getSyncPackageManifest();
+        long frameId = frameManifest.getPayloadId();
+        Timber.e("Received batch frame %d of %d records up to record %d", frameId, frameManifest.getRecordsSize()
+                , batchFrame.getHighestRecordId());
+
+        addManifest(frameManifest);
+        processNonMediaData(frameId, new ByteArrayInputStream(batchFrame.getPayload()), frameManifest);
+
+        transferredPayloads.add(frameId);
+        finishTransferredPayloads(endpointId);
+        sendPayloadReceived(frameId);
+    }
+
+    @VisibleForTesting
+    protected void startNewThread(@NonNull Runnable runnable) {
+        new Thread(runnable).start();
+    }
+
+    /**
+     * Hands over the payloads whose transfer is complete. Payloads of the same data type are processed
+     * in the order their manifests were received so that the last record id saved for the sending
+     * device never skips a batch that is still being transferred.
+     *
+     * @param endpointId the endpoint of the sending device
+     */
+    private void finishTransferredPayloads(@NonNull String endpointId) {
+        HashSet<String> blockedDataTypes = new HashSet<>();
+
+        for (Map.Entry<Long, SyncPackageManifest> manifestEntry : new ArrayList<>(awaitingPayloadManifests.entrySet())) {
+            long payloadId = manifestEntry.getKey();
+            String dataTypeName = manifestEntry.getValue().getDataType().getName();
+
+            if (blockedDataTypes.contains(dataTypeName)) {
+                continue;
+            }
+
+            if (!transferredPayloads.contains(payloadId)) {
+                blockedDataTypes.add(dataTypeName);
+            } else if (dispatchedPayloads.add(payloadId)) {
+                finishProcessingData(endpointId, payloadId);
+            }
+        }
+    }
+
+    private void removeAwaitingPayload(long payloadId) {
+        awaitingPayloadManifests.remove(payloadId);
+        awaitingPayloads.remove(payloadId);
+        transferredPayloads.remove(payloadId);
+        dispatchedPayloads.remove(payloadId);
+    }
+
     public void finishProcessingData(String endpointId, long payloadId) {
         ProcessedChunk processedChunk = awaitingPayloads.get(payloadId);
         SyncPackageManifest payloadManifest = awaitingPayloadManifests.get(payloadId);
@@ -134,6 +424,8 @@ public class SyncReceiverHandler extends BaseSyncHandler {
         if (processedChunk != null && payloadManifest != null) {
             if (payloadManifest.getDataType().getType() == DataType.Type.NON_MEDIA) {
                 finishProcessingNonMediaData(payloadId);
+            } else if (isMediaBundle(payloadManifest) || isMediaChunk(payloadManifest)) {
+                finishProcessingMediaBundle(payloadId);
             } else {
                 finishProcessingMediaData(payloadId);
             }
@@ -143,37 +435,88 @@ public class SyncReceiverHandler extends BaseSyncHandler {
         }
     }
 
-    private void processNonMediaData(@NonNull final Payload payload) {
-        final long payloadId = payload.getId();
-        awaitingPayloads.put(payloadId, new ProcessedChunk(payload.getType(), ""));
+    /**
+     * Parses the records as they arrive on the payload stream and hands them over to the
+     * {@link ReceiverTransferDao} in batches. Records from consecutive payloads of the same data type
+     * are grouped into a single {@link TransactionalReceiverTransferDao#runInTransaction(Callable)} call.
+     * The last record id is only saved once the payload transfer is complete and its records are committed
+     *
+     * @param payloadId the id of the STREAM payload or batch frame
+     * @param payloadInputStream the records of the payload
+     * @param payloadManifest the manifest received for the payload
+     */
+    private void processNonMediaData(final long payloadId, @NonNull final InputStream payloadInputStream
+            , @NonNull final SyncPackageManifest payloadManifest) {
+        final ProcessedChunk processedChunk = new ProcessedChunk(TransportPayload.TYPE_STREAM);
+        awaitingPayloads.put(payloadId, processedChunk);
+
+        final DataType dataType = payloadManifest.getDataType();
+        final AtomicInteger dataTypePendingReads = getPendingReads(dataType.getName());
+        final byte[] compressionDictionary = compressionDictionaries.get(dataType.getName());
 
-        waitingJobs++;
+        completionTracker.taskStarted();
+        dataTypePendingReads.incrementAndGet();
         Tasker.run(new Callable<Long>() {
             @Override
             public Long call() throws Exception {
-                String jsonData = SyncDataConverterUtil.readInputStreamAsString(payload.asStream().asInputStream());
-                ProcessedChunk processedChunk = awaitingPayloads.get(payloadId);
+                try {
+                    final CountingInputStream inputStream = new CountingInputStream(CompressionUtil.wrapInputStream(
+                            payloadInputStream, payloadManifest.getEncoding(), compressionDictionary));
+
+                    SyncDataConverterUtil.OnJsonBatchReadListener onJsonBatchReadListener = new SyncDataConverterUtil.OnJsonBatchReadListener() {
+                        @Override
+                        public void onJsonBatchRead(@NonNull JSONArray records) throws Exception {
+                            processedChunk.setBytesRead(inputStream.getCount());
+                            processedChunk.setRecordsRead(processedChunk.getRecordsRead() + records.length());
+                            addReceivedRecords(dataType, processedChunk, records);
+                        }
+                    };
 
-                jsonData = processedChunk.getJsonData() + jsonData;
-                processedChunk.setJsonData(jsonData);
+                    int recordsSize;
+                    String recordFormat = payloadManifest.getRecordFormat();
+                    if (recordFormat == null) {
+                        recordsSize = SyncDataConverterUtil.readJsonArrayInBatches(inputStream
+                                , P2PLibrary.getInstance().getReceiveBatchSize(), onJsonBatchReadListener);
+                    } else if (Constants.WireFormat.BINARY_RECORDS.equals(recordFormat)) {
+                        recordsSize = BinaryRecordCodec.readRecordsInBatches(inputStream
+                                , P2PLibrary.getInstance().getReceiveBatchSize(), onJsonBatchReadListener);
+                    } else {
+                        throw new IOException("Unsupported record format " + recordFormat);
+                    }
+
+                    if (recordsSize == 0) {
+                        addReceivedRecords(dataType, processedChunk, new JSONArray());
+                    }
 
-                Timber.e("Final JSONDATA size %,d", jsonData.length());
+                    processedChunk.setRecordsSize(recordsSize);
+
+                    ReceivedRecordsBatch receivedRecordsBatch = receivedRecordsBatches.get(dataType.getName());
+                    if (receivedRecordsBatch != null && receivedRecordsBatch.contains(processedChunk)) {
+                        receivedRecordsBatch.setReadComplete(processedChunk);
+                    } else {
+                        processedChunk.setRecordsCommitted(true);
+                    }
+
+                    Timber.e("Finished reading %,d records from payload %d", recordsSize, payloadId);
+                } finally {
+                    dataTypePendingReads.decrementAndGet();
+                }
 
-                awaitingPayloads.put(payloadId, processedChunk);
                 return payloadId;
             }
         }, new GenericAsyncTask.OnFinishedCallback<Long>() {
             @Override
             public void onSuccess(@Nullable Long result) {
-                waitingJobs--;
                 if (result != null) {
                     Timber.e("Finished processing chunk for payload %d", payloadId);
-                    asyncTaskFinished();
+                    completionTracker.taskFinished();
                 } else {
                     String errorMessage = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_non_media_data);
                     Timber.e(errorMessage);
+                    completionTracker.cancel();
                     syncErrorOccurred(new Exception(errorMessage));
                     stopTransferAndReset(true);
+                    completionTracker.taskFinished();
                 }
             }
 
@@ -181,46 +524,54 @@ public class SyncReceiverHandler extends BaseSyncHandler {
             public void onError(Exception e) {
                 String errorMessage = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_non_media_data);
                 Timber.e(e, errorMessage);
+                completionTracker.cancel();
                 syncErrorOccurred(new Exception(errorMessage));
                 stopTransferAndReset(true);
-                waitingJobs--;
+                completionTracker.taskFinished();
             }
-        }, AsyncTask.SERIAL_EXECUTOR);
+        }, receiveExecutor.forKey(dataType.getName()));
     }
 
     @VisibleForTesting
     protected void finishProcessingNonMediaData(final long payloadId) {
-        waitingJobs++;
+        // Look up the payload here since the maps are only safe to use on the main thread
+        final ProcessedChunk processedChunk = awaitingPayloads.get(payloadId);
+        final SyncPackageManifest syncPackageManifest = awaitingPayloadManifests.get(payloadId);
+        final String dataTypeName = syncPackageManifest.getDataType().getName();
+
+        completionTracker.taskStarted();
         Tasker.run(new Callable<Long>() {
             @Override
             public Long call() throws Exception {
-                JSONArray jsonArray = new JSONArray(awaitingPayloads.get(payloadId).getJsonData());
-                SyncPackageManifest syncPackageManifest = awaitingPayloadManifests.get(payloadId);
-
-                int recordsSize = jsonArray.length();
+                int recordsSize = processedChunk.getRecordsSize();
 
                 updateTransferProgress(syncPackageManifest.getDataType().getName(), recordsSize);
                 logTransfer(false, syncPackageManifest.getDataType().getName(), receiverPresenter.getCurrentPeerDevice(), recordsSize);
 
-                long lastRecordId = P2PLibrary.getInstance().getReceiverTransferDao()
-                        .receiveJson(syncPackageManifest.getDataType(), jsonArray);
+                addUnsavedLastRecord(new UnsavedLastRecord(dataTypeName, processedChunk, syncPackageManifest));
 
-                updateLastRecord(syncPackageManifest.getDataType().getName(),lastRecordId);
-                return lastRecordId;
+                // Leave the records uncommitted if the next payload is already being read so that they can be grouped
+                if (getPendingReads(dataTypeName).get() < 1) {
+                    flushReceivedRecords(dataTypeName);
+                }
+
+                saveCommittedLastRecords();
+                return processedChunk.getLastRecordId();
             }
         }, new GenericAsyncTask.OnFinishedCallback<Long>() {
             @Override
             public void onSuccess(@Nullable Long result) {
-                waitingJobs--;
                 if (result != null) {
                     // We should save the last ID here and probably keep track of the next batch that we are to receive
-                    awaitingPayloadManifests.remove(payloadId);
-                    asyncTaskFinished();
+                    removeAwaitingPayload(payloadId);
+                    completionTracker.taskFinished();
                 } else {
                     String errorMsg = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_non_media_data);
                     Timber.e(errorMsg);
+                    completionTracker.cancel();
                     syncErrorOccurred(new Exception(errorMsg));
                     stopTransferAndReset(true);
+                    completionTracker.taskFinished();
                 }
             }
 
@@ -228,12 +579,162 @@ public class SyncReceiverHandler extends BaseSyncHandler {
             public void onError(Exception e) {
                 String errorMsg = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_non_media_data);
                 Timber.e(e, errorMsg);
+                completionTracker.cancel();
                 syncErrorOccurred(new Exception(errorMsg));
                 stopTransferAndReset(true);
-                waitingJobs--;
+                completionTracker.taskFinished();
+            }
+        }, receiveExecutor.forKey(dataTypeName));
+
+    }
+
+    private void addReceivedRecords(@NonNull DataType dataType, @NonNull ProcessedChunk processedChunk
+            , @NonNull JSONArray records) throws Exception {
+        ReceivedRecordsBatch receivedRecordsBatch = receivedRecordsBatches.get(dataType.getName());
+        if (receivedRecordsBatch == null) {
+            receivedRecordsBatch = new ReceivedRecordsBatch(dataType);
+            receivedRecordsBatches.put(dataType.getName(), receivedRecordsBatch);
+        }
+
+        receivedRecordsBatch.add(processedChunk, records);
+
+        if (receivedRecordsBatch.getRecordsSize() >= P2PLibrary.getInstance().getReceiveBatchSize()) {
+            flushReceivedRecords(dataType.getName());
+        }
+    }
+
+    @NonNull
+    private AtomicInteger getPendingReads(@NonNull String dataTypeName) {
+        AtomicInteger dataTypePendingReads = pendingReads.get(dataTypeName);
+        if (dataTypePendingReads == null) {
+            pendingReads.putIfAbsent(dataTypeName, new AtomicInteger());
+            dataTypePendingReads = pendingReads.get(dataTypeName);
+        }
+
+        return dataTypePendingReads;
+    }
+
+    /**
+     * Hands the pending records of the data type over to the {@link ReceiverTransferDao}, in a single
+     * transaction if the host application supports it. This is only called from tasks running on the
+     * data type's serial queue.
+     *
+     * @param dataTypeName the data type whose records should be committed
+     * @throws Exception
+     */
+    private void flushReceivedRecords(@NonNull String dataTypeName) throws Exception {
+        final ReceivedRecordsBatch batch = receivedRecordsBatches.remove(dataTypeName);
+        if (batch == null) {
+            return;
+        }
+
+        final ReceiverTransferDao receiverTransferDao = P2PLibrary.getInstance().getReceiverTransferDao();
+        Callable<Void> receiveRecords = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.getProcessedChunk(i).setLastRecordId(receiverTransferDao.receiveJson(batch.getDataType(), batch.getRecords(i)));
+                }
+
+                return null;
+            }
+        };
+
+        if (receiverTransferDao instanceof TransactionalReceiverTransferDao) {
+            ((TransactionalReceiverTransferDao) receiverTransferDao).runInTransaction(receiveRecords);
+        } else {
+            receiveRecords.call();
+        }
+
+        if (recordDeduplication) {
+            saveRecordDigests(batch);
+        }
+
+        for (ProcessedChunk processedChunk : batch.getReadProcessedChunks()) {
+            processedChunk.setRecordsCommitted(true);
+        }
+    }
+
+    /**
+     * Saves the digests of the committed records so that they are skipped when another device
+     * offers them. The digests are saved after the records are committed so a record can at worst
+     * be received again.
+     */
+    private void saveRecordDigests(@NonNull ReceivedRecordsBatch batch) {
+        final List<P2pRecordDigest> recordDigests = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            for (long digest : RecordDigestUtil.getDigests(batch.getRecords(i))) {
+                P2pRecordDigest recordDigest = new P2pRecordDigest();
+                recordDigest.setEntityType(batch.getDataType().getName());
+                recordDigest.setDigest(digest);
+                recordDigests.add(recordDigest);
+            }
+        }
+
+        if (!recordDigests.isEmpty()) {
+            try {
+                P2PLibrary.getInstance().getDb().p2pRecordDigestDao().addRecordDigests(recordDigests);
+            } catch (RuntimeException e) {
+                // The records have been committed so the sync goes on without their digests
+                Timber.e(e, "Could not save the record digests of %s", batch.getDataType().getName());
+            }
+        }
+    }
+
+    /**
+     * Saves the last record ids of the finished payloads whose records have been committed. Each data
+     * type's last record id is saved once in a single database transaction and never ahead of an
+     * earlier payload of the same data type that is not yet committed. Payloads whose manifest has the
+     * range of record ids of the batch are saved as received ranges as soon as they are committed.
+     */
+    private synchronized void addUnsavedLastRecord(@NonNull UnsavedLastRecord unsavedLastRecord) {
+        unsavedLastRecords.add(unsavedLastRecord);
+    }
+
+    private synchronized void saveCommittedLastRecords() {
+        final HashMap<String, Long> lastRecordIds = new HashMap<>();
+        final ArrayList<UnsavedLastRecord> receivedRanges = new ArrayList<>();
+        HashSet<String> blockedDataTypes = new HashSet<>();
+
+        Iterator<UnsavedLastRecord> iterator = unsavedLastRecords.iterator();
+        while (iterator.hasNext()) {
+            UnsavedLastRecord unsavedLastRecord = iterator.next();
+            if (unsavedLastRecord.hasRecordIdRange()) {
+                if (unsavedLastRecord.processedChunk.isRecordsCommitted()) {
+                    receivedRanges.add(unsavedLastRecord);
+                    iterator.remove();
+                }
+
+                continue;
+            }
+
+            if (blockedDataTypes.contains(unsavedLastRecord.dataTypeName)) {
+                continue;
             }
-        }, AsyncTask.SERIAL_EXECUTOR);
 
+            if (unsavedLastRecord.processedChunk.isRecordsCommitted()) {
+                lastRecordIds.put(unsavedLastRecord.dataTypeName, unsavedLastRecord.processedChunk.getLastRecordId());
+                iterator.remove();
+            } else {
+                blockedDataTypes.add(unsavedLastRecord.dataTypeName);
+            }
+        }
+
+        if (!lastRecordIds.isEmpty() || !receivedRanges.isEmpty()) {
+            P2PLibrary.getInstance().getDb().runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (String entityName : lastRecordIds.keySet()) {
+                        updateLastRecord(entityName, lastRecordIds.get(entityName));
+                    }
+
+                    for (UnsavedLastRecord receivedRange : receivedRanges) {
+                        updateReceivedRange(receivedRange.dataTypeName, receivedRange.previousRecordId
+                                , receivedRange.highestRecordId);
+                    }
+                }
+            });
+        }
     }
 
     @VisibleForTesting
@@ -256,6 +757,9 @@ public class SyncReceiverHandler extends BaseSyncHandler {
                         .addReceivedHistory(receivedHistory);
             } else {
                 receivedHistory.setLastRecordId(lastRecordId);
+                if (receivedHistory.getReceivedRanges() != null) {
+                    receivedHistory.setReceivedRanges(RecordIdRangeSet.of(receivedHistory).toBytes());
+                }
 
                 p2pReceivedHistoryDao
                         .updateReceivedHistory(receivedHistory);
@@ -263,7 +767,261 @@ public class SyncReceiverHandler extends BaseSyncHandler {
         }
     }
 
-    private void processMediaData(@NonNull final Payload payload) {
+    /**
+     * Adds the range of record ids of a committed batch to the received history of the data type.
+     * The last record id only moves forward once there is no gap below the range.
+     *
+     * @param entityName the data type name
+     * @param previousRecordId the record id the batch was read after
+     * @param highestRecordId the highest record id in the batch
+     */
+    @VisibleForTesting
+    protected synchronized void updateReceivedRange(@NonNull String entityName, long previousRecordId, long highestRecordId) {
+        SendingDevice sendingDevice = receiverPresenter.getSendingDevice();
+        if (sendingDevice != null) {
+            P2pReceivedHistoryDao p2pReceivedHistoryDao = P2PLibrary.getInstance().getDb()
+                    .p2pReceivedHistoryDao();
+
+            P2pReceivedHistory receivedHistory = p2pReceivedHistoryDao
+                    .getHistory(sendingDevice.getDeviceId(), entityName);
+            boolean newHistory = receivedHistory == null;
+
+            if (newHistory) {
+                receivedHistory = new P2pReceivedHistory();
+                receivedHistory.setSendingDeviceId(sendingDevice.getDeviceId());
+                receivedHistory.setEntityType(entityName);
+            }
+
+            RecordIdRangeSet recordIdRangeSet = RecordIdRangeSet.of(receivedHistory);
+            recordIdRangeSet.add(previousRecordId, highestRecordId);
+            receivedHistory.setLastRecordId(recordIdRangeSet.getLastRecordId());
+            receivedHistory.setReceivedRanges(recordIdRangeSet.toBytes());
+
+            if (newHistory) {
+                p2pReceivedHistoryDao
+                        .addReceivedHistory(receivedHistory);
+            } else {
+                p2pReceivedHistoryDao
+                        .updateReceivedHistory(receivedHistory);
+            }
+        }
+    }
+
+    private boolean isMediaBundle(@NonNull SyncPackageManifest syncPackageManifest) {
+        return Constants.WireFormat.MEDIA_BUNDLE.equals(syncPackageManifest.getRecordFormat());
+    }
+
+    /**
+     * Unpacks the media files as the media bundle arrives on the payload stream. The files are only
+     * handed over to the {@link ReceiverTransferDao} once the payload transfer is complete
+     *
+     * @param payloadId the id of the STREAM payload
+     * @param payloadInputStream the media bundle
+     * @param payloadManifest the manifest received for the payload
+     */
+    private void processMediaBundle(final long payloadId, @NonNull final InputStream payloadInputStream
+            , @NonNull SyncPackageManifest payloadManifest) {
+        final ProcessedChunk processedChunk = new ProcessedChunk(TransportPayload.TYPE_STREAM);
+        awaitingPayloads.put(payloadId, processedChunk);
+
+        final File bundleDirectory = new File(receiverPresenter.getView().getContext().getCacheDir()
+                , Constants.MEDIA_BUNDLE_DIRECTORY);
+
+        completionTracker.taskStarted();
+        Tasker.run(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                List<MultiMediaData> mediaFiles = MediaBundleUtil.readBundle(payloadInputStream, bundleDirectory
+                        , new MediaBundleUtil.OnMediaFileReadListener() {
+                            @Override
+                            public void onMediaFileRead(@NonNull MultiMediaData mediaFile) {
+                                processedChunk.setRecordsRead(processedChunk.getRecordsRead() + 1);
+                            }
+                        });
+
+                processedChunk.setRecordsSize(mediaFiles.size());
+                processedChunk.setMediaFiles(mediaFiles);
+
+                Timber.e("Finished reading %,d media files from payload %d", mediaFiles.size(), payloadId);
+                return payloadId;
+            }
+        }, new GenericAsyncTask.OnFinishedCallback<Long>() {
+            @Override
+            public void onSuccess(@Nullable Long result) {
+                completionTracker.taskFinished();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                String errorMsg = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_media_data);
+                Timber.e(e, errorMsg);
+                completionTracker.cancel();
+                syncErrorOccurred(e);
+                stopTransferAndReset(true);
+                completionTracker.taskFinished();
+            }
+        }, receiveExecutor.forKey(payloadManifest.getDataType().getName()));
+    }
+
+    private boolean isMediaChunk(@NonNull SyncPackageManifest syncPackageManifest) {
+        return Constants.WireFormat.MEDIA_CHUNKS.equals(syncPackageManifest.getRecordFormat())
+                && syncPackageManifest.getPayloadDetails() != null;
+    }
+
+    private boolean isLastChunk(@NonNull SyncPackageManifest syncPackageManifest) {
+        return Boolean.TRUE.equals(syncPackageManifest.getPayloadDetails().get("lastChunk"));
+    }
+
+    /**
+     * Writes a chunk of a large media file into its partial file as the chunk arrives on the payload
+     * stream. The chunk that completes the partial file hands the media file over like a media bundle
+     * of one file. A chunk that could not be read is left out of the received ranges and is sent
+     * again on the next sync.
+     *
+     * @param payloadId the id of the STREAM payload
+     * @param payloadInputStream the chunk
+     * @param payloadManifest the manifest received for the payload
+     */
+    private void processMediaChunk(final long payloadId, @NonNull final InputStream payloadInputStream
+            , @NonNull final SyncPackageManifest payloadManifest) {
+        final ProcessedChunk processedChunk = new ProcessedChunk(TransportPayload.TYPE_STREAM);
+        awaitingPayloads.put(payloadId, processedChunk);
+
+        final SendingDevice sendingDevice = receiverPresenter.getSendingDevice();
+        final Context context = receiverPresenter.getView().getContext();
+
+        completionTracker.taskStarted();
+        Tasker.run(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                if (sendingDevice == null) {
+                    throw new IOException("The media chunk cannot be kept without the sending device");
+                }
+
+                HashMap<String, Object> payloadDetails = payloadManifest.getPayloadDetails();
+                long fileRecordId = ((Number) payloadDetails.get("fileRecordId")).longValue();
+                long offset = ((Number) payloadDetails.get("chunkOffset")).longValue();
+                long length = ((Number) payloadDetails.get("chunkLength")).longValue();
+
+                File directory = MediaChunkUtil.getDeviceDirectory(context, sendingDevice.getDeviceId());
+                PartialMediaFile partialMediaFile = MediaChunkUtil.readChunk(payloadInputStream, directory
+                        , new PartialMediaFile(payloadManifest.getDataType().getName(), fileRecordId
+                                , ((Number) payloadDetails.get("fileSize")).longValue()), offset, length);
+
+                if (MediaChunkUtil.isComplete(partialMediaFile)) {
+                    MultiMediaData mediaFile = new MultiMediaData(MediaChunkUtil.completePartialFile(directory
+                            , partialMediaFile, payloadManifest.getPayloadExtension()), fileRecordId);
+
+                    HashMap<String, String> mediaDetails = new HashMap<>();
+                    for (String key : payloadDetails.keySet()) {
+                        if (payloadDetails.get(key) instanceof String) {
+                            mediaDetails.put(key, (String) payloadDetails.get(key));
+                        }
+                    }
+
+                    mediaFile.setMediaDetails(mediaDetails);
+                    processedChunk.setMediaFiles(Collections.singletonList(mediaFile));
+                }
+
+                return payloadId;
+            }
+        }, new GenericAsyncTask.OnFinishedCallback<Long>() {
+            @Override
+            public void onSuccess(@Nullable Long result) {
+                completionTracker.taskFinished();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Timber.e(e, "Error occurred reading media chunk %d", payloadId);
+                completionTracker.taskFinished();
+            }
+        }, receiveExecutor.forKey(payloadManifest.getDataType().getName()));
+    }
+
+    /**
+     * Hands over the media files unpacked from a media bundle one at a time. The media bundle is
+     * read on the same serial executor so all its files have been unpacked by the time this runs.
+     * The same goes for the media file completed by a media chunk.
+     *
+     * @param payloadId the id of the media bundle or media chunk payload
+     */
+    @VisibleForTesting
+    protected void finishProcessingMediaBundle(final long payloadId) {
+        final ProcessedChunk processedChunk = awaitingPayloads.get(payloadId);
+        final SyncPackageManifest syncPackageManifest = awaitingPayloadManifests.get(payloadId);
+        final DataType dataType = syncPackageManifest.getDataType();
+
+        completionTracker.taskStarted();
+        Tasker.run(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                List<MultiMediaData> mediaFiles = processedChunk.getMediaFiles();
+                if (mediaFiles == null) {
+                    // A chunk that does not complete its media file has nothing to hand over yet
+                    return isMediaChunk(syncPackageManifest) && !isLastChunk(syncPackageManifest) ? 0L : null;
+                }
+
+                updateTransferProgress(dataType.getName(), mediaFiles.size());
+                logTransfer(false, dataType.getName(), receiverPresenter.getCurrentPeerDevice(), mediaFiles.size());
+
+                long lastRecordId = 0;
+                for (MultiMediaData mediaFile : mediaFiles) {
+                    HashMap<String, Object> payloadDetails = new HashMap<>();
+                    if (mediaFile.getMediaDetails() != null) {
+                        payloadDetails.putAll(mediaFile.getMediaDetails());
+                    }
+
+                    // The details of a single media file arrive as JSON so the record id is a double there too
+                    payloadDetails.put("fileRecordId", (double) mediaFile.getRecordId());
+
+                    File file = mediaFile.getFile();
+                    lastRecordId = P2PLibrary.getInstance().getReceiverTransferDao()
+                            .receiveMultimedia(dataType, file, payloadDetails, mediaFile.getRecordId());
+
+                    if (file.exists() && !file.delete()) {
+                        Timber.e("Could not delete %s", file.getAbsolutePath());
+                    }
+
+                    if (lastRecordId < 0) {
+                        return null;
+                    }
+
+                    updateLastRecord(dataType.getName(), lastRecordId);
+                }
+
+                return lastRecordId;
+            }
+        }, new GenericAsyncTask.OnFinishedCallback<Long>() {
+            @Override
+            public void onSuccess(@Nullable Long result) {
+                if (result != null) {
+                    removeAwaitingPayload(payloadId);
+                    completionTracker.taskFinished();
+                } else {
+                    String errorMsg = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_media_data);
+                    Exception e = new Exception(errorMsg);
+                    Timber.e(e);
+                    completionTracker.cancel();
+                    syncErrorOccurred(e);
+                    stopTransferAndReset(true);
+                    completionTracker.taskFinished();
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                String errorMsg = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_media_data);
+                Timber.e(e, errorMsg);
+                completionTracker.cancel();
+                syncErrorOccurred(e);
+                stopTransferAndReset(true);
+                completionTracker.taskFinished();
+            }
+        }, receiveExecutor.forKey(dataType.getName()));
+    }
+
+    private void processMediaData(@NonNull final TransportPayload payload) {
         final long payloadId = payload.getId();
         ProcessedChunk processedChunk = awaitingPayloads.get(payloadId);
 
@@ -276,22 +1034,21 @@ public class SyncReceiverHandler extends BaseSyncHandler {
     protected void finishProcessingMediaData(@NonNull long payloadId) {
         ProcessedChunk processedChunk = awaitingPayloads.get(payloadId);
         if (processedChunk != null && processedChunk.getFileData() != null) {
-            final Payload payload = processedChunk.getFileData();
+            final TransportPayload payload = processedChunk.getFileData();
+            final SyncPackageManifest syncPackageManifest = awaitingPayloadManifests.get(payload.getId());
 
-            waitingJobs++;
+            completionTracker.taskStarted();
             Tasker.run(new Callable<Long>() {
 
                 @Override
                 public Long call() throws Exception {
-                    SyncPackageManifest syncPackageManifest = awaitingPayloadManifests.get(payload.getId());
-
                     updateTransferProgress(syncPackageManifest.getDataType().getName(), 1);
                     logTransfer(false, syncPackageManifest.getDataType().getName(), receiverPresenter.getCurrentPeerDevice(), 1);
 
                     HashMap<String, Object> payloadDetails = syncPackageManifest.getPayloadDetails();
                     long fileRecordId = payloadDetails != null ? (new Double((double) payloadDetails.get("fileRecordId"))).longValue() : 0l;
                     long lastRecordId = P2PLibrary.getInstance().getReceiverTransferDao()
-                            .receiveMultimedia(syncPackageManifest.getDataType(), payload.asFile().asJavaFile()
+                            .receiveMultimedia(syncPackageManifest.getDataType(), payload.asFile()
                                     , payloadDetails, fileRecordId);
 
                     if (lastRecordId > -1) {
@@ -304,18 +1061,19 @@ public class SyncReceiverHandler extends BaseSyncHandler {
             }, new GenericAsyncTask.OnFinishedCallback<Long>() {
                 @Override
                 public void onSuccess(@Nullable Long result) {
-                    waitingJobs--;
                     if (result != null) {
                         // We should save the last ID here and probably keep track of the next batch that we are to receive
-                        awaitingPayloadManifests.remove(payload.getId());
-                        asyncTaskFinished();
+                        removeAwaitingPayload(payload.getId());
+                        completionTracker.taskFinished();
                     } else {
                         String errorMsg = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_media_data);
                         Exception e = new Exception(errorMsg);
                         Timber.e(e);
+                        completionTracker.cancel();
                         syncErrorOccurred(e);
                         // We should not continue
                         stopTransferAndReset(true);
+                        completionTracker.taskFinished();
                     }
                 }
 
@@ -323,12 +1081,13 @@ public class SyncReceiverHandler extends BaseSyncHandler {
                 public void onError(Exception e) {
                     String errorMsg = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_media_data);
                     Timber.e(e, errorMsg);
+                    completionTracker.cancel();
                     syncErrorOccurred(e);
                     // We should not continue
                     stopTransferAndReset(true);
-                    waitingJobs--;
+                    completionTracker.taskFinished();
                 }
-            }, AsyncTask.SERIAL_EXECUTOR);
+            }, receiveExecutor.forKey(syncPackageManifest.getDataType().getName()));
         } else {
             String errorMsg = receiverPresenter.getView().getString(R.string.log_error_occurred_processing_media_data);
             Exception e = new Exception(errorMsg);
@@ -338,14 +1097,12 @@ public class SyncReceiverHandler extends BaseSyncHandler {
         }
     }
 
-    private void asyncTaskFinished() {
-        if (waitingJobs < 1 && isSyncComplete) {
-            performSynCompleteOperations();
-        }
-    }
-
     public void sendPayloadReceived(long payloadId) {
-        receiverPresenter.sendTextMessage(Constants.Connection.PAYLOAD_RECEIVED + payloadId);
+        if (binaryFrames) {
+            receiverPresenter.sendBinaryMessage(WireFormatUtil.writePayloadReceived(payloadId));
+        } else {
+            receiverPresenter.sendTextMessage(Constants.Connection.PAYLOAD_RECEIVED + payloadId);
+        }
     }
 
     protected void performSynCompleteOperations() {
@@ -358,7 +1115,20 @@ public class SyncReceiverHandler extends BaseSyncHandler {
         showSyncCompleteFragment(true);
     }
 
+    /**
+     * Stops the payloads that are still being processed after the connection is broken from ending
+     * the sync while its session waits to be resumed. Their records are still saved.
+     */
+    public void suspend() {
+        suspended = true;
+    }
+
     protected void syncErrorOccurred(@NonNull Exception e) {
+        if (suspended) {
+            Timber.e(e, "Error occurred processing a payload of the suspended sync session");
+            return;
+        }
+
         SyncFinishedCallback syncFinishedCallback = P2PLibrary.getInstance().getSyncFinishedCallback();
         if (syncFinishedCallback != null) {
             syncFinishedCallback.onFailure(e, getTransferProgress());
@@ -378,10 +1148,34 @@ public class SyncReceiverHandler extends BaseSyncHandler {
     }
 
     private void stopTransferAndReset(boolean startAdvertising) {
+        if (suspended) {
+            return;
+        }
+
         NearbyStorageUtil.deleteFilesInNearbyFolder(receiverPresenter.getView().getContext());
         DiscoveredDevice peerDevice = receiverPresenter.getCurrentPeerDevice();
         if (peerDevice != null) {
             receiverPresenter.disconnectAndReset(peerDevice.getEndpointId(), startAdvertising);
         }
     }
+
+    private static class UnsavedLastRecord {
+
+        private String dataTypeName;
+        private ProcessedChunk processedChunk;
+        private Long previousRecordId;
+        private Long highestRecordId;
+
+        UnsavedLastRecord(@NonNull String dataTypeName, @NonNull ProcessedChunk processedChunk
+                , @NonNull SyncPackageManifest syncPackageManifest) {
+            this.dataTypeName = dataTypeName;
+            this.processedChunk = processedChunk;
+            this.previousRecordId = syncPackageManifest.getPreviousRecordId();
+            this.highestRecordId = syncPackageManifest.getHighestRecordId();
+        }
+
+        boolean hasRecordIdRange() {
+            return previousRecordId != null && highestRecordId != null;
+        }
+    }
 }
@@ -2,35 +2,67 @@ package org.smartregister.p2p.sync.handler;
 
 import android.os.Handler;
 import android.os.Looper;
-import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
-
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
+import android.util.Base64;
 
 import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONTokener;
 import org.smartregister.p2p.P2PLibrary;
 import org.smartregister.p2p.R;
 import org.smartregister.p2p.contract.P2pModeSelectContract;
 import org.smartregister.p2p.model.DataType;
 import org.smartregister.p2p.model.P2pReceivedHistory;
+import org.smartregister.p2p.model.TransferHints;
+import org.smartregister.p2p.model.dao.RangedSenderTransferDao;
+import org.smartregister.p2p.model.dao.SenderTransferDao;
+import org.smartregister.p2p.model.dao.StreamingSenderTransferDao;
+import org.smartregister.p2p.sync.AdaptiveBatchController;
+import org.smartregister.p2p.sync.FramedStreamWriter;
 import org.smartregister.p2p.sync.data.JsonData;
+import org.smartregister.p2p.sync.data.JsonDataRecordCursor;
+import org.smartregister.p2p.sync.data.JsonRecordCursor;
 import org.smartregister.p2p.sync.data.MultiMediaData;
+import org.smartregister.p2p.sync.data.PartialMediaFile;
+import org.smartregister.p2p.sync.data.PreparedBatch;
+import org.smartregister.p2p.sync.data.RecordDigestOffer;
+import org.smartregister.p2p.sync.data.RecordDigestReply;
 import org.smartregister.p2p.sync.data.SyncPackageManifest;
 import org.smartregister.p2p.tasks.GenericAsyncTask;
 import org.smartregister.p2p.tasks.Tasker;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+import org.smartregister.p2p.transport.TransportStream;
+import org.smartregister.p2p.util.BinaryRecordCodec;
+import org.smartregister.p2p.util.CompressionUtil;
 import org.smartregister.p2p.util.Constants;
+import org.smartregister.p2p.util.CountingOutputStream;
+import org.smartregister.p2p.util.MediaBundleUtil;
+import org.smartregister.p2p.util.MediaChunkUtil;
+import org.smartregister.p2p.util.RecordDigestUtil;
+import org.smartregister.p2p.util.RecordIdRangeSet;
+import org.smartregister.p2p.util.SamplingOutputStream;
+import org.smartregister.p2p.util.SyncDataConverterUtil;
+import org.smartregister.p2p.util.WireFormatUtil;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import timber.log.Timber;
 
@@ -45,15 +77,62 @@ public class SyncSenderHandler extends BaseSyncHandler {
     private TreeSet<DataType> dataSyncOrder;
     private HashMap<String, Long> remainingLastRecordIds = new HashMap<>();
     private List<P2pReceivedHistory> receivedHistory;
+    private HashMap<String, RecordIdRangeSet> receivedRanges = new HashMap<>();
     private int batchSize;
+    private boolean adaptiveBatchSize;
+    private AdaptiveBatchController batchController;
 
     private boolean awaitingPayloadTransfer;
-    private Payload awaitingPayload;
-    private ParcelFileDescriptor awaitingPayloadPipe;
-    private byte[] awaitingBytes;
+    private TransportPayload awaitingPayload;
+    private OutputStream awaitingPayloadOutputStream;
+    private JsonRecordCursor awaitingRecords;
+    private PreparedBatch awaitingPreparedBatch;
+    private long awaitingPayloadSize;
     private String awaitingDataTypeName;
     private long awaitingDataTypeHighestId;
     private int awaitingDataTypeRecordsBatchSize;
+    private long awaitingPayloadStartTime;
+    private long awaitingBytesTransferred;
+    private String awaitingEncoding;
+    private byte[] awaitingDictionary;
+    private boolean awaitingDictionarySample;
+    private long awaitingUncompressedSize;
+    private volatile CountingOutputStream awaitingUncompressedOutput;
+    private List<MultiMediaData> awaitingMediaBundle;
+
+    private List<String> acceptedEncodings;
+    private String payloadEncoding;
+    private int compressionLevel;
+    private HashMap<String, byte[]> compressionDictionaries = new HashMap<>();
+    private ConcurrentHashMap<String, byte[]> sampledDictionaries = new ConcurrentHashMap<>();
+    private HashSet<String> sentDictionaries = new HashSet<>();
+    private boolean binaryRecords;
+
+    private boolean framedStream;
+    private TransportPayload framedStreamPayload;
+    private FramedStreamWriter framedStreamWriter;
+    private boolean framedStreamStarted;
+    private long framesQueued;
+    private long mediaBundleFileSize;
+
+    private boolean mediaLane;
+    private HashSet<String> mediaDataTypeNames = new HashSet<>();
+    private boolean mediaLaneFetching;
+    private boolean mediaLaneAwaitingManifest;
+    private long mediaLaneManifestId;
+    private SyncPackageManifest mediaLaneManifest;
+    private int mediaLaneManifestRetries;
+    private TransportPayload mediaLanePayload;
+    private OutputStream mediaLaneOutputStream;
+    private List<MultiMediaData> mediaLaneFiles;
+    private String mediaLaneDataTypeName;
+
+    private long mediaChunkSize;
+    private HashMap<String, PartialMediaFile> partialMediaFiles = new HashMap<>();
+    private MultiMediaData chunkedMediaFile;
+    private long chunkedMediaPreviousRecordId;
+    private ArrayDeque<long[]> mediaChunks;
+    private MediaChunk awaitingMediaChunk;
 
     private boolean awaitingManifestTransfer;
     private long awaitingManifestId;
@@ -62,15 +141,102 @@ public class SyncSenderHandler extends BaseSyncHandler {
     private PayloadRetry payloadRetry;
     private SyncPackageManifest syncPackageManifest;
 
+    private int transferWindowSize;
+    private ArrayList<SentBatch> sentBatches = new ArrayList<>();
+    private boolean fetchingMediaData;
+
+    private int sendPipelineDepth;
+    private ArrayDeque<PreparedBatch> preparedBatches = new ArrayDeque<>();
+    private HashMap<String, Long> fetchedLastRecordIds = new HashMap<>();
+    private HashSet<String> exhaustedDataTypes = new HashSet<>();
+    private boolean fetchingBatch;
+    private DataType awaitingBatchDataType;
+
+    private boolean recordDeduplication;
+    private PreparedBatch awaitingDigestReply;
+    private long digestOfferId;
+
     private Handler uiHandler;
 
     public SyncSenderHandler(@NonNull P2pModeSelectContract.SenderPresenter presenter, @NonNull TreeSet<DataType> dataSyncOrder
             , @Nullable List<P2pReceivedHistory> receivedHistory) {
+        this(presenter, dataSyncOrder, receivedHistory, null);
+    }
+
+    /**
+     * @param acceptedEncodings the payload encodings the receiver accepted during the connection
+     */
+    public SyncSenderHandler(@NonNull P2pModeSelectContract.SenderPresenter presenter, @NonNull TreeSet<DataType> dataSyncOrder
+            , @Nullable List<P2pReceivedHistory> receivedHistory, @Nullable List<String> acceptedEncodings) {
+        this(presenter, dataSyncOrder, receivedHistory, acceptedEncodings, null);
+    }
+
+    /**
+     * @param acceptedEncodings the payload encodings the receiver accepted during the connection
+     * @param acceptedWireFormats the {@link Constants.WireFormat}s the receiver accepted during the connection
+     */
+    public SyncSenderHandler(@NonNull P2pModeSelectContract.SenderPresenter presenter, @NonNull TreeSet<DataType> dataSyncOrder
+            , @Nullable List<P2pReceivedHistory> receivedHistory, @Nullable List<String> acceptedEncodings
+            , @Nullable List<String> acceptedWireFormats) {
         this.presenter = presenter;
         this.dataSyncOrder = dataSyncOrder;
         this.receivedHistory = receivedHistory;
         this.batchSize = P2PLibrary.getInstance().getBatchSize();
+        this.adaptiveBatchSize = P2PLibrary.getInstance().isAdaptiveBatchSize();
+        this.batchController = new AdaptiveBatchController(P2PLibrary.getInstance().getTargetPayloadSize()
+                , P2PLibrary.getInstance().getTargetPayloadDuration(), Constants.MIN_ADAPTIVE_BATCH_SIZE
+                , Constants.MAX_ADAPTIVE_BATCH_SIZE);
+
+        for (DataType dataType : dataSyncOrder) {
+            TransferHints transferHints = dataType.getTransferHints();
+            if (transferHints != null && transferHints.getMaxPayloadSize() > 0) {
+                batchController.setMaxPayloadSize(dataType.getName(), transferHints.getMaxPayloadSize());
+            }
+
+            if (transferHints != null && transferHints.getCompressionDictionary() != null) {
+                compressionDictionaries.put(dataType.getName(), CompressionUtil.trimDictionary(transferHints.getCompressionDictionary()));
+            }
+
+            if (dataType.getType() == DataType.Type.MEDIA) {
+                mediaDataTypeNames.add(dataType.getName());
+            }
+        }
+
+        this.sendPipelineDepth = P2PLibrary.getInstance().getSendPipelineDepth();
+        this.transferWindowSize = Math.max(1, P2PLibrary.getInstance().getTransferWindowSize());
         this.uiHandler = new Handler(Looper.getMainLooper());
+
+        this.acceptedEncodings = acceptedEncodings != null ? acceptedEncodings : new ArrayList<String>();
+        this.payloadEncoding = P2PLibrary.getInstance().getPayloadEncoding();
+        this.compressionLevel = P2PLibrary.getInstance().getCompressionLevel();
+        this.binaryRecords = acceptedWireFormats != null && acceptedWireFormats.contains(Constants.WireFormat.BINARY_RECORDS);
+        this.framedStream = acceptedWireFormats != null && acceptedWireFormats.contains(Constants.WireFormat.FRAMED_STREAM);
+        this.mediaBundleFileSize = acceptedWireFormats != null && acceptedWireFormats.contains(Constants.WireFormat.MEDIA_BUNDLE)
+                ? P2PLibrary.getInstance().getMediaBundleFileSize() : 0;
+        this.mediaLane = P2PLibrary.getInstance().isMediaLane();
+        this.mediaChunkSize = acceptedWireFormats != null && acceptedWireFormats.contains(Constants.WireFormat.MEDIA_CHUNKS)
+                ? P2PLibrary.getInstance().getMediaChunkSize() : 0;
+        this.recordDeduplication = acceptedWireFormats != null && acceptedWireFormats.contains(Constants.WireFormat.RECORD_DEDUP);
+    }
+
+    /**
+     * @param partialMediaFiles the media files the receiver has partly received from this device,
+     *                          whose chunks that have already been received are not sent again
+     */
+    public void setPartialMediaFiles(@Nullable List<PartialMediaFile> partialMediaFiles) {
+        this.partialMediaFiles.clear();
+
+        if (partialMediaFiles != null) {
+            for (PartialMediaFile partialMediaFile : partialMediaFiles) {
+                this.partialMediaFiles.put(getPartialMediaFileKey(partialMediaFile.getDataTypeName()
+                        , partialMediaFile.getFileRecordId()), partialMediaFile);
+            }
+        }
+    }
+
+    @NonNull
+    private String getPartialMediaFileKey(@NonNull String dataTypeName, long fileRecordId) {
+        return dataTypeName + ":" + fileRecordId;
     }
 
     private void generateRecordsToSend() {
@@ -80,7 +246,12 @@ public class SyncSenderHandler extends BaseSyncHandler {
 
         if (receivedHistory != null && receivedHistory.size() > 0) {
             for (P2pReceivedHistory dataTypeHistory : receivedHistory) {
-                remainingLastRecordIds.put(dataTypeHistory.getEntityType(), dataTypeHistory.getLastRecordId());
+                RecordIdRangeSet recordIdRangeSet = RecordIdRangeSet.of(dataTypeHistory);
+                remainingLastRecordIds.put(dataTypeHistory.getEntityType(), recordIdRangeSet.getLastRecordId());
+
+                if (!recordIdRangeSet.getRanges().isEmpty()) {
+                    receivedRanges.put(dataTypeHistory.getEntityType(), recordIdRangeSet);
+                }
             }
         }
     }
@@ -91,65 +262,241 @@ public class SyncSenderHandler extends BaseSyncHandler {
     }
 
     public void sendNextManifest() {
-        if (!dataSyncOrder.isEmpty()) {
-            final DataType dataType = dataSyncOrder.first();
+        sendNextLaneManifest();
+
+        if (mediaLane) {
+            sendNextMediaLaneManifest();
+        }
+    }
+
+    private void sendNextLaneManifest() {
+        // Only one manifest & payload is pushed at a time. Sent payloads only hold up the next
+        // manifest once the receiver is behind by the transfer window size
+        if (awaitingManifestTransfer || awaitingPayloadTransfer || awaitingBatchDataType != null
+                || awaitingDigestReply != null || fetchingMediaData || countSentBatches(false) >= transferWindowSize) {
+            return;
+        }
+
+        // The media data types are left to the media lane when it is enabled
+        final DataType dataType = getNextDataType(mediaLane ? DataType.Type.NON_MEDIA : null);
 
+        if (dataType != null) {
             if (dataType.getType() == DataType.Type.NON_MEDIA) {
                 sendJsonDataManifest(dataType);
             } else if (dataType.getType() == DataType.Type.MEDIA) {
                 sendMultimediaDataManifest(dataType);
             }
-        } else {
+        } else if (dataSyncOrder.isEmpty() && sentBatches.isEmpty()) {
+            closeFramedStream();
             presenter.sendSyncComplete();
         }
     }
 
+    @Nullable
+    private DataType getNextDataType(@Nullable DataType.Type type) {
+        for (DataType dataType : dataSyncOrder) {
+            if (type == null || dataType.getType() == type) {
+                return dataType;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param inMediaLane whether to count the batches sent in the media lane or the other lane
+     * @return the number of sent batches in the lane that have not been acknowledged in order yet
+     */
+    private int countSentBatches(boolean inMediaLane) {
+        if (!mediaLane) {
+            return sentBatches.size();
+        }
+
+        int count = 0;
+        for (SentBatch sentBatch : sentBatches) {
+            if (mediaDataTypeNames.contains(sentBatch.dataTypeName) == inMediaLane) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Sends the next media files in the media lane. The media lane runs alongside the lane of the
+     * JSON data types with a manifest and payload of its own in flight, so that a long running media
+     * data type does not hold up the data types after it. File payloads are sent in parallel with
+     * the stream payloads of the other lane.
+     */
+    private void sendNextMediaLaneManifest() {
+        if (mediaLaneFetching || mediaLaneFiles != null || countSentBatches(true) >= transferWindowSize) {
+            return;
+        }
+
+        final DataType dataType = getNextDataType(DataType.Type.MEDIA);
+        if (dataType == null) {
+            return;
+        }
+
+        mediaLaneFetching = true;
+        final long lastRecordId = getReadCursor(dataType.getName());
+
+        Tasker.run(new Callable<List<MultiMediaData>>() {
+            @Override
+            public List<MultiMediaData> call() throws Exception {
+                return getMultiMediaDataToSend(dataType, lastRecordId);
+            }
+        }, new GenericAsyncTask.OnFinishedCallback<List<MultiMediaData>>() {
+            @Override
+            public void onSuccess(@Nullable List<MultiMediaData> mediaFiles) {
+                mediaLaneFetching = false;
+
+                if (mediaFiles == null || mediaFiles.isEmpty() || !mediaFiles.get(0).getFile().exists()) {
+                    dataSyncOrder.remove(dataType);
+                    sendNextManifest();
+                } else {
+                    sendMediaLaneManifest(dataType, mediaFiles);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                mediaLaneFetching = false;
+                presenter.errorOccurredSync(e);
+            }
+        });
+    }
+
+    private void sendMediaLaneManifest(@NonNull DataType dataType, @NonNull List<MultiMediaData> mediaFiles) {
+        try {
+            if (mediaFiles.size() > 1) {
+                TransportStream payloadStream = createJsonDataStream();
+                if (payloadStream == null) {
+                    presenter.errorOccurredSync(new Exception("Payload pipe for the media bundle is null"));
+                    return;
+                }
+
+                mediaLanePayload = payloadStream.getPayload();
+                mediaLaneOutputStream = payloadStream.getOutputStream();
+                mediaLaneManifest = createMediaBundleManifest(mediaLanePayload.getId(), dataType, mediaFiles);
+            } else {
+                mediaLanePayload = presenter.getTransport().createFilePayload(mediaFiles.get(0).getFile());
+                mediaLaneManifest = createMediaFileManifest(mediaLanePayload.getId(), dataType, mediaFiles.get(0));
+            }
+        } catch (FileNotFoundException e) {
+            Timber.e(e);
+            presenter.errorOccurredSync(e);
+            return;
+        }
+
+        mediaLaneFiles = mediaFiles;
+        mediaLaneDataTypeName = dataType.getName();
+        fetchedLastRecordIds.put(dataType.getName(), mediaFiles.get(mediaFiles.size() - 1).getRecordId());
+
+        mediaLaneManifestRetries = sendMaxRetries;
+        mediaLaneAwaitingManifest = true;
+        mediaLaneManifestId = presenter.sendManifest(mediaLaneManifest);
+    }
+
+    private void sendMediaLanePayload() {
+        presenter.sendPayload(mediaLanePayload);
+
+        if (mediaLanePayload.getType() == TransportPayload.TYPE_STREAM) {
+            final OutputStream outputStream = mediaLaneOutputStream;
+            final List<MultiMediaData> mediaBundle = mediaLaneFiles;
+
+            startNewThread(new Runnable() {
+                @Override
+                public void run() {
+                    writeMediaBundle(outputStream, mediaBundle);
+                }
+            });
+        }
+    }
+
+    private boolean isMediaLaneUpdate(@NonNull TransportPayloadUpdate update) {
+        return (mediaLaneAwaitingManifest && update.getPayloadId() == mediaLaneManifestId)
+                || (mediaLanePayload != null && update.getPayloadId() == mediaLanePayload.getId());
+    }
+
+    private void onMediaLaneTransferUpdate(@NonNull TransportPayloadUpdate update) {
+        int status = update.getStatus();
+
+        if (mediaLaneAwaitingManifest && update.getPayloadId() == mediaLaneManifestId) {
+            if (status == TransportPayloadUpdate.STATUS_SUCCESS) {
+                mediaLaneAwaitingManifest = false;
+                sendMediaLanePayload();
+            } else if (status == TransportPayloadUpdate.STATUS_FAILURE && mediaLaneManifestRetries > 0) {
+                mediaLaneManifestRetries--;
+                mediaLaneManifestId = presenter.sendManifest(mediaLaneManifest);
+            } else if (status == TransportPayloadUpdate.STATUS_FAILURE || status == TransportPayloadUpdate.STATUS_CANCELED) {
+                presenter.errorOccurredSync(new Exception("Media lane manifest sending has failed"));
+            }
+        } else if (status == TransportPayloadUpdate.STATUS_SUCCESS) {
+            logTransfer(true, mediaLaneDataTypeName, presenter.getCurrentPeerDevice(), mediaLaneFiles.size());
+            markMediaLanePayloadSent();
+            sendNextManifest();
+        } else if (status == TransportPayloadUpdate.STATUS_FAILURE || status == TransportPayloadUpdate.STATUS_CANCELED) {
+            presenter.errorOccurredSync(new Exception("Media lane payload sending has failed"));
+        }
+    }
+
+    @NonNull
+    private SentBatch markMediaLanePayloadSent() {
+        SentBatch sentBatch = new SentBatch(mediaLanePayload.getId(), mediaLaneDataTypeName
+                , mediaLaneFiles.get(mediaLaneFiles.size() - 1).getRecordId(), mediaLaneFiles.size());
+        sentBatches.add(sentBatch);
+
+        mediaLanePayload = null;
+        mediaLaneOutputStream = null;
+        mediaLaneManifest = null;
+        mediaLaneFiles = null;
+        mediaLaneDataTypeName = null;
+
+        return sentBatch;
+    }
+
     @VisibleForTesting
     public void sendMultimediaDataManifest(@NonNull final DataType dataType) {
-        Tasker.run(new Callable<MultiMediaData>() {
+        if (mediaChunks != null) {
+            sendNextMediaChunkManifest(dataType);
+            return;
+        }
+
+        fetchingMediaData = true;
+        final long lastRecordId = getReadCursor(dataType.getName());
+
+        Tasker.run(new Callable<List<MultiMediaData>>() {
             @Override
-            public MultiMediaData call() throws Exception {
-                long lastRecordId = remainingLastRecordIds.get(dataType.getName());
-                return P2PLibrary.getInstance().getSenderTransferDao()
-                        .getMultiMediaData(dataType, lastRecordId);
+            public List<MultiMediaData> call() throws Exception {
+                return getMultiMediaDataToSend(dataType, lastRecordId);
             }
-        }, new GenericAsyncTask.OnFinishedCallback<MultiMediaData>() {
+        }, new GenericAsyncTask.OnFinishedCallback<List<MultiMediaData>>() {
             @Override
-            public void onSuccess(@Nullable MultiMediaData multiMediaData) {
+            public void onSuccess(@Nullable List<MultiMediaData> mediaFiles) {
+                fetchingMediaData = false;
+
+                if (mediaFiles != null && mediaFiles.size() > 1) {
+                    sendMediaBundleManifest(dataType, mediaFiles);
+                    return;
+                }
+
+                MultiMediaData multiMediaData = mediaFiles != null && !mediaFiles.isEmpty() ? mediaFiles.get(0) : null;
                 if (multiMediaData != null) {
                     File file = multiMediaData.getFile();
                     awaitingDataTypeName = dataType.getName();
                     awaitingDataTypeHighestId = multiMediaData.getRecordId();
                     awaitingDataTypeRecordsBatchSize = 1;
 
-                    if (file.exists()) {
+                    if (file.exists() && mediaChunkSize > 0 && file.length() > mediaChunkSize) {
+                        sendChunkedMediaFile(dataType, multiMediaData);
+                    } else if (file.exists()) {
                         // Create the manifest
                         try {
-                            awaitingPayload = Payload.fromFile(file);
-
-                            String filename = file.getName();
-                            String extension = "";
+                            awaitingPayload = presenter.getTransport().createFilePayload(file);
+                            syncPackageManifest = createMediaFileManifest(awaitingPayload.getId(), dataType, multiMediaData);
 
-                            int lastIndex = filename.lastIndexOf(".");
-                            if (lastIndex > -1 && lastIndex < filename.length()) {
-                                extension = filename.substring(lastIndex);
-                            }
-
-                            syncPackageManifest = new SyncPackageManifest(awaitingPayload.getId()
-                                    , extension
-                                    , dataType,  1);
-
-                            HashMap<String, String> mediaDetails = multiMediaData.getMediaDetails();
-                            HashMap<String, Object> payloadDetails = new HashMap<>();
-
-                            if (mediaDetails != null) {
-                                for (String key : mediaDetails.keySet()) {
-                                    payloadDetails.put(key, mediaDetails.get(key));
-                                }
-                            }
-
-                            payloadDetails.put("fileRecordId", multiMediaData.getRecordId());
-                            syncPackageManifest.setPayloadDetails(payloadDetails);
+                            fetchedLastRecordIds.put(dataType.getName(), multiMediaData.getRecordId());
 
                             awaitingManifestTransfer = true;
                             awaitingManifestId = presenter.sendManifest(syncPackageManifest);
@@ -169,77 +516,789 @@ public class SyncSenderHandler extends BaseSyncHandler {
 
             @Override
             public void onError(Exception e) {
+                fetchingMediaData = false;
                 presenter.errorOccurredSync(e);
             }
         });
     }
 
+    /**
+     * Splits a large media file into the chunks the receiver is missing. Each chunk is then sent
+     * with a manifest and payload of its own like a batch of the other data types.
+     */
+    private void sendChunkedMediaFile(@NonNull DataType dataType, @NonNull MultiMediaData multiMediaData) {
+        long fileSize = multiMediaData.getFile().length();
+        PartialMediaFile partialMediaFile = partialMediaFiles.remove(getPartialMediaFileKey(dataType.getName()
+                , multiMediaData.getRecordId()));
+        List<long[]> receivedRanges = partialMediaFile != null && partialMediaFile.getFileSize() == fileSize
+                ? partialMediaFile.getReceivedRanges() : null;
+
+        List<long[]> missingChunks = MediaChunkUtil.getMissingChunks(fileSize, receivedRanges, mediaChunkSize);
+        if (missingChunks.isEmpty()) {
+            // The receiver only hands over the file after the last chunk so the last chunk is sent again
+            long lastChunkOffset = ((fileSize - 1) / mediaChunkSize) * mediaChunkSize;
+            missingChunks.add(new long[]{lastChunkOffset, fileSize - lastChunkOffset});
+        }
+
+        chunkedMediaFile = multiMediaData;
+        chunkedMediaPreviousRecordId = getReadCursor(dataType.getName());
+        mediaChunks = new ArrayDeque<>(missingChunks);
+
+        sendNextMediaChunkManifest(dataType);
+    }
+
+    private void sendNextMediaChunkManifest(@NonNull DataType dataType) {
+        long[] chunk = mediaChunks.poll();
+        boolean lastChunk = mediaChunks.isEmpty();
+
+        awaitingMediaChunk = new MediaChunk(dataType, chunkedMediaFile, chunk[0], chunk[1], lastChunk, sendMaxRetries);
+        awaitingDataTypeName = dataType.getName();
+        // Only the last chunk moves the last record id forward once it has been acknowledged
+        awaitingDataTypeHighestId = lastChunk ? chunkedMediaFile.getRecordId() : chunkedMediaPreviousRecordId;
+        awaitingDataTypeRecordsBatchSize = lastChunk ? 1 : 0;
+
+        if (lastChunk) {
+            fetchedLastRecordIds.put(dataType.getName(), chunkedMediaFile.getRecordId());
+            chunkedMediaFile = null;
+            mediaChunks = null;
+        }
+
+        sendMediaChunkManifest();
+    }
+
+    private void sendMediaChunkManifest() {
+        TransportStream payloadStream = createJsonDataStream();
+        if (payloadStream == null) {
+            presenter.errorOccurredSync(new Exception("Payload pipe for the media chunk is null"));
+            return;
+        }
+
+        awaitingPayloadSize = awaitingMediaChunk.length;
+        awaitingPayload = payloadStream.getPayload();
+        awaitingPayloadOutputStream = payloadStream.getOutputStream();
+
+        syncPackageManifest = createMediaChunkManifest(awaitingPayload.getId(), awaitingMediaChunk);
+
+        awaitingManifestTransfer = true;
+        awaitingManifestId = presenter.sendManifest(syncPackageManifest);
+    }
+
+    /**
+     * Sends a media chunk whose payload failed again as a new payload since the stream of the failed
+     * payload has already been used up
+     */
+    private void retryMediaChunk() {
+        if (awaitingMediaChunk.retries > 0) {
+            awaitingMediaChunk.retries--;
+            awaitingPayloadTransfer = false;
+
+            sendMediaChunkManifest();
+        } else {
+            presenter.errorOccurredSync(new Exception("Media chunk send failed up-to " + sendMaxRetries));
+        }
+    }
+
+    @NonNull
+    private SyncPackageManifest createMediaChunkManifest(long payloadId, @NonNull MediaChunk mediaChunk) {
+        SyncPackageManifest mediaManifest = createMediaFileManifest(payloadId, mediaChunk.dataType, mediaChunk.mediaFile
+                , mediaChunk.lastChunk ? 1 : 0);
+        mediaManifest.setRecordFormat(Constants.WireFormat.MEDIA_CHUNKS);
+        mediaManifest.setPayloadSize((int) mediaChunk.length);
+
+        HashMap<String, Object> payloadDetails = mediaManifest.getPayloadDetails();
+        payloadDetails.put("fileSize", mediaChunk.mediaFile.getFile().length());
+        payloadDetails.put("chunkOffset", mediaChunk.offset);
+        payloadDetails.put("chunkLength", mediaChunk.length);
+        payloadDetails.put("lastChunk", mediaChunk.lastChunk);
+
+        return mediaManifest;
+    }
+
+    @NonNull
+    private SyncPackageManifest createMediaFileManifest(long payloadId, @NonNull DataType dataType
+            , @NonNull MultiMediaData multiMediaData) {
+        return createMediaFileManifest(payloadId, dataType, multiMediaData, 1);
+    }
+
+    @NonNull
+    private SyncPackageManifest createMediaFileManifest(long payloadId, @NonNull DataType dataType
+            , @NonNull MultiMediaData multiMediaData, int recordsSize) {
+        String filename = multiMediaData.getFile().getName();
+        String extension = "";
+
+        int lastIndex = filename.lastIndexOf(".");
+        if (lastIndex > -1 && lastIndex < filename.length()) {
+            extension = filename.substring(lastIndex);
+        }
+
+        SyncPackageManifest mediaManifest = new SyncPackageManifest(payloadId
+                , extension
+                , dataType, recordsSize);
+
+        HashMap<String, String> mediaDetails = multiMediaData.getMediaDetails();
+        HashMap<String, Object> payloadDetails = new HashMap<>();
+
+        if (mediaDetails != null) {
+            for (String key : mediaDetails.keySet()) {
+                payloadDetails.put(key, mediaDetails.get(key));
+            }
+        }
+
+        payloadDetails.put("fileRecordId", multiMediaData.getRecordId());
+        mediaManifest.setPayloadDetails(payloadDetails);
+
+        return mediaManifest;
+    }
+
+    @NonNull
+    private SyncPackageManifest createMediaBundleManifest(long payloadId, @NonNull DataType dataType
+            , @NonNull List<MultiMediaData> mediaFiles) {
+        // The receiver works out the progress from the number of files read since the size of the
+        // bundle is only known once it has been written
+        SyncPackageManifest mediaManifest = new SyncPackageManifest(payloadId, "", dataType, mediaFiles.size());
+        mediaManifest.setRecordFormat(Constants.WireFormat.MEDIA_BUNDLE);
+
+        return mediaManifest;
+    }
+
+    /**
+     * Gets the next media file of the data type followed by as many of the files after it as can
+     * be bundled with it
+     *
+     * @param dataType the media data type
+     * @param lastRecordId the record id of the last media file fetched
+     * @return the media files to send or {@code null} if there are no more
+     */
+    @Nullable
+    private List<MultiMediaData> getMultiMediaDataToSend(@NonNull DataType dataType, long lastRecordId) {
+        SenderTransferDao senderTransferDao = P2PLibrary.getInstance().getSenderTransferDao();
+        MultiMediaData multiMediaData = senderTransferDao.getMultiMediaData(dataType, lastRecordId);
+        if (multiMediaData == null) {
+            return null;
+        }
+
+        List<MultiMediaData> mediaFiles = new ArrayList<>();
+        mediaFiles.add(multiMediaData);
+
+        if (!canBundle(multiMediaData)) {
+            return mediaFiles;
+        }
+
+        // A file that does not fit in the bundle is fetched again for the next manifest
+        long bundleSize = multiMediaData.getFile().length();
+        while (mediaFiles.size() < Constants.MAX_MEDIA_BUNDLE_FILES) {
+            MultiMediaData nextMultiMediaData = senderTransferDao.getMultiMediaData(dataType, multiMediaData.getRecordId());
+            if (nextMultiMediaData == null || !canBundle(nextMultiMediaData)
+                    || bundleSize + nextMultiMediaData.getFile().length() > Constants.MAX_MEDIA_BUNDLE_SIZE) {
+                break;
+            }
+
+            multiMediaData = nextMultiMediaData;
+            mediaFiles.add(multiMediaData);
+            bundleSize += multiMediaData.getFile().length();
+        }
+
+        return mediaFiles;
+    }
+
+    private boolean canBundle(@NonNull MultiMediaData multiMediaData) {
+        File file = multiMediaData.getFile();
+        return mediaBundleFileSize > 0 && file.exists() && file.length() <= mediaBundleFileSize;
+    }
+
+    private void sendMediaBundleManifest(@NonNull DataType dataType, @NonNull List<MultiMediaData> mediaFiles) {
+        TransportStream payloadStream = createJsonDataStream();
+        if (payloadStream == null) {
+            presenter.errorOccurredSync(new Exception("Payload pipe for the media bundle is null"));
+            return;
+        }
+
+        long bundleSize = 0;
+        for (MultiMediaData mediaFile : mediaFiles) {
+            bundleSize += mediaFile.getFile().length();
+        }
+
+        MultiMediaData lastMediaFile = mediaFiles.get(mediaFiles.size() - 1);
+        awaitingMediaBundle = mediaFiles;
+        awaitingPayloadSize = bundleSize;
+        awaitingDataTypeName = dataType.getName();
+        awaitingDataTypeHighestId = lastMediaFile.getRecordId();
+        awaitingDataTypeRecordsBatchSize = mediaFiles.size();
+
+        awaitingPayload = payloadStream.getPayload();
+        awaitingPayloadOutputStream = payloadStream.getOutputStream();
+
+        syncPackageManifest = createMediaBundleManifest(awaitingPayload.getId(), dataType, mediaFiles);
+
+        fetchedLastRecordIds.put(dataType.getName(), lastMediaFile.getRecordId());
+
+        awaitingManifestTransfer = true;
+        awaitingManifestId = presenter.sendManifest(syncPackageManifest);
+    }
+
+    private long getReadCursor(@NonNull String dataTypeName) {
+        Long nullableRecordId = fetchedLastRecordIds.get(dataTypeName);
+        if (nullableRecordId == null) {
+            nullableRecordId = remainingLastRecordIds.get(dataTypeName);
+        }
+
+        return nullableRecordId == null ? 0l : nullableRecordId;
+    }
+
     @VisibleForTesting
     public void sendJsonDataManifest(@NonNull final DataType dataType) {
-        Tasker.run(new Callable<String>() {
-            @Override
-            public String call() throws Exception {
+        discardStalePreparedBatches();
+        PreparedBatch preparedBatch = preparedBatches.peek();
 
-                Long nullableRecordId = remainingLastRecordIds.get(dataType.getName());
-                long lastRecordId = nullableRecordId == null ? 0l : nullableRecordId;
-                JsonData jsonData = P2PLibrary.getInstance().getSenderTransferDao()
-                        .getJsonData(dataType, lastRecordId, batchSize);
+        if (preparedBatch != null && preparedBatch.getDataType().getName().equals(dataType.getName())) {
+            preparedBatches.poll();
 
-                if (jsonData != null) {
-                    JSONArray recordsArray = jsonData.getJsonArray();
-                    //TODO: Check if I should remove this
-                    remainingLastRecordIds.put(dataType.getName(), jsonData.getHighestRecordId());
+            long[] recordDigests = preparedBatch.getRecordDigests();
+            if (recordDigests != null && recordDigests.length > 0) {
+                sendDigestOffer(preparedBatch, recordDigests);
+            } else {
+                sendPreparedBatch(preparedBatch);
+            }
 
-                    String jsonString = recordsArray.toString();
-                    awaitingDataTypeName = dataType.getName();
-                    awaitingDataTypeHighestId = jsonData.getHighestRecordId();
-                    awaitingDataTypeRecordsBatchSize = recordsArray.length();
+            prefetchJsonBatch();
+        } else if (exhaustedDataTypes.contains(dataType.getName())) {
+            dataSyncOrder.remove(dataType);
+            sendNextManifest();
+        } else {
+            awaitingBatchDataType = dataType;
 
-                    return jsonString;
-                } else {
-                    return null;
-                }
+            if (!fetchingBatch) {
+                fetchJsonBatch(dataType);
             }
-        }, new GenericAsyncTask.OnFinishedCallback<String>() {
+        }
+    }
+
+    private void fetchJsonBatch(@NonNull final DataType dataType) {
+        fetchingBatch = true;
+        final long lastRecordId = getReadCursor(dataType.getName());
+        final RecordIdRangeSet recordIdRangeSet = receivedRanges.get(dataType.getName());
+        final int dataTypeBatchSize = getBatchSize(dataType);
+
+        Tasker.run(new Callable<PreparedBatch>() {
             @Override
-            public void onSuccess(@Nullable String result) {
-                if (result != null) {
-                    // Create the manifest
-                    ParcelFileDescriptor[] payloadPipe = createJsonDataStream();
-                    if (payloadPipe != null) {
-                        awaitingBytes = result.getBytes();
+            public PreparedBatch call() throws Exception {
+                SenderTransferDao senderTransferDao = P2PLibrary.getInstance().getSenderTransferDao();
+                PreparedBatch preparedBatch = recordIdRangeSet != null
+                        ? readMissingJsonBatch(senderTransferDao, dataType, recordIdRangeSet, lastRecordId, dataTypeBatchSize)
+                        : readJsonBatch(senderTransferDao, dataType, lastRecordId, dataTypeBatchSize);
 
-                        awaitingPayload = Payload.fromStream(payloadPipe[0]);
-                        awaitingPayloadPipe = payloadPipe[1];
+                // The receiver saves the batch as a range, including the record ids it already has
+                if (preparedBatch != null) {
+                    preparedBatch.setPreviousRecordId(lastRecordId);
+                }
 
-                        syncPackageManifest = new SyncPackageManifest(awaitingPayload.getId()
-                                , "json"
-                                , dataType
-                                , awaitingDataTypeRecordsBatchSize);
-                        syncPackageManifest.setPayloadSize(awaitingBytes.length);
+                return preparedBatch != null && recordDeduplication ? digestPreparedBatch(preparedBatch) : preparedBatch;
+            }
+        }, new GenericAsyncTask.OnFinishedCallback<PreparedBatch>() {
+            @Override
+            public void onSuccess(@Nullable PreparedBatch result) {
+                fetchingBatch = false;
 
-                        awaitingManifestTransfer = true;
-                        awaitingManifestId = presenter.sendManifest(syncPackageManifest);
-                    } else {
-                        presenter.errorOccurredSync(new Exception("Payload pipe from json data is null"));
+                if (result != null) {
+                    fetchedLastRecordIds.put(dataType.getName(), result.getHighestRecordId());
+                    preparedBatches.add(result);
+
+                    // Compressed and binary batches are measured from the bytes sent instead
+                    if (CompressionUtil.isIdentity(getPayloadEncoding(dataType)) && !binaryRecords) {
+                        batchController.onBatchMeasured(dataType.getName(), result.getRecordsSize(), result.getPayloadSize());
                     }
                 } else {
-                    dataSyncOrder.remove(dataType);
-                    sendNextManifest();
+                    exhaustedDataTypes.add(dataType.getName());
+                }
+
+                if (awaitingBatchDataType != null) {
+                    DataType nextDataType = awaitingBatchDataType;
+                    awaitingBatchDataType = null;
+                    sendJsonDataManifest(nextDataType);
+                } else {
+                    prefetchJsonBatch();
                 }
             }
 
             @Override
             public void onError(Exception e) {
+                fetchingBatch = false;
                 presenter.errorOccurredSync(e);
             }
         });
     }
 
     @Nullable
-    private ParcelFileDescriptor[] createJsonDataStream() {
+    private PreparedBatch readJsonBatch(@NonNull SenderTransferDao senderTransferDao, @NonNull DataType dataType
+            , long lastRecordId, int batchSize) throws Exception {
+        if (senderTransferDao instanceof StreamingSenderTransferDao) {
+            JsonRecordCursor jsonRecordCursor = ((StreamingSenderTransferDao) senderTransferDao)
+                    .getJsonRecords(dataType, lastRecordId, batchSize);
+
+            if (jsonRecordCursor == null) {
+                return null;
+            } else if (jsonRecordCursor.getCount() < 1) {
+                closeQuietly(jsonRecordCursor);
+                return null;
+            }
+
+            // The size of the records is only known once they have been written
+            PreparedBatch preparedBatch = new PreparedBatch(dataType, jsonRecordCursor, 0
+                    , jsonRecordCursor.getHighestRecordId(), jsonRecordCursor.getCount());
+            preparedBatch.setReadFromRecordId(lastRecordId);
+            return preparedBatch;
+        }
+
+        return createPreparedBatch(dataType, senderTransferDao.getJsonData(dataType, lastRecordId, batchSize));
+    }
+
+    /**
+     * Reads the next batch of records that the receiver does not have yet. The ranges the receiver
+     * already has right after the read cursor are skipped. If the {@link SenderTransferDao} is a
+     * {@link RangedSenderTransferDao}, the records are only read up to the next range the receiver
+     * has so that exactly the missing ranges are sent.
+     */
+    @Nullable
+    private PreparedBatch readMissingJsonBatch(@NonNull SenderTransferDao senderTransferDao, @NonNull DataType dataType
+            , @NonNull RecordIdRangeSet recordIdRangeSet, long lastRecordId, int batchSize) throws Exception {
+        long readFrom = recordIdRangeSet.getReceivedUpTo(lastRecordId);
+
+        if (senderTransferDao instanceof RangedSenderTransferDao) {
+            long nextRangeStart = recordIdRangeSet.getNextRangeStart(readFrom);
+
+            while (nextRangeStart > -1) {
+                JsonData jsonData = ((RangedSenderTransferDao) senderTransferDao)
+                        .getJsonData(dataType, readFrom, nextRangeStart - 1, batchSize);
+                if (jsonData != null && jsonData.getJsonArray().length() > 0) {
+                    return createPreparedBatch(dataType, jsonData);
+                }
+
+                // There are no records in the gap so the range after it is skipped too
+                readFrom = recordIdRangeSet.getReceivedUpTo(nextRangeStart - 1);
+                nextRangeStart = recordIdRangeSet.getNextRangeStart(readFrom);
+            }
+        }
+
+        return readJsonBatch(senderTransferDao, dataType, readFrom, batchSize);
+    }
+
+    @Nullable
+    private PreparedBatch createPreparedBatch(@NonNull DataType dataType, @Nullable JsonData jsonData) throws IOException {
+        if (jsonData != null) {
+            JSONArray recordsArray = jsonData.getJsonArray();
+            return new PreparedBatch(dataType, new JsonDataRecordCursor(jsonData)
+                    , SyncDataConverterUtil.getSerializedSize(recordsArray)
+                    , jsonData.getHighestRecordId(), recordsArray.length());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the records of the batch into memory and works out their digests so that they can be
+     * offered to the receiver and the records it already has can be left out. This is called on a
+     * background thread.
+     */
+    @NonNull
+    private PreparedBatch digestPreparedBatch(@NonNull PreparedBatch preparedBatch) throws IOException {
+        JsonRecordCursor records = preparedBatch.getRecords();
+        JSONArray jsonArray;
+
+        if (records instanceof JsonDataRecordCursor) {
+            jsonArray = ((JsonDataRecordCursor) records).getJsonArray();
+        } else {
+            jsonArray = new JSONArray();
+            try {
+                while (records.moveToNext()) {
+                    jsonArray.put(new JSONTokener(records.getRecord()).nextValue());
+                }
+            } catch (JSONException e) {
+                throw new IOException("Could not read a record to work out its digest", e);
+            } finally {
+                closeQuietly(records);
+            }
+        }
+
+        PreparedBatch digestedBatch = new PreparedBatch(preparedBatch.getDataType()
+                , new JsonDataRecordCursor(jsonArray, preparedBatch.getHighestRecordId()), preparedBatch.getPayloadSize()
+                , preparedBatch.getHighestRecordId(), jsonArray.length());
+        digestedBatch.setPreviousRecordId(preparedBatch.getPreviousRecordId());
+        digestedBatch.setRecordDigests(RecordDigestUtil.getDigests(jsonArray));
+
+        return digestedBatch;
+    }
+
+    /**
+     * Offers the digests of the batch's records to the receiver. The batch is held back, together
+     * with the next manifests, until the receiver replies with the records it already has.
+     */
+    private void sendDigestOffer(@NonNull PreparedBatch preparedBatch, @NonNull long[] recordDigests) {
+        awaitingDigestReply = preparedBatch;
+        digestOfferId++;
+
+        presenter.sendBinaryMessage(WireFormatUtil.writeDigestOffer(new RecordDigestOffer(digestOfferId
+                , preparedBatch.getDataType().getName(), recordDigests)));
+    }
+
+    private void processDigestReply(@NonNull RecordDigestReply recordDigestReply) {
+        PreparedBatch preparedBatch = awaitingDigestReply;
+        if (preparedBatch == null || recordDigestReply.getOfferId() != digestOfferId) {
+            Timber.e("Ignored digest reply for offer %d", recordDigestReply.getOfferId());
+            return;
+        }
+
+        awaitingDigestReply = null;
+
         try {
-            return ParcelFileDescriptor.createPipe();
+            sendPreparedBatch(removeKnownRecords(preparedBatch, recordDigestReply.getKnownRecords()));
+        } catch (IOException e) {
+            Timber.e(e);
+            presenter.errorOccurredSync(e);
+        }
+    }
+
+    /**
+     * Removes the records the receiver already has from the batch. The batch is still sent when
+     * every record is known so that the receiver saves its range of record ids.
+     */
+    @NonNull
+    private PreparedBatch removeKnownRecords(@NonNull PreparedBatch preparedBatch, @NonNull boolean[] knownRecords) throws IOException {
+        JSONArray jsonArray = ((JsonDataRecordCursor) preparedBatch.getRecords()).getJsonArray();
+        JSONArray newRecords = new JSONArray();
+
+        for (int i = 0; i < jsonArray.length(); i++) {
+            if (i >= knownRecords.length || !knownRecords[i]) {
+                newRecords.put(jsonArray.opt(i));
+            }
+        }
+
+        if (newRecords.length() == jsonArray.length()) {
+            return preparedBatch;
+        }
+
+        Timber.i("Skipping %d of %d %s records the receiver already has", jsonArray.length() - newRecords.length()
+                , jsonArray.length(), preparedBatch.getDataType().getName());
+
+        PreparedBatch newBatch = new PreparedBatch(preparedBatch.getDataType()
+                , new JsonDataRecordCursor(newRecords, preparedBatch.getHighestRecordId())
+                , SyncDataConverterUtil.getSerializedSize(newRecords), preparedBatch.getHighestRecordId(), newRecords.length());
+        newBatch.setPreviousRecordId(preparedBatch.getPreviousRecordId());
+
+        return newBatch;
+    }
+
+    private void sendPreparedBatch(@NonNull PreparedBatch preparedBatch) {
+        if (framedStream) {
+            sendJsonBatchFrame(preparedBatch);
+        } else {
+            sendJsonBatchManifest(preparedBatch);
+        }
+    }
+
+    /**
+     * Reads the next batch in the background while the current payload is still in flight, as long
+     * as the number of prepared batches is below the configured send pipeline depth
+     */
+    private void prefetchJsonBatch() {
+        if (fetchingBatch || preparedBatches.size() >= sendPipelineDepth) {
+            return;
+        }
+
+        DataType dataType = getNextDataTypeToFetch();
+        if (dataType != null) {
+            fetchJsonBatch(dataType);
+        }
+    }
+
+    @Nullable
+    private DataType getNextDataTypeToFetch() {
+        for (DataType dataType : dataSyncOrder) {
+            if (dataType.getType() == DataType.Type.NON_MEDIA && !exhaustedDataTypes.contains(dataType.getName())) {
+                return dataType;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the number of records to read for the next batch of the data type from its
+     * {@link TransferHints} and, when the batch size is adaptive, the measured payloads
+     *
+     * @param dataType the data type
+     * @return the batch size
+     */
+    @VisibleForTesting
+    protected int getBatchSize(@NonNull DataType dataType) {
+        TransferHints transferHints = dataType.getTransferHints();
+        int maxBatchSize = transferHints != null && transferHints.getMaxBatchSize() > 0 ? transferHints.getMaxBatchSize() : 0;
+        boolean hasMaxPayloadSize = transferHints != null && transferHints.getMaxPayloadSize() > 0;
+        int dataTypeBatchSize = maxBatchSize > 0 ? maxBatchSize : batchSize;
+
+        if (adaptiveBatchSize) {
+            dataTypeBatchSize = batchController.getBatchSize(dataType.getName(), dataTypeBatchSize);
+        } else if (hasMaxPayloadSize) {
+            // The batch is only made smaller to keep within the byte budget
+            dataTypeBatchSize = Math.min(dataTypeBatchSize, batchController.getBatchSize(dataType.getName(), dataTypeBatchSize));
+        }
+
+        return maxBatchSize > 0 ? Math.min(maxBatchSize, dataTypeBatchSize) : dataTypeBatchSize;
+    }
+
+    /**
+     * Gets the encoding for the payloads of the data type from the configured encoding, its
+     * {@link TransferHints} and the encodings accepted by the receiver
+     *
+     * @param dataType the data type
+     * @return the encoding to use
+     */
+    @NonNull
+    @VisibleForTesting
+    protected String getPayloadEncoding(@NonNull DataType dataType) {
+        TransferHints transferHints = dataType.getTransferHints();
+        TransferHints.Compression compression = transferHints != null ? transferHints.getCompression() : TransferHints.Compression.DEFAULT;
+        String encoding = payloadEncoding;
+
+        if (compression == TransferHints.Compression.DISABLED) {
+            return Constants.Encoding.IDENTITY;
+        } else if (transferHints != null && transferHints.getCompressionDictionary() != null) {
+            encoding = Constants.Encoding.DEFLATE_DICTIONARY;
+        } else if (compression == TransferHints.Compression.ENABLED && CompressionUtil.isIdentity(encoding)) {
+            encoding = Constants.Encoding.GZIP;
+        }
+
+        // Plain deflate is used until a dictionary has been sampled from the records of the data type
+        if (Constants.Encoding.DEFLATE_DICTIONARY.equals(encoding)
+                && (!acceptedEncodings.contains(encoding) || getCompressionDictionary(dataType.getName()) == null)) {
+            encoding = Constants.Encoding.DEFLATE;
+        }
+
+        return acceptedEncodings.contains(encoding) ? encoding : Constants.Encoding.IDENTITY;
+    }
+
+    @Nullable
+    private byte[] getCompressionDictionary(@NonNull String dataTypeName) {
+        byte[] dictionary = compressionDictionaries.get(dataTypeName);
+        if (dictionary == null) {
+            dictionary = sampledDictionaries.get(dataTypeName);
+
+            if (dictionary != null) {
+                compressionDictionaries.put(dataTypeName, dictionary);
+            }
+        }
+
+        return dictionary;
+    }
+
+    /**
+     * Checks whether the next payload of the data type should be sampled to build a dictionary for
+     * the payloads after it
+     */
+    private boolean shouldSampleDictionary(@NonNull DataType dataType) {
+        TransferHints transferHints = dataType.getTransferHints();
+
+        return Constants.Encoding.DEFLATE_DICTIONARY.equals(payloadEncoding)
+                && acceptedEncodings.contains(Constants.Encoding.DEFLATE_DICTIONARY)
+                && (transferHints == null || transferHints.getCompression() != TransferHints.Compression.DISABLED)
+                && getCompressionDictionary(dataType.getName()) == null;
+    }
+
+    private void discardStalePreparedBatches() {
+        while (!preparedBatches.isEmpty() && !dataSyncOrder.contains(preparedBatches.peek().getDataType())) {
+            closeQuietly(preparedBatches.poll().getRecords());
+        }
+    }
+
+    private void closeQuietly(@NonNull JsonRecordCursor jsonRecordCursor) {
+        try {
+            jsonRecordCursor.close();
+        } catch (IOException e) {
+            Timber.e(e);
+        }
+    }
+
+    private void sendJsonBatchManifest(@NonNull PreparedBatch preparedBatch) {
+        sendJsonBatchManifest(preparedBatch, preparedBatch.getRecords());
+    }
+
+    private void sendJsonBatchManifest(@NonNull PreparedBatch preparedBatch, @NonNull JsonRecordCursor records) {
+        // Create the manifest
+        TransportStream payloadStream = createJsonDataStream();
+        if (payloadStream != null) {
+            awaitingPreparedBatch = preparedBatch;
+            awaitingRecords = records;
+            awaitingEncoding = getPayloadEncoding(preparedBatch.getDataType());
+            // The prepared size is that of the JSON records so the size of binary records is unknown
+            awaitingUncompressedSize = binaryRecords ? 0 : preparedBatch.getPayloadSize();
+            // The size of a compressed payload is only known once it has been written
+            awaitingPayloadSize = CompressionUtil.isIdentity(awaitingEncoding) ? awaitingUncompressedSize : 0;
+            awaitingDataTypeName = preparedBatch.getDataType().getName();
+            awaitingDataTypeHighestId = preparedBatch.getHighestRecordId();
+            awaitingDataTypeRecordsBatchSize = preparedBatch.getRecordsSize();
+
+            awaitingPayload = payloadStream.getPayload();
+            awaitingPayloadOutputStream = payloadStream.getOutputStream();
+
+            awaitingDictionarySample = shouldSampleDictionary(preparedBatch.getDataType());
+            awaitingDictionary = Constants.Encoding.DEFLATE_DICTIONARY.equals(awaitingEncoding)
+                    ? getCompressionDictionary(awaitingDataTypeName) : null;
+            syncPackageManifest = createBatchManifest(awaitingPayload.getId(), preparedBatch, awaitingEncoding
+                    , awaitingPayloadSize, awaitingUncompressedSize);
+
+            awaitingManifestTransfer = true;
+            awaitingManifestId = presenter.sendManifest(syncPackageManifest);
+        } else {
+            presenter.errorOccurredSync(new Exception("Payload pipe from json data is null"));
+        }
+    }
+
+    /**
+     * Queues the batch as a frame on the framed stream payload, which is announced and started on
+     * the first batch. The frame counts against the transfer window until the receiver acknowledges
+     * its payload id like any other payload.
+     */
+    private void sendJsonBatchFrame(@NonNull PreparedBatch preparedBatch) {
+        if (framedStreamWriter == null && !openFramedStream(preparedBatch.getDataType())) {
+            closeQuietly(preparedBatch.getRecords());
+            return;
+        }
+
+        final DataType dataType = preparedBatch.getDataType();
+        final String dataTypeName = dataType.getName();
+        final int recordsSize = preparedBatch.getRecordsSize();
+        final JsonRecordCursor records = preparedBatch.getRecords();
+        final String encoding = getPayloadEncoding(dataType);
+        final byte[] dictionary = Constants.Encoding.DEFLATE_DICTIONARY.equals(encoding) ? getCompressionDictionary(dataTypeName) : null;
+        final boolean sampleDictionary = shouldSampleDictionary(dataType);
+        final boolean writeBinaryRecords = binaryRecords;
+
+        long uncompressedSize = binaryRecords ? 0 : preparedBatch.getPayloadSize();
+        long frameId = framedStreamPayload.getId() + (++framesQueued);
+        SyncPackageManifest frameManifest = createBatchManifest(frameId, preparedBatch, encoding
+                , CompressionUtil.isIdentity(encoding) ? uncompressedSize : 0, uncompressedSize);
+
+        sentBatches.add(new SentBatch(frameId, dataTypeName, preparedBatch.getHighestRecordId(), recordsSize));
+
+        framedStreamWriter.writeFrame(frameManifest, preparedBatch.getHighestRecordId(), new FramedStreamWriter.FrameBody() {
+            @Override
+            public void writeTo(@NonNull OutputStream outputStream) throws IOException {
+                try {
+                    writeEncodedRecords(outputStream, records, encoding, dictionary, writeBinaryRecords
+                            , sampleDictionary ? dataTypeName : null, false);
+                } finally {
+                    closeQuietly(records);
+                }
+            }
+        }, new FramedStreamWriter.OnFrameWrittenCallback() {
+            @Override
+            public void onFrameWritten(final long payloadSize, final long duration) {
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        logTransfer(true, dataTypeName, presenter.getCurrentPeerDevice(), recordsSize);
+                        batchController.onPayloadSent(dataTypeName, recordsSize, payloadSize, duration);
+
+                        presenter.getView().updateProgressFragment(String.format(presenter.getView().getString(R.string.sending_progress_text)
+                                , recordsSize, dataTypeName), "");
+                    }
+                });
+            }
+
+            @Override
+            public void onError(@NonNull final Exception e) {
+                Timber.e(e, "Error occurred trying to write a frame to the framed stream");
+
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        presenter.errorOccurredSync(e);
+                    }
+                });
+            }
+        });
+
+        sendNextManifest();
+    }
+
+    private boolean openFramedStream(@NonNull DataType dataType) {
+        TransportStream payloadStream = createJsonDataStream();
+        if (payloadStream == null) {
+            presenter.errorOccurredSync(new Exception("Payload pipe for the framed stream is null"));
+            return false;
+        }
+
+        framedStreamPayload = payloadStream.getPayload();
+        framedStreamWriter = createFramedStreamWriter(payloadStream.getOutputStream());
+        framedStreamStarted = false;
+        framesQueued = 0;
+
+        // The receiver is told which stream payload carries the frames before it is sent
+        syncPackageManifest = new SyncPackageManifest(framedStreamPayload.getId(), Constants.WireFormat.FRAMED_STREAM
+                , dataType, 0);
+        awaitingManifestTransfer = true;
+        awaitingManifestId = presenter.sendManifest(syncPackageManifest);
+
+        return true;
+    }
+
+    @NonNull
+    @VisibleForTesting
+    protected FramedStreamWriter createFramedStreamWriter(@NonNull OutputStream outputStream) {
+        return new FramedStreamWriter(outputStream);
+    }
+
+    /**
+     * Ends the framed stream payload once the frames queued on it have been written
+     */
+    private void closeFramedStream() {
+        if (framedStreamWriter != null) {
+            framedStreamWriter.close();
+            framedStreamWriter = null;
+        }
+    }
+
+    /**
+     * Stops writing to the framed stream payload without writing the frames still queued on it
+     */
+    public void abortFramedStream() {
+        if (framedStreamWriter != null) {
+            framedStreamWriter.abort();
+            framedStreamWriter = null;
+        }
+    }
+
+    @NonNull
+    private SyncPackageManifest createBatchManifest(long payloadId, @NonNull PreparedBatch preparedBatch
+            , @NonNull String encoding, long payloadSize, long uncompressedSize) {
+        String dataTypeName = preparedBatch.getDataType().getName();
+        SyncPackageManifest batchManifest = new SyncPackageManifest(payloadId
+                , "json"
+                , preparedBatch.getDataType()
+                , preparedBatch.getRecordsSize());
+        batchManifest.setPayloadSize((int) payloadSize);
+        batchManifest.setUncompressedSize(uncompressedSize);
+        batchManifest.setRecordIdRange(preparedBatch.getPreviousRecordId(), preparedBatch.getHighestRecordId());
+        if (!CompressionUtil.isIdentity(encoding)) {
+            batchManifest.setEncoding(encoding);
+        }
+
+        if (binaryRecords) {
+            batchManifest.setRecordFormat(Constants.WireFormat.BINARY_RECORDS);
+        }
+
+        // The receiver keeps the dictionary for the rest of the session
+        if (Constants.Encoding.DEFLATE_DICTIONARY.equals(encoding) && !sentDictionaries.contains(dataTypeName)) {
+            batchManifest.setDictionary(Base64.encodeToString(getCompressionDictionary(dataTypeName), Base64.NO_WRAP));
+            sentDictionaries.add(dataTypeName);
+        }
+
+        return batchManifest;
+    }
+
+    @Nullable
+    private TransportStream createJsonDataStream() {
+        try {
+            return presenter.getTransport().createStreamPayload();
         } catch (IOException e) {
             Timber.e(e);
             return null;
@@ -248,6 +1307,9 @@ public class SyncSenderHandler extends BaseSyncHandler {
 
     @VisibleForTesting
     public void sendNextPayload() {
+        awaitingPayloadStartTime = SystemClock.elapsedRealtime();
+        awaitingBytesTransferred = 0;
+
         startNewThread(new Runnable() {
             @Override
             public void run() {
@@ -255,24 +1317,32 @@ public class SyncSenderHandler extends BaseSyncHandler {
                     awaitingPayloadTransfer = true;
                     presenter.sendPayload(awaitingPayload);
 
-                    if (awaitingPayload.getType() == Payload.Type.STREAM) {
-                        if (awaitingPayloadPipe != null && awaitingBytes != null) {
-                            uiHandler.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    presenter.getView().updateProgressFragment(-1);
-                                    presenter.getView().updateProgressFragment(String.format(presenter.getView().getString(R.string.sending_progress_text), awaitingDataTypeRecordsBatchSize, awaitingDataTypeName), "");
-                                }
-                            });
+                    if (awaitingPayload.getType() == TransportPayload.TYPE_STREAM) {
+                        final JsonRecordCursor records = awaitingRecords;
+                        final OutputStream outputStream = awaitingPayloadOutputStream;
+                        final String encoding = awaitingEncoding;
+                        final byte[] dictionary = awaitingDictionary;
+                        final String dataTypeName = awaitingDataTypeName;
+                        final boolean sampleDictionary = awaitingDictionarySample;
+                        final boolean writeBinaryRecords = binaryRecords;
+                        final List<MultiMediaData> mediaBundle = awaitingMediaBundle;
+                        final MediaChunk mediaChunk = awaitingMediaChunk;
 
-                            ParcelFileDescriptor.AutoCloseOutputStream outputStream = new ParcelFileDescriptor.AutoCloseOutputStream(awaitingPayloadPipe);
-                            try {
-                                int totalLen = awaitingBytes.length;
-                                Timber.e("Bytes size %s", String.valueOf(totalLen));
-                                outputStream.write(awaitingBytes);
-                                outputStream.flush();
-                                outputStream.close();
+                        if (outputStream != null && mediaChunk != null) {
+                            postSendingProgress();
 
+                            writeMediaChunk(outputStream, mediaChunk);
+                        } else if (outputStream != null && mediaBundle != null) {
+                            postSendingProgress();
+
+                            writeMediaBundle(outputStream, mediaBundle);
+                        } else if (outputStream != null && records != null) {
+                            postSendingProgress();
+
+                            try {
+                                long bytesWritten = writeEncodedRecords(outputStream, records, encoding, dictionary
+                                        , writeBinaryRecords, sampleDictionary ? dataTypeName : null, true);
+                                Timber.e("Bytes size %s", String.valueOf(bytesWritten));
                             } catch (final IOException e) {
                                 Timber.e(e, "Error occurred trying to read bytes into payload pipe");
 
@@ -282,6 +1352,8 @@ public class SyncSenderHandler extends BaseSyncHandler {
                                         presenter.errorOccurredSync(e);
                                     }
                                 });
+                            } finally {
+                                closeQuietly(records);
                             }
                         } else {
                             uiHandler.post(new Runnable() {
@@ -291,7 +1363,7 @@ public class SyncSenderHandler extends BaseSyncHandler {
                                 }
                             });
                         }
-                    } else if (awaitingPayload.getType() == Payload.Type.FILE) {
+                    } else if (awaitingPayload.getType() == TransportPayload.TYPE_FILE) {
                         uiHandler.post(new Runnable() {
                             @Override
                             public void run() {
@@ -306,48 +1378,251 @@ public class SyncSenderHandler extends BaseSyncHandler {
         });
     }
 
+    /**
+     * Resets the progress and shows the batch of the awaiting payload as being sent, which is called
+     * on a background thread
+     */
+    private void postSendingProgress() {
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                presenter.getView().updateProgressFragment(-1);
+                presenter.getView().updateProgressFragment(String.format(presenter.getView().getString(R.string.sending_progress_text)
+                        , awaitingDataTypeRecordsBatchSize, awaitingDataTypeName), "");
+            }
+        });
+    }
+
+    /**
+     * Writes the media bundle into the payload pipe, which is called on a background thread
+     */
+    private void writeMediaBundle(@NonNull OutputStream outputStream, @NonNull List<MultiMediaData> mediaBundle) {
+        try {
+            try {
+                MediaBundleUtil.writeBundle(mediaBundle, outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } catch (final IOException e) {
+            Timber.e(e, "Error occurred trying to write the media bundle into payload pipe");
+
+            uiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    presenter.errorOccurredSync(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the media chunk into the payload pipe, which is called on a background thread. A failed
+     * write is not reported since the payload then fails too and the chunk is sent again.
+     */
+    private void writeMediaChunk(@NonNull OutputStream outputStream, @NonNull MediaChunk mediaChunk) {
+        try {
+            try {
+                MediaChunkUtil.writeChunk(mediaChunk.mediaFile.getFile(), mediaChunk.offset, mediaChunk.length, outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            Timber.e(e, "Error occurred trying to write the media chunk into payload pipe");
+        }
+    }
+
+    /**
+     * Writes the records through the payload encoding and closes the output stream
+     *
+     * @param sampledDataTypeName the data type to sample a dictionary for from the records written
+     * @param trackProgress whether the records written are counted for the progress of the awaiting payload
+     * @return the size of the records before they were encoded
+     * @throws IOException
+     */
+    private long writeEncodedRecords(@NonNull OutputStream outputStream, @NonNull JsonRecordCursor records
+            , @NonNull String encoding, @Nullable byte[] dictionary, boolean writeBinaryRecords
+            , @Nullable String sampledDataTypeName, boolean trackProgress) throws IOException {
+        OutputStream encodedOutputStream = CompressionUtil.wrapOutputStream(outputStream, encoding, compressionLevel, dictionary);
+        SamplingOutputStream samplingOutputStream = new SamplingOutputStream(encodedOutputStream
+                , sampledDataTypeName != null ? Constants.MAX_COMPRESSION_DICTIONARY_SIZE : 0);
+        CountingOutputStream uncompressedOutputStream = new CountingOutputStream(samplingOutputStream);
+        if (trackProgress) {
+            awaitingUncompressedOutput = uncompressedOutputStream;
+        }
+
+        long bytesWritten = writeBinaryRecords
+                ? BinaryRecordCodec.writeRecords(records, uncompressedOutputStream)
+                : SyncDataConverterUtil.writeJsonRecords(records, uncompressedOutputStream);
+        encodedOutputStream.close();
+
+        if (sampledDataTypeName != null) {
+            sampledDictionaries.putIfAbsent(sampledDataTypeName, samplingOutputStream.getSample());
+        }
+
+        return bytesWritten;
+    }
+
     @VisibleForTesting
     public void startNewThread(@NonNull Runnable runnable) {
         new Thread(runnable).start();
     }
 
     public void processString(@NonNull String message) {
-        if (message.startsWith(Constants.Connection.PAYLOAD_RECEIVED)
-                && awaitingPayloadTransfer
-                && awaitingPayload != null) {
+        if (message.startsWith(Constants.Connection.PAYLOAD_RECEIVED)) {
             String payloadIdString = message.replace(Constants.Connection.PAYLOAD_RECEIVED, "");
-            if (!TextUtils.isEmpty(payloadIdString) && Long.parseLong(payloadIdString) == awaitingPayload.getId()) {
-                updateTransferProgress(awaitingDataTypeName, awaitingDataTypeRecordsBatchSize);
+            if (TextUtils.isEmpty(payloadIdString)) {
+                return;
+            }
 
-                awaitingDataTypeRecordsBatchSize = 0;
-                awaitingPayloadTransfer = false;
-                awaitingPayload = null;
-                awaitingBytes = null;
-                awaitingPayloadPipe = null;
+            processPayloadReceived(Long.parseLong(payloadIdString));
+        }
+    }
+
+    public void processBinaryMessage(@NonNull byte[] message) {
+        if (WireFormatUtil.getMessageType(message) == WireFormatUtil.MESSAGE_PAYLOAD_RECEIVED) {
+            try {
+                processPayloadReceived(WireFormatUtil.readPayloadReceived(message));
+            } catch (IOException e) {
+                Timber.e(e);
+            }
+        } else if (WireFormatUtil.getMessageType(message) == WireFormatUtil.MESSAGE_DIGEST_REPLY) {
+            try {
+                processDigestReply(WireFormatUtil.readDigestReply(message));
+            } catch (IOException e) {
+                Timber.e(e);
+            }
+        } else {
+            Timber.e("Ignored binary message of unknown type %d", WireFormatUtil.getMessageType(message));
+        }
+    }
 
-                if (awaitingDataTypeName != null) {
-                    remainingLastRecordIds.put(awaitingDataTypeName, awaitingDataTypeHighestId);
+    private void processPayloadReceived(long payloadId) {
+        SentBatch sentBatch = null;
+
+        if (awaitingPayloadTransfer && awaitingPayload != null && payloadId == awaitingPayload.getId()) {
+            // The acknowledgement arrived before the local transfer update for the payload
+            logTransfer(true, awaitingDataTypeName, presenter.getCurrentPeerDevice(), awaitingDataTypeRecordsBatchSize);
+            sentBatch = markAwaitingPayloadSent();
+        } else if (mediaLanePayload != null && !mediaLaneAwaitingManifest && payloadId == mediaLanePayload.getId()) {
+            logTransfer(true, mediaLaneDataTypeName, presenter.getCurrentPeerDevice(), mediaLaneFiles.size());
+            sentBatch = markMediaLanePayloadSent();
+        } else {
+            for (SentBatch batch : sentBatches) {
+                if (batch.payloadId == payloadId) {
+                    sentBatch = batch;
+                    break;
                 }
+            }
+        }
 
-                sendNextManifest();
+        if (sentBatch != null && !sentBatch.acknowledged) {
+            sentBatch.acknowledged = true;
+            updateTransferProgress(sentBatch.dataTypeName, sentBatch.recordsSize);
+
+            acknowledgeContiguousBatches();
+            sendNextManifest();
+        }
+    }
+
+    private void measurePayloadSent(@NonNull TransportPayloadUpdate update) {
+        if (awaitingPayload.getType() != TransportPayload.TYPE_STREAM || awaitingDataTypeName == null) {
+            return;
+        }
+
+        long bytesTransferred = Math.max(update.getBytesTransferred(), awaitingBytesTransferred);
+        CountingOutputStream uncompressedOutput = awaitingUncompressedOutput;
+        if (bytesTransferred < 1 && uncompressedOutput != null && CompressionUtil.isIdentity(awaitingEncoding)) {
+            // The records were counted as they were written
+            bytesTransferred = uncompressedOutput.getCount();
+        } else if (bytesTransferred < 1) {
+            bytesTransferred = awaitingPayloadSize;
+        }
+
+        batchController.onPayloadSent(awaitingDataTypeName, awaitingDataTypeRecordsBatchSize, bytesTransferred
+                , SystemClock.elapsedRealtime() - awaitingPayloadStartTime);
+    }
+
+    @NonNull
+    private SentBatch markAwaitingPayloadSent() {
+        SentBatch sentBatch = new SentBatch(awaitingPayload.getId(), awaitingDataTypeName
+                , awaitingDataTypeHighestId, awaitingDataTypeRecordsBatchSize);
+        sentBatches.add(sentBatch);
+
+        awaitingDataTypeRecordsBatchSize = 0;
+        awaitingPayloadTransfer = false;
+        awaitingPayload = null;
+        awaitingRecords = null;
+        awaitingPreparedBatch = null;
+        awaitingPayloadSize = 0;
+        awaitingEncoding = null;
+        awaitingDictionary = null;
+        awaitingDictionarySample = false;
+        awaitingUncompressedSize = 0;
+        awaitingUncompressedOutput = null;
+        awaitingMediaBundle = null;
+        awaitingMediaChunk = null;
+        awaitingPayloadOutputStream = null;
+        payloadRetry = null;
+
+        return sentBatch;
+    }
+
+    /**
+     * Moves the last record ids forward over the batches of each data type that have been
+     * acknowledged without a gap so that a batch still in transit is never skipped if the sync is
+     * interrupted
+     */
+    private void acknowledgeContiguousBatches() {
+        HashSet<String> blockedDataTypes = new HashSet<>();
+        Iterator<SentBatch> sentBatchIterator = sentBatches.iterator();
+
+        while (sentBatchIterator.hasNext()) {
+            SentBatch sentBatch = sentBatchIterator.next();
+
+            if (!sentBatch.acknowledged) {
+                blockedDataTypes.add(sentBatch.dataTypeName);
+            } else if (!blockedDataTypes.contains(sentBatch.dataTypeName)) {
+                sentBatchIterator.remove();
+
+                if (sentBatch.dataTypeName != null) {
+                    remainingLastRecordIds.put(sentBatch.dataTypeName, sentBatch.highestRecordId);
+                }
             }
         }
     }
 
-    public void onPayloadTransferUpdate(@NonNull final PayloadTransferUpdate update) {
+    public void onPayloadTransferUpdate(@NonNull final TransportPayloadUpdate update) {
         Timber.e("Payload transfer update %d with %,d bytes transfer | PayloadId %d | Total Bytes %,d"
                 , update.getStatus(), update.getBytesTransferred(), update.getPayloadId()
                 , update.getTotalBytes());
-        if (awaitingManifestTransfer) {
+        if (framedStreamPayload != null && update.getPayloadId() == framedStreamPayload.getId()) {
+            // The frames on the stream are acknowledged one by one by the receiver
+            if (update.getStatus() == TransportPayloadUpdate.STATUS_FAILURE
+                    || update.getStatus() == TransportPayloadUpdate.STATUS_CANCELED) {
+                presenter.errorOccurredSync(new Exception("Framed stream payload sending has failed"));
+            }
+        } else if (mediaLane && isMediaLaneUpdate(update)) {
+            onMediaLaneTransferUpdate(update);
+        } else if (awaitingManifestTransfer) {
             if (update.getPayloadId() == awaitingManifestId) {
-                if (update.getStatus() == PayloadTransferUpdate.Status.SUCCESS) {
+                if (update.getStatus() == TransportPayloadUpdate.STATUS_SUCCESS) {
                     awaitingManifestTransfer = false;
                     awaitingManifestId = 0;
-                    payloadRetry = null;
                     syncPackageManifest = null;
 
-                    sendNextPayload();
-                } else if (update.getStatus() == PayloadTransferUpdate.Status.FAILURE) {
+                    // A batch sent again after its payload failed keeps counting down its retries
+                    if (payloadRetry != null && payloadRetry.payloadId == update.getPayloadId()) {
+                        payloadRetry = null;
+                    }
+
+                    if (framedStreamPayload != null && !framedStreamStarted) {
+                        framedStreamStarted = true;
+                        presenter.sendPayload(framedStreamPayload);
+                        sendNextManifest();
+                    } else {
+                        sendNextPayload();
+                    }
+                } else if (update.getStatus() == TransportPayloadUpdate.STATUS_FAILURE) {
                     // Try to resend the manifest until the max retries are done
                     if (payloadRetry == null) {
                         payloadRetry = new PayloadRetry(0l, sendMaxRetries);
@@ -362,16 +1637,21 @@ public class SyncSenderHandler extends BaseSyncHandler {
                     } else {
                         presenter.errorOccurredSync(new Exception("Manifest Payload send failed up-to " + sendMaxRetries));
                     }
-                } else if (update.getStatus() == PayloadTransferUpdate.Status.CANCELED) {
+                } else if (update.getStatus() == TransportPayloadUpdate.STATUS_CANCELED) {
                     presenter.errorOccurredSync(new Exception("Manifest Payload sending has been cancelled"));
                 }
             }
         } else if (awaitingPayloadTransfer && awaitingPayload != null && update.getPayloadId() == awaitingPayload.getId()) {
-            if (update.getStatus() == PayloadTransferUpdate.Status.SUCCESS) {
+            if (update.getStatus() == TransportPayloadUpdate.STATUS_SUCCESS) {
 
                 logTransfer(true, awaitingDataTypeName, presenter.getCurrentPeerDevice(), awaitingDataTypeRecordsBatchSize);
+                measurePayloadSent(update);
 
-            } else if (update.getStatus() == PayloadTransferUpdate.Status.FAILURE) {
+                markAwaitingPayloadSent();
+                sendNextManifest();
+            } else if (update.getStatus() == TransportPayloadUpdate.STATUS_FAILURE && awaitingMediaChunk != null) {
+                retryMediaChunk();
+            } else if (update.getStatus() == TransportPayloadUpdate.STATUS_FAILURE) {
                 // Try to resend the payload until the max retries are done
                 if (payloadRetry == null) {
                     payloadRetry = new PayloadRetry(awaitingPayload.getId(), sendMaxRetries);
@@ -379,26 +1659,85 @@ public class SyncSenderHandler extends BaseSyncHandler {
 
                 if (payloadRetry.retries > 0) {
                     payloadRetry.retries--;
-                    sendNextPayload();
+
+                    if (awaitingPreparedBatch != null) {
+                        reopenAwaitingRecords();
+                    } else {
+                        sendNextPayload();
+                    }
                 } else {
                     presenter.errorOccurredSync(new Exception("Payload send failed up-to " + sendMaxRetries));
                 }
-            } else if (update.getStatus() == PayloadTransferUpdate.Status.CANCELED) {
+            } else if (update.getStatus() == TransportPayloadUpdate.STATUS_CANCELED) {
                 presenter.errorOccurredSync(new Exception("Payload sending has been cancelled"));
-            } else if (update.getStatus() == PayloadTransferUpdate.Status.IN_PROGRESS) {
+            } else if (update.getStatus() == TransportPayloadUpdate.STATUS_IN_PROGRESS) {
+                awaitingBytesTransferred = update.getBytesTransferred();
+
                 // I should update them here
-                if (awaitingBytes != null) {
-                    int maxSize = awaitingBytes.length;
-                    int transferredSize = (int) update.getBytesTransferred();
+                CountingOutputStream uncompressedOutput = awaitingUncompressedOutput;
 
-                    presenter.getView().updateProgressFragment((transferredSize * 100)/maxSize);
+                if (awaitingPayloadSize > 0) {
+                    long transferredSize = update.getBytesTransferred();
+
+                    presenter.getView().updateProgressFragment((int) ((transferredSize * 100) / awaitingPayloadSize));
+                } else if (awaitingUncompressedSize > 0 && uncompressedOutput != null) {
+                    // The compressed size is unknown so the progress is worked out from the records written so far
+                    presenter.getView().updateProgressFragment((int) ((uncompressedOutput.getCount() * 100) / awaitingUncompressedSize));
                 } else {
-                    Timber.e("We are waiting for a payload to finish transferring and the bytes for the payload being sent are null");
+                    Timber.e("We are waiting for a payload to finish transferring and the size of the payload being sent is unknown");
                 }
             }
         }
     }
 
+    /**
+     * Opens the records of the awaiting batch again since the failed payload already used up and
+     * closed its cursor, and then sends the batch again as a new payload with its own manifest. Records
+     * from a {@link StreamingSenderTransferDao} are read again from where the batch was read from.
+     */
+    private void reopenAwaitingRecords() {
+        final PreparedBatch preparedBatch = awaitingPreparedBatch;
+
+        Tasker.run(new Callable<JsonRecordCursor>() {
+            @Override
+            public JsonRecordCursor call() throws Exception {
+                JsonRecordCursor records = preparedBatch.getRecords();
+                if (records instanceof JsonDataRecordCursor) {
+                    return new JsonDataRecordCursor(((JsonDataRecordCursor) records).getJsonArray(), preparedBatch.getHighestRecordId());
+                }
+
+                return ((StreamingSenderTransferDao) P2PLibrary.getInstance().getSenderTransferDao())
+                        .getJsonRecords(preparedBatch.getDataType(), preparedBatch.getReadFromRecordId(), preparedBatch.getRecordsSize());
+            }
+        }, new GenericAsyncTask.OnFinishedCallback<JsonRecordCursor>() {
+            @Override
+            public void onSuccess(@Nullable JsonRecordCursor result) {
+                if (preparedBatch != awaitingPreparedBatch) {
+                    // The sync was stopped while the records were being read
+                    if (result != null) {
+                        closeQuietly(result);
+                    }
+                } else if (result == null || result.getCount() != preparedBatch.getRecordsSize()
+                        || result.getHighestRecordId() != preparedBatch.getHighestRecordId()) {
+                    if (result != null) {
+                        closeQuietly(result);
+                    }
+
+                    presenter.errorOccurredSync(new Exception("The records of the failed " + preparedBatch.getDataType().getName()
+                            + " batch could not be read again"));
+                } else {
+                    awaitingPayloadTransfer = false;
+                    sendJsonBatchManifest(preparedBatch, result);
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                presenter.errorOccurredSync(e);
+            }
+        });
+    }
+
     class PayloadRetry {
         protected long payloadId;
         protected int retries;
@@ -409,4 +1748,38 @@ public class SyncSenderHandler extends BaseSyncHandler {
         }
     }
 
+    class MediaChunk {
+        protected DataType dataType;
+        protected MultiMediaData mediaFile;
+        protected long offset;
+        protected long length;
+        protected boolean lastChunk;
+        protected int retries;
+
+        MediaChunk(@NonNull DataType dataType, @NonNull MultiMediaData mediaFile, long offset, long length
+                , boolean lastChunk, int retries) {
+            this.dataType = dataType;
+            this.mediaFile = mediaFile;
+            this.offset = offset;
+            this.length = length;
+            this.lastChunk = lastChunk;
+            this.retries = retries;
+        }
+    }
+
+    class SentBatch {
+        protected long payloadId;
+        protected String dataTypeName;
+        protected long highestRecordId;
+        protected int recordsSize;
+        protected boolean acknowledged;
+
+        SentBatch(long payloadId, @Nullable String dataTypeName, long highestRecordId, int recordsSize) {
+            this.payloadId = payloadId;
+            this.dataTypeName = dataTypeName;
+            this.highestRecordId = highestRecordId;
+            this.recordsSize = recordsSize;
+        }
+    }
+
 }
@@ -0,0 +1,64 @@
+package org.smartregister.p2p.tasks;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Keeps count of running background tasks and runs an action once all of them have finished
+ */
+
+public class CompletionTracker {
+
+    private int runningTasks;
+    private Runnable onIdleRunnable;
+
+    public synchronized void taskStarted() {
+        runningTasks++;
+    }
+
+    public void taskFinished() {
+        Runnable runnable = null;
+
+        synchronized (this) {
+            if (runningTasks > 0) {
+                runningTasks--;
+            }
+
+            if (runningTasks == 0 && onIdleRunnable != null) {
+                runnable = onIdleRunnable;
+                onIdleRunnable = null;
+            }
+        }
+
+        if (runnable != null) {
+            runnable.run();
+        }
+    }
+
+    public synchronized boolean isIdle() {
+        return runningTasks == 0;
+    }
+
+    /**
+     * Runs the action immediately if there are no running tasks, otherwise after the last running
+     * task finishes. Only the latest action is kept.
+     *
+     * @param runnable the action
+     */
+    public void runWhenIdle(@NonNull Runnable runnable) {
+        synchronized (this) {
+            if (runningTasks > 0) {
+                onIdleRunnable = runnable;
+                return;
+            }
+        }
+
+        runnable.run();
+    }
+
+    /**
+     * Drops the action waiting for the running tasks to finish, eg. after an error
+     */
+    public synchronized void cancel() {
+        onIdleRunnable = null;
+    }
+}
@@ -0,0 +1,108 @@
+package org.smartregister.p2p.tasks;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks that share a key one after the other in the order they were added while tasks with
+ * different keys run concurrently, up to a maximum number of keys at a time. Keys waiting for a free
+ * thread take turns so that a key with many tasks does not starve the others.
+ */
+
+public class KeyedSerialExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final Executor executor;
+    private final int maxConcurrency;
+
+    private final HashMap<String, ArrayDeque<Runnable>> pendingTasks = new HashMap<>();
+    private final HashSet<String> runningKeys = new HashSet<>();
+    private final ArrayDeque<String> waitingKeys = new ArrayDeque<>();
+
+    public KeyedSerialExecutor(int maxConcurrency) {
+        this(createThreadPool(Math.max(1, maxConcurrency)), maxConcurrency);
+    }
+
+    public KeyedSerialExecutor(@NonNull Executor executor, int maxConcurrency) {
+        this.executor = executor;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor createThreadPool(int poolSize) {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS
+                , TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    public synchronized void execute(@NonNull String key, @NonNull Runnable runnable) {
+        ArrayDeque<Runnable> keyTasks = pendingTasks.get(key);
+        if (keyTasks == null) {
+            keyTasks = new ArrayDeque<>();
+            pendingTasks.put(key, keyTasks);
+        }
+
+        keyTasks.add(runnable);
+
+        if (!runningKeys.contains(key) && !waitingKeys.contains(key)) {
+            waitingKeys.add(key);
+        }
+
+        scheduleNext();
+    }
+
+    /**
+     * @param key the key
+     * @return an {@link Executor} that adds its tasks under the key, for use with {@link Tasker}
+     */
+    @NonNull
+    public Executor forKey(@NonNull final String key) {
+        return new Executor() {
+            @Override
+            public void execute(@NonNull Runnable runnable) {
+                KeyedSerialExecutor.this.execute(key, runnable);
+            }
+        };
+    }
+
+    private synchronized void scheduleNext() {
+        while (runningKeys.size() < maxConcurrency && !waitingKeys.isEmpty()) {
+            final String key = waitingKeys.poll();
+            final Runnable runnable = pendingTasks.get(key).poll();
+            runningKeys.add(key);
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runnable.run();
+                    } finally {
+                        taskFinished(key);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void taskFinished(@NonNull String key) {
+        runningKeys.remove(key);
+
+        ArrayDeque<Runnable> keyTasks = pendingTasks.get(key);
+        if (keyTasks == null || keyTasks.isEmpty()) {
+            pendingTasks.remove(key);
+        } else {
+            waitingKeys.add(key);
+        }
+
+        scheduleNext();
+    }
+}
@@ -0,0 +1,205 @@
+package org.smartregister.p2p.transport;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.nearby.connection.AdvertisingOptions;
+import com.google.android.gms.nearby.connection.ConnectionInfo;
+import com.google.android.gms.nearby.connection.ConnectionLifecycleCallback;
+import com.google.android.gms.nearby.connection.ConnectionResolution;
+import com.google.android.gms.nearby.connection.ConnectionsClient;
+import com.google.android.gms.nearby.connection.ConnectionsStatusCodes;
+import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
+import com.google.android.gms.nearby.connection.DiscoveryOptions;
+import com.google.android.gms.nearby.connection.EndpointDiscoveryCallback;
+import com.google.android.gms.nearby.connection.Payload;
+import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+
+import org.smartregister.p2p.callback.OnResultCallback;
+import org.smartregister.p2p.util.Constants;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * A {@link Transport} over Nearby Connections
+ */
+
+public class NearbyTransport implements Transport {
+
+    private ConnectionsClient connectionsClient;
+
+    public NearbyTransport(@NonNull ConnectionsClient connectionsClient) {
+        this.connectionsClient = connectionsClient;
+    }
+
+    @NonNull
+    public ConnectionsClient getConnectionsClient() {
+        return connectionsClient;
+    }
+
+    @NonNull
+    public static TransportPayload wrap(@NonNull Payload payload) {
+        return new NearbyTransportPayload(payload);
+    }
+
+    @NonNull
+    public static TransportPayloadUpdate wrap(@NonNull PayloadTransferUpdate update) {
+        return new TransportPayloadUpdate(update.getPayloadId(), update.getStatus()
+                , update.getBytesTransferred(), update.getTotalBytes());
+    }
+
+    @NonNull
+    @Override
+    public TransportPayload createBytesPayload(@NonNull byte[] bytes) {
+        return wrap(Payload.fromBytes(bytes));
+    }
+
+    @NonNull
+    @Override
+    public TransportStream createStreamPayload() throws IOException {
+        ParcelFileDescriptor[] payloadPipe = ParcelFileDescriptor.createPipe();
+        return new TransportStream(wrap(Payload.fromStream(payloadPipe[0]))
+                , new ParcelFileDescriptor.AutoCloseOutputStream(payloadPipe[1]));
+    }
+
+    @NonNull
+    @Override
+    public TransportPayload createFilePayload(@NonNull File file) throws FileNotFoundException {
+        return wrap(Payload.fromFile(file));
+    }
+
+    @Override
+    public void sendPayload(@NonNull String endpointId, @NonNull TransportPayload payload) {
+        if (!(payload instanceof NearbyTransportPayload)) {
+            throw new IllegalArgumentException("The payload was not created by this transport");
+        }
+
+        connectionsClient.sendPayload(endpointId, ((NearbyTransportPayload) payload).getPayload());
+    }
+
+    @Override
+    public void startAdvertising(@NonNull String name, @NonNull String serviceId
+            , @NonNull ConnectionCallback connectionCallback, @NonNull OnResultCallback onResultCallback) {
+        AdvertisingOptions advertisingOptions = new AdvertisingOptions.Builder()
+                .setStrategy(Constants.STRATEGY)
+                .build();
+
+        addResultCallback(connectionsClient.startAdvertising(name, serviceId
+                , createConnectionLifecycleCallback(connectionCallback), advertisingOptions), onResultCallback);
+    }
+
+    @Override
+    public void stopAdvertising() {
+        connectionsClient.stopAdvertising();
+    }
+
+    @Override
+    public void startDiscovery(@NonNull String serviceId, @NonNull final DiscoveryCallback discoveryCallback
+            , @NonNull OnResultCallback onResultCallback) {
+        DiscoveryOptions discoveryOptions = new DiscoveryOptions.Builder()
+                .setStrategy(Constants.STRATEGY)
+                .build();
+
+        addResultCallback(connectionsClient.startDiscovery(serviceId, new EndpointDiscoveryCallback() {
+            @Override
+            public void onEndpointFound(@NonNull String endpointId, @NonNull DiscoveredEndpointInfo discoveredEndpointInfo) {
+                discoveryCallback.onEndpointFound(endpointId, discoveredEndpointInfo.getEndpointName());
+            }
+
+            @Override
+            public void onEndpointLost(@NonNull String endpointId) {
+                discoveryCallback.onEndpointLost(endpointId);
+            }
+        }, discoveryOptions), onResultCallback);
+    }
+
+    @Override
+    public void stopDiscovery() {
+        connectionsClient.stopDiscovery();
+    }
+
+    @Override
+    public void requestConnection(@NonNull String name, @NonNull String endpointId
+            , @NonNull ConnectionCallback connectionCallback, @NonNull OnResultCallback onResultCallback) {
+        addResultCallback(connectionsClient.requestConnection(name, endpointId
+                , createConnectionLifecycleCallback(connectionCallback)), onResultCallback);
+    }
+
+    @Override
+    public void acceptConnection(@NonNull String endpointId, @NonNull final PayloadCallback payloadCallback) {
+        connectionsClient.acceptConnection(endpointId, new com.google.android.gms.nearby.connection.PayloadCallback() {
+            @Override
+            public void onPayloadReceived(@NonNull String endpointId, @NonNull Payload payload) {
+                payloadCallback.onPayloadReceived(endpointId, wrap(payload));
+            }
+
+            @Override
+            public void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull PayloadTransferUpdate update) {
+                payloadCallback.onPayloadTransferUpdate(endpointId, wrap(update));
+            }
+        });
+    }
+
+    @Override
+    public void rejectConnection(@NonNull String endpointId) {
+        connectionsClient.rejectConnection(endpointId);
+    }
+
+    @Override
+    public void disconnectFromEndpoint(@NonNull String endpointId) {
+        connectionsClient.disconnectFromEndpoint(endpointId);
+    }
+
+    @Override
+    public void stopAllEndpoints() {
+        connectionsClient.stopAllEndpoints();
+    }
+
+    @NonNull
+    private ConnectionLifecycleCallback createConnectionLifecycleCallback(@NonNull final ConnectionCallback connectionCallback) {
+        return new ConnectionLifecycleCallback() {
+            @Override
+            public void onConnectionInitiated(@NonNull String endpointId, @NonNull ConnectionInfo connectionInfo) {
+                connectionCallback.onConnectionInitiated(endpointId, connectionInfo.getEndpointName()
+                        , connectionInfo.getAuthenticationToken(), connectionInfo.isIncomingConnection());
+            }
+
+            @Override
+            public void onConnectionResult(@NonNull String endpointId, @NonNull ConnectionResolution connectionResolution) {
+                int statusCode = connectionResolution.getStatus().getStatusCode();
+
+                if (statusCode == ConnectionsStatusCodes.STATUS_OK) {
+                    connectionCallback.onConnectionResult(endpointId, CONNECTION_STATUS_OK);
+                } else if (statusCode == ConnectionsStatusCodes.STATUS_CONNECTION_REJECTED) {
+                    connectionCallback.onConnectionResult(endpointId, CONNECTION_STATUS_REJECTED);
+                } else {
+                    connectionCallback.onConnectionResult(endpointId, CONNECTION_STATUS_ERROR);
+                }
+            }
+
+            @Override
+            public void onDisconnected(@NonNull String endpointId) {
+                connectionCallback.onDisconnected(endpointId);
+            }
+        };
+    }
+
+    private void addResultCallback(@NonNull Task<Void> task, @NonNull final OnResultCallback onResultCallback) {
+        task.addOnSuccessListener(new OnSuccessListener<Void>() {
+            @Override
+            public void onSuccess(Void aVoid) {
+                onResultCallback.onSuccess(aVoid);
+            }
+        }).addOnFailureListener(new OnFailureListener() {
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                onResultCallback.onFailure(e);
+            }
+        });
+    }
+}
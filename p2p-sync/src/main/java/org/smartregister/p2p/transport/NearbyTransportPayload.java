@@ -0,0 +1,57 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.nearby.connection.Payload;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * A {@link TransportPayload} backed by a Nearby Connections {@link Payload}
+ */
+
+public class NearbyTransportPayload implements TransportPayload {
+
+    private Payload payload;
+
+    public NearbyTransportPayload(@NonNull Payload payload) {
+        this.payload = payload;
+    }
+
+    @NonNull
+    public Payload getPayload() {
+        return payload;
+    }
+
+    @Override
+    public long getId() {
+        return payload.getId();
+    }
+
+    @Override
+    public int getType() {
+        return payload.getType();
+    }
+
+    @Nullable
+    @Override
+    public byte[] asBytes() {
+        return payload.asBytes();
+    }
+
+    @Nullable
+    @Override
+    public InputStream asInputStream() {
+        Payload.Stream stream = payload.asStream();
+        return stream != null ? stream.asInputStream() : null;
+    }
+
+    @Nullable
+    @Override
+    public File asFile() {
+        Payload.File file = payload.asFile();
+        return file != null ? file.asJavaFile() : null;
+    }
+}
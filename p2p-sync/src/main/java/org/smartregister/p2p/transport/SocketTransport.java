@@ -0,0 +1,1111 @@
+package org.smartregister.p2p.transport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.smartregister.p2p.callback.OnResultCallback;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import timber.log.Timber;
+
+/**
+ * A {@link Transport} over plain TCP sockets for devices on the same Wi-Fi network or hotspot.
+ * Advertisers listen on a TCP port and announce it with a UDP broadcast on the discovery port.
+ * Endpoint ids are the {@code host:port} the endpoint can be reached at, so a known endpoint can be
+ * connected to without discovery. File payloads are sent with {@link FileChannel#transferTo} and
+ * received with {@link FileChannel#transferFrom} so that their data is not copied through the heap.
+ * <p>
+ * Some devices drop broadcasts unless the app holds a {@code WifiManager.MulticastLock} while
+ * discovering.
+ * <p>
+ * The connection is neither authenticated nor encrypted. The authentication token is sent in plain
+ * text when connecting, so anyone on the network can read it along with the records and files sent.
+ * It should only be used on a trusted network until the transport has a proper key exchange.
+ */
+
+public class SocketTransport implements Transport {
+
+    public static final int DEFAULT_DISCOVERY_PORT = 47823;
+
+    private static final String ANNOUNCEMENT_PREFIX = "P2PSYNC";
+    private static final int PROTOCOL_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte FRAME_HELLO = 1;
+    private static final byte FRAME_ACCEPT = 2;
+    private static final byte FRAME_REJECT = 3;
+    private static final byte FRAME_BYTES = 4;
+    private static final byte FRAME_STREAM_START = 5;
+    private static final byte FRAME_FILE_START = 6;
+    private static final byte FRAME_DATA = 7;
+    private static final byte FRAME_END = 8;
+    private static final byte FRAME_CANCEL = 9;
+
+    private static final int AUTHENTICATION_TOKEN_SIZE = 16;
+
+    private static final int FRAME_HEADER_SIZE = 13;
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    private static final int FILE_CHUNK_SIZE = 1024 * 1024;
+    private static final int STREAM_PIPE_SIZE = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL = 1024 * 1024;
+
+    private static final int ANNOUNCEMENT_INTERVAL = 1000;
+    private static final int ENDPOINT_LOST_TIMEOUT = 3 * ANNOUNCEMENT_INTERVAL;
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "p2p-socket-transport");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final int listenPort;
+    private final int discoveryPort;
+    private final InetAddress announcementAddress;
+    private final File receivedFilesDir;
+    private final Executor callbackExecutor;
+
+    private final ExecutorService threads = Executors.newCachedThreadPool(THREAD_FACTORY);
+    private final Random random = new Random();
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<>();
+    private final Map<String, String> discoveredEndpoints = new ConcurrentHashMap<>();
+
+    private ServerSocketChannel serverSocketChannel;
+    private DatagramSocket announcementSocket;
+    private DatagramSocket discoverySocket;
+
+    /**
+     * Creates a transport that listens on an ephemeral port, announces it to the whole network on
+     * {@link #DEFAULT_DISCOVERY_PORT} and calls back on the main thread
+     *
+     * @param receivedFilesDir the directory received file payloads are written to
+     */
+    public SocketTransport(@NonNull File receivedFilesDir) {
+        this(0, DEFAULT_DISCOVERY_PORT, getBroadcastAddress(), receivedFilesDir, new Executor() {
+
+            private Handler handler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(@NonNull Runnable runnable) {
+                handler.post(runnable);
+            }
+        });
+    }
+
+    /**
+     * @param listenPort          the TCP port to listen on while advertising, or 0 for an ephemeral port
+     * @param discoveryPort       the UDP port advertisements are announced to and discovered on
+     * @param announcementAddress the address advertisements are announced to, usually a broadcast address
+     * @param receivedFilesDir    the directory received file payloads are written to
+     * @param callbackExecutor    the executor all the callbacks are called on
+     */
+    public SocketTransport(int listenPort, int discoveryPort, @NonNull InetAddress announcementAddress
+            , @NonNull File receivedFilesDir, @NonNull Executor callbackExecutor) {
+        this.listenPort = listenPort;
+        this.discoveryPort = discoveryPort;
+        this.announcementAddress = announcementAddress;
+        this.receivedFilesDir = receivedFilesDir;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * @return the TCP port this transport is listening on, or -1 if it is not advertising
+     */
+    public synchronized int getLocalPort() {
+        return serverSocketChannel != null ? serverSocketChannel.socket().getLocalPort() : -1;
+    }
+
+    @NonNull
+    @Override
+    public TransportPayload createBytesPayload(@NonNull byte[] bytes) {
+        return SocketTransportPayload.fromBytes(createPayloadId(), bytes);
+    }
+
+    @NonNull
+    @Override
+    public TransportStream createStreamPayload() {
+        StreamPipe streamPipe = new StreamPipe(STREAM_PIPE_SIZE);
+        return new TransportStream(SocketTransportPayload.fromStream(createPayloadId(), streamPipe.getInputStream())
+                , streamPipe.getOutputStream());
+    }
+
+    @NonNull
+    @Override
+    public TransportPayload createFilePayload(@NonNull File file) throws FileNotFoundException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getAbsolutePath());
+        }
+
+        return SocketTransportPayload.fromFile(createPayloadId(), file);
+    }
+
+    @Override
+    public void sendPayload(@NonNull String endpointId, @NonNull TransportPayload payload) {
+        if (!(payload instanceof SocketTransportPayload)) {
+            throw new IllegalArgumentException("The payload was not created by this transport");
+        }
+
+        Connection connection = connections.get(endpointId);
+        if (connection == null) {
+            Timber.e("Could not send payload %d to %s because it is not connected", payload.getId(), endpointId);
+            return;
+        }
+
+        connection.send((SocketTransportPayload) payload);
+    }
+
+    @Override
+    public void startAdvertising(@NonNull final String name, @NonNull final String serviceId
+            , @NonNull final ConnectionCallback connectionCallback, @NonNull final OnResultCallback onResultCallback) {
+        threads.execute(new Runnable() {
+            @Override
+            public void run() {
+                ServerSocketChannel serverChannel = null;
+                DatagramSocket socket = null;
+
+                try {
+                    serverChannel = ServerSocketChannel.open();
+                    serverChannel.socket().bind(new InetSocketAddress(listenPort));
+
+                    socket = new DatagramSocket();
+                    socket.setBroadcast(true);
+
+                    synchronized (SocketTransport.this) {
+                        stopAdvertising();
+                        serverSocketChannel = serverChannel;
+                        announcementSocket = socket;
+                    }
+
+                    byte[] announcement = createAnnouncement(serviceId, name, serverChannel.socket().getLocalPort());
+                    threads.execute(createAcceptor(serverChannel, connectionCallback));
+                    threads.execute(createAnnouncer(socket, announcement));
+
+                    postSuccess(onResultCallback);
+                } catch (IOException e) {
+                    closeQuietly(serverChannel);
+                    closeQuietly(socket);
+                    postFailure(onResultCallback, e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public synchronized void stopAdvertising() {
+        closeQuietly(serverSocketChannel);
+        closeQuietly(announcementSocket);
+
+        serverSocketChannel = null;
+        announcementSocket = null;
+    }
+
+    @Override
+    public void startDiscovery(@NonNull final String serviceId, @NonNull final DiscoveryCallback discoveryCallback
+            , @NonNull final OnResultCallback onResultCallback) {
+        threads.execute(new Runnable() {
+            @Override
+            public void run() {
+                DatagramSocket socket = null;
+
+                try {
+                    socket = new DatagramSocket(null);
+                    socket.setReuseAddress(true);
+                    socket.setSoTimeout(ANNOUNCEMENT_INTERVAL);
+                    socket.bind(new InetSocketAddress(discoveryPort));
+
+                    synchronized (SocketTransport.this) {
+                        stopDiscovery();
+                        discoverySocket = socket;
+                    }
+
+                    threads.execute(createDiscoverer(socket, serviceId, discoveryCallback));
+                    postSuccess(onResultCallback);
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                    postFailure(onResultCallback, e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public synchronized void stopDiscovery() {
+        closeQuietly(discoverySocket);
+        discoverySocket = null;
+    }
+
+    @Override
+    public void requestConnection(@NonNull final String name, @NonNull final String endpointId
+            , @NonNull final ConnectionCallback connectionCallback, @NonNull final OnResultCallback onResultCallback) {
+        threads.execute(new Runnable() {
+            @Override
+            public void run() {
+                SocketChannel channel = null;
+
+                try {
+                    channel = SocketChannel.open(parseEndpointId(endpointId));
+
+                    String endpointName = discoveredEndpoints.get(endpointId);
+                    final String remoteName = endpointName != null ? endpointName : endpointId;
+                    final String authenticationToken = createAuthenticationToken();
+
+                    Connection connection = new Connection(endpointId, channel, connectionCallback);
+                    connection.writeFrame(FRAME_HELLO, 0, createHello(name, authenticationToken));
+                    connections.put(endpointId, connection);
+                    connection.start();
+
+                    postSuccess(onResultCallback);
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            connectionCallback.onConnectionInitiated(endpointId, remoteName, authenticationToken, false);
+                        }
+                    });
+                } catch (IOException | IllegalArgumentException e) {
+                    closeQuietly(channel);
+                    postFailure(onResultCallback, e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void acceptConnection(@NonNull String endpointId, @NonNull PayloadCallback payloadCallback) {
+        Connection connection = connections.get(endpointId);
+        if (connection != null) {
+            connection.accept(payloadCallback);
+        }
+    }
+
+    @Override
+    public void rejectConnection(@NonNull String endpointId) {
+        Connection connection = connections.get(endpointId);
+        if (connection != null) {
+            connection.reject();
+        }
+    }
+
+    @Override
+    public void disconnectFromEndpoint(@NonNull String endpointId) {
+        Connection connection = connections.get(endpointId);
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void stopAllEndpoints() {
+        stopAdvertising();
+        stopDiscovery();
+
+        for (Connection connection : connections.values()) {
+            connection.close();
+        }
+    }
+
+    private long createPayloadId() {
+        long payloadId;
+        do {
+            payloadId = random.nextLong();
+        } while (payloadId == 0);
+
+        return payloadId;
+    }
+
+    @NonNull
+    private Runnable createAcceptor(@NonNull final ServerSocketChannel serverChannel
+            , @NonNull final ConnectionCallback connectionCallback) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                while (serverChannel.isOpen()) {
+                    try {
+                        SocketChannel channel = serverChannel.accept();
+                        InetSocketAddress remoteAddress = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+                        String endpointId = remoteAddress.getAddress().getHostAddress() + ":" + remoteAddress.getPort();
+
+                        Connection connection = new Connection(endpointId, channel, connectionCallback);
+                        connections.put(endpointId, connection);
+                        connection.start();
+                    } catch (IOException e) {
+                        if (serverChannel.isOpen()) {
+                            Timber.e(e, "Could not accept a connection");
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    @NonNull
+    private Runnable createAnnouncer(@NonNull final DatagramSocket socket, @NonNull byte[] announcement) {
+        final DatagramPacket packet = new DatagramPacket(announcement, announcement.length, announcementAddress, discoveryPort);
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                while (!socket.isClosed()) {
+                    try {
+                        socket.send(packet);
+                        Thread.sleep(ANNOUNCEMENT_INTERVAL);
+                    } catch (IOException e) {
+                        if (!socket.isClosed()) {
+                            Timber.e(e, "Could not send the advertising announcement");
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+    }
+
+    @NonNull
+    private Runnable createDiscoverer(@NonNull final DatagramSocket socket, @NonNull final String serviceId
+            , @NonNull final DiscoveryCallback discoveryCallback) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Long> lastSeenTimes = new HashMap<>();
+                byte[] buffer = new byte[1024];
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+                while (!socket.isClosed()) {
+                    try {
+                        packet.setLength(buffer.length);
+                        socket.receive(packet);
+
+                        String[] announcement = readAnnouncement(packet.getData(), packet.getLength());
+                        if (announcement != null && serviceId.equals(announcement[0])) {
+                            final String endpointId = packet.getAddress().getHostAddress() + ":" + announcement[1];
+                            final String endpointName = announcement[2];
+
+                            if (lastSeenTimes.put(endpointId, System.currentTimeMillis()) == null) {
+                                discoveredEndpoints.put(endpointId, endpointName);
+                                callbackExecutor.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        discoveryCallback.onEndpointFound(endpointId, endpointName);
+                                    }
+                                });
+                            }
+                        }
+                    } catch (SocketTimeoutException e) {
+                        // Lost endpoints are still looked for below
+                    } catch (IOException e) {
+                        if (!socket.isClosed()) {
+                            Timber.e(e, "Could not receive advertising announcements");
+                        }
+                        return;
+                    }
+
+                    Iterator<Map.Entry<String, Long>> iterator = lastSeenTimes.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<String, Long> entry = iterator.next();
+                        if (System.currentTimeMillis() - entry.getValue() > ENDPOINT_LOST_TIMEOUT) {
+                            final String endpointId = entry.getKey();
+                            iterator.remove();
+
+                            callbackExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    discoveryCallback.onEndpointLost(endpointId);
+                                }
+                            });
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    private void postSuccess(@NonNull final OnResultCallback onResultCallback) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onResultCallback.onSuccess(null);
+            }
+        });
+    }
+
+    private void postFailure(@NonNull final OnResultCallback onResultCallback, @NonNull final Exception e) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onResultCallback.onFailure(e);
+            }
+        });
+    }
+
+    @NonNull
+    static byte[] createAnnouncement(@NonNull String serviceId, @NonNull String name, int port) {
+        return (ANNOUNCEMENT_PREFIX + "\t" + PROTOCOL_VERSION + "\t" + serviceId + "\t" + port + "\t" + name)
+                .getBytes(UTF_8);
+    }
+
+    /**
+     * @return the service id, port and name in the announcement or {@code null} if it is not a
+     * supported announcement
+     */
+    @Nullable
+    static String[] readAnnouncement(@NonNull byte[] data, int length) {
+        String[] fields = new String(data, 0, length, UTF_8).split("\t", 5);
+
+        if (fields.length != 5 || !ANNOUNCEMENT_PREFIX.equals(fields[0])
+                || !String.valueOf(PROTOCOL_VERSION).equals(fields[1])) {
+            return null;
+        }
+
+        return new String[]{fields[2], fields[3], fields[4]};
+    }
+
+    @NonNull
+    private static InetSocketAddress parseEndpointId(@NonNull String endpointId) {
+        int separatorIndex = endpointId.lastIndexOf(':');
+        if (separatorIndex < 1) {
+            throw new IllegalArgumentException("Endpoint id " + endpointId + " is not a host:port");
+        }
+
+        return new InetSocketAddress(endpointId.substring(0, separatorIndex)
+                , Integer.parseInt(endpointId.substring(separatorIndex + 1)));
+    }
+
+    /**
+     * @return a random hex token of {@link #AUTHENTICATION_TOKEN_SIZE} bytes for the user to confirm
+     * the connection with
+     */
+    @NonNull
+    @VisibleForTesting
+    String createAuthenticationToken() {
+        byte[] tokenBytes = new byte[AUTHENTICATION_TOKEN_SIZE];
+        secureRandom.nextBytes(tokenBytes);
+
+        StringBuilder authenticationToken = new StringBuilder();
+        for (byte tokenByte : tokenBytes) {
+            authenticationToken.append(String.format(Locale.US, "%02x", tokenByte & 0xff));
+        }
+
+        return authenticationToken.toString();
+    }
+
+    @NonNull
+    private static byte[] createHello(@NonNull String name, @NonNull String authenticationToken) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+        dataOutputStream.writeInt(PROTOCOL_VERSION);
+        dataOutputStream.writeUTF(authenticationToken);
+        dataOutputStream.writeUTF(name);
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @NonNull
+    private static InetAddress getBroadcastAddress() {
+        try {
+            return InetAddress.getByName("255.255.255.255");
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Timber.e(e);
+            }
+        }
+    }
+
+    private static class IncomingPayload {
+
+        private StreamPipe streamPipe;
+        private File file;
+        private FileChannel fileChannel;
+        private long totalBytes;
+        private long bytesTransferred;
+        private long reportedBytes;
+
+        private IncomingPayload(@Nullable StreamPipe streamPipe, @Nullable File file
+                , @Nullable FileChannel fileChannel, long totalBytes) {
+            this.streamPipe = streamPipe;
+            this.file = file;
+            this.fileChannel = fileChannel;
+            this.totalBytes = totalBytes;
+        }
+    }
+
+    /**
+     * A TCP connection to an endpoint. Frames have a 13 byte header with the frame type, payload id
+     * and body length followed by the body. Frames are read on a single reader thread and written
+     * whole under a lock so that frames of different payloads can be interleaved.
+     */
+    private class Connection {
+
+        private final String endpointId;
+        private final SocketChannel channel;
+        private final ConnectionCallback connectionCallback;
+        private final ExecutorService sendExecutor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+        private final Object writeLock = new Object();
+        private final Set<InputStream> outgoingStreams = Collections.synchronizedSet(new HashSet<InputStream>());
+        private final Map<Long, IncomingPayload> incomingPayloads = new HashMap<>();
+        private final byte[] dataBuffer = new byte[STREAM_CHUNK_SIZE];
+
+        private volatile PayloadCallback payloadCallback;
+        private boolean localAccepted;
+        private boolean remoteAccepted;
+        private boolean connected;
+        private boolean closed;
+
+        private Connection(@NonNull String endpointId, @NonNull SocketChannel channel
+                , @NonNull ConnectionCallback connectionCallback) {
+            this.endpointId = endpointId;
+            this.channel = channel;
+            this.connectionCallback = connectionCallback;
+        }
+
+        private void start() {
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        readFrames();
+                        onClosed(null);
+                    } catch (IOException e) {
+                        onClosed(e);
+                    }
+                }
+            });
+        }
+
+        private void accept(@NonNull PayloadCallback payloadCallback) {
+            this.payloadCallback = payloadCallback;
+
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeFrame(FRAME_ACCEPT, 0, null);
+
+                        synchronized (Connection.this) {
+                            localAccepted = true;
+                            updateConnected();
+                        }
+                    } catch (IOException e) {
+                        Timber.e(e, "Could not accept the connection to %s", endpointId);
+                        closeQuietly(channel);
+                    }
+                }
+            });
+        }
+
+        private void reject() {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeFrame(FRAME_REJECT, 0, null);
+                    } catch (IOException e) {
+                        Timber.e(e, "Could not reject the connection to %s", endpointId);
+                    }
+
+                    if (close()) {
+                        postConnectionResult(CONNECTION_STATUS_REJECTED);
+                    }
+                }
+            });
+        }
+
+        private void send(@NonNull final SocketTransportPayload payload) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    long payloadId = payload.getId();
+
+                    try {
+                        if (payload.getType() == TransportPayload.TYPE_BYTES) {
+                            byte[] bytes = payload.asBytes();
+                            writeFrame(FRAME_BYTES, payloadId, bytes);
+                            postUpdate(payloadId, TransportPayloadUpdate.STATUS_SUCCESS, bytes.length, bytes.length);
+                        } else if (payload.getType() == TransportPayload.TYPE_STREAM) {
+                            InputStream inputStream = payload.asInputStream();
+                            outgoingStreams.add(inputStream);
+                            writeFrame(FRAME_STREAM_START, payloadId, null);
+                            threads.execute(createStreamSender(payloadId, inputStream));
+                        } else {
+                            FileChannel fileChannel;
+                            try {
+                                fileChannel = new FileInputStream(payload.asFile()).getChannel();
+                            } catch (FileNotFoundException e) {
+                                Timber.e(e);
+                                postUpdate(payloadId, TransportPayloadUpdate.STATUS_FAILURE, 0, -1);
+                                return;
+                            }
+
+                            long size = fileChannel.size();
+                            writeFrame(FRAME_FILE_START, payloadId, ByteBuffer.allocate(8).putLong(size).array());
+                            threads.execute(createFileSender(payloadId, fileChannel, size));
+                        }
+                    } catch (IOException e) {
+                        onSendFailed(payloadId, 0, e);
+                    }
+                }
+            });
+        }
+
+        @NonNull
+        private Runnable createStreamSender(final long payloadId, @NonNull final InputStream inputStream) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[STREAM_CHUNK_SIZE];
+                    long bytesSent = 0;
+                    long reportedBytes = 0;
+
+                    try {
+                        while (true) {
+                            int count;
+                            try {
+                                count = inputStream.read(buffer);
+                            } catch (IOException e) {
+                                Timber.e(e, "Could not read stream payload %d", payloadId);
+                                writeFrame(FRAME_CANCEL, payloadId, null);
+                                postUpdate(payloadId, TransportPayloadUpdate.STATUS_FAILURE, bytesSent, -1);
+                                return;
+                            }
+
+                            if (count == -1) {
+                                break;
+                            }
+
+                            writeFrame(FRAME_DATA, payloadId, buffer, count);
+                            bytesSent += count;
+
+                            if (bytesSent - reportedBytes >= PROGRESS_INTERVAL) {
+                                reportedBytes = bytesSent;
+                                postUpdate(payloadId, TransportPayloadUpdate.STATUS_IN_PROGRESS, bytesSent, -1);
+                            }
+                        }
+
+                        writeFrame(FRAME_END, payloadId, null);
+                        postUpdate(payloadId, TransportPayloadUpdate.STATUS_SUCCESS, bytesSent, bytesSent);
+                    } catch (IOException e) {
+                        onSendFailed(payloadId, bytesSent, e);
+                    } finally {
+                        outgoingStreams.remove(inputStream);
+                        closeQuietly(inputStream);
+                    }
+                }
+            };
+        }
+
+        @NonNull
+        private Runnable createFileSender(final long payloadId, @NonNull final FileChannel fileChannel, final long size) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    long position = 0;
+                    long reportedBytes = 0;
+
+                    try {
+                        while (position < size) {
+                            int length = (int) Math.min(FILE_CHUNK_SIZE, size - position);
+                            writeFileChunk(payloadId, fileChannel, position, length);
+                            position += length;
+
+                            if (position - reportedBytes >= PROGRESS_INTERVAL && position < size) {
+                                reportedBytes = position;
+                                postUpdate(payloadId, TransportPayloadUpdate.STATUS_IN_PROGRESS, position, size);
+                            }
+                        }
+
+                        writeFrame(FRAME_END, payloadId, null);
+                        postUpdate(payloadId, TransportPayloadUpdate.STATUS_SUCCESS, size, size);
+                    } catch (IOException e) {
+                        onSendFailed(payloadId, position, e);
+                    } finally {
+                        closeQuietly(fileChannel);
+                    }
+                }
+            };
+        }
+
+        private void onSendFailed(long payloadId, long bytesSent, @NonNull IOException e) {
+            Timber.e(e, "Could not send payload %d to %s", payloadId, endpointId);
+            postUpdate(payloadId, TransportPayloadUpdate.STATUS_FAILURE, bytesSent, -1);
+
+            // A partly written frame leaves the connection unusable. Closing the channel lets the
+            // reader report the disconnection
+            closeQuietly(channel);
+        }
+
+        private void execute(@NonNull Runnable runnable) {
+            try {
+                sendExecutor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                Timber.e(e, "Connection to %s is closed", endpointId);
+            }
+        }
+
+        private void writeFrame(byte type, long payloadId, @Nullable byte[] body) throws IOException {
+            writeFrame(type, payloadId, body, body != null ? body.length : 0);
+        }
+
+        private void writeFrame(byte type, long payloadId, @Nullable byte[] body, int length) throws IOException {
+            ByteBuffer header = createHeader(type, payloadId, length);
+
+            synchronized (writeLock) {
+                if (body == null || length == 0) {
+                    writeFully(header);
+                } else {
+                    ByteBuffer[] buffers = new ByteBuffer[]{header, ByteBuffer.wrap(body, 0, length)};
+                    while (buffers[1].hasRemaining()) {
+                        channel.write(buffers);
+                    }
+                }
+            }
+        }
+
+        private void writeFileChunk(long payloadId, @NonNull FileChannel fileChannel, long position, int length) throws IOException {
+            ByteBuffer header = createHeader(FRAME_DATA, payloadId, length);
+
+            synchronized (writeLock) {
+                writeFully(header);
+
+                long bytesWritten = 0;
+                while (bytesWritten < length) {
+                    long count = fileChannel.transferTo(position + bytesWritten, length - bytesWritten, channel);
+                    if (count <= 0) {
+                        throw new EOFException("The file was truncated while it was being sent");
+                    }
+
+                    bytesWritten += count;
+                }
+            }
+        }
+
+        @NonNull
+        private ByteBuffer createHeader(byte type, long payloadId, int length) {
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+            header.put(type)
+                    .putLong(payloadId)
+                    .putInt(length)
+                    .flip();
+
+            return header;
+        }
+
+        private void writeFully(@NonNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private void readFully(@NonNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    throw new EOFException("The connection was closed by " + endpointId);
+                }
+            }
+        }
+
+        private void readFrames() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+            while (true) {
+                header.clear();
+                try {
+                    readFully(header);
+                } catch (EOFException e) {
+                    return;
+                }
+                header.flip();
+
+                byte type = header.get();
+                long payloadId = header.getLong();
+                int length = header.getInt();
+
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + length + " from " + endpointId);
+                }
+
+                if (type == FRAME_DATA) {
+                    readData(payloadId, length);
+                    continue;
+                }
+
+                byte[] body = new byte[length];
+                readFully(ByteBuffer.wrap(body));
+
+                if (type == FRAME_HELLO) {
+                    readHello(body);
+                } else if (type == FRAME_ACCEPT) {
+                    synchronized (this) {
+                        remoteAccepted = true;
+                        updateConnected();
+                    }
+                } else if (type == FRAME_REJECT) {
+                    if (close()) {
+                        postConnectionResult(CONNECTION_STATUS_REJECTED);
+                    }
+                    return;
+                } else if (type == FRAME_BYTES) {
+                    postReceived(SocketTransportPayload.fromBytes(payloadId, body));
+                    postUpdate(payloadId, TransportPayloadUpdate.STATUS_SUCCESS, length, length);
+                } else if (type == FRAME_STREAM_START) {
+                    StreamPipe streamPipe = new StreamPipe(STREAM_PIPE_SIZE);
+                    incomingPayloads.put(payloadId, new IncomingPayload(streamPipe, null, null, -1));
+                    postReceived(SocketTransportPayload.fromStream(payloadId, streamPipe.getInputStream()));
+                } else if (type == FRAME_FILE_START) {
+                    receivedFilesDir.mkdirs();
+                    File file = File.createTempFile("p2p-payload-", null, receivedFilesDir);
+                    FileChannel fileChannel = new FileOutputStream(file).getChannel();
+
+                    incomingPayloads.put(payloadId, new IncomingPayload(null, file, fileChannel, ByteBuffer.wrap(body).getLong()));
+                    postReceived(SocketTransportPayload.fromFile(payloadId, file));
+                } else if (type == FRAME_END) {
+                    IncomingPayload incomingPayload = incomingPayloads.remove(payloadId);
+                    if (incomingPayload != null) {
+                        if (incomingPayload.streamPipe != null) {
+                            incomingPayload.streamPipe.closeWrite(null);
+                        } else {
+                            incomingPayload.fileChannel.close();
+                        }
+
+                        postUpdate(payloadId, TransportPayloadUpdate.STATUS_SUCCESS
+                                , incomingPayload.bytesTransferred, incomingPayload.bytesTransferred);
+                    }
+                } else if (type == FRAME_CANCEL) {
+                    IncomingPayload incomingPayload = incomingPayloads.remove(payloadId);
+                    if (incomingPayload != null) {
+                        fail(payloadId, incomingPayload, new IOException("Payload " + payloadId + " was cancelled by " + endpointId));
+                    }
+                } else {
+                    Timber.e("Ignoring unknown frame type %d from %s", type, endpointId);
+                }
+            }
+        }
+
+        private void readHello(@NonNull byte[] body) throws IOException {
+            DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(body));
+            int version = dataInputStream.readInt();
+            if (version != PROTOCOL_VERSION) {
+                throw new IOException("Unsupported protocol version " + version + " from " + endpointId);
+            }
+
+            final String authenticationToken = dataInputStream.readUTF();
+            final String remoteName = dataInputStream.readUTF();
+
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connectionCallback.onConnectionInitiated(endpointId, remoteName, authenticationToken, true);
+                }
+            });
+        }
+
+        private void readData(long payloadId, int length) throws IOException {
+            IncomingPayload incomingPayload = incomingPayloads.get(payloadId);
+
+            if (incomingPayload != null && incomingPayload.fileChannel != null) {
+                long bytesRead = 0;
+                while (bytesRead < length) {
+                    long count = incomingPayload.fileChannel.transferFrom(channel
+                            , incomingPayload.bytesTransferred + bytesRead, length - bytesRead);
+                    if (count <= 0) {
+                        throw new EOFException("The connection was closed by " + endpointId);
+                    }
+
+                    bytesRead += count;
+                }
+            } else {
+                int remaining = length;
+                while (remaining > 0) {
+                    int count = Math.min(remaining, dataBuffer.length);
+                    readFully(ByteBuffer.wrap(dataBuffer, 0, count));
+                    remaining -= count;
+
+                    if (incomingPayload != null) {
+                        try {
+                            incomingPayload.streamPipe.getOutputStream().write(dataBuffer, 0, count);
+                        } catch (IOException e) {
+                            // The receiver stopped reading the stream so the rest of it is skipped
+                            incomingPayloads.remove(payloadId);
+                            fail(payloadId, incomingPayload, e);
+                            incomingPayload = null;
+                        }
+                    }
+                }
+            }
+
+            if (incomingPayload != null) {
+                incomingPayload.bytesTransferred += length;
+
+                if (incomingPayload.bytesTransferred - incomingPayload.reportedBytes >= PROGRESS_INTERVAL) {
+                    incomingPayload.reportedBytes = incomingPayload.bytesTransferred;
+                    postUpdate(payloadId, TransportPayloadUpdate.STATUS_IN_PROGRESS
+                            , incomingPayload.bytesTransferred, incomingPayload.totalBytes);
+                }
+            }
+        }
+
+        private void fail(long payloadId, @NonNull IncomingPayload incomingPayload, @NonNull IOException e) {
+            if (incomingPayload.streamPipe != null) {
+                incomingPayload.streamPipe.closeWrite(e);
+            } else {
+                closeQuietly(incomingPayload.fileChannel);
+                incomingPayload.file.delete();
+            }
+
+            postUpdate(payloadId, TransportPayloadUpdate.STATUS_FAILURE, incomingPayload.bytesTransferred
+                    , incomingPayload.totalBytes);
+        }
+
+        private void onClosed(@Nullable IOException e) {
+            boolean closedByRemote = close();
+
+            for (Map.Entry<Long, IncomingPayload> entry : incomingPayloads.entrySet()) {
+                fail(entry.getKey(), entry.getValue(), new IOException("The connection to " + endpointId + " was lost", e));
+            }
+            incomingPayloads.clear();
+
+            if (closedByRemote) {
+                if (e != null) {
+                    Timber.e(e, "The connection to %s was lost", endpointId);
+                }
+
+                boolean wasConnected;
+                synchronized (this) {
+                    wasConnected = connected;
+                }
+
+                if (wasConnected) {
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            connectionCallback.onDisconnected(endpointId);
+                        }
+                    });
+                } else {
+                    postConnectionResult(CONNECTION_STATUS_ERROR);
+                }
+            }
+        }
+
+        /**
+         * @return {@code true} if the connection was open
+         */
+        private boolean close() {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+
+                closed = true;
+            }
+
+            connections.remove(endpointId, this);
+            closeQuietly(channel);
+            sendExecutor.shutdown();
+
+            synchronized (outgoingStreams) {
+                for (InputStream inputStream : outgoingStreams) {
+                    closeQuietly(inputStream);
+                }
+            }
+
+            return true;
+        }
+
+        private void updateConnected() {
+            if (localAccepted && remoteAccepted && !connected && !closed) {
+                connected = true;
+                postConnectionResult(CONNECTION_STATUS_OK);
+            }
+        }
+
+        private void postConnectionResult(final int status) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    connectionCallback.onConnectionResult(endpointId, status);
+                }
+            });
+        }
+
+        private void postReceived(@NonNull final TransportPayload payload) {
+            final PayloadCallback callback = payloadCallback;
+            if (callback == null) {
+                return;
+            }
+
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onPayloadReceived(endpointId, payload);
+                }
+            });
+        }
+
+        private void postUpdate(long payloadId, int status, long bytesTransferred, long totalBytes) {
+            final PayloadCallback callback = payloadCallback;
+            if (callback == null) {
+                return;
+            }
+
+            final TransportPayloadUpdate update = new TransportPayloadUpdate(payloadId, status, bytesTransferred, totalBytes);
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onPayloadTransferUpdate(endpointId, update);
+                }
+            });
+        }
+    }
+}
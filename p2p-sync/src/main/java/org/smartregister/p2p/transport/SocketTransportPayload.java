@@ -0,0 +1,72 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * A {@link TransportPayload} sent or received by a {@link SocketTransport}
+ */
+
+public class SocketTransportPayload implements TransportPayload {
+
+    private long id;
+    private int type;
+    private byte[] bytes;
+    private InputStream inputStream;
+    private File file;
+
+    private SocketTransportPayload(long id, int type, @Nullable byte[] bytes
+            , @Nullable InputStream inputStream, @Nullable File file) {
+        this.id = id;
+        this.type = type;
+        this.bytes = bytes;
+        this.inputStream = inputStream;
+        this.file = file;
+    }
+
+    @NonNull
+    static SocketTransportPayload fromBytes(long id, @NonNull byte[] bytes) {
+        return new SocketTransportPayload(id, TYPE_BYTES, bytes, null, null);
+    }
+
+    @NonNull
+    static SocketTransportPayload fromStream(long id, @NonNull InputStream inputStream) {
+        return new SocketTransportPayload(id, TYPE_STREAM, null, inputStream, null);
+    }
+
+    @NonNull
+    static SocketTransportPayload fromFile(long id, @NonNull File file) {
+        return new SocketTransportPayload(id, TYPE_FILE, null, null, file);
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public int getType() {
+        return type;
+    }
+
+    @Nullable
+    @Override
+    public byte[] asBytes() {
+        return bytes;
+    }
+
+    @Nullable
+    @Override
+    public InputStream asInputStream() {
+        return inputStream;
+    }
+
+    @Nullable
+    @Override
+    public File asFile() {
+        return file;
+    }
+}
@@ -0,0 +1,316 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.smartregister.p2p.sync.data.JsonRecordCursor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Writes and reads record batches in the {@link Constants.WireFormat#BINARY_RECORDS} encoding. Each
+ * record is a tagged value tree equivalent to its JSON. Keys and short strings are written in full
+ * the first time they occur in a batch and as an index into a table after that, which removes most
+ * of the repeated field names in a batch. Records are read straight into {@link JSONObject}s without
+ * any text parsing.
+ */
+
+public class BinaryRecordCodec {
+
+    private static final int VERSION = 1;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_NULL = 1;
+    private static final int TAG_FALSE = 2;
+    private static final int TAG_TRUE = 3;
+    private static final int TAG_INTEGER = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_STRING = 6;
+    private static final int TAG_STRING_DEFINITION = 7;
+    private static final int TAG_STRING_REFERENCE = 8;
+    // Objects are written as string tagged keys followed by their values until the end tag
+    private static final int TAG_OBJECT = 9;
+    private static final int TAG_ARRAY = 10;
+
+    private static final int MAX_STRING_TABLE_SIZE = 4096;
+    private static final int MAX_TABLE_STRING_LENGTH = 64;
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Transcodes the JSON records from the cursor into the output stream, one record at a time.
+     * The output stream is flushed but neither the stream nor the cursor is closed.
+     *
+     * @param jsonRecordCursor the records to write
+     * @param outputStream the stream to write the records to
+     * @return the number of bytes written
+     * @throws IOException if a record is not valid JSON or the stream cannot be written
+     */
+    public static long writeRecords(@NonNull JsonRecordCursor jsonRecordCursor, @NonNull OutputStream outputStream)
+            throws IOException {
+        CountingOutputStream countingOutputStream = new CountingOutputStream(outputStream);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(countingOutputStream, BUFFER_SIZE));
+        HashMap<String, Integer> stringTable = new HashMap<>();
+
+        out.writeByte(VERSION);
+        while (jsonRecordCursor.moveToNext()) {
+            JsonReader jsonReader = new JsonReader(new StringReader(jsonRecordCursor.getRecord()));
+            writeValue(jsonReader, out, stringTable);
+
+            if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+                throw new IOException("Expected a single JSON value per record");
+            }
+        }
+        out.writeByte(TAG_END);
+        out.flush();
+
+        return countingOutputStream.getCount();
+    }
+
+    /**
+     * Reads the records from the input stream as the bytes arrive and hands them over in batches so
+     * that the whole payload is never held in memory
+     *
+     * @param in the stream containing the records
+     * @param batchSize the maximum number of records handed over at once
+     * @param onJsonBatchReadListener receives each batch of records
+     * @return the total number of records read
+     * @throws Exception
+     */
+    public static int readRecordsInBatches(@NonNull InputStream in, int batchSize
+            , @NonNull SyncDataConverterUtil.OnJsonBatchReadListener onJsonBatchReadListener) throws Exception {
+        DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        ArrayList<String> stringTable = new ArrayList<>();
+        int recordsSize = 0;
+        int maxBatchSize = Math.max(1, batchSize);
+        JSONArray batch = new JSONArray();
+
+        int version = dataInputStream.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary records version " + version);
+        }
+
+        int tag = dataInputStream.readUnsignedByte();
+        while (tag != TAG_END) {
+            batch.put(readValue(tag, dataInputStream, stringTable));
+            recordsSize++;
+
+            if (batch.length() >= maxBatchSize) {
+                onJsonBatchReadListener.onJsonBatchRead(batch);
+                batch = new JSONArray();
+            }
+
+            tag = dataInputStream.readUnsignedByte();
+        }
+
+        if (batch.length() > 0) {
+            onJsonBatchReadListener.onJsonBatchRead(batch);
+        }
+
+        return recordsSize;
+    }
+
+    private static void writeValue(@NonNull JsonReader jsonReader, @NonNull DataOutputStream out
+            , @NonNull HashMap<String, Integer> stringTable) throws IOException {
+        JsonToken jsonToken = jsonReader.peek();
+
+        if (jsonToken == JsonToken.BEGIN_OBJECT) {
+            out.writeByte(TAG_OBJECT);
+
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                writeString(jsonReader.nextName(), out, stringTable);
+                writeValue(jsonReader, out, stringTable);
+            }
+            jsonReader.endObject();
+
+            out.writeByte(TAG_END);
+        } else if (jsonToken == JsonToken.BEGIN_ARRAY) {
+            out.writeByte(TAG_ARRAY);
+
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                writeValue(jsonReader, out, stringTable);
+            }
+            jsonReader.endArray();
+
+            out.writeByte(TAG_END);
+        } else if (jsonToken == JsonToken.NUMBER) {
+            writeNumber(jsonReader.nextString(), out);
+        } else if (jsonToken == JsonToken.BOOLEAN) {
+            out.writeByte(jsonReader.nextBoolean() ? TAG_TRUE : TAG_FALSE);
+        } else if (jsonToken == JsonToken.NULL) {
+            jsonReader.nextNull();
+            out.writeByte(TAG_NULL);
+        } else if (jsonToken == JsonToken.STRING) {
+            writeString(jsonReader.nextString(), out, stringTable);
+        } else {
+            throw new IOException("Unexpected JSON token " + jsonToken);
+        }
+    }
+
+    private static void writeNumber(@NonNull String number, @NonNull DataOutputStream out) throws IOException {
+        // Numbers are read back the same way the JSON records are parsed
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                long value = Long.parseLong(number);
+                out.writeByte(TAG_INTEGER);
+                writeVarLong(out, (value << 1) ^ (value >> 63));
+                return;
+            } catch (NumberFormatException e) {
+                // The number is too large for a long
+            }
+        }
+
+        try {
+            double value = Double.parseDouble(number);
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number " + number, e);
+        }
+    }
+
+    private static void writeString(@NonNull String value, @NonNull DataOutputStream out
+            , @NonNull HashMap<String, Integer> stringTable) throws IOException {
+        Integer index = stringTable.get(value);
+
+        if (index != null) {
+            out.writeByte(TAG_STRING_REFERENCE);
+            writeVarLong(out, index);
+        } else if (value.length() <= MAX_TABLE_STRING_LENGTH && stringTable.size() < MAX_STRING_TABLE_SIZE) {
+            stringTable.put(value, stringTable.size());
+            out.writeByte(TAG_STRING_DEFINITION);
+            writeUtf8(out, value);
+        } else {
+            out.writeByte(TAG_STRING);
+            writeUtf8(out, value);
+        }
+    }
+
+    @Nullable
+    private static Object readValue(int tag, @NonNull DataInputStream in, @NonNull ArrayList<String> stringTable)
+            throws IOException, JSONException {
+        switch (tag) {
+            case TAG_OBJECT:
+                JSONObject jsonObject = new JSONObject();
+
+                int keyTag = in.readUnsignedByte();
+                while (keyTag != TAG_END) {
+                    String key = readString(keyTag, in, stringTable);
+                    jsonObject.put(key, readValue(in.readUnsignedByte(), in, stringTable));
+                    keyTag = in.readUnsignedByte();
+                }
+
+                return jsonObject;
+            case TAG_ARRAY:
+                JSONArray jsonArray = new JSONArray();
+
+                int valueTag = in.readUnsignedByte();
+                while (valueTag != TAG_END) {
+                    jsonArray.put(readValue(valueTag, in, stringTable));
+                    valueTag = in.readUnsignedByte();
+                }
+
+                return jsonArray;
+            case TAG_INTEGER:
+                long encodedValue = readVarLong(in);
+                long value = (encodedValue >>> 1) ^ -(encodedValue & 1);
+
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+
+                return value;
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_TRUE:
+                return true;
+            case TAG_FALSE:
+                return false;
+            case TAG_NULL:
+                return JSONObject.NULL;
+            default:
+                return readString(tag, in, stringTable);
+        }
+    }
+
+    @NonNull
+    private static String readString(int tag, @NonNull DataInputStream in, @NonNull ArrayList<String> stringTable)
+            throws IOException {
+        if (tag == TAG_STRING) {
+            return readUtf8(in);
+        } else if (tag == TAG_STRING_DEFINITION) {
+            String value = readUtf8(in);
+            stringTable.add(value);
+
+            return value;
+        } else if (tag == TAG_STRING_REFERENCE) {
+            long index = readVarLong(in);
+            if (index >= stringTable.size()) {
+                throw new IOException("Invalid string reference " + index);
+            }
+
+            return stringTable.get((int) index);
+        }
+
+        throw new IOException("Unexpected tag " + tag + " in binary records");
+    }
+
+    private static void writeUtf8(@NonNull DataOutputStream out, @NonNull String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    @NonNull
+    private static String readUtf8(@NonNull DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid string length " + length);
+        }
+
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeVarLong(@NonNull DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(@NonNull DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed variable length number in binary records");
+    }
+}
@@ -0,0 +1,183 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Wraps payload streams with the compression matching a {@link Constants.Encoding}
+ */
+
+public class CompressionUtil {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * @return the encodings this device can both write and read, most preferred first
+     */
+    @NonNull
+    public static List<String> getSupportedEncodings() {
+        return new ArrayList<>(Arrays.asList(Constants.Encoding.GZIP, Constants.Encoding.DEFLATE
+                , Constants.Encoding.DEFLATE_DICTIONARY, Constants.Encoding.IDENTITY));
+    }
+
+    public static boolean isSupported(@Nullable String encoding) {
+        return encoding == null || getSupportedEncodings().contains(encoding);
+    }
+
+    /**
+     * Gets the encodings offered by the peer that this device can also read
+     *
+     * @param offeredEncodings the encodings offered by the peer
+     * @return the accepted encodings in the order they were offered
+     */
+    @NonNull
+    public static List<String> getAcceptedEncodings(@Nullable List<?> offeredEncodings) {
+        List<String> acceptedEncodings = new ArrayList<>();
+
+        if (offeredEncodings != null) {
+            for (Object encoding : offeredEncodings) {
+                if (encoding instanceof String && isSupported((String) encoding) && !acceptedEncodings.contains(encoding)) {
+                    acceptedEncodings.add((String) encoding);
+                }
+            }
+        }
+
+        return acceptedEncodings;
+    }
+
+    public static boolean isIdentity(@Nullable String encoding) {
+        return encoding == null || Constants.Encoding.IDENTITY.equals(encoding);
+    }
+
+    /**
+     * Keeps the end of the dictionary if it is longer than {@link Constants#MAX_COMPRESSION_DICTIONARY_SIZE}
+     * since deflate favours the last bytes of a dictionary
+     *
+     * @param dictionary the dictionary
+     * @return the dictionary that can be used
+     */
+    @NonNull
+    public static byte[] trimDictionary(@NonNull byte[] dictionary) {
+        if (dictionary.length <= Constants.MAX_COMPRESSION_DICTIONARY_SIZE) {
+            return dictionary;
+        }
+
+        return Arrays.copyOfRange(dictionary, dictionary.length - Constants.MAX_COMPRESSION_DICTIONARY_SIZE, dictionary.length);
+    }
+
+    @NonNull
+    public static OutputStream wrapOutputStream(@NonNull OutputStream outputStream, @Nullable String encoding, int level)
+            throws IOException {
+        return wrapOutputStream(outputStream, encoding, level, null);
+    }
+
+    /**
+     * Wraps the stream so that the bytes written to it are compressed. Closing the returned stream
+     * finishes the compressed data and closes the wrapped stream.
+     *
+     * @param outputStream the stream to write the compressed bytes to
+     * @param encoding the encoding
+     * @param level the compression level from {@link Deflater}
+     * @param dictionary the preset dictionary, required for {@link Constants.Encoding#DEFLATE_DICTIONARY}
+     * @return the stream to write the uncompressed bytes to
+     * @throws IOException
+     */
+    @NonNull
+    public static OutputStream wrapOutputStream(@NonNull OutputStream outputStream, @Nullable String encoding, final int level
+            , @Nullable byte[] dictionary) throws IOException {
+        if (isIdentity(encoding)) {
+            return outputStream;
+        } else if (Constants.Encoding.GZIP.equals(encoding)) {
+            return new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        } else if (Constants.Encoding.DEFLATE.equals(encoding) || Constants.Encoding.DEFLATE_DICTIONARY.equals(encoding)) {
+            final Deflater deflater;
+
+            if (Constants.Encoding.DEFLATE_DICTIONARY.equals(encoding)) {
+                if (dictionary == null) {
+                    throw new IOException("A dictionary is required for payload encoding " + encoding);
+                }
+
+                // Raw deflate lets both devices set the dictionary before any data is written or read
+                deflater = new Deflater(level, true);
+                deflater.setDictionary(dictionary);
+            } else {
+                deflater = new Deflater(level);
+            }
+
+            return new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        throw new IOException("Unsupported payload encoding " + encoding);
+    }
+
+    @NonNull
+    public static InputStream wrapInputStream(@NonNull InputStream inputStream, @Nullable String encoding) throws IOException {
+        return wrapInputStream(inputStream, encoding, null);
+    }
+
+    /**
+     * Wraps the stream so that the bytes read from it are decompressed
+     *
+     * @param inputStream the stream of compressed bytes
+     * @param encoding the encoding
+     * @param dictionary the preset dictionary, required for {@link Constants.Encoding#DEFLATE_DICTIONARY}
+     * @return the stream of uncompressed bytes
+     * @throws IOException
+     */
+    @NonNull
+    public static InputStream wrapInputStream(@NonNull InputStream inputStream, @Nullable String encoding
+            , @Nullable byte[] dictionary) throws IOException {
+        if (isIdentity(encoding)) {
+            return inputStream;
+        } else if (Constants.Encoding.GZIP.equals(encoding)) {
+            return new GZIPInputStream(inputStream, BUFFER_SIZE);
+        } else if (Constants.Encoding.DEFLATE.equals(encoding)) {
+            return new InflaterInputStream(inputStream);
+        } else if (Constants.Encoding.DEFLATE_DICTIONARY.equals(encoding)) {
+            if (dictionary == null) {
+                throw new IOException("No dictionary has been received for payload encoding " + encoding);
+            }
+
+            final Inflater inflater = new Inflater(true);
+            inflater.setDictionary(dictionary);
+            return new InflaterInputStream(inputStream, inflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        throw new IOException("Unsupported payload encoding " + encoding);
+    }
+}
@@ -10,6 +10,21 @@ public interface Constants {
 
     Strategy STRATEGY = Strategy.P2P_STAR;
     int DEFAULT_SHARE_BATCH_SIZE = 20;
+    int DEFAULT_SEND_PIPELINE_DEPTH = 0;
+    int DEFAULT_TRANSFER_WINDOW_SIZE = 1;
+    int DEFAULT_RECEIVE_BATCH_SIZE = 50;
+    int DEFAULT_RECEIVE_CONCURRENCY = 3;
+    long DEFAULT_TARGET_PAYLOAD_SIZE = 512 * 1024;
+    long DEFAULT_TARGET_PAYLOAD_DURATION = 4000;
+    int MIN_ADAPTIVE_BATCH_SIZE = 1;
+    int MAX_ADAPTIVE_BATCH_SIZE = 1000;
+    int DEFAULT_COMPRESSION_LEVEL = 6;
+    int MAX_COMPRESSION_DICTIONARY_SIZE = 16 * 1024;
+    long MAX_MEDIA_BUNDLE_SIZE = 4 * 1024 * 1024;
+    int MAX_MEDIA_BUNDLE_FILES = 100;
+    int MAX_RECORD_DIGEST_QUERY_SIZE = 500;
+    String MEDIA_BUNDLE_DIRECTORY = "p2p-media-bundles";
+    String PARTIAL_MEDIA_DIRECTORY = "p2p-partial-media";
     int DEFAULT_MIN_DEVICE_CONNECTION_RETRY_DURATION = 2 * 60 * 60;
     String NEARBY_DIRECTORY = "Nearby";
     String RECORDS_TRACK_TAG = "ToTrack";
@@ -42,6 +57,11 @@ public interface Constants {
         String SKIP_QR_CODE_SCAN = "SKIP-AUTHENTICATION";
         String CONNECTION_ACCEPT = "CONNECTION-ACCEPT";
         String START_TRANSFER = "START-TRANSFER";
+        String RESUME_SESSION = "RESUME-SESSION";
+        String SESSION_RESUMED = "SESSION-RESUMED";
+        String SESSION_REJECTED = "SESSION-REJECTED";
+        String SESSION_CHALLENGE = "SESSION-CHALLENGE";
+        String SESSION_PROOF = "SESSION-PROOF";
     }
 
     interface RqCode {
@@ -59,6 +79,35 @@ public interface Constants {
 
         String KEY_DEVICE_ID = "device-id";
         String KEY_APP_LIFETIME_KEY = "app-lifetime-key";
+        String KEY_SUPPORTED_ENCODINGS = "supported-encodings";
+        String KEY_RECEIVED_HISTORY = "received-history";
+        String KEY_ACCEPTED_ENCODINGS = "accepted-encodings";
+        String KEY_SUPPORTED_WIRE_FORMATS = "supported-wire-formats";
+        String KEY_ACCEPTED_WIRE_FORMATS = "accepted-wire-formats";
+        String KEY_PARTIAL_MEDIA_FILES = "partial-media-files";
+        String KEY_SESSION_TOKEN = "session-token";
+        String KEY_DATA_TYPES = "data-types";
+        String KEY_HISTORY_WATERMARKS = "history-watermarks";
+    }
+
+    interface Encoding {
+
+        String IDENTITY = "identity";
+        String GZIP = "gzip";
+        String DEFLATE = "deflate";
+        String DEFLATE_DICTIONARY = "deflate-dictionary";
+    }
+
+    interface WireFormat {
+
+        String BINARY_FRAMES = "binary-frames-v1";
+        String BINARY_RECORDS = "binary-records-v1";
+        String FRAMED_STREAM = "framed-stream-v1";
+        String MEDIA_BUNDLE = "media-bundle-v1";
+        String MEDIA_CHUNKS = "media-chunks-v1";
+        String SESSION_RESUME = "session-resume-v1";
+        String HISTORY_WATERMARKS = "history-watermarks-v1";
+        String RECORD_DEDUP = "record-dedup-v1";
     }
 
     interface AuthorizationKeys {
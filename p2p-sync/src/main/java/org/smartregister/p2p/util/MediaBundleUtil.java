@@ -0,0 +1,185 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import org.smartregister.p2p.sync.data.MultiMediaData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes and reads bundles of media files sent in a single stream payload. A bundle starts with
+ * the version followed by an entry for each file made up of the record id, the file extension, the
+ * media details and the length prefixed contents of the file.
+ */
+
+public class MediaBundleUtil {
+
+    private static final int VERSION = 1;
+    private static final int ENTRY = 1;
+    private static final int END = 0;
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Writes the media files as a bundle
+     *
+     * @param mediaFiles the media files
+     * @param outputStream the stream to write to, which is not closed
+     * @return the number of bytes of the files written
+     * @throws IOException
+     */
+    public static long writeBundle(@NonNull List<MultiMediaData> mediaFiles, @NonNull OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long bytesWritten = 0;
+
+        out.writeByte(VERSION);
+
+        for (MultiMediaData mediaFile : mediaFiles) {
+            File file = mediaFile.getFile();
+            HashMap<String, String> mediaDetails = mediaFile.getMediaDetails();
+
+            out.writeByte(ENTRY);
+            out.writeLong(mediaFile.getRecordId());
+            out.writeUTF(getExtension(file.getName()));
+            out.writeUTF(mediaDetails != null ? new Gson().toJson(mediaDetails) : "");
+
+            long fileLength = file.length();
+            out.writeLong(fileLength);
+
+            InputStream fileInputStream = new FileInputStream(file);
+            try {
+                long remaining = fileLength;
+                while (remaining > 0) {
+                    int read = fileInputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        throw new IOException("Media file " + file.getName() + " changed while it was being sent");
+                    }
+
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                fileInputStream.close();
+            }
+
+            bytesWritten += fileLength;
+        }
+
+        out.writeByte(END);
+        out.flush();
+
+        return bytesWritten;
+    }
+
+    /**
+     * Reads the media files in a bundle into files in the directory
+     *
+     * @param inputStream the bundle
+     * @param directory the directory the files are written to
+     * @param onMediaFileReadListener is called after each file has been read
+     * @return the media files read
+     * @throws IOException if the bundle is invalid or a file cannot be written
+     */
+    @NonNull
+    public static List<MultiMediaData> readBundle(@NonNull InputStream inputStream, @NonNull File directory
+            , @Nullable OnMediaFileReadListener onMediaFileReadListener) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE));
+        List<MultiMediaData> mediaFiles = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported media bundle version " + version);
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create the directory " + directory.getAbsolutePath());
+        }
+
+        int entryType = in.readUnsignedByte();
+        while (entryType == ENTRY) {
+            long recordId = in.readLong();
+            String extension = in.readUTF();
+            String mediaDetailsJson = in.readUTF();
+            long fileLength = in.readLong();
+
+            if (fileLength < 0) {
+                throw new IOException("Invalid file length " + fileLength + " in media bundle");
+            }
+
+            File file = File.createTempFile("media-" + recordId + "-", extension, directory);
+            OutputStream fileOutputStream = new FileOutputStream(file);
+            try {
+                long remaining = fileLength;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        throw new IOException("Media bundle ended within a file");
+                    }
+
+                    fileOutputStream.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                fileOutputStream.close();
+            }
+
+            MultiMediaData mediaFile = new MultiMediaData(file, recordId);
+            mediaFile.setMediaDetails(readMediaDetails(mediaDetailsJson));
+            mediaFiles.add(mediaFile);
+
+            if (onMediaFileReadListener != null) {
+                onMediaFileReadListener.onMediaFileRead(mediaFile);
+            }
+
+            entryType = in.readUnsignedByte();
+        }
+
+        if (entryType != END) {
+            throw new IOException("Invalid entry type " + entryType + " in media bundle");
+        }
+
+        return mediaFiles;
+    }
+
+    @NonNull
+    public static String getExtension(@NonNull String filename) {
+        int lastIndex = filename.lastIndexOf(".");
+        return lastIndex > -1 ? filename.substring(lastIndex) : "";
+    }
+
+    @Nullable
+    private static HashMap<String, String> readMediaDetails(@NonNull String mediaDetailsJson) throws IOException {
+        if (mediaDetailsJson.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new Gson().fromJson(mediaDetailsJson, new TypeToken<HashMap<String, String>>() {}.getType());
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid media details in media bundle", e);
+        }
+    }
+
+    public interface OnMediaFileReadListener {
+
+        void onMediaFileRead(@NonNull MultiMediaData mediaFile);
+    }
+}
@@ -0,0 +1,313 @@
+package org.smartregister.p2p.util;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.smartregister.p2p.sync.data.PartialMediaFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Splits large media files into chunks that are sent as payloads of their own and puts them back
+ * together on the receiving device. The receiving device keeps the chunks of each file it has
+ * written together with the ranges it has received so that an interrupted file is resumed from the
+ * missing ranges on the next attempt, even after reconnecting.
+ */
+
+public class MediaChunkUtil {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final String PARTIAL_FILE_EXTENSION = ".part";
+    private static final String RANGES_FILE_EXTENSION = ".ranges";
+
+    /**
+     * Adds a range to the received ranges and merges it with the ranges it overlaps or touches
+     *
+     * @param ranges the sorted received ranges
+     * @param start the start offset of the range
+     * @param end the end offset of the range, which is exclusive
+     * @return the sorted received ranges with the range added
+     */
+    @NonNull
+    public static List<long[]> addRange(@NonNull List<long[]> ranges, long start, long end) {
+        List<long[]> mergedRanges = new ArrayList<>();
+        long mergedStart = start;
+        long mergedEnd = end;
+        boolean added = false;
+
+        for (long[] range : ranges) {
+            if (range[1] < mergedStart) {
+                mergedRanges.add(range);
+            } else if (range[0] > mergedEnd) {
+                if (!added) {
+                    mergedRanges.add(new long[]{mergedStart, mergedEnd});
+                    added = true;
+                }
+
+                mergedRanges.add(range);
+            } else {
+                mergedStart = Math.min(mergedStart, range[0]);
+                mergedEnd = Math.max(mergedEnd, range[1]);
+            }
+        }
+
+        if (!added) {
+            mergedRanges.add(new long[]{mergedStart, mergedEnd});
+        }
+
+        return mergedRanges;
+    }
+
+    /**
+     * Gets the chunks of a file that still have to be sent
+     *
+     * @param fileSize the size of the file
+     * @param receivedRanges the sorted ranges of the file that have already been received
+     * @param chunkSize the maximum size of a chunk
+     * @return the start offset and length of each chunk in file order
+     */
+    @NonNull
+    public static List<long[]> getMissingChunks(long fileSize, @Nullable List<long[]> receivedRanges, long chunkSize) {
+        List<long[]> missingChunks = new ArrayList<>();
+        long offset = 0;
+
+        if (receivedRanges != null) {
+            for (long[] range : receivedRanges) {
+                addChunks(missingChunks, offset, Math.min(range[0], fileSize), chunkSize);
+                offset = Math.max(offset, range[1]);
+            }
+        }
+
+        addChunks(missingChunks, offset, fileSize, chunkSize);
+        return missingChunks;
+    }
+
+    private static void addChunks(@NonNull List<long[]> chunks, long start, long end, long chunkSize) {
+        for (long offset = start; offset < end; offset += chunkSize) {
+            chunks.add(new long[]{offset, Math.min(chunkSize, end - offset)});
+        }
+    }
+
+    public static boolean isComplete(@NonNull PartialMediaFile partialMediaFile) {
+        List<long[]> receivedRanges = partialMediaFile.getReceivedRanges();
+        return receivedRanges.size() == 1 && receivedRanges.get(0)[0] == 0
+                && receivedRanges.get(0)[1] >= partialMediaFile.getFileSize();
+    }
+
+    /**
+     * Writes a chunk of a media file
+     *
+     * @param file the media file
+     * @param offset the start offset of the chunk
+     * @param length the length of the chunk
+     * @param outputStream the stream to write to, which is not closed
+     * @throws IOException if the file is shorter than the chunk
+     */
+    public static void writeChunk(@NonNull File file, long offset, long length, @NonNull OutputStream outputStream) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try {
+            randomAccessFile.seek(offset);
+
+            long remaining = length;
+            while (remaining > 0) {
+                int read = randomAccessFile.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Media file " + file.getName() + " changed while it was being sent");
+                }
+
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+
+            outputStream.flush();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads a chunk into the partial file of a media file and records its range. The range is only
+     * recorded once the whole chunk has been written to storage. A partial file of a different size
+     * is started over since the media file has changed on the sending device.
+     *
+     * @param inputStream the chunk
+     * @param directory the directory of the partial files of the sending device
+     * @param partialMediaFile the media file the chunk belongs to
+     * @param offset the start offset of the chunk
+     * @param length the length of the chunk
+     * @return the media file with the ranges received so far
+     * @throws IOException if the chunk ends early or cannot be written
+     */
+    @NonNull
+    public static PartialMediaFile readChunk(@NonNull InputStream inputStream, @NonNull File directory
+            , @NonNull PartialMediaFile partialMediaFile, long offset, long length) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create the directory " + directory.getAbsolutePath());
+        }
+
+        String name = getName(partialMediaFile.getDataTypeName(), partialMediaFile.getFileRecordId());
+        File partialFile = new File(directory, name + PARTIAL_FILE_EXTENSION);
+
+        PartialMediaFile savedPartialMediaFile = readRanges(new File(directory, name + RANGES_FILE_EXTENSION));
+        if (savedPartialMediaFile != null && savedPartialMediaFile.getFileSize() == partialMediaFile.getFileSize()) {
+            partialMediaFile.setReceivedRanges(savedPartialMediaFile.getReceivedRanges());
+        } else if (partialFile.exists() && !partialFile.delete()) {
+            throw new IOException("Could not delete " + partialFile.getAbsolutePath());
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(partialFile, "rw");
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try {
+            randomAccessFile.seek(offset);
+
+            long remaining = length;
+            while (remaining > 0) {
+                int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Media chunk ended early");
+                }
+
+                randomAccessFile.write(buffer, 0, read);
+                remaining -= read;
+            }
+
+            randomAccessFile.getFD().sync();
+        } finally {
+            randomAccessFile.close();
+        }
+
+        partialMediaFile.setReceivedRanges(addRange(partialMediaFile.getReceivedRanges(), offset, offset + length));
+        writeRanges(directory, name, partialMediaFile);
+
+        return partialMediaFile;
+    }
+
+    /**
+     * Moves a partial file that has been completely received to a file of its own
+     *
+     * @param directory the directory of the partial files of the sending device
+     * @param partialMediaFile the completely received media file
+     * @param extension the file extension of the media file
+     * @return the media file
+     * @throws IOException if the file cannot be moved
+     */
+    @NonNull
+    public static File completePartialFile(@NonNull File directory, @NonNull PartialMediaFile partialMediaFile
+            , @NonNull String extension) throws IOException {
+        String name = getName(partialMediaFile.getDataTypeName(), partialMediaFile.getFileRecordId());
+        File partialFile = new File(directory, name + PARTIAL_FILE_EXTENSION);
+        File file = File.createTempFile("media-" + partialMediaFile.getFileRecordId() + "-", extension, directory);
+
+        if (!partialFile.renameTo(file)) {
+            throw new IOException("Could not move " + partialFile.getAbsolutePath());
+        }
+
+        File rangesFile = new File(directory, name + RANGES_FILE_EXTENSION);
+        if (rangesFile.exists() && !rangesFile.delete()) {
+            Timber.e("Could not delete %s", rangesFile.getAbsolutePath());
+        }
+
+        return file;
+    }
+
+    /**
+     * @param directory the directory of the partial files of the sending device
+     * @return the media files that have been partly received from the sending device
+     */
+    @NonNull
+    public static List<PartialMediaFile> getPartialMediaFiles(@NonNull File directory) {
+        List<PartialMediaFile> partialMediaFiles = new ArrayList<>();
+        File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(RANGES_FILE_EXTENSION)) {
+                    PartialMediaFile partialMediaFile = readRanges(file);
+                    if (partialMediaFile != null) {
+                        partialMediaFiles.add(partialMediaFile);
+                    }
+                }
+            }
+        }
+
+        return partialMediaFiles;
+    }
+
+    /**
+     * @param sendingDeviceId the device id of the sending device
+     * @return the directory of the partial files of the sending device, which is kept across syncs
+     */
+    @NonNull
+    public static File getDeviceDirectory(@NonNull Context context, @NonNull String sendingDeviceId) {
+        return new File(new File(context.getFilesDir(), Constants.PARTIAL_MEDIA_DIRECTORY), toFileName(sendingDeviceId));
+    }
+
+    @NonNull
+    private static String getName(@NonNull String dataTypeName, long fileRecordId) {
+        return toFileName(dataTypeName) + "-" + fileRecordId;
+    }
+
+    @NonNull
+    private static String toFileName(@NonNull String name) {
+        return name.replaceAll("[^A-Za-z0-9._]", "_");
+    }
+
+    @Nullable
+    private static PartialMediaFile readRanges(@NonNull File rangesFile) {
+        if (!rangesFile.exists()) {
+            return null;
+        }
+
+        InputStreamReader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(rangesFile), "UTF-8");
+            return new Gson().fromJson(reader, PartialMediaFile.class);
+        } catch (IOException | JsonParseException e) {
+            Timber.e(e, "Could not read %s", rangesFile.getAbsolutePath());
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Timber.e(e);
+                }
+            }
+        }
+    }
+
+    private static void writeRanges(@NonNull File directory, @NonNull String name, @NonNull PartialMediaFile partialMediaFile) throws IOException {
+        // The ranges are written to a new file first so that they are never left half written
+        File newRangesFile = new File(directory, name + RANGES_FILE_EXTENSION + ".new");
+        FileOutputStream outputStream = new FileOutputStream(newRangesFile);
+
+        try {
+            outputStream.write(new Gson().toJson(partialMediaFile).getBytes("UTF-8"));
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        if (!newRangesFile.renameTo(new File(directory, name + RANGES_FILE_EXTENSION))) {
+            throw new IOException("Could not save the received ranges of " + name);
+        }
+    }
+}
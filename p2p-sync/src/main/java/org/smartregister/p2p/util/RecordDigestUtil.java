@@ -0,0 +1,52 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.smartregister.p2p.sync.data.JsonDataRecordCursor;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Works out the digests used to find the records a receiver already has. The digest of a record is
+ * the first 8 bytes of the SHA-256 hash of its JSON text, as written by {@link JsonDataRecordCursor},
+ * so that the sender and the receiver get the same digest for the same record.
+ */
+
+public class RecordDigestUtil {
+
+    public static long getDigest(@NonNull String record) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(record.getBytes("UTF-8"));
+
+            long digest = 0;
+            for (int i = 0; i < 8; i++) {
+                digest = (digest << 8) | (hash[i] & 0xff);
+            }
+
+            return digest;
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Every Java platform supports SHA-256 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param records the records
+     * @return the digest of each record in the order of the records
+     */
+    @NonNull
+    public static long[] getDigests(@NonNull JSONArray records) {
+        long[] digests = new long[records.length()];
+        JsonDataRecordCursor jsonDataRecordCursor = new JsonDataRecordCursor(records, 0);
+
+        int i = 0;
+        while (jsonDataRecordCursor.moveToNext()) {
+            digests[i++] = getDigest(jsonDataRecordCursor.getRecord());
+        }
+
+        return digests;
+    }
+}
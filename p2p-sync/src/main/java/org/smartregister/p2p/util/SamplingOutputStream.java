@@ -0,0 +1,48 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that keeps a copy of the first bytes written through it
+ */
+
+public class SamplingOutputStream extends FilterOutputStream {
+
+    private final int sampleSize;
+    private final ByteArrayOutputStream sample;
+
+    public SamplingOutputStream(@NonNull OutputStream out, int sampleSize) {
+        super(out);
+        this.sampleSize = sampleSize;
+        this.sample = new ByteArrayOutputStream(sampleSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+
+        if (sample.size() < sampleSize) {
+            sample.write(b);
+        }
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+
+        int sampleLength = Math.min(len, sampleSize - sample.size());
+        if (sampleLength > 0) {
+            sample.write(b, off, sampleLength);
+        }
+    }
+
+    @NonNull
+    public byte[] getSample() {
+        return sample.toByteArray();
+    }
+}
@@ -0,0 +1,409 @@
+package org.smartregister.p2p.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.sync.data.BatchFrame;
+import org.smartregister.p2p.sync.data.RecordDigestOffer;
+import org.smartregister.p2p.sync.data.RecordDigestReply;
+import org.smartregister.p2p.sync.data.SyncPackageManifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes and reads the manifests and control messages as versioned binary frames. A frame starts
+ * with a {@code 0} byte, which never starts one of the text messages, followed by the version and
+ * the message type so that both forms can be received on the same connection. The batch frames of
+ * a framed stream payload are also written and read here.
+ */
+
+public class WireFormatUtil {
+
+    public static final int MESSAGE_MANIFEST = 1;
+    public static final int MESSAGE_PAYLOAD_RECEIVED = 2;
+    public static final int MESSAGE_SYNC_COMPLETE = 3;
+    public static final int MESSAGE_DIGEST_OFFER = 4;
+    public static final int MESSAGE_DIGEST_REPLY = 5;
+
+    private static final byte FRAME_MARKER = 0;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 3;
+
+    private static final int FLAG_ENCODING = 1;
+    private static final int FLAG_DICTIONARY = 1 << 1;
+    private static final int FLAG_PAYLOAD_DETAILS = 1 << 2;
+    private static final int FLAG_RECORD_FORMAT = 1 << 3;
+    private static final int FLAG_RECORD_ID_RANGE = 1 << 4;
+
+    private static final int MAX_BATCH_FRAME_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * @return the wire formats this device can both write and read
+     */
+    @NonNull
+    public static List<String> getSupportedWireFormats() {
+        return new ArrayList<>(Arrays.asList(Constants.WireFormat.BINARY_FRAMES, Constants.WireFormat.BINARY_RECORDS
+                , Constants.WireFormat.FRAMED_STREAM, Constants.WireFormat.MEDIA_BUNDLE
+                , Constants.WireFormat.MEDIA_CHUNKS, Constants.WireFormat.SESSION_RESUME
+                , Constants.WireFormat.HISTORY_WATERMARKS, Constants.WireFormat.RECORD_DEDUP));
+    }
+
+    /**
+     * Gets the wire formats offered by the peer that this device can also read
+     *
+     * @param offeredWireFormats the wire formats offered by the peer
+     * @return the accepted wire formats in the order they were offered
+     */
+    @NonNull
+    public static List<String> getAcceptedWireFormats(@Nullable List<?> offeredWireFormats) {
+        List<String> supportedWireFormats = getSupportedWireFormats();
+        List<String> acceptedWireFormats = new ArrayList<>();
+
+        if (offeredWireFormats != null) {
+            for (Object wireFormat : offeredWireFormats) {
+                if (supportedWireFormats.contains(wireFormat) && !acceptedWireFormats.contains(wireFormat)) {
+                    acceptedWireFormats.add((String) wireFormat);
+                }
+            }
+        }
+
+        return acceptedWireFormats;
+    }
+
+    public static boolean isBinaryFrame(@Nullable byte[] message) {
+        return message != null && message.length >= HEADER_SIZE && message[0] == FRAME_MARKER;
+    }
+
+    /**
+     * @param message a binary frame
+     * @return the message type of the frame or {@code 0} if the message is not a binary frame of a
+     * supported version
+     */
+    public static int getMessageType(@Nullable byte[] message) {
+        if (!isBinaryFrame(message) || message[1] != VERSION) {
+            return 0;
+        }
+
+        return message[2];
+    }
+
+    @NonNull
+    public static byte[] writeSyncComplete() {
+        return new byte[]{FRAME_MARKER, VERSION, MESSAGE_SYNC_COMPLETE};
+    }
+
+    @NonNull
+    public static byte[] writePayloadReceived(long payloadId) {
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(HEADER_SIZE + 8);
+            DataOutputStream out = startFrame(byteArrayOutputStream, MESSAGE_PAYLOAD_RECEIVED);
+            out.writeLong(payloadId);
+            out.flush();
+
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static long readPayloadReceived(@NonNull byte[] message) throws IOException {
+        return readFrame(message, MESSAGE_PAYLOAD_RECEIVED).readLong();
+    }
+
+    @NonNull
+    public static byte[] writeManifest(@NonNull SyncPackageManifest syncPackageManifest) {
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            DataOutputStream out = startFrame(byteArrayOutputStream, MESSAGE_MANIFEST);
+
+            DataType dataType = syncPackageManifest.getDataType();
+            out.writeLong(syncPackageManifest.getPayloadId());
+            out.writeUTF(syncPackageManifest.getPayloadExtension());
+            out.writeUTF(dataType.getName());
+            out.writeByte(dataType.getType() == DataType.Type.MEDIA ? 1 : 0);
+            out.writeInt(dataType.getPosition());
+            out.writeInt(syncPackageManifest.getRecordsSize());
+            out.writeInt(syncPackageManifest.getPayloadSize());
+            out.writeLong(syncPackageManifest.getUncompressedSize());
+
+            String encoding = syncPackageManifest.getEncoding();
+            String dictionary = syncPackageManifest.getDictionary();
+            HashMap<String, Object> payloadDetails = syncPackageManifest.getPayloadDetails();
+            String recordFormat = syncPackageManifest.getRecordFormat();
+            boolean hasRecordIdRange = syncPackageManifest.getPreviousRecordId() != null
+                    && syncPackageManifest.getHighestRecordId() != null;
+
+            int flags = (encoding != null ? FLAG_ENCODING : 0)
+                    | (dictionary != null ? FLAG_DICTIONARY : 0)
+                    | (payloadDetails != null ? FLAG_PAYLOAD_DETAILS : 0)
+                    | (recordFormat != null ? FLAG_RECORD_FORMAT : 0)
+                    | (hasRecordIdRange ? FLAG_RECORD_ID_RANGE : 0);
+            out.writeByte(flags);
+
+            if (encoding != null) {
+                out.writeUTF(encoding);
+            }
+
+            if (dictionary != null) {
+                // The dictionary is sent as is instead of the larger Base64 text
+                writeBytes(out, Base64.decode(dictionary, Base64.NO_WRAP));
+            }
+
+            if (payloadDetails != null) {
+                writeBytes(out, new Gson().toJson(payloadDetails).getBytes("UTF-8"));
+            }
+
+            if (recordFormat != null) {
+                out.writeUTF(recordFormat);
+            }
+
+            if (hasRecordIdRange) {
+                out.writeLong(syncPackageManifest.getPreviousRecordId());
+                out.writeLong(syncPackageManifest.getHighestRecordId());
+            }
+
+            out.flush();
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NonNull
+    public static SyncPackageManifest readManifest(@NonNull byte[] message) throws IOException {
+        DataInputStream in = readFrame(message, MESSAGE_MANIFEST);
+
+        long payloadId = in.readLong();
+        String payloadExtension = in.readUTF();
+        String dataTypeName = in.readUTF();
+        DataType.Type type = in.readByte() == 1 ? DataType.Type.MEDIA : DataType.Type.NON_MEDIA;
+        int position = in.readInt();
+
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, payloadExtension
+                , new DataType(dataTypeName, type, position), in.readInt());
+        syncPackageManifest.setPayloadSize(in.readInt());
+        syncPackageManifest.setUncompressedSize(in.readLong());
+
+        int flags = in.readUnsignedByte();
+
+        if ((flags & FLAG_ENCODING) != 0) {
+            syncPackageManifest.setEncoding(in.readUTF());
+        }
+
+        if ((flags & FLAG_DICTIONARY) != 0) {
+            syncPackageManifest.setDictionary(Base64.encodeToString(readBytes(in), Base64.NO_WRAP));
+        }
+
+        if ((flags & FLAG_PAYLOAD_DETAILS) != 0) {
+            try {
+                HashMap<String, Object> payloadDetails = new Gson().fromJson(new String(readBytes(in), "UTF-8")
+                        , new TypeToken<HashMap<String, Object>>() {}.getType());
+                syncPackageManifest.setPayloadDetails(payloadDetails);
+            } catch (JsonParseException e) {
+                throw new IOException("Invalid payload details in the manifest", e);
+            }
+        }
+
+        if ((flags & FLAG_RECORD_FORMAT) != 0) {
+            syncPackageManifest.setRecordFormat(in.readUTF());
+        }
+
+        if ((flags & FLAG_RECORD_ID_RANGE) != 0) {
+            syncPackageManifest.setRecordIdRange(in.readLong(), in.readLong());
+        }
+
+        return syncPackageManifest;
+    }
+
+    @NonNull
+    public static byte[] writeDigestOffer(@NonNull RecordDigestOffer recordDigestOffer) {
+        try {
+            long[] digests = recordDigestOffer.getDigests();
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(HEADER_SIZE + 64 + digests.length * 8);
+            DataOutputStream out = startFrame(byteArrayOutputStream, MESSAGE_DIGEST_OFFER);
+            out.writeLong(recordDigestOffer.getOfferId());
+            out.writeUTF(recordDigestOffer.getDataTypeName());
+            out.writeInt(digests.length);
+
+            for (long digest : digests) {
+                out.writeLong(digest);
+            }
+
+            out.flush();
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NonNull
+    public static RecordDigestOffer readDigestOffer(@NonNull byte[] message) throws IOException {
+        DataInputStream in = readFrame(message, MESSAGE_DIGEST_OFFER);
+        long offerId = in.readLong();
+        String dataTypeName = in.readUTF();
+
+        int size = in.readInt();
+        if (size < 0 || size > in.available() / 8) {
+            throw new IOException("Invalid number of digests " + size + " in digest offer");
+        }
+
+        long[] digests = new long[size];
+        for (int i = 0; i < size; i++) {
+            digests[i] = in.readLong();
+        }
+
+        return new RecordDigestOffer(offerId, dataTypeName, digests);
+    }
+
+    /**
+     * Writes the reply to a digest offer with a bit for each offered digest that is set if the
+     * record is already known
+     */
+    @NonNull
+    public static byte[] writeDigestReply(@NonNull RecordDigestReply recordDigestReply) {
+        try {
+            boolean[] knownRecords = recordDigestReply.getKnownRecords();
+            byte[] bits = new byte[(knownRecords.length + 7) / 8];
+            for (int i = 0; i < knownRecords.length; i++) {
+                if (knownRecords[i]) {
+                    bits[i / 8] |= 1 << (i % 8);
+                }
+            }
+
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(HEADER_SIZE + 12 + bits.length);
+            DataOutputStream out = startFrame(byteArrayOutputStream, MESSAGE_DIGEST_REPLY);
+            out.writeLong(recordDigestReply.getOfferId());
+            out.writeInt(knownRecords.length);
+            out.write(bits);
+            out.flush();
+
+            return byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NonNull
+    public static RecordDigestReply readDigestReply(@NonNull byte[] message) throws IOException {
+        DataInputStream in = readFrame(message, MESSAGE_DIGEST_REPLY);
+        long offerId = in.readLong();
+
+        int size = in.readInt();
+        if (size < 0 || size > (long) in.available() * 8) {
+            throw new IOException("Invalid number of records " + size + " in digest reply");
+        }
+
+        byte[] bits = new byte[(size + 7) / 8];
+        in.readFully(bits);
+
+        boolean[] knownRecords = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            knownRecords[i] = (bits[i / 8] & (1 << (i % 8))) != 0;
+        }
+
+        return new RecordDigestReply(offerId, knownRecords);
+    }
+
+    /**
+     * Writes a batch frame to a framed stream. The frame is made up of the length prefixed binary
+     * manifest of the batch, the highest record id in the batch and the length prefixed records.
+     *
+     * @param out the framed stream
+     * @param batchFrame the batch frame
+     * @throws IOException
+     */
+    public static void writeBatchFrame(@NonNull DataOutputStream out, @NonNull BatchFrame batchFrame) throws IOException {
+        writeBytes(out, writeManifest(batchFrame.getSyncPackageManifest()));
+        out.writeLong(batchFrame.getHighestRecordId());
+        writeBytes(out, batchFrame.getPayload());
+    }
+
+    /**
+     * Reads the next batch frame from a framed stream
+     *
+     * @param in the framed stream
+     * @return the batch frame or {@code null} if the stream has ended
+     * @throws IOException if the stream ends within a frame or the frame is invalid
+     */
+    @Nullable
+    public static BatchFrame readBatchFrame(@NonNull DataInputStream in) throws IOException {
+        int firstByte = in.read();
+        if (firstByte == -1) {
+            return null;
+        }
+
+        int manifestLength = (firstByte << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        SyncPackageManifest syncPackageManifest = readManifest(readBytes(in, manifestLength));
+        long highestRecordId = in.readLong();
+
+        return new BatchFrame(syncPackageManifest, highestRecordId, readBytes(in, in.readInt()));
+    }
+
+    @NonNull
+    private static DataOutputStream startFrame(@NonNull ByteArrayOutputStream byteArrayOutputStream, int messageType) throws IOException {
+        DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+        out.writeByte(FRAME_MARKER);
+        out.writeByte(VERSION);
+        out.writeByte(messageType);
+
+        return out;
+    }
+
+    @NonNull
+    private static DataInputStream readFrame(@NonNull byte[] message, int messageType) throws IOException {
+        if (getMessageType(message) != messageType) {
+            throw new IOException("Expected a binary frame of message type " + messageType);
+        }
+
+        return new DataInputStream(new ByteArrayInputStream(message, HEADER_SIZE, message.length - HEADER_SIZE));
+    }
+
+    private static void writeBytes(@NonNull DataOutputStream out, @NonNull byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @NonNull
+    private static byte[] readBytes(@NonNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length " + length + " in binary frame");
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+
+    @NonNull
+    private static byte[] readBytes(@NonNull DataInputStream in, int length) throws IOException {
+        // The stream may not have received the whole frame yet so the length can only be bounded
+        if (length < 0 || length > MAX_BATCH_FRAME_SIZE) {
+            throw new IOException("Invalid length " + length + " in batch frame");
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+}
@@ -13,6 +13,7 @@ import org.smartregister.p2p.callback.SyncFinishedCallback;
 import org.smartregister.p2p.contract.RecalledIdentifier;
 import org.smartregister.p2p.model.dao.ReceiverTransferDao;
 import org.smartregister.p2p.model.dao.SenderTransferDao;
+import org.smartregister.p2p.util.Constants;
 
 public class OptionsTest {
 
@@ -62,5 +63,77 @@ public class OptionsTest {
         options.setDeviceMaxRetryConnectionDuration(deviceMaxRetryConnectionDuration);
         Assert.assertEquals(deviceMaxRetryConnectionDuration, options.getDeviceMaxRetryConnectionDuration());
 
+        Assert.assertEquals(0, options.getSendPipelineDepth());
+        options.setSendPipelineDepth(3);
+        Assert.assertEquals(3, options.getSendPipelineDepth());
+
+        Assert.assertEquals(1, options.getTransferWindowSize());
+        options.setTransferWindowSize(4);
+        Assert.assertEquals(4, options.getTransferWindowSize());
+
+        Assert.assertEquals(50, options.getReceiveBatchSize());
+        options.setReceiveBatchSize(100);
+        Assert.assertEquals(100, options.getReceiveBatchSize());
+
+        Assert.assertEquals(3, options.getReceiveConcurrency());
+        options.setReceiveConcurrency(5);
+        Assert.assertEquals(5, options.getReceiveConcurrency());
+
+        Assert.assertFalse(options.isAdaptiveBatchSize());
+        options.setAdaptiveBatchSize(true);
+        Assert.assertTrue(options.isAdaptiveBatchSize());
+
+        Assert.assertEquals(512 * 1024, options.getTargetPayloadSize());
+        options.setTargetPayloadSize(1024);
+        Assert.assertEquals(1024, options.getTargetPayloadSize());
+
+        Assert.assertEquals(4000, options.getTargetPayloadDuration());
+        options.setTargetPayloadDuration(2000);
+        Assert.assertEquals(2000, options.getTargetPayloadDuration());
+
+        Assert.assertEquals(Constants.Encoding.IDENTITY, options.getPayloadEncoding());
+        options.setPayloadEncoding(Constants.Encoding.GZIP);
+        Assert.assertEquals(Constants.Encoding.GZIP, options.getPayloadEncoding());
+
+        Assert.assertEquals(6, options.getCompressionLevel());
+        options.setCompressionLevel(9);
+        Assert.assertEquals(9, options.getCompressionLevel());
+
+        Assert.assertFalse(options.isBinaryWireFormat());
+        options.setBinaryWireFormat(true);
+        Assert.assertTrue(options.isBinaryWireFormat());
+
+        Assert.assertFalse(options.isBinaryRecords());
+        options.setBinaryRecords(true);
+        Assert.assertTrue(options.isBinaryRecords());
+
+        Assert.assertFalse(options.isFramedStream());
+        options.setFramedStream(true);
+        Assert.assertTrue(options.isFramedStream());
+
+        Assert.assertEquals(0L, options.getMediaBundleFileSize());
+        options.setMediaBundleFileSize(64 * 1024);
+        Assert.assertEquals(64 * 1024, options.getMediaBundleFileSize());
+
+        Assert.assertFalse(options.isMediaLane());
+        options.setMediaLane(true);
+        Assert.assertTrue(options.isMediaLane());
+
+        Assert.assertEquals(0L, options.getMediaChunkSize());
+        options.setMediaChunkSize(1024 * 1024);
+        Assert.assertEquals(1024 * 1024, options.getMediaChunkSize());
+
+        Assert.assertEquals(0L, options.getSessionResumeTimeout());
+        options.setSessionResumeTimeout(5 * 60 * 1000);
+        Assert.assertEquals(5 * 60 * 1000, options.getSessionResumeTimeout());
+
+        Assert.assertFalse(options.isHistoryWatermarks());
+        options.setHistoryWatermarks(true);
+        Assert.assertTrue(options.isHistoryWatermarks());
+
+        Assert.assertFalse(options.isRecordDeduplication());
+        options.setRecordDeduplication(true);
+        Assert.assertTrue(options.isRecordDeduplication());
+
     }
 }
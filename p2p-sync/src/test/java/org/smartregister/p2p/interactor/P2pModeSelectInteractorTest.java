@@ -17,6 +17,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -40,6 +41,8 @@ import org.smartregister.p2p.shadows.ShadowAppDatabase;
 import org.smartregister.p2p.shadows.Shadowzzbd;
 import org.smartregister.p2p.sync.IReceiverSyncLifecycleCallback;
 import org.smartregister.p2p.presenter.P2PSenderPresenter;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -350,15 +353,27 @@ public class P2pModeSelectInteractorTest {
     @Test
     public void acceptConnectionShouldCallConnectionsClientAcceptConnection() {
         String endpointId = "id";
-        PayloadCallback payloadCallback = Mockito.mock(PayloadCallback.class);
+        Transport.PayloadCallback payloadCallback = Mockito.mock(Transport.PayloadCallback.class);
         ConnectionsClient connectionsClient = Mockito.mock(ConnectionsClient.class);
 
         ReflectionHelpers.setField(interactor, "connectionsClient", connectionsClient);
         interactor.acceptConnection(endpointId, payloadCallback);
 
+        ArgumentCaptor<PayloadCallback> nearbyCallbackCaptor = ArgumentCaptor.forClass(PayloadCallback.class);
         Mockito.verify(connectionsClient, Mockito.times(1))
                 .acceptConnection(ArgumentMatchers.eq(endpointId)
-                        , ArgumentMatchers.eq(payloadCallback));
+                        , nearbyCallbackCaptor.capture());
+
+        Payload payload = Mockito.mock(Payload.class);
+        Mockito.doReturn(78L)
+                .when(payload)
+                .getId();
+        nearbyCallbackCaptor.getValue().onPayloadReceived(endpointId, payload);
+
+        ArgumentCaptor<TransportPayload> payloadCaptor = ArgumentCaptor.forClass(TransportPayload.class);
+        Mockito.verify(payloadCallback, Mockito.times(1))
+                .onPayloadReceived(ArgumentMatchers.eq(endpointId), payloadCaptor.capture());
+        assertEquals(78L, payloadCaptor.getValue().getId());
     }
 
     @Test
@@ -2,18 +2,22 @@ package org.smartregister.p2p.presenter;
 
 import android.Manifest;
 import android.content.DialogInterface;
+import android.support.annotation.NonNull;
+import android.util.Base64;
 
 import com.google.android.gms.nearby.connection.ConnectionInfo;
 import com.google.android.gms.nearby.connection.ConnectionResolution;
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadCallback;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -38,20 +42,29 @@ import org.smartregister.p2p.model.SendingDevice;
 import org.smartregister.p2p.model.dao.ReceiverTransferDao;
 import org.smartregister.p2p.model.dao.SenderTransferDao;
 import org.smartregister.p2p.shadows.ShadowAppDatabase;
+import org.smartregister.p2p.shadows.ShadowTasker;
 import org.smartregister.p2p.sync.ConnectionLevel;
 import org.smartregister.p2p.sync.DiscoveredDevice;
 import org.smartregister.p2p.sync.IReceiverSyncLifecycleCallback;
+import org.smartregister.p2p.sync.SyncSession;
+import org.smartregister.p2p.sync.data.HistoryWatermark;
 import org.smartregister.p2p.sync.handler.SyncReceiverHandler;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
 import org.smartregister.p2p.util.Constants;
+import org.smartregister.p2p.util.HistoryWatermarkCodec;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by Ephraim Kigamba - ekigamba@ona.io on 19/03/2019
@@ -390,7 +403,7 @@ public class P2PReceiverPresenterTest {
                 .stopAdvertising();
 
         Mockito.verify(interactor, Mockito.times(1))
-                .acceptConnection(Mockito.eq(endpointId), Mockito.any(PayloadCallback.class));
+                .acceptConnection(Mockito.eq(endpointId), Mockito.any(Transport.PayloadCallback.class));
     }
 
     @Test
@@ -568,17 +581,17 @@ public class P2PReceiverPresenterTest {
         Mockito.doAnswer(new Answer() {
             @Override
             public Object answer(InvocationOnMock invocation) throws Throwable {
-                ((PayloadCallback) invocation.getArgument(1))
-                        .onPayloadReceived(endpointId, Mockito.mock(Payload.class));
+                ((Transport.PayloadCallback) invocation.getArgument(1))
+                        .onPayloadReceived(endpointId, Mockito.mock(TransportPayload.class));
                 return null;
             }
         })
                 .when(interactor)
-                .acceptConnection(ArgumentMatchers.eq(endpointId), Mockito.any(PayloadCallback.class));
+                .acceptConnection(ArgumentMatchers.eq(endpointId), Mockito.any(Transport.PayloadCallback.class));
 
         spiedCallback.onConnectionInitiated(endpointId, connectionInfo);
         Mockito.verify(spiedCallback, Mockito.times(1))
-                .onPayloadReceived(ArgumentMatchers.eq(endpointId), Mockito.any(Payload.class));
+                .onPayloadReceived(ArgumentMatchers.eq(endpointId), Mockito.any(TransportPayload.class));
     }*/
 
     @Test
@@ -686,7 +699,7 @@ public class P2PReceiverPresenterTest {
 
     @Test
     public void onPayloadReceivedShouldProcessPayloadWhenConnectionLevelIsSentReceivedRecords() {
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
         String endpointId = "endpoint-id";
 
         ReflectionHelpers.setField(p2PReceiverPresenter, "connectionLevel", ConnectionLevel.SENT_RECEIVED_HISTORY);
@@ -698,12 +711,12 @@ public class P2PReceiverPresenterTest {
 
     @Test
     public void onPayloadReceivedShouldPerformAuthorizationWhenConnectionLevelIsAuthenticated() {
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
         String endpointId = "endpoint-id";
 
         Mockito.doNothing()
                 .when(p2PReceiverPresenter)
-                .performAuthorization(ArgumentMatchers.any(Payload.class));
+                .performAuthorization(ArgumentMatchers.any(TransportPayload.class));
 
         ReflectionHelpers.setField(p2PReceiverPresenter, "connectionLevel", ConnectionLevel.AUTHENTICATED);
         p2PReceiverPresenter.onPayloadReceived(endpointId, payload);
@@ -714,7 +727,7 @@ public class P2PReceiverPresenterTest {
 
     @Test
     public void onPayloadReceivedShouldCallProcessHashKeyWhenConnectionLevelIsAuthorized() {
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
         String endpointId = "endpoint-id";
 
         ReflectionHelpers.setField(p2PReceiverPresenter, "connectionLevel", ConnectionLevel.AUTHORIZED);
@@ -728,9 +741,9 @@ public class P2PReceiverPresenterTest {
     public void processHashKeyShouldCallDisconnectAndResetWhenPayloadIsNotBytes() {
         String endpointId = "id";
 
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Mockito.doReturn(Payload.Type.STREAM)
+        Mockito.doReturn(TransportPayload.TYPE_STREAM)
                 .when(payload)
                 .getType();
 
@@ -747,13 +760,13 @@ public class P2PReceiverPresenterTest {
         Map<String, Object> basicDetails = new HashMap<>();
         String basicDetailsJson = new Gson().toJson(basicDetails);
 
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         Mockito.doReturn(basicDetailsJson.getBytes())
                 .when(payload)
                 .asBytes();
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -770,13 +783,13 @@ public class P2PReceiverPresenterTest {
         basicDetails.put("device-id", "9290wdksdif(@#");
         String basicDetailsJson = new Gson().toJson(basicDetails);
 
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         Mockito.doReturn(basicDetailsJson.getBytes())
                 .when(payload)
                 .asBytes();
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -801,6 +814,262 @@ public class P2PReceiverPresenterTest {
         assertEquals(ConnectionLevel.SENT_RECEIVED_HISTORY, ReflectionHelpers.getField(p2PReceiverPresenter, "connectionLevel"));
     }
 
+    @Test
+    public void sendLastReceivedRecordsShouldSendAcceptedEncodingsWhenSenderOfferedEncodings() {
+        ReflectionHelpers.setField(p2PReceiverPresenter, "offeredEncodings", Arrays.asList("br", Constants.Encoding.GZIP));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "currentSender", Mockito.mock(DiscoveredDevice.class));
+        p2PReceiverPresenter.sendLastReceivedRecords(new ArrayList<P2pReceivedHistory>());
+
+        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(messageCaptor.capture());
+
+        Map<String, Object> receivedHistoryDetails = new Gson().fromJson(messageCaptor.getValue(), Map.class);
+        assertEquals(Arrays.asList(Constants.Encoding.GZIP), receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_ACCEPTED_ENCODINGS));
+        assertEquals(new ArrayList<>(), receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY));
+    }
+
+    @Test
+    public void sendLastReceivedRecordsShouldSendAcceptedWireFormatsWhenSenderOfferedWireFormats() {
+        ReflectionHelpers.setField(p2PReceiverPresenter, "offeredWireFormats", Arrays.asList("binary-frames-v9", Constants.WireFormat.BINARY_FRAMES));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "currentSender", Mockito.mock(DiscoveredDevice.class));
+        p2PReceiverPresenter.sendLastReceivedRecords(new ArrayList<P2pReceivedHistory>());
+
+        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(messageCaptor.capture());
+
+        Map<String, Object> receivedHistoryDetails = new Gson().fromJson(messageCaptor.getValue(), Map.class);
+        assertEquals(Arrays.asList(Constants.WireFormat.BINARY_FRAMES), receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS));
+
+        SyncReceiverHandler syncReceiverHandler = ReflectionHelpers.getField(p2PReceiverPresenter, "syncReceiverHandler");
+        assertTrue((boolean) ReflectionHelpers.getField(syncReceiverHandler, "binaryFrames"));
+    }
+
+    @Test
+    public void sendLastReceivedRecordsShouldSendSessionTokenWhenSenderOfferedSessionResume() {
+        setSessionResumeTimeout(60000);
+        ReflectionHelpers.setField(p2PReceiverPresenter, "offeredWireFormats", Arrays.asList(Constants.WireFormat.SESSION_RESUME));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "currentSender", createDiscoveredDevice("id", "SAMSUNG SM T343"));
+        p2PReceiverPresenter.sendLastReceivedRecords(new ArrayList<P2pReceivedHistory>());
+
+        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(messageCaptor.capture());
+
+        Map<String, Object> receivedHistoryDetails = new Gson().fromJson(messageCaptor.getValue(), Map.class);
+        SyncSession syncSession = ReflectionHelpers.getField(p2PReceiverPresenter, "syncSession");
+        assertEquals(syncSession.getSessionToken(), receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_SESSION_TOKEN));
+        assertEquals(Arrays.asList(Constants.WireFormat.SESSION_RESUME), receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS));
+    }
+
+    @Test
+    public void sendLastReceivedRecordsShouldNotAcceptSessionResumeWhenItIsDisabled() {
+        ReflectionHelpers.setField(p2PReceiverPresenter, "offeredWireFormats", Arrays.asList(Constants.WireFormat.SESSION_RESUME));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "currentSender", createDiscoveredDevice("id", "SAMSUNG SM T343"));
+        p2PReceiverPresenter.sendLastReceivedRecords(new ArrayList<P2pReceivedHistory>());
+
+        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(messageCaptor.capture());
+
+        Map<String, Object> receivedHistoryDetails = new Gson().fromJson(messageCaptor.getValue(), Map.class);
+        assertNull(receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_SESSION_TOKEN));
+        assertNull(ReflectionHelpers.getField(p2PReceiverPresenter, "syncSession"));
+    }
+
+    @Test
+    public void sendLastReceivedRecordsShouldSendHistoryWatermarksWhenSenderOfferedDataTypes() throws Exception {
+        ReflectionHelpers.setField(p2PReceiverPresenter, "offeredWireFormats", Arrays.asList(Constants.WireFormat.HISTORY_WATERMARKS));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "offeredDataTypeNames", Arrays.asList("client", "event"));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "currentSender", createDiscoveredDevice("id", "SAMSUNG SM T343"));
+
+        P2pReceivedHistory eventHistory = new P2pReceivedHistory();
+        eventHistory.setEntityType("event");
+        eventHistory.setLastRecordId(5000);
+        p2PReceiverPresenter.sendLastReceivedRecords(Arrays.asList(eventHistory));
+
+        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(messageCaptor.capture());
+
+        Map<String, Object> receivedHistoryDetails = new Gson().fromJson(messageCaptor.getValue(), Map.class);
+        assertNull(receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY));
+        assertEquals(Arrays.asList(Constants.WireFormat.HISTORY_WATERMARKS), receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS));
+
+        List<HistoryWatermark> historyWatermarks = HistoryWatermarkCodec.read(Base64.decode((String) receivedHistoryDetails
+                .get(Constants.BasicDeviceDetails.KEY_HISTORY_WATERMARKS), Base64.NO_WRAP));
+        assertEquals(1, historyWatermarks.size());
+        assertEquals(1, historyWatermarks.get(0).getPosition());
+        assertEquals(5000, historyWatermarks.get(0).getLastRecordId());
+    }
+
+    @Test
+    public void sendLastReceivedRecordsShouldSendReceivedHistoryWhenSenderDidNotOfferDataTypes() {
+        ReflectionHelpers.setField(p2PReceiverPresenter, "offeredWireFormats", Arrays.asList(Constants.WireFormat.HISTORY_WATERMARKS));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "currentSender", createDiscoveredDevice("id", "SAMSUNG SM T343"));
+        p2PReceiverPresenter.sendLastReceivedRecords(new ArrayList<P2pReceivedHistory>());
+
+        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(messageCaptor.capture());
+
+        Map<String, Object> receivedHistoryDetails = new Gson().fromJson(messageCaptor.getValue(), Map.class);
+        assertNull(receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_HISTORY_WATERMARKS));
+        assertEquals(new ArrayList<>(), receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY));
+        assertEquals(new ArrayList<>(), receivedHistoryDetails.get(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS));
+    }
+
+    @Test
+    public void onConnectionBrokenShouldSuspendSyncSessionAndStartAdvertisingWhenSessionCanBeResumed() {
+        String endpointId = "id";
+        setSessionResumeTimeout(60000);
+
+        HashMap<String, Integer> transferProgress = new HashMap<>();
+        transferProgress.put("event", 40);
+        SyncReceiverHandler syncReceiverHandler = Mockito.mock(SyncReceiverHandler.class);
+        Mockito.doReturn(transferProgress)
+                .when(syncReceiverHandler)
+                .getTransferProgress();
+
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        ReflectionHelpers.setField(p2PReceiverPresenter, "syncSession", syncSession);
+        ReflectionHelpers.setField(p2PReceiverPresenter, "syncReceiverHandler", syncReceiverHandler);
+        p2PReceiverPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "connectionLevel", ConnectionLevel.SENT_RECEIVED_HISTORY);
+
+        p2PReceiverPresenter.onConnectionBroken(endpointId);
+
+        Mockito.verify(p2PReceiverPresenter, Mockito.never())
+                .onSyncFailed(Mockito.any(Exception.class));
+        Mockito.verify(p2PReceiverPresenter, Mockito.times(1))
+                .prepareForAdvertising(ArgumentMatchers.eq(false));
+        assertTrue(syncSession.isSuspended());
+        assertTrue(syncSession.canResumeWith("SAMSUNG SM T343"));
+        assertEquals(transferProgress, syncSession.getTransferProgress());
+        assertEquals(syncSession, ReflectionHelpers.getField(p2PReceiverPresenter, "syncSession"));
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .suspend();
+    }
+
+    @Test
+    public void onPayloadReceivedShouldProveItKnowsSessionTokenWhenSenderRequestsSessionResume() {
+        String endpointId = "id";
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.suspend(60000);
+
+        ReflectionHelpers.setField(p2PReceiverPresenter, "syncSession", syncSession);
+        p2PReceiverPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
+
+        p2PReceiverPresenter.onPayloadReceived(endpointId, createBytesPayload(Constants.Connection.RESUME_SESSION + "sender-nonce"));
+
+        SyncSession senderSyncSession = new SyncSession("token", "SAMSUNG SM T343");
+        senderSyncSession.setResumeNonces("sender-nonce", syncSession.getReceiverNonce());
+
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(Constants.Connection.SESSION_CHALLENGE + syncSession.getReceiverNonce() + ":"
+                        + senderSyncSession.getResumeProof(SyncSession.RECEIVER_PROOF, null));
+        Mockito.verify(interactor, Mockito.never())
+                .sendMessage(Constants.Connection.SESSION_RESUMED);
+        assertEquals(ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE, ReflectionHelpers.getField(p2PReceiverPresenter, "connectionLevel"));
+        assertTrue(syncSession.isSuspended());
+    }
+
+    @Config(shadows = {ShadowTasker.class})
+    @Test
+    public void onPayloadReceivedShouldResumeSyncSessionWithSavedHistoryWhenSenderProvesItKnowsSessionToken() {
+        String endpointId = "id";
+        HashMap<String, Integer> transferProgress = new HashMap<>();
+        transferProgress.put("event", 40);
+
+        SendingDevice sendingDevice = new SendingDevice();
+        sendingDevice.setDeviceId("sending-device-id");
+
+        P2pReceivedHistory savedHistory = new P2pReceivedHistory();
+        savedHistory.setSendingDeviceId(sendingDevice.getDeviceId());
+        savedHistory.setEntityType("event");
+        savedHistory.setLastRecordId(60);
+        P2PLibrary.getInstance().getDb().p2pReceivedHistoryDao().addReceivedHistory(savedHistory);
+
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.setAcceptedWireFormats(Arrays.asList(Constants.WireFormat.BINARY_FRAMES));
+        syncSession.setTransferProgress(transferProgress);
+        syncSession.setSendingDevice(sendingDevice);
+        syncSession.suspend(60000);
+        syncSession.setResumeNonces("sender-nonce", "receiver-nonce");
+
+        ReflectionHelpers.setField(p2PReceiverPresenter, "syncSession", syncSession);
+        p2PReceiverPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
+
+        p2PReceiverPresenter.onPayloadReceived(endpointId, createBytesPayload(Constants.Connection.SESSION_PROOF
+                + syncSession.getResumeProof(SyncSession.SENDER_PROOF, null)));
+
+        ArgumentCaptor<String> messageCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(messageCaptor.capture());
+        assertTrue(messageCaptor.getValue().startsWith(Constants.Connection.SESSION_RESUMED));
+
+        JsonObject resumeDetails = new JsonParser().parse(messageCaptor.getValue()
+                .substring(Constants.Connection.SESSION_RESUMED.length())).getAsJsonObject();
+        List<P2pReceivedHistory> receivedHistory = new Gson().fromJson(resumeDetails.get(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY)
+                , new TypeToken<ArrayList<P2pReceivedHistory>>() {}.getType());
+        assertEquals(1, receivedHistory.size());
+        assertEquals("event", receivedHistory.get(0).getEntityType());
+        assertEquals(60, receivedHistory.get(0).getLastRecordId());
+
+        Mockito.verify(view, Mockito.times(1))
+                .removeQRCodeGeneratorFragment();
+        assertEquals(ConnectionLevel.SENT_RECEIVED_HISTORY, ReflectionHelpers.getField(p2PReceiverPresenter, "connectionLevel"));
+        assertFalse(syncSession.isSuspended());
+
+        SyncReceiverHandler syncReceiverHandler = ReflectionHelpers.getField(p2PReceiverPresenter, "syncReceiverHandler");
+        assertTrue((boolean) ReflectionHelpers.getField(syncReceiverHandler, "binaryFrames"));
+        assertEquals(40, (int) syncReceiverHandler.getTransferProgress().get("event"));
+    }
+
+    @Test
+    public void onPayloadReceivedShouldRejectSessionResumeWhenSenderProofIsInvalid() {
+        String endpointId = "id";
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.suspend(60000);
+        syncSession.setResumeNonces("sender-nonce", "receiver-nonce");
+
+        SyncSession senderSyncSession = new SyncSession("other-token", "SAMSUNG SM T343");
+        senderSyncSession.setResumeNonces("sender-nonce", "receiver-nonce");
+
+        ReflectionHelpers.setField(p2PReceiverPresenter, "syncSession", syncSession);
+        p2PReceiverPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
+
+        p2PReceiverPresenter.onPayloadReceived(endpointId, createBytesPayload(Constants.Connection.SESSION_PROOF
+                + senderSyncSession.getResumeProof(SyncSession.SENDER_PROOF, null)));
+
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(Constants.Connection.SESSION_REJECTED);
+        assertEquals(ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE, ReflectionHelpers.getField(p2PReceiverPresenter, "connectionLevel"));
+        assertNull(ReflectionHelpers.getField(p2PReceiverPresenter, "syncSession"));
+        assertNull(ReflectionHelpers.getField(p2PReceiverPresenter, "syncReceiverHandler"));
+    }
+
+    @Test
+    public void onPayloadReceivedShouldRejectSessionProofWhenNoChallengeWasSent() {
+        String endpointId = "id";
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.suspend(60000);
+
+        ReflectionHelpers.setField(p2PReceiverPresenter, "syncSession", syncSession);
+        p2PReceiverPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PReceiverPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
+
+        p2PReceiverPresenter.onPayloadReceived(endpointId, createBytesPayload(Constants.Connection.SESSION_PROOF + "token"));
+
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(Constants.Connection.SESSION_REJECTED);
+        assertNull(ReflectionHelpers.getField(p2PReceiverPresenter, "syncSession"));
+    }
+
     @Test
     public void setCurrentDeviceShouldCallKeepScreenOnWithFalseWhenGivenNullDevice() {
         p2PReceiverPresenter.setCurrentDevice(null);
@@ -822,8 +1091,8 @@ public class P2PReceiverPresenterTest {
     public void onPayloadReceivedShouldShowSkipQRScanDialogWhenPayloadIsCommandSkipQRCode() {
         String endpointId = "endpointid";
 
-        Payload payload = Mockito.mock(Payload.class);
-        Mockito.doReturn(Payload.Type.BYTES)
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
         Mockito.doReturn(Constants.Connection.SKIP_QR_CODE_SCAN.getBytes())
@@ -846,8 +1115,8 @@ public class P2PReceiverPresenterTest {
     public void onPayloadReceivedShouldCallOnAuthenticationSuccessfulWhenPayloadIsCommandAcceptConnection() {
         String endpointId = "endpointid";
 
-        Payload payload = Mockito.mock(Payload.class);
-        Mockito.doReturn(Payload.Type.BYTES)
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
         Mockito.doReturn(Constants.Connection.CONNECTION_ACCEPT.getBytes())
@@ -872,8 +1141,8 @@ public class P2PReceiverPresenterTest {
     public void onPayloadReceivedShouldCallOnAuthenticationSuccessfulAndSendConnectionAcceptWhenSkipBtnIsClickedOnSkipDialog() {
         String endpointId = "endpointid";
 
-        Payload payload = Mockito.mock(Payload.class);
-        Mockito.doReturn(Payload.Type.BYTES)
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
         Mockito.doReturn(Constants.Connection.SKIP_QR_CODE_SCAN.getBytes())
@@ -930,8 +1199,8 @@ public class P2PReceiverPresenterTest {
 
     @Test
     public void performAuthorizationShouldCallOnAuthorizationRejectedWhenPayloadBytesIsNull() {
-        Payload payload = Mockito.mock(Payload.class);
-        Mockito.doReturn(Payload.Type.BYTES)
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -949,8 +1218,8 @@ public class P2PReceiverPresenterTest {
     @Test
     public void performAuthorizationShouldCallOnAuthorizationRejectedWhenPayloadIsNotMap() {
 
-        Payload payload = Mockito.mock(Payload.class);
-        Mockito.doReturn(Payload.Type.BYTES)
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -971,8 +1240,8 @@ public class P2PReceiverPresenterTest {
 
     @Test
     public void performAuthorizationShouldCallOnAuthorizationServiceWhenPayloadBytesIsValidMap() {
-        Payload payload = Mockito.mock(Payload.class);
-        Mockito.doReturn(Payload.Type.BYTES)
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -996,4 +1265,30 @@ public class P2PReceiverPresenterTest {
                 .authorizeConnection(Mockito.any(Map.class), Mockito.eq(p2PReceiverPresenter));
     }
 
-}
\ No newline at end of file
+
+    private void setSessionResumeTimeout(long sessionResumeTimeout) {
+        P2PLibrary.Options options = ReflectionHelpers.getField(P2PLibrary.getInstance(), "options");
+        options.setSessionResumeTimeout(sessionResumeTimeout);
+    }
+
+    private DiscoveredDevice createDiscoveredDevice(@NonNull String endpointId, @NonNull String endpointName) {
+        DiscoveredEndpointInfo discoveredEndpointInfo = Mockito.mock(DiscoveredEndpointInfo.class);
+        Mockito.doReturn(endpointName)
+                .when(discoveredEndpointInfo)
+                .getEndpointName();
+
+        return new DiscoveredDevice(endpointId, discoveredEndpointInfo);
+    }
+
+    private TransportPayload createBytesPayload(@NonNull String message) {
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+        Mockito.doReturn(message.getBytes())
+                .when(payload)
+                .asBytes();
+
+        return payload;
+    }
+}
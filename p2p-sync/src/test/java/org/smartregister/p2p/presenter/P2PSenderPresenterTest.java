@@ -2,21 +2,21 @@ package org.smartregister.p2p.presenter;
 
 import android.Manifest;
 import android.content.DialogInterface;
+import android.support.annotation.NonNull;
+import android.util.Base64;
 import android.widget.Toast;
 
 import com.google.android.gms.nearby.connection.ConnectionInfo;
 import com.google.android.gms.nearby.connection.ConnectionLifecycleCallback;
 import com.google.android.gms.nearby.connection.ConnectionResolution;
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadCallback;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 import com.google.gson.Gson;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -47,19 +47,29 @@ import org.smartregister.p2p.shadows.ShadowAppDatabase;
 import org.smartregister.p2p.shadows.ShadowTasker;
 import org.smartregister.p2p.sync.ConnectionLevel;
 import org.smartregister.p2p.sync.DiscoveredDevice;
+import org.smartregister.p2p.sync.SyncSession;
+import org.smartregister.p2p.sync.data.HistoryWatermark;
 import org.smartregister.p2p.sync.data.SyncPackageManifest;
 import org.smartregister.p2p.sync.handler.SyncSenderHandler;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
 import org.smartregister.p2p.util.Constants;
+import org.smartregister.p2p.util.HistoryWatermarkCodec;
+import org.smartregister.p2p.util.WireFormatUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by Ephraim Kigamba - ekigamba@ona.io on 19/03/2019
@@ -393,7 +403,7 @@ public class P2PSenderPresenterTest {
                 .getConnectionInfo());
 
         Mockito.verify(interactor, Mockito.times(1))
-                .acceptConnection(Mockito.eq(endpointId), Mockito.any(PayloadCallback.class));
+                .acceptConnection(Mockito.eq(endpointId), Mockito.any(Transport.PayloadCallback.class));
     }
 
     @Test
@@ -692,9 +702,9 @@ public class P2PSenderPresenterTest {
 
     @Test
     public void performAuthorizationShouldCallOnConnectionAuthorizationDetectedWhenAuthorizationPayloadIsNotBytes() {
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Mockito.doReturn(Payload.Type.STREAM)
+        Mockito.doReturn(TransportPayload.TYPE_STREAM)
                 .when(payload)
                 .getType();
 
@@ -714,9 +724,9 @@ public class P2PSenderPresenterTest {
 
     @Test
     public void performAuthorizationShouldCallOnConnectionAuthorizationDetectedWhenAuthorizationPayloadIsInvalid() {
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -739,9 +749,9 @@ public class P2PSenderPresenterTest {
 
     @Test
     public void performAuthorizationShouldAuthorizationServiceWhenAuthorizationPayloadIsValid() {
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -772,7 +782,7 @@ public class P2PSenderPresenterTest {
     public void onPayloadReceivedShouldCallPerformAuthorizationWhenConnectionLevelIsAuthenticated() {
         String endpointId = "endpoint id";
 
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.AUTHENTICATED);
         DiscoveredEndpointInfo discoveredEndpointInfo = Mockito.mock(DiscoveredEndpointInfo.class);
@@ -793,9 +803,9 @@ public class P2PSenderPresenterTest {
         long payloadId = 9293;
         String endpointId = "endpointid";
 
-        PayloadTransferUpdate update = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate update = Mockito.mock(TransportPayloadUpdate.class);
 
-        Mockito.doReturn(PayloadTransferUpdate.Status.SUCCESS)
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
                 .when(update)
                 .getStatus();
 
@@ -814,9 +824,9 @@ public class P2PSenderPresenterTest {
         long payloadId = 9293;
         String endpointId = "endpointid";
 
-        PayloadTransferUpdate update = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate update = Mockito.mock(TransportPayloadUpdate.class);
 
-        Mockito.doReturn(PayloadTransferUpdate.Status.FAILURE)
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_FAILURE)
                 .when(update)
                 .getStatus();
 
@@ -836,13 +846,13 @@ public class P2PSenderPresenterTest {
         long payloadId = 9293;
         String endpointId = "endpointid";
 
-        PayloadTransferUpdate update = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate update = Mockito.mock(TransportPayloadUpdate.class);
 
         Mockito.doReturn(payloadId)
                 .when(interactor)
                 .sendMessage(ArgumentMatchers.eq(Constants.Connection.SYNC_COMPLETE));
 
-        Mockito.doReturn(PayloadTransferUpdate.Status.SUCCESS)
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
                 .when(update)
                 .getStatus();
 
@@ -930,10 +940,25 @@ public class P2PSenderPresenterTest {
                 .sendMessage(Mockito.anyString());
     }
 
+    @Test
+    public void sendManifestShouldSendBinaryFrameWhenReceiverAcceptedBinaryFrames() throws Exception {
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(89l, ".json", new DataType("somedata", DataType.Type.NON_MEDIA, 1), 1);
+        ReflectionHelpers.setField(p2PSenderPresenter, "acceptedWireFormats", Arrays.asList(Constants.WireFormat.BINARY_FRAMES));
+        p2PSenderPresenter.setCurrentDevice(Mockito.mock(DiscoveredDevice.class));
+        p2PSenderPresenter.sendManifest(syncPackageManifest);
+
+        ArgumentCaptor<byte[]> messageCaptor = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(messageCaptor.capture());
+        Mockito.verify(interactor, Mockito.never())
+                .sendMessage(Mockito.anyString());
+        assertEquals(89l, WireFormatUtil.readManifest(messageCaptor.getValue()).getPayloadId());
+    }
+
     @Test
     public void sendPayloadShouldCallInteractorSendPayloadWhenCurrentPeerDeviceIsNotNull() {
         p2PSenderPresenter.setCurrentDevice(Mockito.mock(DiscoveredDevice.class));
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         p2PSenderPresenter.sendPayload(payload);
 
@@ -980,12 +1005,12 @@ public class P2PSenderPresenterTest {
     @Test
     public void processReceivedHistoryShouldCallSendSyncCompleteWhenDataTypesIsNull() {
         String endpointId = "89283wklsdf";
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         ArrayList<P2pReceivedHistory> receivedHistory = new ArrayList<>();
         receivedHistory.add(new P2pReceivedHistory());
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -1012,10 +1037,77 @@ public class P2PSenderPresenterTest {
                 .sendSyncComplete();
     }
 
+    @Test
+    public void processReceivedHistoryShouldPassAcceptedEncodingsToSyncSenderHandlerWhenHistoryIsSentWithEncodings() {
+        String endpointId = "89283wklsdf";
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+
+        HashMap<String, Object> receivedHistoryDetails = new HashMap<>();
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY, new ArrayList<P2pReceivedHistory>());
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_ACCEPTED_ENCODINGS, Arrays.asList(Constants.Encoding.GZIP));
+
+        TreeSet<DataType> dataTypes = new TreeSet<>();
+        dataTypes.add(new DataType("sample-type", DataType.Type.NON_MEDIA, 2));
+
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+
+        Mockito.doReturn(new Gson().toJson(receivedHistoryDetails).getBytes())
+                .when(payload)
+                .asBytes();
+
+        Mockito.doReturn(dataTypes)
+                .when(senderTransferDao)
+                .getDataTypes();
+
+        p2PSenderPresenter.setCurrentDevice(Mockito.mock(DiscoveredDevice.class));
+        p2PSenderPresenter.processReceivedHistory(endpointId, payload);
+
+        SyncSenderHandler syncSenderHandler = ReflectionHelpers.getField(p2PSenderPresenter, "syncSenderHandler");
+        List<String> acceptedEncodings = ReflectionHelpers.getField(syncSenderHandler, "acceptedEncodings");
+        assertEquals(Arrays.asList(Constants.Encoding.GZIP), acceptedEncodings);
+    }
+
+    @Test
+    public void processReceivedHistoryShouldUseBinaryRecordsWhenReceiverAcceptedBinaryRecords() {
+        String endpointId = "89283wklsdf";
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+
+        HashMap<String, Object> receivedHistoryDetails = new HashMap<>();
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY, new ArrayList<P2pReceivedHistory>());
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_ACCEPTED_ENCODINGS, new ArrayList<String>());
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS
+                , Arrays.asList(Constants.WireFormat.BINARY_FRAMES, Constants.WireFormat.BINARY_RECORDS));
+
+        TreeSet<DataType> dataTypes = new TreeSet<>();
+        dataTypes.add(new DataType("sample-type", DataType.Type.NON_MEDIA, 2));
+
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+
+        Mockito.doReturn(new Gson().toJson(receivedHistoryDetails).getBytes())
+                .when(payload)
+                .asBytes();
+
+        Mockito.doReturn(dataTypes)
+                .when(senderTransferDao)
+                .getDataTypes();
+
+        p2PSenderPresenter.setCurrentDevice(Mockito.mock(DiscoveredDevice.class));
+        p2PSenderPresenter.processReceivedHistory(endpointId, payload);
+
+        SyncSenderHandler syncSenderHandler = ReflectionHelpers.getField(p2PSenderPresenter, "syncSenderHandler");
+        assertTrue((boolean) ReflectionHelpers.getField(syncSenderHandler, "binaryRecords"));
+        assertEquals(Arrays.asList(Constants.WireFormat.BINARY_FRAMES, Constants.WireFormat.BINARY_RECORDS)
+                , ReflectionHelpers.getField(p2PSenderPresenter, "acceptedWireFormats"));
+    }
+
     @Test
     public void processReceivedHistoryShouldCallStartSyncProcessWhenDataTypesIsNotNullNorEmpty() {
         String endpointId = "89283wklsdf";
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         ArrayList<P2pReceivedHistory> receivedHistory = new ArrayList<>();
         receivedHistory.add(new P2pReceivedHistory());
@@ -1023,7 +1115,7 @@ public class P2PSenderPresenterTest {
         TreeSet<DataType> dataTypes = Mockito.spy(new TreeSet<DataType>());
         dataTypes.add(new DataType("sample-type", DataType.Type.NON_MEDIA, 2));
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -1042,6 +1134,271 @@ public class P2PSenderPresenterTest {
                 .first();
     }
 
+    @Test
+    public void processReceivedHistoryShouldCreateSyncSessionWhenReceiverSentSessionToken() {
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+
+        HashMap<String, Object> receivedHistoryDetails = new HashMap<>();
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY, new ArrayList<P2pReceivedHistory>());
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS, Arrays.asList(Constants.WireFormat.SESSION_RESUME));
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_SESSION_TOKEN, "token");
+
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+
+        Mockito.doReturn(new Gson().toJson(receivedHistoryDetails).getBytes())
+                .when(payload)
+                .asBytes();
+
+        Mockito.doNothing()
+                .when(p2PSenderPresenter)
+                .sendSyncComplete();
+
+        p2PSenderPresenter.setCurrentDevice(createDiscoveredDevice("id", "SAMSUNG SM T343"));
+        p2PSenderPresenter.processReceivedHistory("id", payload);
+
+        SyncSession syncSession = ReflectionHelpers.getField(p2PSenderPresenter, "syncSession");
+        assertEquals("token", syncSession.getSessionToken());
+        assertEquals("SAMSUNG SM T343", syncSession.getPeerEndpointName());
+        assertFalse(syncSession.isSuspended());
+    }
+
+    @Test
+    public void processReceivedHistoryShouldReadHistoryWatermarksWhenReceiverSentThem() throws Exception {
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        byte[] historyWatermarks = HistoryWatermarkCodec.write(Arrays.asList(new HistoryWatermark(1, 5000)));
+
+        HashMap<String, Object> receivedHistoryDetails = new HashMap<>();
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_HISTORY_WATERMARKS, Base64.encodeToString(historyWatermarks, Base64.NO_WRAP));
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_ACCEPTED_WIRE_FORMATS, Arrays.asList(Constants.WireFormat.HISTORY_WATERMARKS));
+
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+
+        Mockito.doReturn(new Gson().toJson(receivedHistoryDetails).getBytes())
+                .when(payload)
+                .asBytes();
+
+        Mockito.doNothing()
+                .when(p2PSenderPresenter)
+                .sendSyncComplete();
+
+        ReflectionHelpers.setField(p2PSenderPresenter, "offeredDataTypeNames", Arrays.asList("client", "event"));
+        p2PSenderPresenter.setCurrentDevice(Mockito.mock(DiscoveredDevice.class));
+        p2PSenderPresenter.processReceivedHistory("id", payload);
+
+        SyncSenderHandler syncSenderHandler = ReflectionHelpers.getField(p2PSenderPresenter, "syncSenderHandler");
+        List<P2pReceivedHistory> receivedHistory = ReflectionHelpers.getField(syncSenderHandler, "receivedHistory");
+        assertEquals(1, receivedHistory.size());
+        assertEquals("event", receivedHistory.get(0).getEntityType());
+        assertEquals(5000, receivedHistory.get(0).getLastRecordId());
+    }
+
+    @Test
+    public void processReceivedHistoryShouldCallDisconnectAndResetWhenHistoryWatermarksAreInvalid() {
+        String endpointId = "id";
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+
+        HashMap<String, Object> receivedHistoryDetails = new HashMap<>();
+        receivedHistoryDetails.put(Constants.BasicDeviceDetails.KEY_HISTORY_WATERMARKS, Base64.encodeToString(new byte[]{9}, Base64.NO_WRAP));
+
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+
+        Mockito.doReturn(new Gson().toJson(receivedHistoryDetails).getBytes())
+                .when(payload)
+                .asBytes();
+
+        Mockito.doNothing()
+                .when(p2PSenderPresenter)
+                .disconnectAndReset(endpointId);
+
+        ReflectionHelpers.setField(p2PSenderPresenter, "offeredDataTypeNames", Arrays.asList("client", "event"));
+        p2PSenderPresenter.setCurrentDevice(Mockito.mock(DiscoveredDevice.class));
+        p2PSenderPresenter.processReceivedHistory(endpointId, payload);
+
+        Mockito.verify(p2PSenderPresenter, Mockito.times(1))
+                .disconnectAndReset(endpointId);
+        assertNull(ReflectionHelpers.getField(p2PSenderPresenter, "syncSenderHandler"));
+    }
+
+    @Test
+    public void onConnectionBrokenShouldSuspendSyncSessionAndStartDiscoveringWhenReceiverIssuedSessionToken() {
+        String endpointId = "id";
+        P2PLibrary.Options options = ReflectionHelpers.getField(P2PLibrary.getInstance(), "options");
+        options.setSessionResumeTimeout(60000);
+
+        HashMap<String, Integer> transferProgress = new HashMap<>();
+        transferProgress.put("event", 40);
+
+        SyncSenderHandler syncSenderHandler = Mockito.mock(SyncSenderHandler.class);
+        Mockito.doReturn(transferProgress)
+                .when(syncSenderHandler)
+                .getTransferProgress();
+
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        ReflectionHelpers.setField(p2PSenderPresenter, "syncSession", syncSession);
+        ReflectionHelpers.setField(p2PSenderPresenter, "syncSenderHandler", syncSenderHandler);
+        ReflectionHelpers.setField(p2PSenderPresenter, "currentReceiver", createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.RECEIPT_OF_RECEIVED_HISTORY);
+
+        p2PSenderPresenter.onConnectionBroken(endpointId);
+
+        Mockito.verify(p2PSenderPresenter, Mockito.never())
+                .errorOccurredSync(Mockito.any(Exception.class));
+        Mockito.verify(syncSenderHandler, Mockito.times(1))
+                .abortFramedStream();
+        Mockito.verify(p2PSenderPresenter, Mockito.times(1))
+                .prepareForDiscovering(false);
+        assertTrue(syncSession.canResumeWith("SAMSUNG SM T343"));
+        assertEquals(transferProgress, syncSession.getTransferProgress());
+        assertNull(ReflectionHelpers.getField(p2PSenderPresenter, "syncSenderHandler"));
+        assertNull(ReflectionHelpers.getField(p2PSenderPresenter, "currentReceiver"));
+    }
+
+    @Test
+    public void onConnectionAcceptedShouldSendNonceWithoutSessionTokenWhenSyncSessionWithReceiverIsSuspended() {
+        String endpointId = "id";
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.suspend(60000);
+
+        ReflectionHelpers.setField(p2PSenderPresenter, "syncSession", syncSession);
+        p2PSenderPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+
+        p2PSenderPresenter.onConnectionAccepted(endpointId, Mockito.mock(ConnectionResolution.class));
+
+        assertNotNull(syncSession.getSenderNonce());
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(Constants.Connection.RESUME_SESSION + syncSession.getSenderNonce());
+        Mockito.verify(interactor, Mockito.never())
+                .sendMessage(Mockito.contains("token"));
+        Mockito.verify(p2PSenderPresenter, Mockito.never())
+                .performDeviceAuthentication();
+    }
+
+    @Test
+    public void onPayloadReceivedShouldSendSenderProofWhenReceiverProvesItKnowsSessionToken() {
+        String endpointId = "id";
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.suspend(60000);
+        syncSession.setResumeNonces("sender-nonce", null);
+
+        SyncSession receiverSyncSession = new SyncSession("token", "SAMSUNG SM T343");
+        receiverSyncSession.setResumeNonces("sender-nonce", "receiver-nonce");
+
+        ReflectionHelpers.setField(p2PSenderPresenter, "syncSession", syncSession);
+        p2PSenderPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
+
+        p2PSenderPresenter.onPayloadReceived(endpointId, createBytesPayload(Constants.Connection.SESSION_CHALLENGE
+                + "receiver-nonce:" + receiverSyncSession.getResumeProof(SyncSession.RECEIVER_PROOF, null)));
+
+        assertTrue(syncSession.isPeerVerified());
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(Constants.Connection.SESSION_PROOF + receiverSyncSession.getResumeProof(SyncSession.SENDER_PROOF, null));
+        Mockito.verify(p2PSenderPresenter, Mockito.never())
+                .performDeviceAuthentication();
+    }
+
+    @Test
+    public void onPayloadReceivedShouldAuthenticateAgainWhenReceiverCannotProveItKnowsSessionToken() {
+        String endpointId = "id";
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.suspend(60000);
+        syncSession.setResumeNonces("sender-nonce", null);
+
+        SyncSession receiverSyncSession = new SyncSession("guessed-token", "SAMSUNG SM T343");
+        receiverSyncSession.setResumeNonces("sender-nonce", "receiver-nonce");
+
+        Mockito.doNothing()
+                .when(p2PSenderPresenter)
+                .performDeviceAuthentication();
+
+        ReflectionHelpers.setField(p2PSenderPresenter, "syncSession", syncSession);
+        p2PSenderPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
+
+        p2PSenderPresenter.onPayloadReceived(endpointId, createBytesPayload(Constants.Connection.SESSION_CHALLENGE
+                + "receiver-nonce:" + receiverSyncSession.getResumeProof(SyncSession.RECEIVER_PROOF, null)));
+
+        Mockito.verify(interactor, Mockito.never())
+                .sendMessage(Mockito.startsWith(Constants.Connection.SESSION_PROOF));
+        Mockito.verify(interactor, Mockito.times(1))
+                .sendMessage(Constants.Connection.SESSION_REJECTED);
+        Mockito.verify(p2PSenderPresenter, Mockito.times(1))
+                .performDeviceAuthentication();
+        assertNull(ReflectionHelpers.getField(p2PSenderPresenter, "syncSession"));
+    }
+
+    @Test
+    public void onPayloadReceivedShouldNotResumeSyncSessionWhenReceiverDidNotProveItKnowsSessionToken() {
+        String endpointId = "id";
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.suspend(60000);
+        syncSession.setResumeNonces("sender-nonce", null);
+
+        ReflectionHelpers.setField(p2PSenderPresenter, "syncSession", syncSession);
+        p2PSenderPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
+
+        p2PSenderPresenter.onPayloadReceived(endpointId, createBytesPayload(Constants.Connection.SESSION_RESUMED));
+
+        assertEquals(ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE, ReflectionHelpers.getField(p2PSenderPresenter, "connectionLevel"));
+        assertNull(ReflectionHelpers.getField(p2PSenderPresenter, "syncSenderHandler"));
+        assertTrue(syncSession.isSuspended());
+    }
+
+    @Test
+    public void onPayloadReceivedShouldContinueFromHistorySavedByReceiverWhenSessionIsResumed() {
+        String endpointId = "id";
+        P2pReceivedHistory savedHistory = new P2pReceivedHistory();
+        savedHistory.setEntityType("sample-type");
+        savedHistory.setLastRecordId(60);
+
+        HashMap<String, Integer> transferProgress = new HashMap<>();
+        transferProgress.put("sample-type", 40);
+
+        SyncSession syncSession = new SyncSession("token", "SAMSUNG SM T343");
+        syncSession.setAcceptedWireFormats(Arrays.asList(Constants.WireFormat.BINARY_FRAMES));
+        syncSession.setTransferProgress(transferProgress);
+        syncSession.suspend(60000);
+        syncSession.setResumeNonces("sender-nonce", "receiver-nonce");
+        syncSession.verifyResumeProof(SyncSession.RECEIVER_PROOF, null, syncSession.getResumeProof(SyncSession.RECEIVER_PROOF, null));
+
+        TreeSet<DataType> dataTypes = new TreeSet<>();
+        dataTypes.add(new DataType("sample-type", DataType.Type.NON_MEDIA, 2));
+        Mockito.doReturn(dataTypes)
+                .when(senderTransferDao)
+                .getDataTypes();
+
+        Mockito.doNothing()
+                .when(p2PSenderPresenter)
+                .sendSyncComplete();
+
+        ReflectionHelpers.setField(p2PSenderPresenter, "syncSession", syncSession);
+        p2PSenderPresenter.setCurrentDevice(createDiscoveredDevice(endpointId, "SAMSUNG SM T343"));
+        ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
+
+        Map<String, Object> resumeDetails = new HashMap<>();
+        resumeDetails.put(Constants.BasicDeviceDetails.KEY_RECEIVED_HISTORY, Arrays.asList(savedHistory));
+
+        p2PSenderPresenter.onPayloadReceived(endpointId, createBytesPayload(Constants.Connection.SESSION_RESUMED
+                + new Gson().toJson(resumeDetails)));
+
+        assertEquals(ConnectionLevel.RECEIPT_OF_RECEIVED_HISTORY, ReflectionHelpers.getField(p2PSenderPresenter, "connectionLevel"));
+        assertEquals(Arrays.asList(Constants.WireFormat.BINARY_FRAMES), ReflectionHelpers.getField(p2PSenderPresenter, "acceptedWireFormats"));
+
+        SyncSenderHandler syncSenderHandler = ReflectionHelpers.getField(p2PSenderPresenter, "syncSenderHandler");
+        HashMap<String, Long> remainingLastRecordIds = ReflectionHelpers.getField(syncSenderHandler, "remainingLastRecordIds");
+        assertEquals(60L, (long) remainingLastRecordIds.get("sample-type"));
+        assertEquals(40, (int) syncSenderHandler.getTransferProgress().get("sample-type"));
+        Mockito.verify(p2PSenderPresenter, Mockito.never())
+                .performDeviceAuthentication();
+    }
+
     @Test
     public void sendAuthorizationDetailsShouldCallInteractorSendMessage() {
         String appVersion = "0.1.0";
@@ -1058,7 +1415,7 @@ public class P2PSenderPresenterTest {
     public void onPayloadReceivedShouldCallProcessReceivedHistoryWhenConnectionLevelIsSentHashKey() {
         ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.SENT_HASH_KEY);
         String endpointId = "endpointid";
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         p2PSenderPresenter.onPayloadReceived(endpointId, payload);
 
@@ -1070,7 +1427,7 @@ public class P2PSenderPresenterTest {
     public void onPayloadReceivedShouldCallProcessPayloadWhenConnectionLevelIsReceiptOfReceivedHistory() {
         ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.RECEIPT_OF_RECEIVED_HISTORY);
         String endpointId = "endpointid";
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         p2PSenderPresenter.onPayloadReceived(endpointId, payload);
 
@@ -1082,9 +1439,9 @@ public class P2PSenderPresenterTest {
     public void onPayloadReceivedShouldCallStartTransferWhenConnectionLevelIsAuthorizedAndConnectionCommandIsStartTransfer() {
         ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.AUTHORIZED);
         String endpointId = "endpointid";
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
         Mockito.doReturn(Constants.Connection.START_TRANSFER.getBytes())
@@ -1114,9 +1471,9 @@ public class P2PSenderPresenterTest {
         Mockito.doReturn(deviceName)
                 .when(discoveredDevice)
                 .getEndpointName();
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
         Mockito.doReturn(Constants.Connection.SKIP_QR_CODE_SCAN.getBytes())
@@ -1137,9 +1494,9 @@ public class P2PSenderPresenterTest {
     public void onPayloadReceivedShouldCallOnAuthenticationSuccessfulWhenConnectionLevelIsConnectBeforeAuthenticateAndConnectionCommandIsConnectionAccept() {
         ReflectionHelpers.setField(p2PSenderPresenter, "connectionLevel", ConnectionLevel.CONNECT_BEFORE_AUTHENTICATE);
         String endpointId = "endpointid";
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
         Mockito.doReturn(Constants.Connection.CONNECTION_ACCEPT.getBytes())
@@ -1185,4 +1542,25 @@ public class P2PSenderPresenterTest {
                         , Mockito.anyString()
                         , Mockito.any(ErrorFragment.OnOkClickCallback.class));
     }
-}
\ No newline at end of file
+
+    private DiscoveredDevice createDiscoveredDevice(@NonNull String endpointId, @NonNull String endpointName) {
+        DiscoveredEndpointInfo discoveredEndpointInfo = Mockito.mock(DiscoveredEndpointInfo.class);
+        Mockito.doReturn(endpointName)
+                .when(discoveredEndpointInfo)
+                .getEndpointName();
+
+        return new DiscoveredDevice(endpointId, discoveredEndpointInfo);
+    }
+
+    private TransportPayload createBytesPayload(@NonNull String message) {
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+        Mockito.doReturn(message.getBytes())
+                .when(payload)
+                .asBytes();
+
+        return payload;
+    }
+}
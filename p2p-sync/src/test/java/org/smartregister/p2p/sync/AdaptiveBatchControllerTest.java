@@ -0,0 +1,69 @@
+package org.smartregister.p2p.sync;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveBatchControllerTest {
+
+    private AdaptiveBatchController batchController;
+
+    @Before
+    public void setUp() {
+        batchController = new AdaptiveBatchController(100 * 1024, 4000, 1, 1000);
+    }
+
+    @Test
+    public void getBatchSizeShouldReturnDefaultBatchSizeBeforeDataTypeIsMeasured() {
+        Assert.assertEquals(20, batchController.getBatchSize("event", 20));
+    }
+
+    @Test
+    public void onBatchMeasuredShouldShrinkBatchSizeForLargeRecords() {
+        batchController.onBatchMeasured("profile-pic", 20, 20 * 100 * 1024);
+
+        Assert.assertEquals(1, batchController.getBatchSize("profile-pic", 20));
+        Assert.assertEquals(20, batchController.getBatchSize("event", 20));
+    }
+
+    @Test
+    public void onBatchMeasuredShouldGrowBatchSizeGraduallyForSmallRecords() {
+        batchController.onBatchMeasured("name", 20, 20 * 100);
+        Assert.assertEquals(40, batchController.getBatchSize("name", 20));
+
+        batchController.onBatchMeasured("name", 40, 40 * 100);
+        Assert.assertEquals(80, batchController.getBatchSize("name", 20));
+    }
+
+    @Test
+    public void onBatchMeasuredShouldNotExceedMaxBatchSize() {
+        batchController.onBatchMeasured("name", 900, 900);
+
+        Assert.assertEquals(1000, batchController.getBatchSize("name", 20));
+    }
+
+    @Test
+    public void onPayloadSentShouldLimitBatchSizeToBytesSentWithinTargetDuration() {
+        // 1 KB records at 1 KB per second should be sent 4 at a time to take 4 seconds per payload
+        batchController.onPayloadSent("event", 10, 10 * 1024, 10000);
+
+        Assert.assertEquals(1024, batchController.getThroughput(), 0.1);
+        Assert.assertEquals(4, batchController.getBatchSize("event", 10));
+    }
+
+    @Test
+    public void onPayloadSentShouldIgnorePayloadsWithoutRecords() {
+        batchController.onPayloadSent("event", 0, 0, 1000);
+
+        Assert.assertEquals(0, batchController.getThroughput(), 0);
+        Assert.assertEquals(20, batchController.getBatchSize("event", 20));
+    }
+
+    @Test
+    public void setMaxPayloadSizeShouldSizeBatchesOfDataTypeToMaxPayloadSize() {
+        batchController.setMaxPayloadSize("event", 10 * 1024);
+        batchController.onBatchMeasured("event", 20, 20 * 1024);
+
+        Assert.assertEquals(10, batchController.getBatchSize("event", 20));
+    }
+}
@@ -0,0 +1,114 @@
+package org.smartregister.p2p.sync;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.sync.data.BatchFrame;
+import org.smartregister.p2p.sync.data.SyncPackageManifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+@RunWith(RobolectricTestRunner.class)
+public class FramedStreamWriterTest {
+
+    private DataType event = new DataType("event", DataType.Type.NON_MEDIA, 1);
+
+    private Executor directExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void writeFrameShouldWriteFramesThatAreReadBackInOrder() {
+        ByteArrayOutputStream framedStream = new ByteArrayOutputStream();
+        FramedStreamWriter framedStreamWriter = new FramedStreamWriter(framedStream, directExecutor);
+        final ArrayList<Long> payloadSizes = new ArrayList<>();
+
+        FramedStreamWriter.OnFrameWrittenCallback onFrameWrittenCallback = new FramedStreamWriter.OnFrameWrittenCallback() {
+            @Override
+            public void onFrameWritten(long payloadSize, long duration) {
+                payloadSizes.add(payloadSize);
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+                Assert.fail(e.getMessage());
+            }
+        };
+
+        framedStreamWriter.writeFrame(new SyncPackageManifest(1L, "json", event, 2), 20L, createFrameBody("[{},{}]"), onFrameWrittenCallback);
+        framedStreamWriter.writeFrame(new SyncPackageManifest(2L, "json", event, 1), 30L, createFrameBody("[{}]"), onFrameWrittenCallback);
+        framedStreamWriter.close();
+
+        final ArrayList<BatchFrame> batchFrames = new ArrayList<>();
+        final boolean[] streamClosed = new boolean[1];
+        new FramedStreamReader(new ByteArrayInputStream(framedStream.toByteArray()), new FramedStreamReader.OnFrameReadListener() {
+            @Override
+            public void onFrameRead(@NonNull BatchFrame batchFrame) {
+                batchFrames.add(batchFrame);
+            }
+
+            @Override
+            public void onStreamClosed() {
+                streamClosed[0] = true;
+            }
+
+            @Override
+            public void onError(@NonNull Exception e) {
+                Assert.fail(e.getMessage());
+            }
+        }).run();
+
+        Assert.assertEquals(7L, (long) payloadSizes.get(0));
+        Assert.assertEquals(4L, (long) payloadSizes.get(1));
+        Assert.assertEquals(2, batchFrames.size());
+        Assert.assertEquals(1L, batchFrames.get(0).getSyncPackageManifest().getPayloadId());
+        Assert.assertEquals(30L, batchFrames.get(1).getHighestRecordId());
+        Assert.assertTrue(streamClosed[0]);
+    }
+
+    @Test
+    public void writeFrameShouldNotWriteFramesAfterAbort() {
+        ByteArrayOutputStream framedStream = new ByteArrayOutputStream();
+        FramedStreamWriter framedStreamWriter = new FramedStreamWriter(framedStream, directExecutor);
+        final boolean[] callbackCalled = new boolean[1];
+
+        framedStreamWriter.abort();
+        framedStreamWriter.writeFrame(new SyncPackageManifest(1L, "json", event, 1), 20L, createFrameBody("[{}]")
+                , new FramedStreamWriter.OnFrameWrittenCallback() {
+                    @Override
+                    public void onFrameWritten(long payloadSize, long duration) {
+                        callbackCalled[0] = true;
+                    }
+
+                    @Override
+                    public void onError(@NonNull Exception e) {
+                        callbackCalled[0] = true;
+                    }
+                });
+
+        Assert.assertEquals(0, framedStream.size());
+        Assert.assertFalse(callbackCalled[0]);
+    }
+
+    @NonNull
+    private FramedStreamWriter.FrameBody createFrameBody(@NonNull final String json) {
+        return new FramedStreamWriter.FrameBody() {
+            @Override
+            public void writeTo(@NonNull OutputStream outputStream) throws IOException {
+                outputStream.write(json.getBytes("UTF-8"));
+            }
+        };
+    }
+}
@@ -0,0 +1,42 @@
+package org.smartregister.p2p.sync;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncSessionTest {
+
+    @Test
+    public void verifyResumeProofShouldAcceptProofFromPeerWithSameSessionToken() {
+        SyncSession senderSession = new SyncSession("token", "SAMSUNG SM T343");
+        senderSession.setResumeNonces("sender-nonce", "receiver-nonce");
+        SyncSession receiverSession = new SyncSession("token", "SAMSUNG SM T343");
+        receiverSession.setResumeNonces("sender-nonce", "receiver-nonce");
+
+        String receiverProof = receiverSession.getResumeProof(SyncSession.RECEIVER_PROOF, "auth-token");
+
+        Assert.assertFalse(receiverProof.contains("token"));
+        Assert.assertTrue(senderSession.verifyResumeProof(SyncSession.RECEIVER_PROOF, "auth-token", receiverProof));
+        Assert.assertTrue(senderSession.isPeerVerified());
+    }
+
+    @Test
+    public void verifyResumeProofShouldRejectProofForOtherSessionTokenConnectionOrProofType() {
+        SyncSession senderSession = new SyncSession("token", "SAMSUNG SM T343");
+        senderSession.setResumeNonces("sender-nonce", "receiver-nonce");
+        SyncSession receiverSession = new SyncSession("other-token", "SAMSUNG SM T343");
+        receiverSession.setResumeNonces("sender-nonce", "receiver-nonce");
+
+        Assert.assertFalse(senderSession.verifyResumeProof(SyncSession.RECEIVER_PROOF, "auth-token"
+                , receiverSession.getResumeProof(SyncSession.RECEIVER_PROOF, "auth-token")));
+        Assert.assertFalse(senderSession.verifyResumeProof(SyncSession.RECEIVER_PROOF, "other-auth-token"
+                , senderSession.getResumeProof(SyncSession.RECEIVER_PROOF, "auth-token")));
+        Assert.assertFalse(senderSession.verifyResumeProof(SyncSession.RECEIVER_PROOF, "auth-token"
+                , senderSession.getResumeProof(SyncSession.SENDER_PROOF, "auth-token")));
+        Assert.assertFalse(senderSession.isPeerVerified());
+    }
+
+    @Test
+    public void createNonceShouldReturnDifferentNonces() {
+        Assert.assertNotEquals(SyncSession.createNonce(), SyncSession.createNonce());
+    }
+}
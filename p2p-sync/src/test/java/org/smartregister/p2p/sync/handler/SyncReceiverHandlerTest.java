@@ -1,10 +1,9 @@
 package org.smartregister.p2p.sync.handler;
 
 import android.support.v4.util.SimpleArrayMap;
+import android.util.Base64;
 
 import com.google.android.gms.nearby.connection.DiscoveredEndpointInfo;
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
 import com.google.gson.Gson;
 
 import org.json.JSONArray;
@@ -12,7 +11,9 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
@@ -25,22 +26,51 @@ import org.robolectric.annotation.Config;
 import org.robolectric.util.ReflectionHelpers;
 import org.smartregister.p2p.P2PLibrary;
 import org.smartregister.p2p.authorizer.P2PAuthorizationService;
+import org.smartregister.p2p.callback.SyncFinishedCallback;
 import org.smartregister.p2p.contract.P2pModeSelectContract;
 import org.smartregister.p2p.fragment.SyncCompleteTransferFragment;
 import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.model.P2pReceivedHistory;
+import org.smartregister.p2p.model.SendingDevice;
+import org.smartregister.p2p.model.dao.P2pReceivedHistoryDao;
 import org.smartregister.p2p.model.dao.ReceiverTransferDao;
 import org.smartregister.p2p.model.dao.SenderTransferDao;
+import org.smartregister.p2p.model.dao.TransactionalReceiverTransferDao;
 import org.smartregister.p2p.shadows.ShadowAppDatabase;
 import org.smartregister.p2p.shadows.ShadowTasker;
 import org.smartregister.p2p.sync.DiscoveredDevice;
+import org.smartregister.p2p.sync.data.BatchFrame;
+import org.smartregister.p2p.sync.data.JsonDataRecordCursor;
+import org.smartregister.p2p.sync.data.MultiMediaData;
 import org.smartregister.p2p.sync.data.ProcessedChunk;
+import org.smartregister.p2p.sync.data.ReceivedRecordsBatch;
+import org.smartregister.p2p.sync.data.RecordDigestOffer;
+import org.smartregister.p2p.sync.data.RecordDigestReply;
 import org.smartregister.p2p.sync.data.SyncPackageManifest;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+import org.smartregister.p2p.util.BinaryRecordCodec;
+import org.smartregister.p2p.util.CompressionUtil;
+import org.smartregister.p2p.util.MediaBundleUtil;
 import org.smartregister.p2p.util.Constants;
+import org.smartregister.p2p.util.RecordDigestUtil;
+import org.smartregister.p2p.util.RecordIdRangeSet;
+import org.smartregister.p2p.util.WireFormatUtil;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -102,10 +132,26 @@ public class SyncReceiverHandlerTest {
     }
 
     @Test
-    public void processPayloadShouldCallProcessManifestWhenAwaitingManifestReceiptIsTrue() {
+    public void syncErrorOccurredShouldNotEndSyncWhenSessionIsSuspended() {
+        SyncFinishedCallback syncFinishedCallback = Mockito.mock(SyncFinishedCallback.class);
+        P2PLibrary.Options options = ReflectionHelpers.getField(P2PLibrary.getInstance(), "options");
+        options.setSyncFinishedCallback(syncFinishedCallback);
+
+        syncReceiverHandler.suspend();
+        syncReceiverHandler.syncErrorOccurred(new Exception("Payload could not be processed"));
+
+        Mockito.verify(syncFinishedCallback, Mockito.never())
+                .onFailure(Mockito.any(Exception.class), Mockito.<HashMap<String, Integer>>any());
+        Mockito.verify(view, Mockito.never())
+                .showSyncCompleteFragment(Mockito.anyBoolean(), Mockito.<String>any()
+                        , Mockito.any(SyncCompleteTransferFragment.OnCloseClickListener.class), Mockito.anyString(), Mockito.anyBoolean());
+    }
+
+    @Test
+    public void processPayloadShouldCallProcessManifestWhenPayloadIsBytes() {
         String endpointId = "id";
         long payloadId = 89834l;
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "json", event, 20);
 
@@ -117,7 +163,7 @@ public class SyncReceiverHandlerTest {
                 .when(payload)
                 .asBytes();
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -126,15 +172,18 @@ public class SyncReceiverHandlerTest {
         Mockito.verify(syncReceiverHandler, Mockito.times(1))
                 .processManifest(ArgumentMatchers.eq(endpointId), ArgumentMatchers.eq(payload));
 
-        assertFalse((boolean) ReflectionHelpers.getField(syncReceiverHandler, "awaitingManifestReceipt"));
+        assertNotNull(((HashMap<Long, SyncPackageManifest>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests"))
+                .get(payloadId));
     }
 
     @Test
-    public void processPayloadShouldCallProcessRecordsWhenAwaitingManifestReceiptIsFalse() {
+    public void processPayloadShouldCallProcessRecordsWhenPayloadIsNotBytes() {
         String endpointId = "id";
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        ReflectionHelpers.setField(syncReceiverHandler, "awaitingManifestReceipt", false);
+        Mockito.doReturn(TransportPayload.TYPE_STREAM)
+                .when(payload)
+                .getType();
 
         syncReceiverHandler.processPayload(endpointId, payload);
         Mockito.verify(syncReceiverHandler, Mockito.times(1))
@@ -145,7 +194,7 @@ public class SyncReceiverHandlerTest {
     public void processManifestShouldRetrieveManifestAndChangeAwaitingItemWhenPayloadIsBytes() {
         String endpointId = "id";
         long payloadId = 829832l;
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "json", event, 20);
         String jsonPackageManifest = new Gson().toJson(syncPackageManifest);
@@ -154,7 +203,7 @@ public class SyncReceiverHandlerTest {
                 .when(payload)
                 .asBytes();
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(payload)
                 .getType();
 
@@ -164,7 +213,6 @@ public class SyncReceiverHandlerTest {
 
         syncReceiverHandler.processManifest(endpointId, payload);
 
-        assertFalse((boolean) ReflectionHelpers.getField(syncReceiverHandler, "awaitingManifestReceipt"));
         SyncPackageManifest finalSyncPackageManifest = ((HashMap<Long, SyncPackageManifest>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests"))
                 .get(payloadId);
 
@@ -174,37 +222,32 @@ public class SyncReceiverHandlerTest {
     @Test
     public void processManifestShouldDoNothingWhenPayloadTypeIsStream() {
         String endpointId = "id";
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Mockito.doReturn(Payload.Type.STREAM)
+        Mockito.doReturn(TransportPayload.TYPE_STREAM)
                 .when(payload)
                 .getType();
 
         syncReceiverHandler.processManifest(endpointId, payload);
 
-        assertTrue((boolean) ReflectionHelpers.getField(syncReceiverHandler, "awaitingManifestReceipt"));
+        assertTrue(((HashMap<Long, SyncPackageManifest>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests")).isEmpty());
     }
 
     @Test
     public void processRecordsShouldCallProcessNonMediaDataWhenPayloadCorrespondsToAwaitingManifestAndDataTypeIsNonMedia() {
         String endpointId = "id";
         long payloadId = 923823l;
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         JSONArray jsonArray = new JSONArray();
 
-        Payload.Stream payloadStream = Mockito.mock(Payload.Stream.class);
-
         Mockito.doReturn(new ByteArrayInputStream(jsonArray.toString().getBytes()))
-                .when(payloadStream)
+                .when(payload)
                 .asInputStream();
 
         SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "json", event, 20);
-        Mockito.doReturn(payloadStream)
-                .when(payload)
-                .asStream();
 
-        Mockito.doReturn(Payload.Type.STREAM)
+        Mockito.doReturn(TransportPayload.TYPE_STREAM)
                 .when(payload)
                 .getType();
 
@@ -219,25 +262,430 @@ public class SyncReceiverHandlerTest {
         assertNotNull(((SimpleArrayMap<Long, ProcessedChunk>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloads")).get(payloadId));
     }
 
+    @Test
+    public void processPayloadChunkShouldPassRecordsToReceiverTransferDaoInBatchesAndCommitRemainderOnFinish() throws Exception {
+        String endpointId = "id";
+        long payloadId = 923823l;
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+
+        JSONArray jsonArray = new JSONArray("[{\"id\":1},{\"id\":2},{\"id\":3},{\"id\":4},{\"id\":5}]");
+        Mockito.doReturn(new ByteArrayInputStream(jsonArray.toString().getBytes()))
+                .when(payload)
+                .asInputStream();
+        Mockito.doReturn(TransportPayload.TYPE_STREAM)
+                .when(payload)
+                .getType();
+        Mockito.doReturn(payloadId)
+                .when(payload)
+                .getId();
+
+        Mockito.doReturn(2L, 4L, 5L)
+                .when(receiverTransferDao)
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+
+        P2PLibrary.Options options = ReflectionHelpers.getField(P2PLibrary.getInstance(), "options");
+        options.setReceiveBatchSize(2);
+
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "json", event, 5);
+        ((HashMap<Long, SyncPackageManifest>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests"))
+                .put(syncPackageManifest.getPayloadId(), syncPackageManifest);
+
+        syncReceiverHandler.processPayloadChunk(endpointId, payload);
+
+        // The last record is held back so that it can be grouped with the next payload
+        Mockito.verify(receiverTransferDao, Mockito.times(2))
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+
+        ProcessedChunk processedChunk = ((SimpleArrayMap<Long, ProcessedChunk>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloads"))
+                .get(payloadId);
+        assertEquals(5, processedChunk.getRecordsSize());
+        assertFalse(processedChunk.isRecordsCommitted());
+
+        syncReceiverHandler.finishProcessingNonMediaData(payloadId);
+
+        Mockito.verify(receiverTransferDao, Mockito.times(3))
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+        assertTrue(processedChunk.isRecordsCommitted());
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateLastRecord(Mockito.eq(event.getName()), Mockito.eq(5L));
+    }
+
+    @Test
+    public void finishProcessingNonMediaDataShouldGroupPayloadsInOneTransactionWhenReceiverTransferDaoIsTransactional() throws Exception {
+        final TransactionalReceiverTransferDao transactionalReceiverTransferDao = Mockito.mock(TransactionalReceiverTransferDao.class);
+        P2PLibrary.init(new P2PLibrary.Options(RuntimeEnvironment.application, "some password", "username"
+                , authorizationService, transactionalReceiverTransferDao, senderTransferDao));
+
+        Mockito.doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return ((Callable) invocation.getArgument(0)).call();
+            }
+        })
+                .when(transactionalReceiverTransferDao)
+                .runInTransaction(Mockito.any(Callable.class));
+        Mockito.doReturn(2L, 4L)
+                .when(transactionalReceiverTransferDao)
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+
+        long firstPayloadId = 923l;
+        long secondPayloadId = 924l;
+        HashMap<Long, SyncPackageManifest> awaitingPackageManifests = ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests");
+        awaitingPackageManifests.put(firstPayloadId, new SyncPackageManifest(firstPayloadId, "json", event, 2));
+        awaitingPackageManifests.put(secondPayloadId, new SyncPackageManifest(secondPayloadId, "json", event, 2));
+
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(firstPayloadId, "[{\"id\":1},{\"id\":2}]"));
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(secondPayloadId, "[{\"id\":3},{\"id\":4}]"));
+
+        Mockito.verify(transactionalReceiverTransferDao, Mockito.never())
+                .runInTransaction(Mockito.any(Callable.class));
+
+        syncReceiverHandler.finishProcessingNonMediaData(firstPayloadId);
+        syncReceiverHandler.finishProcessingNonMediaData(secondPayloadId);
+
+        Mockito.verify(transactionalReceiverTransferDao, Mockito.times(1))
+                .runInTransaction(Mockito.any(Callable.class));
+        Mockito.verify(transactionalReceiverTransferDao, Mockito.times(2))
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateLastRecord(Mockito.eq(event.getName()), Mockito.eq(4L));
+    }
+
+    @Test
+    public void processPayloadChunkShouldDecompressPayloadWhenManifestHasEncoding() throws Exception {
+        Mockito.doReturn(2L)
+                .when(receiverTransferDao)
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+
+        String json = "[{\"id\":1},{\"id\":2}]";
+        ByteArrayOutputStream compressedJson = new ByteArrayOutputStream();
+        OutputStream outputStream = CompressionUtil.wrapOutputStream(compressedJson, Constants.Encoding.GZIP, 6);
+        outputStream.write(json.getBytes("UTF-8"));
+        outputStream.close();
+
+        long payloadId = 923l;
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "json", event, 2);
+        syncPackageManifest.setEncoding(Constants.Encoding.GZIP);
+        syncPackageManifest.setUncompressedSize(json.length());
+
+        HashMap<Long, SyncPackageManifest> awaitingPackageManifests = ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests");
+        awaitingPackageManifests.put(payloadId, syncPackageManifest);
+
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(payloadId, compressedJson.toByteArray()));
+        syncReceiverHandler.finishProcessingNonMediaData(payloadId);
+
+        ArgumentCaptor<JSONArray> recordsCaptor = ArgumentCaptor.forClass(JSONArray.class);
+        Mockito.verify(receiverTransferDao, Mockito.times(1))
+                .receiveJson(Mockito.eq(event), recordsCaptor.capture());
+        assertEquals(json, recordsCaptor.getValue().toString());
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateLastRecord(Mockito.eq(event.getName()), Mockito.eq(2L));
+    }
+
+    @Test
+    public void processPayloadChunkShouldDecompressPayloadWithDictionaryFromEarlierManifest() throws Exception {
+        Mockito.doReturn(1L, 2L)
+                .when(receiverTransferDao)
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+
+        byte[] dictionary = "[{\"id\":0,\"name\":\"\"}]".getBytes("UTF-8");
+        long firstPayloadId = 923l;
+        long secondPayloadId = 924l;
+
+        SyncPackageManifest firstManifest = new SyncPackageManifest(firstPayloadId, "json", event, 1);
+        firstManifest.setEncoding(Constants.Encoding.DEFLATE_DICTIONARY);
+        firstManifest.setDictionary(Base64.encodeToString(dictionary, Base64.NO_WRAP));
+        SyncPackageManifest secondManifest = new SyncPackageManifest(secondPayloadId, "json", event, 1);
+        secondManifest.setEncoding(Constants.Encoding.DEFLATE_DICTIONARY);
+
+        syncReceiverHandler.processManifest("endpoint-id", createBytesPayload(new Gson().toJson(firstManifest)));
+        syncReceiverHandler.processManifest("endpoint-id", createBytesPayload(new Gson().toJson(secondManifest)));
+
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(firstPayloadId
+                , compress("[{\"id\":1,\"name\":\"John\"}]", dictionary)));
+        syncReceiverHandler.finishProcessingNonMediaData(firstPayloadId);
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(secondPayloadId
+                , compress("[{\"id\":2,\"name\":\"Jane\"}]", dictionary)));
+        syncReceiverHandler.finishProcessingNonMediaData(secondPayloadId);
+
+        ArgumentCaptor<JSONArray> recordsCaptor = ArgumentCaptor.forClass(JSONArray.class);
+        Mockito.verify(receiverTransferDao, Mockito.times(2))
+                .receiveJson(Mockito.eq(event), recordsCaptor.capture());
+        assertEquals("Jane", recordsCaptor.getAllValues().get(1).getJSONObject(0).getString("name"));
+    }
+
+    @Test
+    public void processPayloadChunkShouldReadBinaryRecordsWhenManifestIsBinaryFrame() throws Exception {
+        Mockito.doReturn(2L)
+                .when(receiverTransferDao)
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+
+        String json = "[{\"id\":1,\"name\":\"John\"},{\"id\":2,\"name\":\"Jane\"}]";
+        ByteArrayOutputStream binaryRecords = new ByteArrayOutputStream();
+        BinaryRecordCodec.writeRecords(new JsonDataRecordCursor(new JSONArray(json), 2), binaryRecords);
+
+        long payloadId = 923l;
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "json", event, 2);
+        syncPackageManifest.setRecordFormat(Constants.WireFormat.BINARY_RECORDS);
+
+        syncReceiverHandler.processPayload("endpoint-id", createBytesPayload(WireFormatUtil.writeManifest(syncPackageManifest)));
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(payloadId, binaryRecords.toByteArray()));
+        syncReceiverHandler.finishProcessingNonMediaData(payloadId);
+
+        ArgumentCaptor<JSONArray> recordsCaptor = ArgumentCaptor.forClass(JSONArray.class);
+        Mockito.verify(receiverTransferDao, Mockito.times(1))
+                .receiveJson(Mockito.eq(event), recordsCaptor.capture());
+        assertEquals(json, recordsCaptor.getValue().toString());
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateLastRecord(Mockito.eq(event.getName()), Mockito.eq(2L));
+    }
+
+    @Test
+    public void sendPayloadReceivedShouldSendBinaryFrameWhenSenderOfferedBinaryFrames() throws Exception {
+        syncReceiverHandler = new SyncReceiverHandler(receiverPresenter, Arrays.asList(Constants.WireFormat.BINARY_FRAMES));
+
+        syncReceiverHandler.sendPayloadReceived(78L);
+
+        ArgumentCaptor<byte[]> messageCaptor = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(receiverPresenter, Mockito.times(1))
+                .sendBinaryMessage(messageCaptor.capture());
+        Mockito.verify(receiverPresenter, Mockito.never())
+                .sendTextMessage(Mockito.anyString());
+        assertEquals(78L, WireFormatUtil.readPayloadReceived(messageCaptor.getValue()));
+    }
+
+    @Test
+    public void processPayloadShouldPerformSyncCompleteOperationsWhenBinarySyncCompleteIsReceived() {
+        Mockito.doNothing()
+                .when(syncReceiverHandler)
+                .performSynCompleteOperations();
+
+        syncReceiverHandler.processPayload("endpoint-id", createBytesPayload(WireFormatUtil.writeSyncComplete()));
+
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .performSynCompleteOperations();
+        Mockito.verify(syncReceiverHandler, Mockito.never())
+                .processManifest(Mockito.anyString(), Mockito.any(TransportPayload.class));
+    }
+
+    @Test
+    public void processPayloadChunkShouldReadBatchFramesWhenPayloadIsFramedStream() throws Exception {
+        Mockito.doReturn(2L)
+                .when(receiverTransferDao)
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+        Mockito.doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                ((Runnable) invocation.getArgument(0)).run();
+                return null;
+            }
+        })
+                .when(syncReceiverHandler)
+                .startNewThread(Mockito.any(Runnable.class));
+
+        long streamId = 700L;
+        String json = "[{\"id\":1,\"name\":\"John\"},{\"id\":2,\"name\":\"Jane\"}]";
+        ByteArrayOutputStream framedStream = new ByteArrayOutputStream();
+        DataOutputStream framedStreamOutput = new DataOutputStream(framedStream);
+        WireFormatUtil.writeBatchFrame(framedStreamOutput, new BatchFrame(new SyncPackageManifest(streamId + 1, "json", event, 2)
+                , 2L, json.getBytes("UTF-8")));
+        framedStreamOutput.flush();
+
+        syncReceiverHandler.processPayload("endpoint-id", createBytesPayload(new Gson().toJson(
+                new SyncPackageManifest(streamId, Constants.WireFormat.FRAMED_STREAM, event, 0))));
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(streamId, framedStream.toByteArray()));
+
+        ArgumentCaptor<JSONArray> recordsCaptor = ArgumentCaptor.forClass(JSONArray.class);
+        Mockito.verify(receiverTransferDao, Mockito.times(1))
+                .receiveJson(Mockito.eq(event), recordsCaptor.capture());
+        assertEquals(json, recordsCaptor.getValue().toString());
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateLastRecord(Mockito.eq(event.getName()), Mockito.eq(2L));
+        Mockito.verify(receiverPresenter, Mockito.times(1))
+                .sendTextMessage(Constants.Connection.PAYLOAD_RECEIVED + (streamId + 1));
+    }
+
+    @Test
+    public void processBatchFrameShouldAcknowledgeEachFrameAndSaveLastRecordId() throws Exception {
+        Mockito.doReturn(2L, 4L)
+                .when(receiverTransferDao)
+                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+
+        syncReceiverHandler.processBatchFrame("endpoint-id", new BatchFrame(new SyncPackageManifest(801L, "json", event, 2)
+                , 2L, "[{\"id\":1},{\"id\":2}]".getBytes("UTF-8")));
+        syncReceiverHandler.processBatchFrame("endpoint-id", new BatchFrame(new SyncPackageManifest(802L, "json", event, 2)
+                , 4L, "[{\"id\":3},{\"id\":4}]".getBytes("UTF-8")));
+
+        Mockito.verify(receiverPresenter, Mockito.times(1))
+                .sendTextMessage(Constants.Connection.PAYLOAD_RECEIVED + 801L);
+        Mockito.verify(receiverPresenter, Mockito.times(1))
+                .sendTextMessage(Constants.Connection.PAYLOAD_RECEIVED + 802L);
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateLastRecord(Mockito.eq(event.getName()), Mockito.eq(4L));
+    }
+
+    @Test
+    public void processPayloadChunkShouldUnpackMediaBundleAndReceiveEachMediaFile() throws Exception {
+        Mockito.doReturn(6L, 7L)
+                .when(receiverTransferDao)
+                .receiveMultimedia(Mockito.eq(profilePic), Mockito.any(File.class)
+                        , ArgumentMatchers.<HashMap<String, Object>>any(), Mockito.anyLong());
+
+        File firstFile = File.createTempFile("first", ".jpg");
+        File secondFile = File.createTempFile("second", ".jpg");
+        HashMap<String, String> mediaDetails = new HashMap<>();
+        mediaDetails.put("baseEntityId", "entity-1");
+        MultiMediaData firstMediaFile = new MultiMediaData(firstFile, 6L);
+        firstMediaFile.setMediaDetails(mediaDetails);
+
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        MediaBundleUtil.writeBundle(Arrays.asList(firstMediaFile, new MultiMediaData(secondFile, 7L)), bundle);
+
+        long payloadId = 930L;
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "", profilePic, 2);
+        syncPackageManifest.setRecordFormat(Constants.WireFormat.MEDIA_BUNDLE);
+
+        syncReceiverHandler.processPayload("endpoint-id", createBytesPayload(new Gson().toJson(syncPackageManifest)));
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(payloadId, bundle.toByteArray()));
+        syncReceiverHandler.finishProcessingData("endpoint-id", payloadId);
+
+        ArgumentCaptor<HashMap> detailsCaptor = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(receiverTransferDao, Mockito.times(2))
+                .receiveMultimedia(Mockito.eq(profilePic), Mockito.any(File.class), detailsCaptor.capture(), Mockito.anyLong());
+        assertEquals("entity-1", detailsCaptor.getAllValues().get(0).get("baseEntityId"));
+        assertEquals(7D, detailsCaptor.getAllValues().get(1).get("fileRecordId"));
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateLastRecord(Mockito.eq(profilePic.getName()), Mockito.eq(7L));
+        Mockito.verify(syncReceiverHandler, Mockito.never())
+                .finishProcessingMediaData(Mockito.anyLong());
+    }
+
+    @Test
+    public void processPayloadChunkShouldReceiveMediaFileOnceAllItsChunksHaveBeenReceived() throws Exception {
+        SendingDevice sendingDevice = new SendingDevice();
+        sendingDevice.setDeviceId("sending-device-id");
+        Mockito.doReturn(sendingDevice)
+                .when(receiverPresenter)
+                .getSendingDevice();
+        Mockito.doNothing()
+                .when(syncReceiverHandler)
+                .updateLastRecord(Mockito.anyString(), Mockito.anyLong());
+
+        final ArrayList<String> receivedContents = new ArrayList<>();
+        Mockito.doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                File file = invocation.getArgument(1);
+                byte[] contents = new byte[(int) file.length()];
+                DataInputStream dataInputStream = new DataInputStream(new FileInputStream(file));
+                dataInputStream.readFully(contents);
+                dataInputStream.close();
+
+                receivedContents.add(new String(contents));
+                return 8L;
+            }
+        })
+                .when(receiverTransferDao)
+                .receiveMultimedia(Mockito.eq(profilePic), Mockito.any(File.class)
+                        , ArgumentMatchers.<HashMap<String, Object>>any(), Mockito.anyLong());
+
+        byte[] fileBytes = "0123456789abcdefghij".getBytes();
+        receiveMediaChunk(940L, fileBytes, 10, 10, false);
+
+        Mockito.verify(receiverTransferDao, Mockito.never())
+                .receiveMultimedia(Mockito.any(DataType.class), Mockito.any(File.class)
+                        , ArgumentMatchers.<HashMap<String, Object>>any(), Mockito.anyLong());
+
+        receiveMediaChunk(941L, fileBytes, 0, 10, true);
+
+        ArgumentCaptor<HashMap> detailsCaptor = ArgumentCaptor.forClass(HashMap.class);
+        Mockito.verify(receiverTransferDao, Mockito.times(1))
+                .receiveMultimedia(Mockito.eq(profilePic), Mockito.any(File.class), detailsCaptor.capture(), Mockito.eq(8L));
+        assertEquals("entity-1", detailsCaptor.getValue().get("baseEntityId"));
+        assertEquals(Arrays.asList("0123456789abcdefghij"), receivedContents);
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateLastRecord(Mockito.eq(profilePic.getName()), Mockito.eq(8L));
+    }
+
+    private void receiveMediaChunk(long payloadId, byte[] fileBytes, int offset, int length, boolean lastChunk) {
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, ".jpg", profilePic, lastChunk ? 1 : 0);
+        syncPackageManifest.setRecordFormat(Constants.WireFormat.MEDIA_CHUNKS);
+
+        HashMap<String, Object> payloadDetails = new HashMap<>();
+        payloadDetails.put("baseEntityId", "entity-1");
+        payloadDetails.put("fileRecordId", 8L);
+        payloadDetails.put("fileSize", (long) fileBytes.length);
+        payloadDetails.put("chunkOffset", (long) offset);
+        payloadDetails.put("chunkLength", (long) length);
+        payloadDetails.put("lastChunk", lastChunk);
+        syncPackageManifest.setPayloadDetails(payloadDetails);
+
+        syncReceiverHandler.processPayload("endpoint-id", createBytesPayload(new Gson().toJson(syncPackageManifest)));
+        syncReceiverHandler.processPayloadChunk("endpoint-id", createJsonStreamPayload(payloadId
+                , Arrays.copyOfRange(fileBytes, offset, offset + length)));
+        syncReceiverHandler.finishProcessingData("endpoint-id", payloadId);
+    }
+
+    private byte[] compress(String json, byte[] dictionary) throws Exception {
+        ByteArrayOutputStream compressedJson = new ByteArrayOutputStream();
+        OutputStream outputStream = CompressionUtil.wrapOutputStream(compressedJson, Constants.Encoding.DEFLATE_DICTIONARY, 6, dictionary);
+        outputStream.write(json.getBytes("UTF-8"));
+        outputStream.close();
+
+        return compressedJson.toByteArray();
+    }
+
+    private TransportPayload createBytesPayload(String message) {
+        return createBytesPayload(message.getBytes());
+    }
+
+    private TransportPayload createBytesPayload(byte[] message) {
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+
+        Mockito.doReturn(message)
+                .when(payload)
+                .asBytes();
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+
+        return payload;
+    }
+
+    private TransportPayload createJsonStreamPayload(long payloadId, String json) {
+        return createJsonStreamPayload(payloadId, json.getBytes());
+    }
+
+    private TransportPayload createJsonStreamPayload(long payloadId, byte[] payloadBytes) {
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(new ByteArrayInputStream(payloadBytes))
+                .when(payload)
+                .asInputStream();
+        Mockito.doReturn(TransportPayload.TYPE_STREAM)
+                .when(payload)
+                .getType();
+        Mockito.doReturn(payloadId)
+                .when(payload)
+                .getId();
+
+        return payload;
+    }
+
     @Test
     public void processRecordsShouldCallProcessMediaDataWhenPayloadCorrespondsToAwaitingManifestAndDataTypeIsMedia() {
         String endpointId = "id";
         long payloadId = 923823l;
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
-        Payload.File payloadFile = Mockito.mock(Payload.File.class);
         File javaFile = Mockito.mock(File.class);
 
         Mockito.doReturn(javaFile)
-                .when(payloadFile)
-                .asJavaFile();
-
-        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "png", profilePic, 1);
-        Mockito.doReturn(payloadFile)
                 .when(payload)
                 .asFile();
 
-        Mockito.doReturn(Payload.Type.FILE)
+        SyncPackageManifest syncPackageManifest = new SyncPackageManifest(payloadId, "png", profilePic, 1);
+
+        Mockito.doReturn(TransportPayload.TYPE_FILE)
                 .when(payload)
                 .getType();
 
@@ -259,7 +707,7 @@ public class SyncReceiverHandlerTest {
         String endpointId = "endpointid";
         String deviceName = "SAMSUNG SMT78723";
 
-        Payload syncCompletePayload = Mockito.mock(Payload.class);
+        TransportPayload syncCompletePayload = Mockito.mock(TransportPayload.class);
 
         DiscoveredEndpointInfo discoveredEndpointInfo = Mockito.mock(DiscoveredEndpointInfo.class);
         DiscoveredDevice discoveredDevice = new DiscoveredDevice(endpointId, discoveredEndpointInfo);
@@ -268,7 +716,7 @@ public class SyncReceiverHandlerTest {
                 .when(syncCompletePayload)
                 .getId();
 
-        Mockito.doReturn(Payload.Type.BYTES)
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
                 .when(syncCompletePayload)
                 .getType();
 
@@ -298,9 +746,9 @@ public class SyncReceiverHandlerTest {
     public void onPayloadTransferUpdateShouldSendAcknowledgementToSenderDeviceWhenTransferStatusUpdateIsSuccessful() {
         String endpointId = "endpoint-id";
         long payloadId = 923l;
-        PayloadTransferUpdate update = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate update = Mockito.mock(TransportPayloadUpdate.class);
 
-        Mockito.doReturn(PayloadTransferUpdate.Status.SUCCESS)
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
                 .when(update)
                 .getStatus();
 
@@ -325,9 +773,9 @@ public class SyncReceiverHandlerTest {
     public void onPayloadTransferUpdateShouldCallFinishProcessDataWhenTransferStatusUpdateIsSuccessful() {
         String endpointId = "endpoint-id";
         long payloadId = 923l;
-        PayloadTransferUpdate update = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate update = Mockito.mock(TransportPayloadUpdate.class);
 
-        Mockito.doReturn(PayloadTransferUpdate.Status.SUCCESS)
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
                 .when(update)
                 .getStatus();
 
@@ -352,9 +800,9 @@ public class SyncReceiverHandlerTest {
         int total = 20;
         int sent = 5;
         int expectedProgress = (5 *100)/20;
-        PayloadTransferUpdate update = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate update = Mockito.mock(TransportPayloadUpdate.class);
 
-        Mockito.doReturn(PayloadTransferUpdate.Status.IN_PROGRESS)
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_IN_PROGRESS)
                 .when(update)
                 .getStatus();
         Mockito.doReturn((long) sent)
@@ -386,7 +834,7 @@ public class SyncReceiverHandlerTest {
         awaitingPackageManifests.put(payloadId, syncPackageManifest);
 
         // Add the processed chunk
-        ProcessedChunk processedChunk = new ProcessedChunk(Payload.Type.STREAM, "[]");
+        ProcessedChunk processedChunk = new ProcessedChunk(TransportPayload.TYPE_STREAM);
         ((SimpleArrayMap<Long, ProcessedChunk>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloads"))
                 .put(payloadId, processedChunk);
 
@@ -406,7 +854,7 @@ public class SyncReceiverHandlerTest {
         HashMap<Long, SyncPackageManifest> awaitingPackageManifests = ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests");
         awaitingPackageManifests.put(payloadId, syncPackageManifest);
 
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         DiscoveredEndpointInfo discoveredEndpointInfo = Mockito.mock(DiscoveredEndpointInfo.class);
         DiscoveredDevice discoveredDevice = new DiscoveredDevice(endpointId, discoveredEndpointInfo);
@@ -416,7 +864,7 @@ public class SyncReceiverHandlerTest {
                 .getCurrentPeerDevice();
 
         // Add the processed chunk
-        ProcessedChunk processedChunk = new ProcessedChunk(Payload.Type.FILE, payload);
+        ProcessedChunk processedChunk = new ProcessedChunk(TransportPayload.TYPE_FILE, payload);
         ((SimpleArrayMap<Long, ProcessedChunk>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloads"))
                 .put(payloadId, processedChunk);
 
@@ -439,14 +887,13 @@ public class SyncReceiverHandlerTest {
         awaitingPackageManifests.put(payloadId, syncPackageManifest);
 
         // Add the processed chunk
-        ProcessedChunk processedChunk = new ProcessedChunk(Payload.Type.STREAM, "[]");
+        ProcessedChunk processedChunk = new ProcessedChunk(TransportPayload.TYPE_STREAM);
+        processedChunk.setRecordsSize(recordsTransferred);
+        processedChunk.setLastRecordId(lastRecordId);
+        processedChunk.setRecordsCommitted(true);
         ((SimpleArrayMap<Long, ProcessedChunk>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloads"))
                 .put(payloadId, processedChunk);
 
-        Mockito.doReturn(lastRecordId)
-                .when(receiverTransferDao)
-                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
-
         DiscoveredDevice discoveredDevice = new DiscoveredDevice(endpointId, Mockito.mock(DiscoveredEndpointInfo.class));
         Mockito.doReturn(discoveredDevice)
                 .when(receiverPresenter)
@@ -455,16 +902,111 @@ public class SyncReceiverHandlerTest {
         syncReceiverHandler.finishProcessingNonMediaData(payloadId);
 
         Mockito.verify(syncReceiverHandler, Mockito.times(1))
-                .updateTransferProgress(Mockito.eq(event.getName()), Mockito.anyInt());
+                .updateTransferProgress(Mockito.eq(event.getName()), Mockito.eq(recordsTransferred));
         Mockito.verify(syncReceiverHandler, Mockito.times(1))
-                .logTransfer(Mockito.eq(false), Mockito.eq(event.getName()), Mockito.any(DiscoveredDevice.class), Mockito.anyInt());
-        Mockito.verify(receiverTransferDao, Mockito.times(1))
-                .receiveJson(Mockito.eq(event), Mockito.any(JSONArray.class));
+                .logTransfer(Mockito.eq(false), Mockito.eq(event.getName()), Mockito.any(DiscoveredDevice.class), Mockito.eq(recordsTransferred));
         Mockito.verify(syncReceiverHandler, Mockito.times(1))
                 .updateLastRecord(Mockito.eq(event.getName()), Mockito.eq(lastRecordId));
         assertNull(((HashMap<Long, SyncPackageManifest>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests")).get(payloadId));
     }
 
+    @Test
+    public void finishProcessingNonMediaDataShouldSaveReceivedRangeAheadOfEarlierPayloadThatIsNotCommitted() {
+        long firstPayloadId = 923l;
+        long secondPayloadId = 924l;
+
+        SyncPackageManifest firstManifest = new SyncPackageManifest(firstPayloadId, "json", event, 100);
+        firstManifest.setRecordIdRange(100, 200);
+        SyncPackageManifest secondManifest = new SyncPackageManifest(secondPayloadId, "json", event, 100);
+        secondManifest.setRecordIdRange(200, 300);
+
+        HashMap<Long, SyncPackageManifest> awaitingPackageManifests = ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests");
+        awaitingPackageManifests.put(firstPayloadId, firstManifest);
+        awaitingPackageManifests.put(secondPayloadId, secondManifest);
+
+        ProcessedChunk firstProcessedChunk = new ProcessedChunk(TransportPayload.TYPE_STREAM);
+        ProcessedChunk secondProcessedChunk = new ProcessedChunk(TransportPayload.TYPE_STREAM);
+        secondProcessedChunk.setRecordsCommitted(true);
+
+        SimpleArrayMap<Long, ProcessedChunk> awaitingPayloads = ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloads");
+        awaitingPayloads.put(firstPayloadId, firstProcessedChunk);
+        awaitingPayloads.put(secondPayloadId, secondProcessedChunk);
+
+        syncReceiverHandler.finishProcessingNonMediaData(firstPayloadId);
+        syncReceiverHandler.finishProcessingNonMediaData(secondPayloadId);
+
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .updateReceivedRange(Mockito.eq(event.getName()), Mockito.eq(200L), Mockito.eq(300L));
+        Mockito.verify(syncReceiverHandler, Mockito.never())
+                .updateReceivedRange(Mockito.eq(event.getName()), Mockito.eq(100L), Mockito.anyLong());
+        Mockito.verify(syncReceiverHandler, Mockito.never())
+                .updateLastRecord(Mockito.anyString(), Mockito.anyLong());
+    }
+
+    @Test
+    public void updateReceivedRangeShouldSaveGapUntilEarlierRangeIsReceived() throws Exception {
+        SendingDevice sendingDevice = new SendingDevice();
+        sendingDevice.setDeviceId("device-id");
+        sendingDevice.setAppLifetimeKey("app-lifetime-key");
+        Mockito.doReturn(sendingDevice)
+                .when(receiverPresenter)
+                .getSendingDevice();
+
+        P2pReceivedHistoryDao p2pReceivedHistoryDao = P2PLibrary.getInstance().getDb().p2pReceivedHistoryDao();
+        p2pReceivedHistoryDao.clearDeviceRecords("device-id");
+
+        syncReceiverHandler.updateReceivedRange(event.getName(), 200, 300);
+
+        P2pReceivedHistory receivedHistory = p2pReceivedHistoryDao.getHistory("device-id", event.getName());
+        assertEquals(0, receivedHistory.getLastRecordId());
+        assertArrayEquals(new long[]{201, 301}, RecordIdRangeSet.of(receivedHistory).getRanges().get(0));
+
+        syncReceiverHandler.updateReceivedRange(event.getName(), 0, 200);
+
+        receivedHistory = p2pReceivedHistoryDao.getHistory("device-id", event.getName());
+        assertEquals(300, receivedHistory.getLastRecordId());
+        assertNull(receivedHistory.getReceivedRanges());
+    }
+
+    @Test
+    public void processPayloadShouldReplyWithCommittedRecordsWhenPayloadIsDigestOffer() throws Exception {
+        ReflectionHelpers.setField(syncReceiverHandler, "recordDeduplication", true);
+        P2PLibrary.getInstance().getDb().p2pRecordDigestDao().clearRecordDigests(event.getName());
+
+        ProcessedChunk processedChunk = new ProcessedChunk(TransportPayload.TYPE_STREAM);
+        ReceivedRecordsBatch receivedRecordsBatch = new ReceivedRecordsBatch(event);
+        receivedRecordsBatch.add(processedChunk, new JSONArray("[{\"id\":1,\"type\":\"Birth\"}]"));
+        receivedRecordsBatch.setReadComplete(processedChunk);
+        ((Map<String, ReceivedRecordsBatch>) ReflectionHelpers.getField(syncReceiverHandler, "receivedRecordsBatches"))
+                .put(event.getName(), receivedRecordsBatch);
+
+        ReflectionHelpers.callInstanceMethod(syncReceiverHandler, "flushReceivedRecords"
+                , ReflectionHelpers.ClassParameter.from(String.class, event.getName()));
+        assertTrue(processedChunk.isRecordsCommitted());
+
+        long[] digests = RecordDigestUtil.getDigests(new JSONArray("[{\"id\":2,\"type\":\"Death\"},{\"id\":1,\"type\":\"Birth\"}]"));
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(TransportPayload.TYPE_BYTES)
+                .when(payload)
+                .getType();
+        Mockito.doReturn(WireFormatUtil.writeDigestOffer(new RecordDigestOffer(4L, event.getName(), digests)))
+                .when(payload)
+                .asBytes();
+
+        syncReceiverHandler.processPayload("endpoint-id", payload);
+
+        ArgumentCaptor<byte[]> replyCaptor = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(receiverPresenter, Mockito.times(1))
+                .sendBinaryMessage(replyCaptor.capture());
+        Mockito.verify(syncReceiverHandler, Mockito.never())
+                .processManifest(Mockito.anyString(), Mockito.any(TransportPayload.class));
+
+        RecordDigestReply recordDigestReply = WireFormatUtil.readDigestReply(replyCaptor.getValue());
+        assertEquals(4L, recordDigestReply.getOfferId());
+        assertFalse(recordDigestReply.getKnownRecords()[0]);
+        assertTrue(recordDigestReply.getKnownRecords()[1]);
+    }
+
     @Test
     public void finishProcessMediaDataShouldCallUpdateLastRecord() {
         String endpointId = "endpoint-id";
@@ -482,12 +1024,7 @@ public class SyncReceiverHandlerTest {
         HashMap<Long, SyncPackageManifest> awaitingPackageManifests = ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests");
         awaitingPackageManifests.put(payloadId, syncPackageManifest);
 
-        Payload payload = Mockito.mock(Payload.class);
-        Payload.File payloadFile = Mockito.mock(Payload.File.class);
-
-        Mockito.doReturn(payloadFile)
-                .when(payload)
-                .asFile();
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
 
         Mockito.doReturn(payloadId)
                 .when(payload)
@@ -495,8 +1032,8 @@ public class SyncReceiverHandlerTest {
 
         File mockedFile = Mockito.mock(File.class);
         Mockito.doReturn(mockedFile)
-                .when(payloadFile)
-                .asJavaFile();
+                .when(payload)
+                .asFile();
 
         DiscoveredEndpointInfo discoveredEndpointInfo = Mockito.mock(DiscoveredEndpointInfo.class);
         DiscoveredDevice discoveredDevice = new DiscoveredDevice(endpointId, discoveredEndpointInfo);
@@ -506,7 +1043,7 @@ public class SyncReceiverHandlerTest {
                 .getCurrentPeerDevice();
 
         // Add the processed chunk
-        ProcessedChunk processedChunk = new ProcessedChunk(Payload.Type.FILE, payload);
+        ProcessedChunk processedChunk = new ProcessedChunk(TransportPayload.TYPE_FILE, payload);
         ((SimpleArrayMap<Long, ProcessedChunk>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloads"))
                 .put(payloadId, processedChunk);
 
@@ -528,4 +1065,48 @@ public class SyncReceiverHandlerTest {
         assertNull(((HashMap<Long, SyncPackageManifest>) ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests")).get(payloadId));
     }
 
+    @Test
+    public void onPayloadTransferUpdateShouldFinishPayloadsOfSameDataTypeInManifestOrder() {
+        String endpointId = "endpoint-id";
+        long firstPayloadId = 923l;
+        long secondPayloadId = 924l;
+
+        Mockito.doNothing()
+                .when(syncReceiverHandler)
+                .finishProcessingData(Mockito.anyString(), Mockito.anyLong());
+
+        HashMap<Long, SyncPackageManifest> awaitingPackageManifests = ReflectionHelpers.getField(syncReceiverHandler, "awaitingPayloadManifests");
+        awaitingPackageManifests.put(firstPayloadId, new SyncPackageManifest(firstPayloadId, "json", event, 20));
+        awaitingPackageManifests.put(secondPayloadId, new SyncPackageManifest(secondPayloadId, "json", event, 20));
+
+        TransportPayloadUpdate secondUpdate = Mockito.mock(TransportPayloadUpdate.class);
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
+                .when(secondUpdate)
+                .getStatus();
+        Mockito.doReturn(secondPayloadId)
+                .when(secondUpdate)
+                .getPayloadId();
+
+        syncReceiverHandler.onPayloadTransferUpdate(endpointId, secondUpdate);
+
+        Mockito.verify(syncReceiverHandler, Mockito.never())
+                .finishProcessingData(Mockito.anyString(), Mockito.anyLong());
+        Mockito.verify(syncReceiverHandler, Mockito.times(1))
+                .sendPayloadReceived(Mockito.eq(secondPayloadId));
+
+        TransportPayloadUpdate firstUpdate = Mockito.mock(TransportPayloadUpdate.class);
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
+                .when(firstUpdate)
+                .getStatus();
+        Mockito.doReturn(firstPayloadId)
+                .when(firstUpdate)
+                .getPayloadId();
+
+        syncReceiverHandler.onPayloadTransferUpdate(endpointId, firstUpdate);
+
+        InOrder inOrder = Mockito.inOrder(syncReceiverHandler);
+        inOrder.verify(syncReceiverHandler).finishProcessingData(endpointId, firstPayloadId);
+        inOrder.verify(syncReceiverHandler).finishProcessingData(endpointId, secondPayloadId);
+    }
+
 }
\ No newline at end of file
@@ -1,18 +1,21 @@
 package org.smartregister.p2p.sync.handler;
 
-import com.google.android.gms.nearby.connection.Payload;
-import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
+import android.support.annotation.NonNull;
+
 
 import org.json.JSONArray;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
+import org.mockito.stubbing.Answer;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
@@ -23,24 +26,55 @@ import org.smartregister.p2p.authorizer.P2PAuthorizationService;
 import org.smartregister.p2p.contract.P2pModeSelectContract;
 import org.smartregister.p2p.model.DataType;
 import org.smartregister.p2p.model.P2pReceivedHistory;
+import org.smartregister.p2p.model.TransferHints;
+import org.smartregister.p2p.model.dao.RangedSenderTransferDao;
 import org.smartregister.p2p.model.dao.ReceiverTransferDao;
 import org.smartregister.p2p.model.dao.SenderTransferDao;
+import org.smartregister.p2p.model.dao.StreamingSenderTransferDao;
 import org.smartregister.p2p.shadows.ShadowAppDatabase;
-import org.smartregister.p2p.shadows.ShadowPayload;
 import org.smartregister.p2p.shadows.ShadowTasker;
+import org.smartregister.p2p.sync.AdaptiveBatchController;
+import org.smartregister.p2p.sync.FramedStreamWriter;
+import org.smartregister.p2p.sync.data.BatchFrame;
 import org.smartregister.p2p.sync.data.JsonData;
+import org.smartregister.p2p.sync.data.JsonDataRecordCursor;
+import org.smartregister.p2p.sync.data.JsonRecordCursor;
 import org.smartregister.p2p.sync.data.MultiMediaData;
+import org.smartregister.p2p.sync.data.PartialMediaFile;
+import org.smartregister.p2p.sync.data.PreparedBatch;
+import org.smartregister.p2p.sync.data.RecordDigestOffer;
+import org.smartregister.p2p.sync.data.RecordDigestReply;
 import org.smartregister.p2p.sync.data.SyncPackageManifest;
+import org.smartregister.p2p.transport.Transport;
+import org.smartregister.p2p.transport.TransportPayload;
+import org.smartregister.p2p.transport.TransportPayloadUpdate;
+import org.smartregister.p2p.transport.TransportStream;
 import org.smartregister.p2p.util.Constants;
-
+import org.smartregister.p2p.util.CountingOutputStream;
+import org.smartregister.p2p.util.MediaChunkUtil;
+import org.smartregister.p2p.util.RecordDigestUtil;
+import org.smartregister.p2p.util.RecordIdRangeSet;
+import org.smartregister.p2p.util.SyncDataConverterUtil;
+import org.smartregister.p2p.util.WireFormatUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -52,7 +86,7 @@ import static org.junit.Assert.assertTrue;
  */
 
 @RunWith(RobolectricTestRunner.class)
-@Config(shadows = {ShadowAppDatabase.class, ShadowTasker.class, ShadowPayload.class})
+@Config(shadows = {ShadowAppDatabase.class, ShadowTasker.class})
 public class SyncSenderHandlerTest {
 
     @Rule
@@ -61,6 +95,9 @@ public class SyncSenderHandlerTest {
     private TestSyncSenderHandler syncSenderHandler;
     @Mock
     private P2pModeSelectContract.SenderPresenter senderPresenter;
+    @Mock
+    private Transport transport;
+    private TransportPayload payloadToReturn = Mockito.mock(TransportPayload.class);
 
     @Mock
     private P2PAuthorizationService authorizationService;
@@ -80,6 +117,22 @@ public class SyncSenderHandlerTest {
         P2PLibrary.init(new P2PLibrary.Options(RuntimeEnvironment.application, "some password", "username"
                 , authorizationService, receiverTransferDao, senderTransferDao));
 
+        Mockito.doReturn(transport)
+                .when(senderPresenter)
+                .getTransport();
+        Mockito.doAnswer(new Answer<TransportStream>() {
+            @Override
+            public TransportStream answer(InvocationOnMock invocation) {
+                return new TransportStream(payloadToReturn, new ByteArrayOutputStream());
+            }
+        }).when(transport).createStreamPayload();
+        Mockito.doAnswer(new Answer<TransportPayload>() {
+            @Override
+            public TransportPayload answer(InvocationOnMock invocation) {
+                return payloadToReturn;
+            }
+        }).when(transport).createFilePayload(Mockito.any(File.class));
+
         dataSyncOrder = new TreeSet<>();
         dataSyncOrder.add(profilePic);
         dataSyncOrder.add(client);
@@ -200,13 +253,13 @@ public class SyncSenderHandlerTest {
     @Test
     public void onPayloadTransferUpdateShouldCallSendNextPayloadAndResetFlagsWhenManifestStatusUpdateIsSuccess() {
         long payloadId = 9;
-        int status = PayloadTransferUpdate.Status.SUCCESS;
+        int status = TransportPayloadUpdate.STATUS_SUCCESS;
 
         Mockito.doNothing()
                 .when(syncSenderHandler)
                 .sendNextPayload();
 
-        PayloadTransferUpdate payloadTransferUpdate = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate payloadTransferUpdate = Mockito.mock(TransportPayloadUpdate.class);
 
         Mockito.doReturn(payloadId)
                 .when(payloadTransferUpdate)
@@ -231,13 +284,13 @@ public class SyncSenderHandlerTest {
     @Test
     public void onPayloadTransferUpdateShouldRetrySendingManifestWhenStatusManifestUpdateIsFailure() {
         long payloadId = 9;
-        int status = PayloadTransferUpdate.Status.FAILURE;
+        int status = TransportPayloadUpdate.STATUS_FAILURE;
 
         Mockito.doNothing()
                 .when(syncSenderHandler)
                 .sendNextPayload();
 
-        PayloadTransferUpdate payloadTransferUpdate = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate payloadTransferUpdate = Mockito.mock(TransportPayloadUpdate.class);
 
         Mockito.doReturn(payloadId)
                 .when(payloadTransferUpdate)
@@ -264,13 +317,13 @@ public class SyncSenderHandlerTest {
     @Test
     public void onPayloadTransferUpdateShouldReportFatalSyncErrorToPresenterWhenManifestStatusUpdateIsCancelled() {
         long payloadId = 9;
-        int status = PayloadTransferUpdate.Status.CANCELED;
+        int status = TransportPayloadUpdate.STATUS_CANCELED;
 
         Mockito.doNothing()
                 .when(syncSenderHandler)
                 .sendNextPayload();
 
-        PayloadTransferUpdate payloadTransferUpdate = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate payloadTransferUpdate = Mockito.mock(TransportPayloadUpdate.class);
 
         Mockito.doReturn(payloadId)
                 .when(payloadTransferUpdate)
@@ -296,7 +349,7 @@ public class SyncSenderHandlerTest {
                 .when(syncSenderHandler)
                 .sendNextManifest();
 
-        Payload awaitingPayload = Mockito.mock(Payload.class);
+        TransportPayload awaitingPayload = Mockito.mock(TransportPayload.class);
 
         Mockito.doReturn(payloadId)
                 .when(awaitingPayload)
@@ -327,9 +380,9 @@ public class SyncSenderHandlerTest {
     @Test
     public void onPayloadTransferUpdateShouldRetrySendingPayloadWhenPayloadStatusUpdateForPayloadIsFailureAndPayloadRetriesIsNull() {
         long payloadId = 9;
-        int status = PayloadTransferUpdate.Status.FAILURE;
+        int status = TransportPayloadUpdate.STATUS_FAILURE;
 
-        PayloadTransferUpdate payloadTransferUpdate = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate payloadTransferUpdate = Mockito.mock(TransportPayloadUpdate.class);
 
         Mockito.doReturn(payloadId)
                 .when(payloadTransferUpdate)
@@ -339,7 +392,7 @@ public class SyncSenderHandlerTest {
                 .when(payloadTransferUpdate)
                 .getStatus();
 
-        Payload awaitingPayload = Mockito.mock(Payload.class);
+        TransportPayload awaitingPayload = Mockito.mock(TransportPayload.class);
 
         Mockito.doReturn(payloadId)
                 .when(awaitingPayload)
@@ -367,9 +420,9 @@ public class SyncSenderHandlerTest {
     @Test
     public void onPayloadTransferUpdateShouldReportFatalErrorToPresenterWhenPayloadStatusUpdateForPayloadIsCancelled() {
         long payloadId = 9;
-        int status = PayloadTransferUpdate.Status.CANCELED;
+        int status = TransportPayloadUpdate.STATUS_CANCELED;
 
-        PayloadTransferUpdate payloadTransferUpdate = Mockito.mock(PayloadTransferUpdate.class);
+        TransportPayloadUpdate payloadTransferUpdate = Mockito.mock(TransportPayloadUpdate.class);
 
         Mockito.doReturn(payloadId)
                 .when(payloadTransferUpdate)
@@ -379,7 +432,7 @@ public class SyncSenderHandlerTest {
                 .when(payloadTransferUpdate)
                 .getStatus();
 
-        Payload awaitingPayload = Mockito.mock(Payload.class);
+        TransportPayload awaitingPayload = Mockito.mock(TransportPayload.class);
 
         Mockito.doReturn(payloadId)
                 .when(awaitingPayload)
@@ -407,12 +460,12 @@ public class SyncSenderHandlerTest {
         HashMap<String, Long> remainingLastRecords = ReflectionHelpers.getField(syncSenderHandler, "remainingLastRecordIds");
         remainingLastRecords.put("pic", 0L);
 
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
         Mockito.doReturn(898L)
                 .when(payload)
                 .getId();
 
-        ShadowPayload.setPayloadToReturn(payload);
+        payloadToReturn = payload;
 
         Mockito.doReturn(multiMediaData)
                 .when(senderTransferDao)
@@ -429,17 +482,99 @@ public class SyncSenderHandlerTest {
                 .sendManifest(Mockito.any(SyncPackageManifest.class));
     }
 
+    @Test
+    public void sendMultimediaDataManifestShouldBundleConsecutiveSmallMediaFiles() {
+        ReflectionHelpers.setField(syncSenderHandler, "mediaBundleFileSize", 1024L);
+        DataType dataType = new DataType("pic", DataType.Type.MEDIA, 5);
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+        payloadToReturn = payload;
+
+        Mockito.doReturn(createMultiMediaData(11, 100))
+                .when(senderTransferDao)
+                .getMultiMediaData(dataType, 0L);
+        Mockito.doReturn(createMultiMediaData(12, 600))
+                .when(senderTransferDao)
+                .getMultiMediaData(dataType, 11L);
+        Mockito.doReturn(createMultiMediaData(13, 5000))
+                .when(senderTransferDao)
+                .getMultiMediaData(dataType, 12L);
+
+        syncSenderHandler.sendMultimediaDataManifest(dataType);
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+        assertEquals(Constants.WireFormat.MEDIA_BUNDLE, manifestCaptor.getValue().getRecordFormat());
+        assertEquals(2, manifestCaptor.getValue().getRecordsSize());
+        assertEquals(898L, manifestCaptor.getValue().getPayloadId());
+
+        HashMap<String, Long> fetchedLastRecordIds = ReflectionHelpers.getField(syncSenderHandler, "fetchedLastRecordIds");
+        assertEquals(12L, (long) fetchedLastRecordIds.get(dataType.getName()));
+        assertEquals(12L, (long) ReflectionHelpers.getField(syncSenderHandler, "awaitingDataTypeHighestId"));
+    }
+
+    @Test
+    public void sendMultimediaDataManifestShouldOnlySendChunksOfLargeMediaFileMissingOnReceiver() {
+        ReflectionHelpers.setField(syncSenderHandler, "mediaChunkSize", 100L);
+        DataType dataType = new DataType("pic", DataType.Type.MEDIA, 5);
+
+        PartialMediaFile partialMediaFile = new PartialMediaFile(dataType.getName(), 21, 250);
+        partialMediaFile.setReceivedRanges(MediaChunkUtil.addRange(partialMediaFile.getReceivedRanges(), 0, 100));
+        syncSenderHandler.setPartialMediaFiles(Collections.singletonList(partialMediaFile));
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+        payloadToReturn = payload;
+
+        Mockito.doReturn(createMultiMediaData(21, 250))
+                .when(senderTransferDao)
+                .getMultiMediaData(dataType, 0L);
+
+        syncSenderHandler.sendMultimediaDataManifest(dataType);
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingManifestTransfer", false);
+        syncSenderHandler.sendMultimediaDataManifest(dataType);
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(2))
+                .sendManifest(manifestCaptor.capture());
+
+        SyncPackageManifest firstChunkManifest = manifestCaptor.getAllValues().get(0);
+        assertEquals(Constants.WireFormat.MEDIA_CHUNKS, firstChunkManifest.getRecordFormat());
+        assertEquals(100L, firstChunkManifest.getPayloadDetails().get("chunkOffset"));
+        assertEquals(100L, firstChunkManifest.getPayloadDetails().get("chunkLength"));
+        assertEquals(false, firstChunkManifest.getPayloadDetails().get("lastChunk"));
+        assertEquals(0, firstChunkManifest.getRecordsSize());
+
+        SyncPackageManifest lastChunkManifest = manifestCaptor.getAllValues().get(1);
+        assertEquals(200L, lastChunkManifest.getPayloadDetails().get("chunkOffset"));
+        assertEquals(50L, lastChunkManifest.getPayloadDetails().get("chunkLength"));
+        assertEquals(true, lastChunkManifest.getPayloadDetails().get("lastChunk"));
+        assertEquals(1, lastChunkManifest.getRecordsSize());
+
+        HashMap<String, Long> fetchedLastRecordIds = ReflectionHelpers.getField(syncSenderHandler, "fetchedLastRecordIds");
+        assertEquals(21L, (long) fetchedLastRecordIds.get(dataType.getName()));
+        assertEquals(21L, (long) ReflectionHelpers.getField(syncSenderHandler, "awaitingDataTypeHighestId"));
+        Mockito.verify(senderTransferDao, Mockito.times(1))
+                .getMultiMediaData(Mockito.any(DataType.class), Mockito.anyLong());
+    }
+
     @Test
     public void sendJsonDataManifestShouldCallPresenterSendManifest() {
         DataType dataType = new DataType("Person", DataType.Type.NON_MEDIA, 5);
         JsonData multiMediaData = new JsonData(new JSONArray(), 8923);
 
-        Payload payload = Mockito.mock(Payload.class);
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
         Mockito.doReturn(898L)
                 .when(payload)
                 .getId();
 
-        ShadowPayload.setPayloadToReturn(payload);
+        payloadToReturn = payload;
 
         Mockito.doReturn(multiMediaData)
                 .when(senderTransferDao)
@@ -450,6 +585,720 @@ public class SyncSenderHandlerTest {
                 .sendManifest(Mockito.any(SyncPackageManifest.class));
     }
 
+    @Test
+    public void sendJsonDataManifestShouldSendManifestWithSizeOfRecords() throws Exception {
+        DataType dataType = new DataType("Person", DataType.Type.NON_MEDIA, 5);
+        JSONArray records = new JSONArray("[{\"id\":10,\"name\":\"John\"},{\"id\":11,\"name\":\"Jane\"}]");
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+
+        payloadToReturn = payload;
+
+        Mockito.doReturn(new JsonData(records, 11))
+                .when(senderTransferDao)
+                .getJsonData(Mockito.eq(dataType), Mockito.anyLong(), Mockito.anyInt());
+
+        syncSenderHandler.sendJsonDataManifest(dataType);
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+
+        long recordsSize = SyncDataConverterUtil.getSerializedSize(records);
+        assertTrue(recordsSize > 0);
+        assertEquals(recordsSize, manifestCaptor.getValue().getPayloadSize());
+        assertEquals(recordsSize, manifestCaptor.getValue().getUncompressedSize());
+    }
+
+    @Test
+    public void sendJsonDataManifestShouldPrefetchBatchesUpToSendPipelineDepth() {
+        ReflectionHelpers.setField(syncSenderHandler, "sendPipelineDepth", 2);
+        ReflectionHelpers.setField(syncSenderHandler, "batchSize", 10);
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+
+        payloadToReturn = payload;
+
+        Mockito.doReturn(new JsonData(new JSONArray(), 10))
+                .doReturn(new JsonData(new JSONArray(), 20))
+                .doReturn(new JsonData(new JSONArray(), 30))
+                .when(senderTransferDao)
+                .getJsonData(Mockito.eq(event), Mockito.anyLong(), Mockito.anyInt());
+
+        syncSenderHandler.sendJsonDataManifest(event);
+
+        Mockito.verify(senderTransferDao).getJsonData(event, 0L, 10);
+        Mockito.verify(senderTransferDao).getJsonData(event, 10L, 10);
+        Mockito.verify(senderTransferDao).getJsonData(event, 20L, 10);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(Mockito.any(SyncPackageManifest.class));
+
+        ArrayDeque<PreparedBatch> preparedBatches = ReflectionHelpers.getField(syncSenderHandler, "preparedBatches");
+        assertEquals(2, preparedBatches.size());
+        assertEquals(20L, preparedBatches.peek().getHighestRecordId());
+
+        HashMap<String, Long> remainingLastRecordIds = ReflectionHelpers.getField(syncSenderHandler, "remainingLastRecordIds");
+        assertNull(remainingLastRecordIds.get(event.getName()));
+    }
+
+    @Test
+    public void sendJsonDataManifestShouldUseBatchSizeFromBatchControllerForDataType() {
+        AdaptiveBatchController batchController = new AdaptiveBatchController(10000, 4000, 1, 1000);
+        batchController.onBatchMeasured(event.getName(), 20, 100000);
+        ReflectionHelpers.setField(syncSenderHandler, "batchController", batchController);
+        ReflectionHelpers.setField(syncSenderHandler, "adaptiveBatchSize", true);
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+
+        payloadToReturn = payload;
+
+        Mockito.doReturn(new JsonData(new JSONArray(), 2))
+                .when(senderTransferDao)
+                .getJsonData(Mockito.eq(event), Mockito.anyLong(), Mockito.anyInt());
+
+        syncSenderHandler.sendJsonDataManifest(event);
+
+        Mockito.verify(senderTransferDao).getJsonData(event, 0L, 2);
+    }
+
+    @Test
+    public void getBatchSizeShouldStartWithMaxBatchSizeFromTransferHints() {
+        TransferHints transferHints = new TransferHints();
+        transferHints.setMaxBatchSize(5);
+
+        assertEquals(20, syncSenderHandler.getBatchSize(event));
+        assertEquals(5, syncSenderHandler.getBatchSize(new DataType("person", DataType.Type.NON_MEDIA, 4, transferHints)));
+    }
+
+    @Test
+    public void sendJsonDataManifestShouldReadRecordsWithMaxBatchSizeFromTransferHints() {
+        TransferHints transferHints = new TransferHints();
+        transferHints.setMaxBatchSize(5);
+        DataType person = new DataType("person", DataType.Type.NON_MEDIA, 4, transferHints);
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(899L)
+                .when(payload)
+                .getId();
+
+        payloadToReturn = payload;
+
+        Mockito.doReturn(new JsonData(new JSONArray(), 5))
+                .when(senderTransferDao)
+                .getJsonData(Mockito.eq(person), Mockito.anyLong(), Mockito.anyInt());
+
+        syncSenderHandler.sendJsonDataManifest(person);
+
+        Mockito.verify(senderTransferDao).getJsonData(person, 0L, 5);
+    }
+
+    @Test
+    public void getBatchSizeShouldNotGrowPastMaxBatchSizeFromTransferHints() {
+        TransferHints transferHints = new TransferHints();
+        transferHints.setMaxBatchSize(30);
+        DataType lookup = new DataType("lookup", DataType.Type.NON_MEDIA, 4, transferHints);
+        ReflectionHelpers.setField(syncSenderHandler, "adaptiveBatchSize", true);
+
+        AdaptiveBatchController batchController = ReflectionHelpers.getField(syncSenderHandler, "batchController");
+        batchController.onBatchMeasured(lookup.getName(), 30, 300);
+
+        assertEquals(30, syncSenderHandler.getBatchSize(lookup));
+    }
+
+    @Test
+    public void getBatchSizeShouldKeepToMaxPayloadSizeWhenBatchSizeIsNotAdaptive() {
+        ReflectionHelpers.setField(syncSenderHandler, "adaptiveBatchSize", false);
+
+        TransferHints transferHints = new TransferHints();
+        transferHints.setMaxPayloadSize(1000);
+        DataType person = new DataType("person", DataType.Type.NON_MEDIA, 4, transferHints);
+
+        AdaptiveBatchController batchController = ReflectionHelpers.getField(syncSenderHandler, "batchController");
+        batchController.setMaxPayloadSize(person.getName(), transferHints.getMaxPayloadSize());
+        batchController.onBatchMeasured(person.getName(), 20, 20 * 200);
+        batchController.onBatchMeasured(event.getName(), 20, 20 * 200);
+
+        assertEquals(5, syncSenderHandler.getBatchSize(person));
+        assertEquals(20, syncSenderHandler.getBatchSize(event));
+    }
+
+    @Test
+    public void getPayloadEncodingShouldOnlyReturnEncodingAcceptedByReceiver() {
+        ReflectionHelpers.setField(syncSenderHandler, "payloadEncoding", Constants.Encoding.DEFLATE);
+        assertEquals(Constants.Encoding.IDENTITY, syncSenderHandler.getPayloadEncoding(event));
+
+        ReflectionHelpers.setField(syncSenderHandler, "acceptedEncodings", Arrays.asList(Constants.Encoding.GZIP, Constants.Encoding.DEFLATE));
+        assertEquals(Constants.Encoding.DEFLATE, syncSenderHandler.getPayloadEncoding(event));
+    }
+
+    @Test
+    public void getPayloadEncodingShouldFollowCompressionFromTransferHints() {
+        ReflectionHelpers.setField(syncSenderHandler, "acceptedEncodings", Arrays.asList(Constants.Encoding.GZIP, Constants.Encoding.DEFLATE));
+
+        TransferHints enabledHints = new TransferHints();
+        enabledHints.setCompression(TransferHints.Compression.ENABLED);
+        TransferHints disabledHints = new TransferHints();
+        disabledHints.setCompression(TransferHints.Compression.DISABLED);
+
+        assertEquals(Constants.Encoding.IDENTITY, syncSenderHandler.getPayloadEncoding(event));
+        assertEquals(Constants.Encoding.GZIP, syncSenderHandler.getPayloadEncoding(new DataType("person", DataType.Type.NON_MEDIA, 4, enabledHints)));
+
+        ReflectionHelpers.setField(syncSenderHandler, "payloadEncoding", Constants.Encoding.GZIP);
+        assertEquals(Constants.Encoding.IDENTITY, syncSenderHandler.getPayloadEncoding(new DataType("photo-details", DataType.Type.NON_MEDIA, 5, disabledHints)));
+    }
+
+    @Test
+    public void getPayloadEncodingShouldUseDeflateUntilDictionaryHasBeenSampled() {
+        ReflectionHelpers.setField(syncSenderHandler, "payloadEncoding", Constants.Encoding.DEFLATE_DICTIONARY);
+        ReflectionHelpers.setField(syncSenderHandler, "acceptedEncodings", Arrays.asList(Constants.Encoding.DEFLATE, Constants.Encoding.DEFLATE_DICTIONARY));
+
+        assertEquals(Constants.Encoding.DEFLATE, syncSenderHandler.getPayloadEncoding(event));
+
+        ConcurrentHashMap<String, byte[]> sampledDictionaries = ReflectionHelpers.getField(syncSenderHandler, "sampledDictionaries");
+        sampledDictionaries.put(event.getName(), "[{\"name\":\"\"}]".getBytes());
+
+        assertEquals(Constants.Encoding.DEFLATE_DICTIONARY, syncSenderHandler.getPayloadEncoding(event));
+        assertEquals(Constants.Encoding.DEFLATE, syncSenderHandler.getPayloadEncoding(client));
+    }
+
+    @Test
+    public void getPayloadEncodingShouldUseDictionaryFromTransferHints() {
+        ReflectionHelpers.setField(syncSenderHandler, "acceptedEncodings", Arrays.asList(Constants.Encoding.DEFLATE_DICTIONARY));
+
+        TransferHints transferHints = new TransferHints();
+        transferHints.setCompressionDictionary("{\"name\":\"\",\"gender\":\"\"}".getBytes());
+
+        dataSyncOrder.add(new DataType("person", DataType.Type.NON_MEDIA, 4, transferHints));
+        SyncSenderHandler handler = new SyncSenderHandler(senderPresenter, dataSyncOrder, null, Arrays.asList(Constants.Encoding.DEFLATE_DICTIONARY));
+
+        assertEquals(Constants.Encoding.DEFLATE_DICTIONARY, handler.getPayloadEncoding(dataSyncOrder.last()));
+        assertEquals(Constants.Encoding.IDENTITY, handler.getPayloadEncoding(event));
+    }
+
+    @Test
+    public void processStringShouldOnlyAdvanceRemainingLastRecordIdsOverContiguouslyAcknowledgedPayloads() {
+        Mockito.doNothing()
+                .when(syncSenderHandler)
+                .sendNextManifest();
+
+        ReflectionHelpers.setField(syncSenderHandler, "transferWindowSize", 3);
+
+        ArrayList<SyncSenderHandler.SentBatch> sentBatches = ReflectionHelpers.getField(syncSenderHandler, "sentBatches");
+        sentBatches.add(syncSenderHandler.new SentBatch(1, event.getName(), 20, 20));
+        sentBatches.add(syncSenderHandler.new SentBatch(2, event.getName(), 40, 20));
+        sentBatches.add(syncSenderHandler.new SentBatch(3, event.getName(), 60, 20));
+
+        HashMap<String, Long> remainingLastRecordIds = ReflectionHelpers.getField(syncSenderHandler, "remainingLastRecordIds");
+        remainingLastRecordIds.put(event.getName(), 0L);
+
+        syncSenderHandler.processString(Constants.Connection.PAYLOAD_RECEIVED + 2);
+        assertEquals(0L, (long) remainingLastRecordIds.get(event.getName()));
+        assertEquals(3, sentBatches.size());
+
+        syncSenderHandler.processString(Constants.Connection.PAYLOAD_RECEIVED + 1);
+        assertEquals(40L, (long) remainingLastRecordIds.get(event.getName()));
+        assertEquals(1, sentBatches.size());
+
+        Mockito.verify(syncSenderHandler, Mockito.times(2))
+                .updateTransferProgress(Mockito.eq(event.getName()), Mockito.eq(20));
+    }
+
+    @Test
+    public void processBinaryMessageShouldAcknowledgePayloadWhenMessageIsPayloadReceivedFrame() {
+        Mockito.doNothing()
+                .when(syncSenderHandler)
+                .sendNextManifest();
+
+        ArrayList<SyncSenderHandler.SentBatch> sentBatches = ReflectionHelpers.getField(syncSenderHandler, "sentBatches");
+        sentBatches.add(syncSenderHandler.new SentBatch(1, event.getName(), 20, 20));
+
+        HashMap<String, Long> remainingLastRecordIds = ReflectionHelpers.getField(syncSenderHandler, "remainingLastRecordIds");
+        remainingLastRecordIds.put(event.getName(), 0L);
+
+        syncSenderHandler.processBinaryMessage(WireFormatUtil.writePayloadReceived(1));
+
+        assertEquals(20L, (long) remainingLastRecordIds.get(event.getName()));
+        assertTrue(sentBatches.isEmpty());
+        Mockito.verify(syncSenderHandler, Mockito.times(1))
+                .updateTransferProgress(Mockito.eq(event.getName()), Mockito.eq(20));
+    }
+
+    @Test
+    public void sendNextManifestShouldWaitForAcknowledgementsWhenTransferWindowIsFull() {
+        ArrayList<SyncSenderHandler.SentBatch> sentBatches = ReflectionHelpers.getField(syncSenderHandler, "sentBatches");
+        sentBatches.add(syncSenderHandler.new SentBatch(1, event.getName(), 20, 20));
+
+        syncSenderHandler.sendNextManifest();
+
+        Mockito.verify(syncSenderHandler, Mockito.never())
+                .sendJsonDataManifest(Mockito.any(DataType.class));
+        Mockito.verify(syncSenderHandler, Mockito.never())
+                .sendMultimediaDataManifest(Mockito.any(DataType.class));
+    }
+
+    @Test
+    public void sendNextManifestShouldSendMediaLaneManifestAlongsideJsonDataManifestWhenMediaLaneIsEnabled() {
+        ReflectionHelpers.setField(syncSenderHandler, "mediaLane", true);
+        Mockito.doNothing()
+                .when(syncSenderHandler)
+                .sendJsonDataManifest(Mockito.any(DataType.class));
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(555L)
+                .when(payload)
+                .getId();
+        payloadToReturn = payload;
+
+        Mockito.doReturn(createMultiMediaData(7, 100))
+                .when(senderTransferDao)
+                .getMultiMediaData(profilePic, 0L);
+        Mockito.doReturn(556L)
+                .when(senderPresenter)
+                .sendManifest(Mockito.any(SyncPackageManifest.class));
+
+        syncSenderHandler.sendNextManifest();
+
+        Mockito.verify(syncSenderHandler, Mockito.times(1))
+                .sendJsonDataManifest(event);
+        Mockito.verify(syncSenderHandler, Mockito.never())
+                .sendMultimediaDataManifest(Mockito.any(DataType.class));
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+        assertEquals(profilePic.getName(), manifestCaptor.getValue().getDataType().getName());
+        assertEquals(555L, manifestCaptor.getValue().getPayloadId());
+
+        TransportPayloadUpdate manifestUpdate = Mockito.mock(TransportPayloadUpdate.class);
+        Mockito.doReturn(556L)
+                .when(manifestUpdate)
+                .getPayloadId();
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
+                .when(manifestUpdate)
+                .getStatus();
+        syncSenderHandler.onPayloadTransferUpdate(manifestUpdate);
+
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendPayload(payload);
+
+        Mockito.doReturn(null)
+                .when(senderTransferDao)
+                .getMultiMediaData(profilePic, 7L);
+
+        TransportPayloadUpdate payloadUpdate = Mockito.mock(TransportPayloadUpdate.class);
+        Mockito.doReturn(555L)
+                .when(payloadUpdate)
+                .getPayloadId();
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
+                .when(payloadUpdate)
+                .getStatus();
+        syncSenderHandler.onPayloadTransferUpdate(payloadUpdate);
+
+        ArrayList<SyncSenderHandler.SentBatch> sentBatches = ReflectionHelpers.getField(syncSenderHandler, "sentBatches");
+        assertEquals(1, sentBatches.size());
+        assertEquals(profilePic.getName(), sentBatches.get(0).dataTypeName);
+        assertEquals(7L, sentBatches.get(0).highestRecordId);
+    }
+
+    @Test
+    public void onPayloadTransferUpdateShouldMeasureIdentityBatchFromRecordsCountedWhileWriting() throws Exception {
+        Mockito.doNothing()
+                .when(syncSenderHandler)
+                .sendNextManifest();
+
+        AdaptiveBatchController batchController = Mockito.mock(AdaptiveBatchController.class);
+        ReflectionHelpers.setField(syncSenderHandler, "batchController", batchController);
+
+        TransportPayload awaitingPayload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(9L)
+                .when(awaitingPayload)
+                .getId();
+        Mockito.doReturn(TransportPayload.TYPE_STREAM)
+                .when(awaitingPayload)
+                .getType();
+
+        CountingOutputStream uncompressedOutput = new CountingOutputStream(new ByteArrayOutputStream());
+        uncompressedOutput.write(new byte[500]);
+
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingPayloadTransfer", true);
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingPayload", awaitingPayload);
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingDataTypeName", event.getName());
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingDataTypeRecordsBatchSize", 10);
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingEncoding", Constants.Encoding.IDENTITY);
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingUncompressedOutput", uncompressedOutput);
+
+        TransportPayloadUpdate payloadUpdate = Mockito.mock(TransportPayloadUpdate.class);
+        Mockito.doReturn(9L)
+                .when(payloadUpdate)
+                .getPayloadId();
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
+                .when(payloadUpdate)
+                .getStatus();
+        syncSenderHandler.onPayloadTransferUpdate(payloadUpdate);
+
+        Mockito.verify(batchController, Mockito.times(1))
+                .onPayloadSent(ArgumentMatchers.eq(event.getName()), ArgumentMatchers.eq(10), ArgumentMatchers.eq(500L), ArgumentMatchers.anyLong());
+    }
+
+    @Test
+    public void processStringShouldAdvanceRemainingLastRecordIdsOfEachDataTypeIndependently() {
+        Mockito.doNothing()
+                .when(syncSenderHandler)
+                .sendNextManifest();
+
+        ReflectionHelpers.setField(syncSenderHandler, "transferWindowSize", 3);
+
+        ArrayList<SyncSenderHandler.SentBatch> sentBatches = ReflectionHelpers.getField(syncSenderHandler, "sentBatches");
+        sentBatches.add(syncSenderHandler.new SentBatch(1, event.getName(), 20, 20));
+        sentBatches.add(syncSenderHandler.new SentBatch(2, profilePic.getName(), 5, 1));
+        sentBatches.add(syncSenderHandler.new SentBatch(3, event.getName(), 40, 20));
+
+        HashMap<String, Long> remainingLastRecordIds = ReflectionHelpers.getField(syncSenderHandler, "remainingLastRecordIds");
+        remainingLastRecordIds.put(event.getName(), 0L);
+        remainingLastRecordIds.put(profilePic.getName(), 0L);
+
+        syncSenderHandler.processString(Constants.Connection.PAYLOAD_RECEIVED + 3);
+        syncSenderHandler.processString(Constants.Connection.PAYLOAD_RECEIVED + 2);
+
+        assertEquals(5L, (long) remainingLastRecordIds.get(profilePic.getName()));
+        assertEquals(0L, (long) remainingLastRecordIds.get(event.getName()));
+        assertEquals(2, sentBatches.size());
+
+        syncSenderHandler.processString(Constants.Connection.PAYLOAD_RECEIVED + 1);
+
+        assertEquals(40L, (long) remainingLastRecordIds.get(event.getName()));
+        assertTrue(sentBatches.isEmpty());
+    }
+
+    @Test
+    public void sendJsonDataManifestShouldWriteBatchesAsFramesOnSingleStreamPayloadWhenFramedStreamIsAccepted() throws Exception {
+        ReflectionHelpers.setField(syncSenderHandler, "framedStream", true);
+        ReflectionHelpers.setField(syncSenderHandler, "sendPipelineDepth", 0);
+        ReflectionHelpers.setField(syncSenderHandler, "transferWindowSize", 2);
+
+        P2pModeSelectContract.View view = Mockito.mock(P2pModeSelectContract.View.class);
+        Mockito.doReturn(view)
+                .when(senderPresenter)
+                .getView();
+        Mockito.doReturn("%d %s")
+                .when(view)
+                .getString(Mockito.anyInt());
+
+        ByteArrayOutputStream framedStream = new ByteArrayOutputStream();
+        final FramedStreamWriter framedStreamWriter = new FramedStreamWriter(framedStream, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                command.run();
+            }
+        });
+        Mockito.doReturn(framedStreamWriter)
+                .when(syncSenderHandler)
+                .createFramedStreamWriter(Mockito.any(OutputStream.class));
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(700L)
+                .when(payload)
+                .getId();
+        payloadToReturn = payload;
+
+        Mockito.doReturn(new JsonData(new JSONArray("[{\"id\":10}]"), 10))
+                .doReturn(new JsonData(new JSONArray("[{\"id\":20}]"), 20))
+                .when(senderTransferDao)
+                .getJsonData(Mockito.eq(event), Mockito.anyLong(), Mockito.anyInt());
+
+        syncSenderHandler.sendJsonDataManifest(event);
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+        assertEquals(700L, manifestCaptor.getValue().getPayloadId());
+        assertEquals(Constants.WireFormat.FRAMED_STREAM, manifestCaptor.getValue().getPayloadExtension());
+        Mockito.verify(senderPresenter, Mockito.never())
+                .sendPayload(Mockito.any(TransportPayload.class));
+
+        TransportPayloadUpdate manifestUpdate = Mockito.mock(TransportPayloadUpdate.class);
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_SUCCESS)
+                .when(manifestUpdate)
+                .getStatus();
+        syncSenderHandler.onPayloadTransferUpdate(manifestUpdate);
+
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendPayload(payload);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(Mockito.any(SyncPackageManifest.class));
+
+        DataInputStream framedStreamInput = new DataInputStream(new ByteArrayInputStream(framedStream.toByteArray()));
+        BatchFrame firstFrame = WireFormatUtil.readBatchFrame(framedStreamInput);
+        BatchFrame secondFrame = WireFormatUtil.readBatchFrame(framedStreamInput);
+        assertEquals(701L, firstFrame.getSyncPackageManifest().getPayloadId());
+        assertEquals(10L, firstFrame.getHighestRecordId());
+        assertEquals("[{\"id\":10}]", new String(firstFrame.getPayload(), "UTF-8"));
+        assertEquals(702L, secondFrame.getSyncPackageManifest().getPayloadId());
+        assertEquals(20L, secondFrame.getHighestRecordId());
+
+        syncSenderHandler.processString(Constants.Connection.PAYLOAD_RECEIVED + 701L);
+
+        HashMap<String, Long> remainingLastRecordIds = ReflectionHelpers.getField(syncSenderHandler, "remainingLastRecordIds");
+        assertEquals(10L, (long) remainingLastRecordIds.get(event.getName()));
+    }
+
+    @Test
+    public void sendJsonDataManifestShouldUseJsonRecordCursorWhenSenderTransferDaoIsStreaming() {
+        StreamingSenderTransferDao streamingSenderTransferDao = Mockito.mock(StreamingSenderTransferDao.class);
+        P2PLibrary.init(new P2PLibrary.Options(RuntimeEnvironment.application, "some password", "username"
+                , authorizationService, receiverTransferDao, streamingSenderTransferDao));
+
+        DataType dataType = new DataType("Person", DataType.Type.NON_MEDIA, 5);
+        JsonRecordCursor jsonRecordCursor = Mockito.mock(JsonRecordCursor.class);
+
+        Mockito.doReturn(2)
+                .when(jsonRecordCursor)
+                .getCount();
+        Mockito.doReturn(45L)
+                .when(jsonRecordCursor)
+                .getHighestRecordId();
+        Mockito.doReturn(jsonRecordCursor)
+                .when(streamingSenderTransferDao)
+                .getJsonRecords(Mockito.eq(dataType), Mockito.anyLong(), Mockito.anyInt());
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+
+        payloadToReturn = payload;
+
+        syncSenderHandler.sendJsonDataManifest(dataType);
+
+        Mockito.verify(streamingSenderTransferDao, Mockito.never())
+                .getJsonData(Mockito.any(DataType.class), Mockito.anyLong(), Mockito.anyInt());
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+
+        assertEquals(2, manifestCaptor.getValue().getRecordsSize());
+        assertEquals(0, manifestCaptor.getValue().getPayloadSize());
+        assertEquals(45L, (long) ReflectionHelpers.getField(syncSenderHandler, "awaitingDataTypeHighestId"));
+    }
+
+    @Test
+    public void onPayloadTransferUpdateShouldSendBatchAsNewPayloadWithNewManifestWhenPayloadIsRetried() {
+        StreamingSenderTransferDao streamingSenderTransferDao = Mockito.mock(StreamingSenderTransferDao.class);
+        P2PLibrary.init(new P2PLibrary.Options(RuntimeEnvironment.application, "some password", "username"
+                , authorizationService, receiverTransferDao, streamingSenderTransferDao));
+
+        DataType dataType = new DataType("Person", DataType.Type.NON_MEDIA, 5);
+        JsonRecordCursor usedRecordCursor = Mockito.mock(JsonRecordCursor.class);
+        JsonRecordCursor reopenedRecordCursor = Mockito.mock(JsonRecordCursor.class);
+
+        Mockito.doReturn(2)
+                .when(reopenedRecordCursor)
+                .getCount();
+        Mockito.doReturn(45L)
+                .when(reopenedRecordCursor)
+                .getHighestRecordId();
+        Mockito.doReturn(reopenedRecordCursor)
+                .when(streamingSenderTransferDao)
+                .getJsonRecords(dataType, 30L, 2);
+
+        PreparedBatch preparedBatch = new PreparedBatch(dataType, usedRecordCursor, 0, 45L, 2);
+        preparedBatch.setReadFromRecordId(30L);
+
+        TransportPayload failedPayload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(9L)
+                .when(failedPayload)
+                .getId();
+
+        TransportPayload retryPayload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(10L)
+                .when(retryPayload)
+                .getId();
+        payloadToReturn = retryPayload;
+
+        TransportPayloadUpdate payloadTransferUpdate = Mockito.mock(TransportPayloadUpdate.class);
+        Mockito.doReturn(9L)
+                .when(payloadTransferUpdate)
+                .getPayloadId();
+        Mockito.doReturn(TransportPayloadUpdate.STATUS_FAILURE)
+                .when(payloadTransferUpdate)
+                .getStatus();
+
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingPayloadTransfer", true);
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingPayload", failedPayload);
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingPreparedBatch", preparedBatch);
+        ReflectionHelpers.setField(syncSenderHandler, "awaitingRecords", usedRecordCursor);
+
+        syncSenderHandler.onPayloadTransferUpdate(payloadTransferUpdate);
+
+        Mockito.verify(streamingSenderTransferDao, Mockito.times(1))
+                .getJsonRecords(dataType, 30L, 2);
+        Mockito.verify(syncSenderHandler, Mockito.never())
+                .sendNextPayload();
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+
+        assertEquals(10L, manifestCaptor.getValue().getPayloadId());
+        assertEquals(2, manifestCaptor.getValue().getRecordsSize());
+        assertEquals(retryPayload, ReflectionHelpers.getField(syncSenderHandler, "awaitingPayload"));
+        assertEquals(reopenedRecordCursor, ReflectionHelpers.getField(syncSenderHandler, "awaitingRecords"));
+        assertTrue((boolean) ReflectionHelpers.getField(syncSenderHandler, "awaitingManifestTransfer"));
+        assertFalse((boolean) ReflectionHelpers.getField(syncSenderHandler, "awaitingPayloadTransfer"));
+    }
+
+    @Test
+    public void sendJsonDataManifestShouldReadRecordsUpToNextReceivedRangeWhenSenderTransferDaoIsRanged() throws Exception {
+        RangedSenderTransferDao rangedSenderTransferDao = Mockito.mock(RangedSenderTransferDao.class);
+        P2PLibrary.init(new P2PLibrary.Options(RuntimeEnvironment.application, "some password", "username"
+                , authorizationService, receiverTransferDao, rangedSenderTransferDao));
+
+        DataType dataType = new DataType("Person", DataType.Type.NON_MEDIA, 5);
+        setReceivedRanges(dataType, 100, 200, 300);
+
+        Mockito.doReturn(new JsonData(new JSONArray("[{\"id\":120},{\"id\":150}]"), 150))
+                .when(rangedSenderTransferDao)
+                .getJsonData(Mockito.eq(dataType), Mockito.eq(100L), Mockito.eq(200L), Mockito.anyInt());
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+
+        payloadToReturn = payload;
+
+        syncSenderHandler.sendJsonDataManifest(dataType);
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+
+        assertEquals(2, manifestCaptor.getValue().getRecordsSize());
+        assertEquals(100L, (long) manifestCaptor.getValue().getPreviousRecordId());
+        assertEquals(150L, (long) manifestCaptor.getValue().getHighestRecordId());
+    }
+
+    @Test
+    public void sendJsonDataManifestShouldSkipReceivedRangeWhenGapBeforeItHasNoRecords() throws Exception {
+        RangedSenderTransferDao rangedSenderTransferDao = Mockito.mock(RangedSenderTransferDao.class);
+        P2PLibrary.init(new P2PLibrary.Options(RuntimeEnvironment.application, "some password", "username"
+                , authorizationService, receiverTransferDao, rangedSenderTransferDao));
+
+        DataType dataType = new DataType("Person", DataType.Type.NON_MEDIA, 5);
+        setReceivedRanges(dataType, 100, 200, 300);
+        ((HashMap<String, Long>) ReflectionHelpers.getField(syncSenderHandler, "fetchedLastRecordIds"))
+                .put(dataType.getName(), 150L);
+
+        Mockito.doReturn(new JsonData(new JSONArray("[{\"id\":301}]"), 301))
+                .when(rangedSenderTransferDao)
+                .getJsonData(Mockito.eq(dataType), Mockito.eq(300L), Mockito.anyInt());
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+
+        payloadToReturn = payload;
+
+        syncSenderHandler.sendJsonDataManifest(dataType);
+
+        Mockito.verify(rangedSenderTransferDao, Mockito.times(1))
+                .getJsonData(Mockito.eq(dataType), Mockito.eq(150L), Mockito.eq(200L), Mockito.anyInt());
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+
+        // The batch covers the empty gap and the received range too
+        assertEquals(150L, (long) manifestCaptor.getValue().getPreviousRecordId());
+        assertEquals(301L, (long) manifestCaptor.getValue().getHighestRecordId());
+    }
+
+    @Test
+    public void sendJsonDataManifestShouldOfferRecordDigestsAndOnlySendUnknownRecordsWhenRecordDedupIsAccepted() throws Exception {
+        ReflectionHelpers.setField(syncSenderHandler, "recordDeduplication", true);
+
+        JSONArray records = new JSONArray("[{\"id\":1},{\"id\":2},{\"id\":3}]");
+        Mockito.doReturn(new JsonData(records, 3))
+                .when(senderTransferDao)
+                .getJsonData(Mockito.eq(event), Mockito.eq(0L), Mockito.anyInt());
+
+        TransportPayload payload = Mockito.mock(TransportPayload.class);
+        Mockito.doReturn(898L)
+                .when(payload)
+                .getId();
+
+        payloadToReturn = payload;
+
+        syncSenderHandler.sendJsonDataManifest(event);
+
+        ArgumentCaptor<byte[]> offerCaptor = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendBinaryMessage(offerCaptor.capture());
+        Mockito.verify(senderPresenter, Mockito.never())
+                .sendManifest(Mockito.any(SyncPackageManifest.class));
+
+        RecordDigestOffer recordDigestOffer = WireFormatUtil.readDigestOffer(offerCaptor.getValue());
+        assertEquals(event.getName(), recordDigestOffer.getDataTypeName());
+        assertArrayEquals(RecordDigestUtil.getDigests(records), recordDigestOffer.getDigests());
+
+        // The next manifest waits for the reply
+        syncSenderHandler.sendNextManifest();
+        Mockito.verify(senderPresenter, Mockito.never())
+                .sendManifest(Mockito.any(SyncPackageManifest.class));
+
+        syncSenderHandler.processBinaryMessage(WireFormatUtil.writeDigestReply(new RecordDigestReply(
+                recordDigestOffer.getOfferId(), new boolean[]{true, false, true})));
+
+        ArgumentCaptor<SyncPackageManifest> manifestCaptor = ArgumentCaptor.forClass(SyncPackageManifest.class);
+        Mockito.verify(senderPresenter, Mockito.times(1))
+                .sendManifest(manifestCaptor.capture());
+
+        assertEquals(1, manifestCaptor.getValue().getRecordsSize());
+        assertEquals(0L, (long) manifestCaptor.getValue().getPreviousRecordId());
+        assertEquals(3L, (long) manifestCaptor.getValue().getHighestRecordId());
+
+        JsonDataRecordCursor awaitingRecords = ReflectionHelpers.getField(syncSenderHandler, "awaitingRecords");
+        assertEquals("[{\"id\":2}]", awaitingRecords.getJsonArray().toString());
+    }
+
+    @Test
+    public void processBinaryMessageShouldIgnoreDigestReplyOfAnotherOffer() throws Exception {
+        ReflectionHelpers.setField(syncSenderHandler, "recordDeduplication", true);
+
+        Mockito.doReturn(new JsonData(new JSONArray("[{\"id\":1}]"), 1))
+                .when(senderTransferDao)
+                .getJsonData(Mockito.eq(event), Mockito.eq(0L), Mockito.anyInt());
+
+        syncSenderHandler.sendJsonDataManifest(event);
+        syncSenderHandler.processBinaryMessage(WireFormatUtil.writeDigestReply(new RecordDigestReply(78L, new boolean[]{true})));
+
+        Mockito.verify(senderPresenter, Mockito.never())
+                .sendManifest(Mockito.any(SyncPackageManifest.class));
+        assertNotNull(ReflectionHelpers.getField(syncSenderHandler, "awaitingDigestReply"));
+    }
+
+    private void setReceivedRanges(@NonNull DataType dataType, long lastRecordId, long previousRecordId, long highestRecordId) {
+        RecordIdRangeSet recordIdRangeSet = new RecordIdRangeSet(lastRecordId);
+        recordIdRangeSet.add(previousRecordId, highestRecordId);
+
+        P2pReceivedHistory receivedHistory = createReceivedHistory(dataType.getName(), lastRecordId, "id");
+        receivedHistory.setReceivedRanges(recordIdRangeSet.toBytes());
+
+        ReflectionHelpers.setField(syncSenderHandler, "receivedHistory", Arrays.asList(receivedHistory));
+        ReflectionHelpers.callInstanceMethod(syncSenderHandler, "generateRecordsToSend");
+    }
+
     private P2pReceivedHistory createReceivedHistory(String entityType, long lastRecordId, String sendingDeviceId) {
         P2pReceivedHistory history = new P2pReceivedHistory();
         history.setEntityType(entityType);
@@ -459,4 +1308,18 @@ public class SyncSenderHandlerTest {
         return history;
     }
 
-}
\ No newline at end of file
+    private MultiMediaData createMultiMediaData(long recordId, long fileLength) {
+        File file = Mockito.mock(File.class);
+        Mockito.doReturn(true)
+                .when(file)
+                .exists();
+        Mockito.doReturn(fileLength)
+                .when(file)
+                .length();
+        Mockito.doReturn("image-" + recordId + ".jpg")
+                .when(file)
+                .getName();
+
+        return new MultiMediaData(file, recordId);
+    }
+}
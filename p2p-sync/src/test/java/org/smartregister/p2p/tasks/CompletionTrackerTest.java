@@ -0,0 +1,49 @@
+package org.smartregister.p2p.tasks;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class CompletionTrackerTest {
+
+    @Test
+    public void runWhenIdleShouldRunImmediatelyWhenNoTasksAreRunning() {
+        CompletionTracker completionTracker = new CompletionTracker();
+        Runnable runnable = Mockito.mock(Runnable.class);
+
+        completionTracker.runWhenIdle(runnable);
+
+        Mockito.verify(runnable, Mockito.times(1)).run();
+    }
+
+    @Test
+    public void runWhenIdleShouldRunAfterLastTaskFinishes() {
+        CompletionTracker completionTracker = new CompletionTracker();
+        Runnable runnable = Mockito.mock(Runnable.class);
+
+        completionTracker.taskStarted();
+        completionTracker.taskStarted();
+        completionTracker.runWhenIdle(runnable);
+
+        completionTracker.taskFinished();
+        Mockito.verify(runnable, Mockito.never()).run();
+        Assert.assertFalse(completionTracker.isIdle());
+
+        completionTracker.taskFinished();
+        Mockito.verify(runnable, Mockito.times(1)).run();
+        Assert.assertTrue(completionTracker.isIdle());
+    }
+
+    @Test
+    public void cancelShouldPreventWaitingRunnableFromRunning() {
+        CompletionTracker completionTracker = new CompletionTracker();
+        Runnable runnable = Mockito.mock(Runnable.class);
+
+        completionTracker.taskStarted();
+        completionTracker.runWhenIdle(runnable);
+        completionTracker.cancel();
+        completionTracker.taskFinished();
+
+        Mockito.verify(runnable, Mockito.never()).run();
+    }
+}
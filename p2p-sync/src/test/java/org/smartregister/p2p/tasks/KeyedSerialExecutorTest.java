@@ -0,0 +1,108 @@
+package org.smartregister.p2p.tasks;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+public class KeyedSerialExecutorTest {
+
+    private ArrayList<Runnable> queuedRunnables;
+    private KeyedSerialExecutor keyedSerialExecutor;
+
+    @Before
+    public void setUp() {
+        queuedRunnables = new ArrayList<>();
+        keyedSerialExecutor = new KeyedSerialExecutor(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                queuedRunnables.add(runnable);
+            }
+        }, 2);
+    }
+
+    @Test
+    public void executeShouldRunTasksWithSameKeyOneAfterTheOther() {
+        final ArrayList<String> ranTasks = new ArrayList<>();
+
+        keyedSerialExecutor.execute("event", createTask(ranTasks, "event-1"));
+        keyedSerialExecutor.execute("event", createTask(ranTasks, "event-2"));
+
+        Assert.assertEquals(1, queuedRunnables.size());
+
+        runNextQueuedRunnable();
+        Assert.assertEquals(1, queuedRunnables.size());
+
+        runNextQueuedRunnable();
+        Assert.assertEquals(0, queuedRunnables.size());
+        Assert.assertEquals("event-1", ranTasks.get(0));
+        Assert.assertEquals("event-2", ranTasks.get(1));
+    }
+
+    @Test
+    public void executeShouldRunTasksWithDifferentKeysConcurrentlyUpToMaxConcurrency() {
+        final ArrayList<String> ranTasks = new ArrayList<>();
+
+        keyedSerialExecutor.execute("event", createTask(ranTasks, "event-1"));
+        keyedSerialExecutor.execute("client", createTask(ranTasks, "client-1"));
+        keyedSerialExecutor.execute("profile-pic", createTask(ranTasks, "profile-pic-1"));
+
+        Assert.assertEquals(2, queuedRunnables.size());
+
+        runNextQueuedRunnable();
+        Assert.assertEquals(2, queuedRunnables.size());
+
+        runNextQueuedRunnable();
+        runNextQueuedRunnable();
+        Assert.assertEquals(0, queuedRunnables.size());
+        Assert.assertEquals("profile-pic-1", ranTasks.get(2));
+    }
+
+    @Test
+    public void forKeyShouldReturnExecutorThatAddsTasksUnderTheKey() {
+        final ArrayList<String> ranTasks = new ArrayList<>();
+
+        keyedSerialExecutor.forKey("event").execute(createTask(ranTasks, "event-1"));
+        keyedSerialExecutor.execute("event", createTask(ranTasks, "event-2"));
+
+        Assert.assertEquals(1, queuedRunnables.size());
+    }
+
+    @Test
+    public void executeShouldContinueWithNextTaskWhenTaskThrowsException() {
+        final ArrayList<String> ranTasks = new ArrayList<>();
+
+        keyedSerialExecutor.execute("event", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Sample error");
+            }
+        });
+        keyedSerialExecutor.execute("event", createTask(ranTasks, "event-2"));
+
+        try {
+            runNextQueuedRunnable();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        runNextQueuedRunnable();
+        Assert.assertEquals("event-2", ranTasks.get(0));
+    }
+
+    private Runnable createTask(final ArrayList<String> ranTasks, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ranTasks.add(name);
+            }
+        };
+    }
+
+    private void runNextQueuedRunnable() {
+        queuedRunnables.remove(0).run();
+    }
+}
@@ -0,0 +1,115 @@
+package org.smartregister.p2p.transport;
+
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.nearby.connection.ConnectionLifecycleCallback;
+import com.google.android.gms.nearby.connection.ConnectionResolution;
+import com.google.android.gms.nearby.connection.ConnectionsClient;
+import com.google.android.gms.nearby.connection.ConnectionsStatusCodes;
+import com.google.android.gms.nearby.connection.Payload;
+import com.google.android.gms.nearby.connection.PayloadTransferUpdate;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.android.gms.tasks.Task;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.robolectric.RobolectricTestRunner;
+import org.smartregister.p2p.callback.OnResultCallback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class NearbyTransportTest {
+
+    private ConnectionsClient connectionsClient;
+    private NearbyTransport nearbyTransport;
+
+    @Before
+    public void setUp() {
+        connectionsClient = Mockito.mock(ConnectionsClient.class);
+        nearbyTransport = new NearbyTransport(connectionsClient);
+    }
+
+    @Test
+    public void sendPayloadShouldSendWrappedNearbyPayload() {
+        Payload payload = Mockito.mock(Payload.class);
+
+        nearbyTransport.sendPayload("endpoint-id", NearbyTransport.wrap(payload));
+
+        Mockito.verify(connectionsClient, Mockito.times(1))
+                .sendPayload("endpoint-id", payload);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sendPayloadShouldThrowExceptionWhenPayloadIsFromAnotherTransport() {
+        nearbyTransport.sendPayload("endpoint-id", Mockito.mock(TransportPayload.class));
+    }
+
+    @Test
+    public void wrapShouldCopyPayloadTransferUpdate() {
+        PayloadTransferUpdate update = Mockito.mock(PayloadTransferUpdate.class);
+        Mockito.doReturn(45L).when(update).getPayloadId();
+        Mockito.doReturn(PayloadTransferUpdate.Status.IN_PROGRESS).when(update).getStatus();
+        Mockito.doReturn(300L).when(update).getBytesTransferred();
+        Mockito.doReturn(900L).when(update).getTotalBytes();
+
+        TransportPayloadUpdate transportPayloadUpdate = NearbyTransport.wrap(update);
+
+        assertEquals(45L, transportPayloadUpdate.getPayloadId());
+        assertEquals(TransportPayloadUpdate.STATUS_IN_PROGRESS, transportPayloadUpdate.getStatus());
+        assertEquals(300L, transportPayloadUpdate.getBytesTransferred());
+        assertEquals(900L, transportPayloadUpdate.getTotalBytes());
+    }
+
+    @Test
+    public void requestConnectionShouldMapConnectionResultStatus() {
+        Task<Void> task = Mockito.mock(Task.class);
+        Mockito.doReturn(task)
+                .when(connectionsClient)
+                .requestConnection(ArgumentMatchers.anyString(), ArgumentMatchers.anyString()
+                        , ArgumentMatchers.any(ConnectionLifecycleCallback.class));
+        Mockito.doReturn(task)
+                .when(task)
+                .addOnSuccessListener(ArgumentMatchers.any(OnSuccessListener.class));
+
+        Transport.ConnectionCallback connectionCallback = Mockito.mock(Transport.ConnectionCallback.class);
+        nearbyTransport.requestConnection("sender", "endpoint-id", connectionCallback, Mockito.mock(OnResultCallback.class));
+
+        ArgumentCaptor<ConnectionLifecycleCallback> callbackCaptor = ArgumentCaptor.forClass(ConnectionLifecycleCallback.class);
+        Mockito.verify(connectionsClient)
+                .requestConnection(ArgumentMatchers.eq("sender"), ArgumentMatchers.eq("endpoint-id"), callbackCaptor.capture());
+
+        callbackCaptor.getValue().onConnectionResult("endpoint-id", createConnectionResolution(ConnectionsStatusCodes.STATUS_OK));
+        callbackCaptor.getValue().onConnectionResult("endpoint-id", createConnectionResolution(ConnectionsStatusCodes.STATUS_CONNECTION_REJECTED));
+        callbackCaptor.getValue().onConnectionResult("endpoint-id", createConnectionResolution(ConnectionsStatusCodes.STATUS_ERROR));
+
+        Mockito.verify(connectionCallback).onConnectionResult("endpoint-id", Transport.CONNECTION_STATUS_OK);
+        Mockito.verify(connectionCallback).onConnectionResult("endpoint-id", Transport.CONNECTION_STATUS_REJECTED);
+        Mockito.verify(connectionCallback).onConnectionResult("endpoint-id", Transport.CONNECTION_STATUS_ERROR);
+    }
+
+    @Test
+    public void wrapShouldKeepNearbyPayload() {
+        Payload payload = Mockito.mock(Payload.class);
+        Mockito.doReturn(Payload.Type.BYTES).when(payload).getType();
+
+        TransportPayload transportPayload = NearbyTransport.wrap(payload);
+
+        assertEquals(TransportPayload.TYPE_BYTES, transportPayload.getType());
+        assertSame(payload, ((NearbyTransportPayload) transportPayload).getPayload());
+    }
+
+    private ConnectionResolution createConnectionResolution(int statusCode) {
+        Status status = Mockito.mock(Status.class);
+        Mockito.doReturn(statusCode).when(status).getStatusCode();
+
+        ConnectionResolution connectionResolution = Mockito.mock(ConnectionResolution.class);
+        Mockito.doReturn(status).when(connectionResolution).getStatus();
+
+        return connectionResolution;
+    }
+}
@@ -0,0 +1,374 @@
+package org.smartregister.p2p.transport;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.smartregister.p2p.callback.OnResultCallback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SocketTransportTest {
+
+    private static final String SERVICE_ID = "org.smartregister.p2p.test";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private int discoveryPort;
+    private SocketTransport advertiserTransport;
+    private SocketTransport discovererTransport;
+    private RecordingCallback advertiserCallback;
+    private RecordingCallback discovererCallback;
+
+    @Before
+    public void setUp() throws IOException {
+        DatagramSocket datagramSocket = new DatagramSocket(0);
+        discoveryPort = datagramSocket.getLocalPort();
+        datagramSocket.close();
+
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable runnable) {
+                runnable.run();
+            }
+        };
+
+        InetAddress loopbackAddress = InetAddress.getByName("127.0.0.1");
+        advertiserTransport = new SocketTransport(0, discoveryPort, loopbackAddress, temporaryFolder.newFolder(), directExecutor);
+        discovererTransport = new SocketTransport(0, discoveryPort, loopbackAddress, temporaryFolder.newFolder(), directExecutor);
+
+        advertiserCallback = new RecordingCallback(advertiserTransport, true);
+        discovererCallback = new RecordingCallback(discovererTransport, true);
+    }
+
+    @After
+    public void tearDown() {
+        advertiserTransport.stopAllEndpoints();
+        discovererTransport.stopAllEndpoints();
+    }
+
+    @Test
+    public void readAnnouncementShouldReturnServiceIdPortAndName() {
+        byte[] announcement = SocketTransport.createAnnouncement(SERVICE_ID, "Receiver\tdevice", 4242);
+
+        String[] fields = SocketTransport.readAnnouncement(announcement, announcement.length);
+
+        assertArrayEquals(new String[]{SERVICE_ID, "4242", "Receiver\tdevice"}, fields);
+    }
+
+    @Test
+    public void readAnnouncementShouldReturnNullWhenDataIsNotAnAnnouncement() {
+        byte[] data = "some other broadcast".getBytes();
+
+        assertNull(SocketTransport.readAnnouncement(data, data.length));
+    }
+
+    @Test
+    public void createAuthenticationTokenShouldReturnRandom128BitHexToken() {
+        String authenticationToken = advertiserTransport.createAuthenticationToken();
+
+        assertTrue(authenticationToken.matches("[0-9a-f]{32}"));
+        assertNotEquals(authenticationToken, advertiserTransport.createAuthenticationToken());
+    }
+
+    @Test
+    public void startDiscoveryShouldFindAdvertisingEndpoint() throws Exception {
+        final BlockingQueue<String> foundEndpoints = new LinkedBlockingQueue<>();
+        awaitResult(new ResultCallAction() {
+            @Override
+            public void call(@NonNull OnResultCallback onResultCallback) {
+                discovererTransport.startDiscovery(SERVICE_ID, new Transport.DiscoveryCallback() {
+                    @Override
+                    public void onEndpointFound(@NonNull String endpointId, @NonNull String endpointName) {
+                        foundEndpoints.add(endpointId + "|" + endpointName);
+                    }
+
+                    @Override
+                    public void onEndpointLost(@NonNull String endpointId) {
+                        // Not tested
+                    }
+                }, onResultCallback);
+            }
+        });
+
+        startAdvertising();
+
+        assertEquals("127.0.0.1:" + advertiserTransport.getLocalPort() + "|receiver"
+                , foundEndpoints.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requestConnectionShouldConnectWhenBothEndpointsAccept() throws Exception {
+        connect();
+
+        assertEquals("sender", advertiserCallback.initiatedEndpointNames.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(advertiserCallback.authenticationTokens.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                , discovererCallback.authenticationTokens.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requestConnectionShouldBeRejectedWhenAdvertiserRejects() throws Exception {
+        advertiserCallback = new RecordingCallback(advertiserTransport, false);
+        startAdvertising();
+
+        discovererTransport.requestConnection("sender", getAdvertiserEndpointId(), discovererCallback
+                , new RecordingResultCallback());
+
+        assertEquals(Transport.CONNECTION_STATUS_REJECTED
+                , (int) discovererCallback.connectionResults.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Transport.CONNECTION_STATUS_REJECTED
+                , (int) advertiserCallback.connectionResults.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void sendPayloadShouldDeliverBytesPayload() throws Exception {
+        connect();
+        byte[] bytes = createData(1000);
+
+        TransportPayload payload = discovererTransport.createBytesPayload(bytes);
+        discovererTransport.sendPayload(getAdvertiserEndpointId(), payload);
+
+        TransportPayload receivedPayload = advertiserCallback.receivedPayloads.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(payload.getId(), receivedPayload.getId());
+        assertEquals(TransportPayload.TYPE_BYTES, receivedPayload.getType());
+        assertArrayEquals(bytes, receivedPayload.asBytes());
+
+        assertSuccessUpdate(discovererCallback, payload.getId(), bytes.length);
+        assertSuccessUpdate(advertiserCallback, payload.getId(), bytes.length);
+    }
+
+    @Test
+    public void sendPayloadShouldDeliverStreamPayload() throws Exception {
+        connect();
+        final byte[] data = createData(3 * 1024 * 1024 + 17);
+
+        final TransportStream transportStream = discovererTransport.createStreamPayload();
+        discovererTransport.sendPayload(getAdvertiserEndpointId(), transportStream.getPayload());
+
+        Thread writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream outputStream = transportStream.getOutputStream();
+                    outputStream.write(data);
+                    outputStream.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        writerThread.start();
+
+        TransportPayload receivedPayload = advertiserCallback.receivedPayloads.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(TransportPayload.TYPE_STREAM, receivedPayload.getType());
+        assertArrayEquals(data, readFully(receivedPayload.asInputStream()));
+
+        writerThread.join();
+        assertSuccessUpdate(discovererCallback, transportStream.getPayload().getId(), data.length);
+        assertSuccessUpdate(advertiserCallback, transportStream.getPayload().getId(), data.length);
+    }
+
+    @Test
+    public void sendPayloadShouldDeliverFilePayload() throws Exception {
+        connect();
+        byte[] data = createData(2 * 1024 * 1024 + 5);
+        File file = temporaryFolder.newFile("image.jpg");
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(data);
+        fileOutputStream.close();
+
+        TransportPayload payload = discovererTransport.createFilePayload(file);
+        discovererTransport.sendPayload(getAdvertiserEndpointId(), payload);
+
+        TransportPayload receivedPayload = advertiserCallback.receivedPayloads.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(TransportPayload.TYPE_FILE, receivedPayload.getType());
+
+        assertSuccessUpdate(discovererCallback, payload.getId(), data.length);
+        assertSuccessUpdate(advertiserCallback, payload.getId(), data.length);
+        assertArrayEquals(data, readFully(new FileInputStream(receivedPayload.asFile())));
+    }
+
+    @Test
+    public void disconnectFromEndpointShouldNotifyRemoteEndpoint() throws Exception {
+        connect();
+
+        discovererTransport.disconnectFromEndpoint(getAdvertiserEndpointId());
+
+        assertNotNull(advertiserCallback.disconnectedEndpoints.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(discovererCallback.disconnectedEndpoints.isEmpty());
+    }
+
+    private void connect() throws Exception {
+        startAdvertising();
+
+        awaitResult(new ResultCallAction() {
+            @Override
+            public void call(@NonNull OnResultCallback onResultCallback) {
+                discovererTransport.requestConnection("sender", getAdvertiserEndpointId(), discovererCallback, onResultCallback);
+            }
+        });
+
+        assertEquals(Transport.CONNECTION_STATUS_OK
+                , (int) discovererCallback.connectionResults.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Transport.CONNECTION_STATUS_OK
+                , (int) advertiserCallback.connectionResults.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private void startAdvertising() throws Exception {
+        awaitResult(new ResultCallAction() {
+            @Override
+            public void call(@NonNull OnResultCallback onResultCallback) {
+                advertiserTransport.startAdvertising("receiver", SERVICE_ID, advertiserCallback, onResultCallback);
+            }
+        });
+    }
+
+    @NonNull
+    private String getAdvertiserEndpointId() {
+        return "127.0.0.1:" + advertiserTransport.getLocalPort();
+    }
+
+    private void awaitResult(@NonNull ResultCallAction resultCallAction) throws Exception {
+        RecordingResultCallback resultCallback = new RecordingResultCallback();
+        resultCallAction.call(resultCallback);
+
+        assertTrue(resultCallback.latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        if (resultCallback.exception != null) {
+            throw resultCallback.exception;
+        }
+    }
+
+    private void assertSuccessUpdate(@NonNull RecordingCallback callback, long payloadId, long bytes) throws InterruptedException {
+        TransportPayloadUpdate update;
+        do {
+            update = callback.payloadUpdates.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(update);
+        } while (update.getStatus() == TransportPayloadUpdate.STATUS_IN_PROGRESS);
+
+        assertEquals(payloadId, update.getPayloadId());
+        assertEquals(TransportPayloadUpdate.STATUS_SUCCESS, update.getStatus());
+        assertEquals(bytes, update.getBytesTransferred());
+    }
+
+    @NonNull
+    private byte[] createData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    @NonNull
+    private byte[] readFully(@NonNull InputStream inputStream) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            byteArrayOutputStream.write(buffer, 0, count);
+        }
+        inputStream.close();
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private interface ResultCallAction {
+
+        void call(@NonNull OnResultCallback onResultCallback);
+    }
+
+    private static class RecordingResultCallback implements OnResultCallback {
+
+        private CountDownLatch latch = new CountDownLatch(1);
+        private Exception exception;
+
+        @Override
+        public void onSuccess(Object object) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            exception = e;
+            latch.countDown();
+        }
+    }
+
+    private static class RecordingCallback implements Transport.ConnectionCallback, Transport.PayloadCallback {
+
+        private Transport transport;
+        private boolean accept;
+
+        private BlockingQueue<String> initiatedEndpointNames = new LinkedBlockingQueue<>();
+        private BlockingQueue<String> authenticationTokens = new LinkedBlockingQueue<>();
+        private BlockingQueue<Integer> connectionResults = new LinkedBlockingQueue<>();
+        private BlockingQueue<String> disconnectedEndpoints = new LinkedBlockingQueue<>();
+        private BlockingQueue<TransportPayload> receivedPayloads = new LinkedBlockingQueue<>();
+        private BlockingQueue<TransportPayloadUpdate> payloadUpdates = new LinkedBlockingQueue<>();
+
+        private RecordingCallback(@NonNull Transport transport, boolean accept) {
+            this.transport = transport;
+            this.accept = accept;
+        }
+
+        @Override
+        public void onConnectionInitiated(@NonNull String endpointId, @NonNull String endpointName
+                , @NonNull String authenticationToken, boolean incomingConnection) {
+            initiatedEndpointNames.add(endpointName);
+            authenticationTokens.add(authenticationToken);
+
+            if (accept) {
+                transport.acceptConnection(endpointId, this);
+            } else {
+                transport.rejectConnection(endpointId);
+            }
+        }
+
+        @Override
+        public void onConnectionResult(@NonNull String endpointId, int status) {
+            connectionResults.add(status);
+        }
+
+        @Override
+        public void onDisconnected(@NonNull String endpointId) {
+            disconnectedEndpoints.add(endpointId);
+        }
+
+        @Override
+        public void onPayloadReceived(@NonNull String endpointId, @NonNull TransportPayload payload) {
+            receivedPayloads.add(payload);
+        }
+
+        @Override
+        public void onPayloadTransferUpdate(@NonNull String endpointId, @NonNull TransportPayloadUpdate update) {
+            payloadUpdates.add(update);
+        }
+    }
+}
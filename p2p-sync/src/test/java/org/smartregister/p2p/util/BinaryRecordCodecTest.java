@@ -0,0 +1,100 @@
+package org.smartregister.p2p.util;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.smartregister.p2p.sync.data.JsonDataRecordCursor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryRecordCodecTest {
+
+    @Test
+    public void readRecordsInBatchesShouldReturnRecordsEqualToTheJsonRecords() throws Exception {
+        JSONArray records = new JSONArray("[{\"id\":1,\"name\":\"John\",\"visits\":[1,2.5,-3]},\"plain \\\"text\\\"\""
+                + ",7,null,true,{\"id\":9223372036854775807,\"name\":\"Jane\",\"nested\":{\"name\":\"\u00e9t\u00e9\",\"empty\":{}}}"
+                + ",12345678901234567890,1e3,[]]");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long bytesWritten = BinaryRecordCodec.writeRecords(new JsonDataRecordCursor(records, 0), outputStream);
+
+        final JSONArray readRecords = new JSONArray();
+        int recordsSize = BinaryRecordCodec.readRecordsInBatches(new ByteArrayInputStream(outputStream.toByteArray())
+                , 3, new SyncDataConverterUtil.OnJsonBatchReadListener() {
+                    @Override
+                    public void onJsonBatchRead(JSONArray batch) throws Exception {
+                        for (int i = 0; i < batch.length(); i++) {
+                            readRecords.put(batch.get(i));
+                        }
+                    }
+                });
+
+        final JSONArray jsonRecords = new JSONArray();
+        SyncDataConverterUtil.readJsonArrayInBatches(new ByteArrayInputStream(records.toString().getBytes("UTF-8"))
+                , 3, new SyncDataConverterUtil.OnJsonBatchReadListener() {
+                    @Override
+                    public void onJsonBatchRead(JSONArray batch) throws Exception {
+                        for (int i = 0; i < batch.length(); i++) {
+                            jsonRecords.put(batch.get(i));
+                        }
+                    }
+                });
+
+        Assert.assertEquals(outputStream.size(), bytesWritten);
+        Assert.assertEquals(records.length(), recordsSize);
+        Assert.assertEquals(jsonRecords.toString(), readRecords.toString());
+        Assert.assertEquals(Integer.class, readRecords.getJSONObject(0).get("id").getClass());
+        Assert.assertEquals(Long.class, readRecords.getJSONObject(5).get("id").getClass());
+    }
+
+    @Test
+    public void readRecordsInBatchesShouldPassRecordsToListenerInBatches() throws Exception {
+        JSONArray records = new JSONArray("[{\"id\":1},{\"id\":2},{\"id\":3}]");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BinaryRecordCodec.writeRecords(new JsonDataRecordCursor(records, 0), outputStream);
+
+        final ArrayList<JSONArray> batches = new ArrayList<>();
+        int recordsSize = BinaryRecordCodec.readRecordsInBatches(new ByteArrayInputStream(outputStream.toByteArray())
+                , 2, new SyncDataConverterUtil.OnJsonBatchReadListener() {
+                    @Override
+                    public void onJsonBatchRead(JSONArray batch) {
+                        batches.add(batch);
+                    }
+                });
+
+        Assert.assertEquals(3, recordsSize);
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(2, batches.get(0).length());
+        Assert.assertEquals(3, batches.get(1).getJSONObject(0).getInt("id"));
+    }
+
+    @Test
+    public void writeRecordsShouldBeSmallerThanJsonForRepeatedKeys() throws Exception {
+        JSONArray records = new JSONArray();
+        for (int i = 0; i < 100; i++) {
+            records.put(new JSONObject("{\"baseEntityId\":\"entity-" + i + "\",\"eventType\":\"Birth Registration\",\"version\":" + i + "}"));
+        }
+
+        long binarySize = BinaryRecordCodec.writeRecords(new JsonDataRecordCursor(records, 0), new ByteArrayOutputStream());
+
+        Assert.assertTrue(binarySize < SyncDataConverterUtil.getSerializedSize(records) / 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void readRecordsInBatchesShouldThrowExceptionWhenVersionIsNotSupported() throws Exception {
+        BinaryRecordCodec.readRecordsInBatches(new ByteArrayInputStream(new byte[]{9, 0}), 2
+                , new SyncDataConverterUtil.OnJsonBatchReadListener() {
+                    @Override
+                    public void onJsonBatchRead(JSONArray batch) {
+                        // Not reached
+                    }
+                });
+    }
+}
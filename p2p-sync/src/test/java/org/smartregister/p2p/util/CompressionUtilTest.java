@@ -0,0 +1,110 @@
+package org.smartregister.p2p.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+public class CompressionUtilTest {
+
+    private static final String RECORDS = "[{\"name\":\"John Doe\",\"gender\":\"male\"},{\"name\":\"Jane Doe\",\"gender\":\"female\"}]";
+
+    @Test
+    public void wrapInputStreamShouldReadBytesWrittenWithEachSupportedEncoding() throws Exception {
+        byte[] dictionary = "{\"name\":\"\",\"gender\":\"\"}".getBytes("UTF-8");
+
+        for (String encoding : CompressionUtil.getSupportedEncodings()) {
+            Assert.assertEquals(RECORDS, new String(decode(encode(RECORDS.getBytes("UTF-8"), encoding, dictionary), encoding, dictionary), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void wrapOutputStreamShouldCompressRepetitiveRecords() throws Exception {
+        StringBuilder records = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            records.append(RECORDS);
+        }
+
+        byte[] recordBytes = records.toString().getBytes("UTF-8");
+
+        Assert.assertTrue(encode(recordBytes, Constants.Encoding.GZIP).length * 5 < recordBytes.length);
+        Assert.assertTrue(encode(recordBytes, Constants.Encoding.DEFLATE).length * 5 < recordBytes.length);
+        Assert.assertEquals(recordBytes.length, encode(recordBytes, Constants.Encoding.IDENTITY).length);
+    }
+
+    @Test
+    public void wrapOutputStreamShouldCompressSmallRecordsBetterWithDictionary() throws Exception {
+        byte[] dictionary = RECORDS.getBytes("UTF-8");
+        byte[] record = "[{\"name\":\"Rose Wambui\",\"gender\":\"female\"}]".getBytes("UTF-8");
+
+        byte[] dictionaryEncoded = encode(record, Constants.Encoding.DEFLATE_DICTIONARY, dictionary);
+
+        Assert.assertTrue(dictionaryEncoded.length < encode(record, Constants.Encoding.DEFLATE).length);
+        Assert.assertArrayEquals(record, decode(dictionaryEncoded, Constants.Encoding.DEFLATE_DICTIONARY, dictionary));
+    }
+
+    @Test(expected = IOException.class)
+    public void wrapInputStreamShouldThrowExceptionWhenDictionaryIsMissing() throws Exception {
+        CompressionUtil.wrapInputStream(new ByteArrayInputStream(new byte[0]), Constants.Encoding.DEFLATE_DICTIONARY, null);
+    }
+
+    @Test
+    public void trimDictionaryShouldKeepEndOfLongDictionary() {
+        byte[] dictionary = new byte[Constants.MAX_COMPRESSION_DICTIONARY_SIZE + 10];
+        dictionary[dictionary.length - 1] = 7;
+
+        byte[] trimmedDictionary = CompressionUtil.trimDictionary(dictionary);
+
+        Assert.assertEquals(Constants.MAX_COMPRESSION_DICTIONARY_SIZE, trimmedDictionary.length);
+        Assert.assertEquals(7, trimmedDictionary[trimmedDictionary.length - 1]);
+    }
+
+    @Test(expected = IOException.class)
+    public void wrapInputStreamShouldThrowExceptionWhenEncodingIsNotSupported() throws Exception {
+        CompressionUtil.wrapInputStream(new ByteArrayInputStream(new byte[0]), "br");
+    }
+
+    @Test
+    public void getAcceptedEncodingsShouldReturnSupportedEncodingsInOfferedOrder() {
+        List<String> acceptedEncodings = CompressionUtil.getAcceptedEncodings(Arrays.asList("br", Constants.Encoding.DEFLATE
+                , Constants.Encoding.GZIP, Constants.Encoding.DEFLATE));
+
+        Assert.assertEquals(Arrays.asList(Constants.Encoding.DEFLATE, Constants.Encoding.GZIP), acceptedEncodings);
+        Assert.assertTrue(CompressionUtil.getAcceptedEncodings(null).isEmpty());
+    }
+
+    private byte[] encode(byte[] bytes, String encoding) throws IOException {
+        return encode(bytes, encoding, null);
+    }
+
+    private byte[] encode(byte[] bytes, String encoding, byte[] dictionary) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        OutputStream outputStream = CompressionUtil.wrapOutputStream(byteArrayOutputStream, encoding, Constants.DEFAULT_COMPRESSION_LEVEL, dictionary);
+        outputStream.write(bytes);
+        outputStream.close();
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private byte[] decode(byte[] bytes, String encoding) throws IOException {
+        return decode(bytes, encoding, null);
+    }
+
+    private byte[] decode(byte[] bytes, String encoding, byte[] dictionary) throws IOException {
+        InputStream inputStream = CompressionUtil.wrapInputStream(new ByteArrayInputStream(bytes), encoding, dictionary);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            byteArrayOutputStream.write(buffer, 0, read);
+        }
+
+        return byteArrayOutputStream.toByteArray();
+    }
+}
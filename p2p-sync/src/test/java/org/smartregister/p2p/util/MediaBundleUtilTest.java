@@ -0,0 +1,88 @@
+package org.smartregister.p2p.util;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.smartregister.p2p.sync.data.MultiMediaData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class MediaBundleUtilTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readBundleShouldReturnMediaFilesEqualToWrittenMediaFiles() throws Exception {
+        HashMap<String, String> mediaDetails = new HashMap<>();
+        mediaDetails.put("baseEntityId", "entity-1");
+
+        MultiMediaData firstMediaFile = new MultiMediaData(createFile("first.jpg", "first image"), 4L);
+        firstMediaFile.setMediaDetails(mediaDetails);
+        MultiMediaData secondMediaFile = new MultiMediaData(createFile("second.png", ""), 9L);
+
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        long bytesWritten = MediaBundleUtil.writeBundle(Arrays.asList(firstMediaFile, secondMediaFile), bundle);
+
+        final List<Long> readRecordIds = new ArrayList<>();
+        File directory = new File(temporaryFolder.getRoot(), "received");
+        List<MultiMediaData> mediaFiles = MediaBundleUtil.readBundle(new ByteArrayInputStream(bundle.toByteArray()), directory
+                , new MediaBundleUtil.OnMediaFileReadListener() {
+                    @Override
+                    public void onMediaFileRead(MultiMediaData mediaFile) {
+                        readRecordIds.add(mediaFile.getRecordId());
+                    }
+                });
+
+        Assert.assertEquals(11L, bytesWritten);
+        Assert.assertEquals(Arrays.asList(4L, 9L), readRecordIds);
+        Assert.assertEquals(2, mediaFiles.size());
+        Assert.assertEquals(directory, mediaFiles.get(0).getFile().getParentFile());
+        Assert.assertTrue(mediaFiles.get(0).getFile().getName().endsWith(".jpg"));
+        Assert.assertEquals("first image", readFile(mediaFiles.get(0).getFile()));
+        Assert.assertEquals("entity-1", mediaFiles.get(0).getMediaDetails().get("baseEntityId"));
+        Assert.assertEquals(0L, mediaFiles.get(1).getFile().length());
+        Assert.assertNull(mediaFiles.get(1).getMediaDetails());
+    }
+
+    @Test(expected = IOException.class)
+    public void readBundleShouldThrowExceptionWhenBundleEndsWithinFile() throws Exception {
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        MediaBundleUtil.writeBundle(Arrays.asList(new MultiMediaData(createFile("first.jpg", "first image"), 4L)), bundle);
+
+        byte[] bundleBytes = bundle.toByteArray();
+        MediaBundleUtil.readBundle(new ByteArrayInputStream(bundleBytes, 0, bundleBytes.length - 4)
+                , temporaryFolder.newFolder(), null);
+    }
+
+    private File createFile(String name, String contents) throws IOException {
+        File file = temporaryFolder.newFile(name);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(contents.getBytes("UTF-8"));
+        fileOutputStream.close();
+
+        return file;
+    }
+
+    private String readFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        byte[] contents = new byte[(int) randomAccessFile.length()];
+        randomAccessFile.readFully(contents);
+        randomAccessFile.close();
+
+        return new String(contents, "UTF-8");
+    }
+}
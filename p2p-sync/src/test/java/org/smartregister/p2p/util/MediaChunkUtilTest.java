@@ -0,0 +1,117 @@
+package org.smartregister.p2p.util;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.smartregister.p2p.sync.data.PartialMediaFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class MediaChunkUtilTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void addRangeShouldMergeOverlappingAndTouchingRanges() {
+        List<long[]> ranges = new ArrayList<>();
+        ranges = MediaChunkUtil.addRange(ranges, 200, 300);
+        ranges = MediaChunkUtil.addRange(ranges, 0, 100);
+        ranges = MediaChunkUtil.addRange(ranges, 500, 600);
+
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertArrayEquals(new long[]{0, 100}, ranges.get(0));
+        Assert.assertArrayEquals(new long[]{200, 300}, ranges.get(1));
+
+        ranges = MediaChunkUtil.addRange(ranges, 100, 250);
+
+        Assert.assertEquals(2, ranges.size());
+        Assert.assertArrayEquals(new long[]{0, 300}, ranges.get(0));
+        Assert.assertArrayEquals(new long[]{500, 600}, ranges.get(1));
+    }
+
+    @Test
+    public void getMissingChunksShouldSkipReceivedRanges() {
+        List<long[]> receivedRanges = new ArrayList<>();
+        receivedRanges.add(new long[]{0, 100});
+        receivedRanges.add(new long[]{150, 250});
+
+        List<long[]> missingChunks = MediaChunkUtil.getMissingChunks(420, receivedRanges, 100);
+
+        Assert.assertEquals(3, missingChunks.size());
+        Assert.assertArrayEquals(new long[]{100, 50}, missingChunks.get(0));
+        Assert.assertArrayEquals(new long[]{250, 100}, missingChunks.get(1));
+        Assert.assertArrayEquals(new long[]{350, 70}, missingChunks.get(2));
+
+        Assert.assertEquals(5, MediaChunkUtil.getMissingChunks(420, null, 100).size());
+    }
+
+    @Test
+    public void readChunkShouldResumePartialFileUntilItIsComplete() throws Exception {
+        File mediaFile = createFile("video.mp4", "0123456789abcdefghij");
+        File directory = new File(temporaryFolder.getRoot(), "partial");
+
+        MediaChunkUtil.readChunk(readChunk(mediaFile, 10, 10), directory, new PartialMediaFile("video", 7, 20), 10, 10);
+
+        // The received ranges are read back as they would be after reconnecting
+        List<PartialMediaFile> partialMediaFiles = MediaChunkUtil.getPartialMediaFiles(directory);
+        Assert.assertEquals(1, partialMediaFiles.size());
+        Assert.assertFalse(MediaChunkUtil.isComplete(partialMediaFiles.get(0)));
+
+        List<long[]> missingChunks = MediaChunkUtil.getMissingChunks(20, partialMediaFiles.get(0).getReceivedRanges(), 10);
+        Assert.assertEquals(1, missingChunks.size());
+        Assert.assertArrayEquals(new long[]{0, 10}, missingChunks.get(0));
+
+        PartialMediaFile partialMediaFile = MediaChunkUtil.readChunk(readChunk(mediaFile, 0, 10), directory
+                , new PartialMediaFile("video", 7, 20), 0, 10);
+        Assert.assertTrue(MediaChunkUtil.isComplete(partialMediaFile));
+
+        File receivedFile = MediaChunkUtil.completePartialFile(directory, partialMediaFile, ".mp4");
+
+        Assert.assertTrue(receivedFile.getName().endsWith(".mp4"));
+        Assert.assertEquals("0123456789abcdefghij", readFile(receivedFile));
+        Assert.assertTrue(MediaChunkUtil.getPartialMediaFiles(directory).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void readChunkShouldThrowExceptionWhenChunkEndsEarly() throws Exception {
+        MediaChunkUtil.readChunk(new ByteArrayInputStream(new byte[5]), temporaryFolder.getRoot()
+                , new PartialMediaFile("video", 7, 20), 0, 10);
+    }
+
+    private ByteArrayInputStream readChunk(File file, long offset, long length) throws IOException {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        MediaChunkUtil.writeChunk(file, offset, length, chunk);
+
+        return new ByteArrayInputStream(chunk.toByteArray());
+    }
+
+    private File createFile(String name, String content) throws IOException {
+        File file = temporaryFolder.newFile(name);
+        FileOutputStream fileOutputStream = new FileOutputStream(file);
+        fileOutputStream.write(content.getBytes("UTF-8"));
+        fileOutputStream.close();
+
+        return file;
+    }
+
+    private String readFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        byte[] bytes = new byte[(int) randomAccessFile.length()];
+        randomAccessFile.readFully(bytes);
+        randomAccessFile.close();
+
+        return new String(bytes, "UTF-8");
+    }
+}
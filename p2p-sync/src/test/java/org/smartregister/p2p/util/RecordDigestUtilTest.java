@@ -0,0 +1,25 @@
+package org.smartregister.p2p.util;
+
+import org.json.JSONArray;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class RecordDigestUtilTest {
+
+    @Test
+    public void getDigestsShouldReturnSameDigestForSameRecordText() throws Exception {
+        JSONArray records = new JSONArray("[{\"id\":1,\"type\":\"Birth\"},{\"id\":2,\"type\":\"Birth\"},\"text\"]");
+        long[] digests = RecordDigestUtil.getDigests(records);
+
+        Assert.assertEquals(3, digests.length);
+        Assert.assertEquals(RecordDigestUtil.getDigest("{\"id\":1,\"type\":\"Birth\"}"), digests[0]);
+        Assert.assertEquals(RecordDigestUtil.getDigest("\"text\""), digests[2]);
+        Assert.assertNotEquals(digests[0], digests[1]);
+
+        // The records read back from their JSON text get the same digests
+        Assert.assertArrayEquals(digests, RecordDigestUtil.getDigests(new JSONArray(records.toString())));
+    }
+}
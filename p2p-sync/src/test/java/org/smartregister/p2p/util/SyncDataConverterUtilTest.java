@@ -1,11 +1,16 @@
 package org.smartregister.p2p.util;
 
+import org.json.JSONArray;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.smartregister.p2p.sync.data.JsonDataRecordCursor;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -25,4 +30,46 @@ public class SyncDataConverterUtilTest {
         String actual = SyncDataConverterUtil.generateSummaryReport(RuntimeEnvironment.application, false, transferItems);
         Assert.assertEquals("1,079 records received", actual);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void writeJsonArrayShouldWriteRecordsAndReturnNumberOfBytesWritten() throws Exception {
+        JSONArray records = new JSONArray("[{\"name\":\"John\",\"visits\":[1,2]},{\"name\":\"Jane\"}]");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long bytesWritten = SyncDataConverterUtil.writeJsonArray(records, outputStream);
+
+        Assert.assertEquals(outputStream.size(), bytesWritten);
+        Assert.assertEquals(bytesWritten, SyncDataConverterUtil.getSerializedSize(records));
+        Assert.assertEquals(records.toString(), new JSONArray(outputStream.toString("UTF-8")).toString());
+    }
+
+    @Test
+    public void readJsonArrayInBatchesShouldPassRecordsToListenerInBatches() throws Exception {
+        JSONArray records = new JSONArray("[{\"id\":1},{\"id\":2,\"tags\":[\"a\",null]},{\"id\":3,\"weight\":2.5}]");
+        final ArrayList<JSONArray> batches = new ArrayList<>();
+
+        int recordsSize = SyncDataConverterUtil.readJsonArrayInBatches(new ByteArrayInputStream(records.toString().getBytes("UTF-8"))
+                , 2, new SyncDataConverterUtil.OnJsonBatchReadListener() {
+                    @Override
+                    public void onJsonBatchRead(JSONArray batch) {
+                        batches.add(batch);
+                    }
+                });
+
+        Assert.assertEquals(3, recordsSize);
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(2, batches.get(0).length());
+        Assert.assertEquals(records.getJSONObject(2).toString(), batches.get(1).getJSONObject(0).toString());
+    }
+
+    @Test
+    public void writeJsonRecordsShouldWriteEachRecordFromCursor() throws Exception {
+        JSONArray records = new JSONArray("[{\"id\":1},\"plain \\\"text\\\"\",7,null]");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long bytesWritten = SyncDataConverterUtil.writeJsonRecords(new JsonDataRecordCursor(records, 7), outputStream);
+
+        Assert.assertEquals(outputStream.size(), bytesWritten);
+        Assert.assertEquals(records.toString(), new JSONArray(outputStream.toString("UTF-8")).toString());
+    }
+}
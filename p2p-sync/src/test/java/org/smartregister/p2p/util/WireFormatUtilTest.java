@@ -0,0 +1,172 @@
+package org.smartregister.p2p.util;
+
+import android.util.Base64;
+
+import com.google.gson.Gson;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.sync.data.BatchFrame;
+import org.smartregister.p2p.sync.data.RecordDigestOffer;
+import org.smartregister.p2p.sync.data.RecordDigestReply;
+import org.smartregister.p2p.sync.data.SyncPackageManifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+@RunWith(RobolectricTestRunner.class)
+public class WireFormatUtilTest {
+
+    @Test
+    public void readManifestShouldReturnManifestEqualToWrittenManifest() throws Exception {
+        SyncPackageManifest manifest = new SyncPackageManifest(89L, "json"
+                , new DataType("event", DataType.Type.NON_MEDIA, 2), 50);
+        manifest.setPayloadSize(0);
+        manifest.setUncompressedSize(4096);
+        manifest.setEncoding(Constants.Encoding.DEFLATE_DICTIONARY);
+        manifest.setDictionary(Base64.encodeToString("{\"eventType\":".getBytes("UTF-8"), Base64.NO_WRAP));
+        manifest.setRecordFormat(Constants.WireFormat.BINARY_RECORDS);
+
+        byte[] frame = WireFormatUtil.writeManifest(manifest);
+        SyncPackageManifest readManifest = WireFormatUtil.readManifest(frame);
+
+        Assert.assertTrue(WireFormatUtil.isBinaryFrame(frame));
+        Assert.assertEquals(WireFormatUtil.MESSAGE_MANIFEST, WireFormatUtil.getMessageType(frame));
+        Assert.assertEquals(new Gson().toJson(manifest), new Gson().toJson(readManifest));
+        Assert.assertTrue(frame.length < new Gson().toJson(manifest).length());
+    }
+
+    @Test
+    public void readManifestShouldReturnPayloadDetailsOfMediaManifest() throws Exception {
+        HashMap<String, Object> payloadDetails = new HashMap<>();
+        payloadDetails.put("fileRecordId", 78L);
+        payloadDetails.put("fileType", "png");
+
+        SyncPackageManifest manifest = new SyncPackageManifest(5L, "png"
+                , new DataType("profile-pic", DataType.Type.MEDIA, 3), 1);
+        manifest.setPayloadSize(2048);
+        manifest.setPayloadDetails(payloadDetails);
+
+        SyncPackageManifest readManifest = WireFormatUtil.readManifest(WireFormatUtil.writeManifest(manifest));
+
+        Assert.assertEquals(DataType.Type.MEDIA, readManifest.getDataType().getType());
+        Assert.assertEquals(2048, readManifest.getPayloadSize());
+        Assert.assertNull(readManifest.getEncoding());
+        Assert.assertNull(readManifest.getRecordFormat());
+        Assert.assertEquals("png", readManifest.getPayloadDetails().get("fileType"));
+        Assert.assertEquals(78D, readManifest.getPayloadDetails().get("fileRecordId"));
+    }
+
+    @Test
+    public void readManifestShouldReturnRecordIdRangeOfBatch() throws Exception {
+        SyncPackageManifest manifest = new SyncPackageManifest(89L, "json"
+                , new DataType("event", DataType.Type.NON_MEDIA, 2), 50);
+        manifest.setRecordIdRange(300L, 450L);
+
+        SyncPackageManifest readManifest = WireFormatUtil.readManifest(WireFormatUtil.writeManifest(manifest));
+
+        Assert.assertEquals(300L, (long) readManifest.getPreviousRecordId());
+        Assert.assertEquals(450L, (long) readManifest.getHighestRecordId());
+    }
+
+    @Test
+    public void readDigestOfferAndReplyShouldReturnWrittenOfferAndReply() throws Exception {
+        long[] digests = {-1L, 0L, 8923892389L};
+        RecordDigestOffer readOffer = WireFormatUtil.readDigestOffer(WireFormatUtil.writeDigestOffer(
+                new RecordDigestOffer(12L, "event", digests)));
+
+        Assert.assertEquals(12L, readOffer.getOfferId());
+        Assert.assertEquals("event", readOffer.getDataTypeName());
+        Assert.assertArrayEquals(digests, readOffer.getDigests());
+
+        boolean[] knownRecords = new boolean[11];
+        knownRecords[0] = true;
+        knownRecords[9] = true;
+        byte[] reply = WireFormatUtil.writeDigestReply(new RecordDigestReply(12L, knownRecords));
+        RecordDigestReply readReply = WireFormatUtil.readDigestReply(reply);
+
+        Assert.assertEquals(WireFormatUtil.MESSAGE_DIGEST_REPLY, WireFormatUtil.getMessageType(reply));
+        Assert.assertEquals(12L, readReply.getOfferId());
+        Assert.assertTrue(Arrays.equals(knownRecords, readReply.getKnownRecords()));
+        // Header, offer id, size and a bit for each record
+        Assert.assertEquals(3 + 8 + 4 + 2, reply.length);
+    }
+
+    @Test(expected = IOException.class)
+    public void readDigestOfferShouldThrowExceptionWhenDigestsAreMissing() throws Exception {
+        byte[] offer = WireFormatUtil.writeDigestOffer(new RecordDigestOffer(12L, "event", new long[]{1L, 2L}));
+        WireFormatUtil.readDigestOffer(Arrays.copyOf(offer, offer.length - 8));
+    }
+
+    @Test
+    public void readPayloadReceivedShouldReturnWrittenPayloadId() throws Exception {
+        byte[] frame = WireFormatUtil.writePayloadReceived(-8938923L);
+
+        Assert.assertEquals(WireFormatUtil.MESSAGE_PAYLOAD_RECEIVED, WireFormatUtil.getMessageType(frame));
+        Assert.assertEquals(-8938923L, WireFormatUtil.readPayloadReceived(frame));
+    }
+
+    @Test(expected = IOException.class)
+    public void readManifestShouldThrowExceptionWhenFrameIsOfAnotherType() throws Exception {
+        WireFormatUtil.readManifest(WireFormatUtil.writeSyncComplete());
+    }
+
+    @Test
+    public void isBinaryFrameShouldReturnFalseForTextMessages() {
+        Assert.assertFalse(WireFormatUtil.isBinaryFrame(Constants.Connection.SYNC_COMPLETE.getBytes()));
+        Assert.assertFalse(WireFormatUtil.isBinaryFrame("{\"payloadId\":1}".getBytes()));
+        Assert.assertEquals(0, WireFormatUtil.getMessageType(Constants.Connection.SYNC_COMPLETE.getBytes()));
+    }
+
+    @Test
+    public void getAcceptedWireFormatsShouldIgnoreUnknownWireFormats() {
+        Assert.assertEquals(Arrays.asList(Constants.WireFormat.BINARY_RECORDS)
+                , WireFormatUtil.getAcceptedWireFormats(Arrays.asList("binary-frames-v9", Constants.WireFormat.BINARY_RECORDS, 1)));
+        Assert.assertTrue(WireFormatUtil.getAcceptedWireFormats(null).isEmpty());
+    }
+
+    @Test
+    public void readBatchFrameShouldReturnFramesInOrderAndNullAtEndOfStream() throws Exception {
+        DataType event = new DataType("event", DataType.Type.NON_MEDIA, 1);
+        ByteArrayOutputStream framedStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(framedStream);
+        WireFormatUtil.writeBatchFrame(out, new BatchFrame(new SyncPackageManifest(11L, "json", event, 2), 40L
+                , "[{},{}]".getBytes("UTF-8")));
+        WireFormatUtil.writeBatchFrame(out, new BatchFrame(new SyncPackageManifest(12L, "json", event, 1), 41L
+                , "[{}]".getBytes("UTF-8")));
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(framedStream.toByteArray()));
+        BatchFrame firstFrame = WireFormatUtil.readBatchFrame(in);
+        BatchFrame secondFrame = WireFormatUtil.readBatchFrame(in);
+
+        Assert.assertEquals(11L, firstFrame.getSyncPackageManifest().getPayloadId());
+        Assert.assertEquals(2, firstFrame.getSyncPackageManifest().getRecordsSize());
+        Assert.assertEquals(40L, firstFrame.getHighestRecordId());
+        Assert.assertEquals("[{},{}]", new String(firstFrame.getPayload(), "UTF-8"));
+        Assert.assertEquals(12L, secondFrame.getSyncPackageManifest().getPayloadId());
+        Assert.assertEquals(41L, secondFrame.getHighestRecordId());
+        Assert.assertNull(WireFormatUtil.readBatchFrame(in));
+    }
+
+    @Test(expected = EOFException.class)
+    public void readBatchFrameShouldThrowExceptionWhenStreamEndsWithinFrame() throws Exception {
+        ByteArrayOutputStream framedStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(framedStream);
+        WireFormatUtil.writeBatchFrame(out, new BatchFrame(new SyncPackageManifest(11L, "json"
+                , new DataType("event", DataType.Type.NON_MEDIA, 1), 2), 40L, "[{},{}]".getBytes("UTF-8")));
+        out.flush();
+
+        byte[] frame = framedStream.toByteArray();
+        WireFormatUtil.readBatchFrame(new DataInputStream(new ByteArrayInputStream(frame, 0, frame.length - 3)));
+    }
+}
@@ -6,6 +6,7 @@ import android.support.annotation.Nullable;
 
 import org.json.JSONArray;
 import org.smartregister.p2p.model.DataType;
+import org.smartregister.p2p.model.TransferHints;
 import org.smartregister.p2p.model.dao.SenderTransferDao;
 import org.smartregister.p2p.sample.util.Constants;
 import org.smartregister.p2p.sync.data.JsonData;
@@ -60,8 +61,15 @@ public class SampleSenderDao implements SenderTransferDao {
     @Override
     public TreeSet<DataType> getDataTypes() {
         TreeSet<DataType> dataTypes = new TreeSet<>();
-        dataTypes.add(new DataType(Constants.NAMES, DataType.Type.NON_MEDIA, 0));
-        dataTypes.add(new DataType(Constants.PERSONAL_DETAIL, DataType.Type.NON_MEDIA, 1));
+        // Each personal detail record is about 100 KB while the names are only a few bytes
+        TransferHints personalDetailHints = new TransferHints();
+        personalDetailHints.setMaxBatchSize(5);
+
+        TransferHints nameHints = new TransferHints();
+        nameHints.setMaxBatchSize(500);
+
+        dataTypes.add(new DataType(Constants.NAMES, DataType.Type.NON_MEDIA, 0, nameHints));
+        dataTypes.add(new DataType(Constants.PERSONAL_DETAIL, DataType.Type.NON_MEDIA, 1, personalDetailHints));
         dataTypes.add(new DataType(Constants.PROFILE_PIC, DataType.Type.MEDIA, 2));
 
         return dataTypes;